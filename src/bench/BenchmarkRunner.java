@@ -0,0 +1,192 @@
+package bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * BenchmarkRunner is a small stand-in for JMH, which this project does not depend on. It runs
+ * each benchmark for a number of timed warmup iterations, then timed measurement iterations,
+ * and reports the mean time per operation with its error (three standard errors), the
+ * throughput, and the heap allocated per operation by all threads. Results can be saved and
+ * compared against a saved baseline, so a change can be judged against the numbers from
+ * before it.
+ *
+ * It does not fork a JVM per benchmark the way JMH does; run the suite on a quiet machine and
+ * compare runs made the same way.
+ */
+final class BenchmarkRunner {
+    /**
+     * The body of a benchmark. The returned value is kept so the JIT cannot drop the work.
+     */
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    private static volatile Object sink; // Receives every result, see Operation
+
+    private final PrintStream out;
+    private final Pattern filter;
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final Map<String, Double> baseline; // ns/op by benchmark name, empty without one
+    private final Map<String, Double> results; // ns/op by benchmark name, in run order
+
+    /**
+     * The constructor that sets how benchmarks are run.
+     *
+     * @param out                   the stream to report to
+     * @param filter                only benchmarks whose name contains a match are run
+     * @param warmupIterations      the number of iterations before measuring
+     * @param measurementIterations the number of measured iterations
+     * @param iterationMillis       how long each iteration runs
+     * @param baselineFile          a file written by save() to compare with, or null
+     * @throws IOException if the baseline cannot be read
+     */
+    BenchmarkRunner(PrintStream out, Pattern filter, int warmupIterations, int measurementIterations,
+                    long iterationMillis, Path baselineFile) throws IOException {
+        this.out = out;
+        this.filter = filter;
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationMillis * 1_000_000;
+        this.baseline = new LinkedHashMap<String, Double>();
+        this.results = new LinkedHashMap<String, Double>();
+        if (baselineFile != null) {
+            for (String line : Files.readAllLines(baselineFile)) {
+                String[] fields = line.split("\t");
+                if (fields.length == 2) {
+                    baseline.put(fields[0], Double.parseDouble(fields[1]));
+                }
+            }
+        }
+        out.printf("%-46s %14s %10s %14s %12s%s%n", "Benchmark", "ns/op", "error", "ops/s", "B/op",
+                baseline.isEmpty() ? "" : "   vs baseline");
+    }
+
+    /**
+     * Returns whether a benchmark will be run, so callers can skip expensive setup.
+     *
+     * @param name the benchmark name
+     * @return true if the name matches the filter
+     */
+    boolean wants(String name) {
+        return filter.matcher(name).find();
+    }
+
+    /**
+     * Runs one benchmark whose operation does one unit of work per call.
+     *
+     * @param name      the benchmark name, group.case by convention
+     * @param operation the work to measure
+     * @throws Exception if the operation fails
+     */
+    void run(String name, Operation operation) throws Exception {
+        run(name, 1, operation);
+    }
+
+    /**
+     * Runs one benchmark whose operation does several units of work per call, and reports
+     * per unit, like JMH's @OperationsPerInvocation.
+     *
+     * @param name              the benchmark name, group.case by convention
+     * @param opsPerInvocation  the units of work done by each call
+     * @param operation         the work to measure
+     * @throws Exception if the operation fails
+     */
+    void run(String name, int opsPerInvocation, Operation operation) throws Exception {
+        if (!wants(name)) {
+            return;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            iterate(operation);
+        }
+        double[] nanosPerOp = new double[measurementIterations];
+        long operations = 0;
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < measurementIterations; i++) {
+            long[] iteration = iterate(operation);
+            operations += iteration[0] * opsPerInvocation;
+            nanosPerOp[i] = iteration[1] / (double) (iteration[0] * opsPerInvocation);
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value;
+        }
+        mean /= nanosPerOp.length;
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean);
+        }
+        double error = nanosPerOp.length > 1
+                ? 3 * Math.sqrt(variance / (nanosPerOp.length - 1)) / Math.sqrt(nanosPerOp.length) : Double.NaN;
+        results.put(name, mean);
+
+        String comparison = "";
+        Double before = baseline.get(name);
+        if (before != null) {
+            comparison = String.format("   %+.1f%%", (mean - before) / before * 100);
+        }
+        out.printf("%-46s %14.1f %10.1f %14.0f %12.0f%s%n", name, mean, error, 1e9 / mean,
+                allocated / (double) operations, comparison);
+    }
+
+    /**
+     * Writes the results so far for a later run to compare with.
+     *
+     * @param file the file to write
+     * @throws IOException if writing fails
+     */
+    void save(Path file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            lines.add(result.getKey() + "\t" + result.getValue());
+        }
+        Files.write(file, lines);
+    }
+
+    /**
+     * Runs the operation until the iteration time is up.
+     *
+     * @return the number of calls and the nanoseconds they took
+     */
+    private long[] iterate(Operation operation) throws Exception {
+        long calls = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink = operation.run();
+            calls++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return new long[]{calls, elapsed};
+    }
+
+    /**
+     * Sums the heap allocated so far by all live threads, or returns 0 where the JVM cannot
+     * tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,153 @@
+package bench;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import data.AesGcmCipherProvider;
+import data.CipherProvider;
+import data.VigenereCipherProvider;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the cost per byte of the cipher providers: the Vigenere cipher as ClackData used
+ * to implement it on Strings, the same cipher through VigenereCipherProvider, and AES-GCM
+ * through AesGcmCipherProvider on Strings (with Base64) and on heap and direct ByteBuffers.
+ * Each case is run with BenchmarkRunner and reported per byte, so ns/op is nanoseconds per
+ * byte, ops/s is bytes per second and B/op is heap allocated per byte. The report starts
+ * with whether HotSpot's AES and GHASH intrinsics are on.
+ *
+ * The old String cipher is quadratic, so it is only run on the smaller sizes. Names are
+ * cipherBytes.case.size, so --filter=aesGcm selects part of the cases. Save a run with
+ * --save=file and compare a later one with --baseline=file.
+ *
+ * java -XX:+UnlockDiagnosticVMOptions bench.CipherBenchmark [--filter=regex] [--warmup=N]
+ * [--iterations=N] [--time=ms] [--save=file] [--baseline=file]
+ */
+public class CipherBenchmark {
+    private static final int[] SIZES = {64, 1024, 64 * 1024};
+    private static final int LEGACY_MAX_SIZE = 1024;
+
+    public static void main(String[] args) throws Exception {
+        String filter = "";
+        int warmup = 3;
+        int iterations = 5;
+        long time = 1000;
+        Path save = null;
+        Path baseline = null;
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--filter=")) {
+                    filter = arg.substring("--filter=".length());
+                } else if (arg.startsWith("--warmup=")) {
+                    warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+                } else if (arg.startsWith("--iterations=")) {
+                    iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+                } else if (arg.startsWith("--time=")) {
+                    time = Long.parseLong(arg.substring("--time=".length()));
+                } else if (arg.startsWith("--save=")) {
+                    save = Paths.get(arg.substring("--save=".length()));
+                } else if (arg.startsWith("--baseline=")) {
+                    baseline = Paths.get(arg.substring("--baseline=".length()));
+                } else {
+                    throw new IllegalArgumentException(arg);
+                }
+            }
+        } catch (IllegalArgumentException iae) {
+            System.err.println("Usage: CipherBenchmark [--filter=regex] [--warmup=N] [--iterations=N] [--time=ms]"
+                    + " [--save=file] [--baseline=file]");
+            return;
+        }
+
+        HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        for (String option : new String[]{"UseAES", "UseAESIntrinsics", "UseAESCTRIntrinsics", "UseGHASHIntrinsics"}) {
+            try {
+                System.out.println(option + ": " + hotSpot.getVMOption(option).getValue());
+            } catch (IllegalArgumentException iae) {
+                // Diagnostic options are only visible with -XX:+UnlockDiagnosticVMOptions.
+            }
+        }
+        System.out.println();
+
+        BenchmarkRunner runner = new BenchmarkRunner(System.out, Pattern.compile(filter), warmup, iterations,
+                time, baseline);
+        CipherProvider vigenere = new VigenereCipherProvider("RAMP");
+        CipherProvider aes = AesGcmCipherProvider.fromPassphrase("RAMP".toCharArray());
+        for (int size : SIZES) {
+            String text = text(size);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (size <= LEGACY_MAX_SIZE) {
+                runner.run("cipherBytes.legacyVigenereString." + size, size, () -> legacyEncrypt(text, "RAMP"));
+            }
+            runner.run("cipherBytes.vigenereString." + size, size, () -> vigenere.encrypt(text));
+            runner.run("cipherBytes.vigenereHeapBuffer." + size, size, buffers(vigenere, bytes, false));
+            runner.run("cipherBytes.aesGcmString." + size, size, () -> aes.encrypt(text));
+            runner.run("cipherBytes.aesGcmHeapBuffer." + size, size, buffers(aes, bytes, false));
+            runner.run("cipherBytes.aesGcmDirectBuffer." + size, size, buffers(aes, bytes, true));
+        }
+        if (save != null) {
+            runner.save(save);
+        }
+    }
+
+    /**
+     * Returns an operation that encrypts the bytes from one buffer into another, both heap or
+     * both direct, reusing them on every call.
+     */
+    private static BenchmarkRunner.Operation buffers(CipherProvider cipher, byte[] bytes, boolean direct) {
+        ByteBuffer in = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+        in.put(bytes).flip();
+        int outLength = bytes.length + cipher.getOverhead();
+        ByteBuffer out = direct ? ByteBuffer.allocateDirect(outLength) : ByteBuffer.allocate(outLength);
+        return () -> {
+            in.rewind();
+            out.clear();
+            cipher.encrypt(in, out);
+            return out;
+        };
+    }
+
+    private static String text(int size) {
+        String words = "the quick brown fox jumps over the lazy dog, Pack My Box With Five Dozen Liquor Jugs. ";
+        StringBuilder text = new StringBuilder(size);
+        Random random = new Random(9);
+        while (text.length() < size) {
+            text.append(words.charAt(random.nextInt(words.length())));
+        }
+        return text.toString();
+    }
+
+    /**
+     * ClackData.encrypt() as it was before VigenereCipher, for comparison.
+     */
+    private static String legacyEncrypt( String inputStringtoEncrypt, String key ){
+        String resultString = "";
+        String alphabet = "abcdefghijklmnopqrstuvwxyz";
+        int ind = 0;
+
+        if(key == null){ key = "a"; }
+
+        if(inputStringtoEncrypt == null){ return ""; }
+
+        for(int i = 0; i < inputStringtoEncrypt.length(); i++){
+            String s = inputStringtoEncrypt.split("")[i];
+            int k = alphabet.indexOf(key.toLowerCase().split("")[ind % key.length()]);
+
+            if(alphabet.contains(s)){
+                resultString += alphabet.split("")[(alphabet.indexOf(s) + k) % 26];
+                ++ind;
+            } else if (alphabet.toUpperCase().contains(s)) {
+                resultString += alphabet.split("")[(alphabet.toUpperCase().indexOf(s) + k) % 26];
+                ++ind;
+            } else {
+                resultString += s;
+            }
+        }
+
+        return resultString;
+    }
+}
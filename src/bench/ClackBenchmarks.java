@@ -0,0 +1,358 @@
+package bench;
+
+import data.AesGcmCipherProvider;
+import data.CipherProvider;
+import data.ClackData;
+import data.FileClackData;
+import data.ListUsersClackData;
+import data.MessageClackData;
+import data.VigenereCipherProvider;
+import main.AsyncLog;
+import main.ClackServer;
+import main.FrameCodec;
+import main.LogLevel;
+import main.MessageLog;
+import main.ServerMode;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**
+ * The baseline benchmark suite for the data and networking hot paths, run with
+ * BenchmarkRunner:
+ * <ul>
+ *     <li>serialization: encoding and decoding frames with Java serialization (the serialized
+ *     codec, which the object stream shares) and with the binary ClackDataCodec</li>
+ *     <li>cipher: encrypting and decrypting Strings with the Vigenere and AES-GCM providers</li>
+ *     <li>file: FileClackData reading and writing a file, plain and encrypted</li>
+ *     <li>listUsers: ListUsersClackData.getData() for a small and a large server</li>
+ *     <li>history: appending to and reading from a MessageLog in a temporary directory</li>
+ *     <li>broadcast: one client's messages fanned out by an in-process ClackServer, blocking and
+ *     NIO, to N framed clients over loopback, measured per message until every client has it</li>
+ * </ul>
+ * Names are group.case.parameter, so --filter=cipher or --filter=broadcast\.nio selects part of
+ * the suite. Save a run with --save=file and compare a later one with --baseline=file.
+ *
+ * java bench.ClackBenchmarks [--filter=regex] [--warmup=N] [--iterations=N] [--time=ms]
+ * [--clients=N] [--port=N] [--save=file] [--baseline=file]
+ */
+public class ClackBenchmarks {
+    private static final String KEY = "RAMP";
+    private static final int BROADCAST_BATCH = 64; // Messages sent per invocation, within the outbound queue limit
+
+    public static void main(String[] args) throws Exception {
+        String filter = "";
+        int warmup = 3;
+        int iterations = 5;
+        long time = 1000;
+        int clients = 16;
+        int port = 7430;
+        Path save = null;
+        Path baseline = null;
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--filter=")) {
+                    filter = arg.substring("--filter=".length());
+                } else if (arg.startsWith("--warmup=")) {
+                    warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+                } else if (arg.startsWith("--iterations=")) {
+                    iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+                } else if (arg.startsWith("--time=")) {
+                    time = Long.parseLong(arg.substring("--time=".length()));
+                } else if (arg.startsWith("--clients=")) {
+                    clients = Integer.parseInt(arg.substring("--clients=".length()));
+                } else if (arg.startsWith("--port=")) {
+                    port = Integer.parseInt(arg.substring("--port=".length()));
+                } else if (arg.startsWith("--save=")) {
+                    save = Paths.get(arg.substring("--save=".length()));
+                } else if (arg.startsWith("--baseline=")) {
+                    baseline = Paths.get(arg.substring("--baseline=".length()));
+                } else {
+                    throw new IllegalArgumentException(arg);
+                }
+            }
+        } catch (IllegalArgumentException iae) {
+            System.err.println("Usage: ClackBenchmarks [--filter=regex] [--warmup=N] [--iterations=N] [--time=ms]"
+                    + " [--clients=N] [--port=N] [--save=file] [--baseline=file]");
+            return;
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(System.out, Pattern.compile(filter), warmup, iterations,
+                time, baseline);
+        serialization(runner);
+        cipher(runner);
+        file(runner);
+        listUsers(runner);
+        history(runner);
+        broadcast(runner, ServerMode.BLOCKING, clients, port);
+        broadcast(runner, ServerMode.NIO, clients, port + 1);
+        if (save != null) {
+            runner.save(save);
+        }
+        System.exit(0);
+    }
+
+    private static void serialization(BenchmarkRunner runner) throws Exception {
+        ListUsersClackData userList = new ListUsersClackData("Server", ClackData.CONSTANT_LISTUSERS);
+        for (int i = 0; i < 100; i++) {
+            userList.addUser("user" + i);
+        }
+        FileClackData file = new FileClackData("user1", textFile(4096).toString(), ClackData.CONSTANT_SENDFILE);
+        file.readFileContents();
+        ClackData[] samples = {
+                new MessageClackData("user1", text(64), ClackData.CONSTANT_SENDMESSAGE),
+                file,
+                userList,
+        };
+        String[] names = {"message64", "file4k", "listUsers100"};
+
+        byte[][] codecs = {{FrameCodec.CODEC_SERIALIZED}, {FrameCodec.CODEC_BINARY}};
+        String[] codecNames = {"java", "binary"};
+        for (int c = 0; c < codecs.length; c++) {
+            byte codec = codecs[c][0];
+            for (int i = 0; i < samples.length; i++) {
+                ClackData sample = samples[i];
+                runner.run("serialization." + codecNames[c] + "Encode." + names[i],
+                        () -> FrameCodec.encode(sample, codec));
+            }
+            for (int i = 0; i < samples.length; i++) {
+                ByteBuffer frame = FrameCodec.encode(samples[i], codec);
+                frame.position(FrameCodec.HEADER_LENGTH);
+                ByteBuffer payload = frame.slice();
+                runner.run("serialization." + codecNames[c] + "Decode." + names[i],
+                        () -> FrameCodec.decode(payload.duplicate(), codec));
+            }
+        }
+    }
+
+    private static void cipher(BenchmarkRunner runner) throws Exception {
+        CipherProvider vigenere = new VigenereCipherProvider(KEY);
+        CipherProvider aes = AesGcmCipherProvider.fromPassphrase(KEY.toCharArray());
+        for (int size : new int[]{64, 4096}) {
+            String text = text(size);
+            String vigenereText = vigenere.encrypt(text);
+            String aesText = aes.encrypt(text);
+            runner.run("cipher.vigenereEncrypt." + size, () -> vigenere.encrypt(text));
+            runner.run("cipher.vigenereDecrypt." + size, () -> vigenere.decrypt(vigenereText));
+            runner.run("cipher.aesGcmEncrypt." + size, () -> aes.encrypt(text));
+            runner.run("cipher.aesGcmDecrypt." + size, () -> aes.decrypt(aesText));
+        }
+    }
+
+    private static void file(BenchmarkRunner runner) throws Exception {
+        CipherProvider aes = AesGcmCipherProvider.fromPassphrase(KEY.toCharArray());
+        for (int size : new int[]{4096, 65536}) {
+            FileClackData file = new FileClackData("user1", textFile(size).toString(), ClackData.CONSTANT_SENDFILE);
+            runner.run("file.read." + size, () -> {
+                file.readFileContents();
+                return file.getData();
+            });
+            runner.run("file.readVigenere." + size, () -> {
+                file.readFileContents(KEY);
+                return file.getData();
+            });
+            runner.run("file.readAesGcm." + size, () -> {
+                file.readFileContents(aes);
+                return file.getData();
+            });
+            runner.run("file.writeAesGcm." + size, () -> {
+                file.writeFileContents(aes);
+                return file;
+            });
+            runner.run("file.writeVigenere." + size, () -> {
+                file.readFileContents(KEY);
+                file.writeFileContents(KEY);
+                return file;
+            });
+            file.readFileContents();
+            runner.run("file.write." + size, () -> {
+                file.writeFileContents();
+                return file;
+            });
+        }
+    }
+
+    private static void listUsers(BenchmarkRunner runner) throws Exception {
+        for (int users : new int[]{10, 1000}) {
+            ListUsersClackData userList = new ListUsersClackData("Server", ClackData.CONSTANT_LISTUSERS);
+            for (int i = 0; i < users; i++) {
+                userList.addUser("user" + i);
+            }
+            runner.run("listUsers.getData." + users, userList::getData);
+        }
+    }
+
+    private static void history(BenchmarkRunner runner) throws Exception {
+        if (!runner.wants("history.append.message64") && !runner.wants("history.appendEncoded.message64")
+                && !runner.wants("history.read.batch64")) {
+            return;
+        }
+        Path directory = Files.createTempDirectory("clack-bench-history");
+        MessageLog log = new MessageLog(directory);
+        log.setRetentionBytes(256L * 1024 * 1024);
+        log.open();
+        MessageClackData message = new MessageClackData("user1", text(64), ClackData.CONSTANT_SENDMESSAGE);
+        ByteBuffer frame = FrameCodec.encode(message, FrameCodec.CODEC_BINARY);
+        ByteBuffer encoded = frame.position(FrameCodec.HEADER_LENGTH).slice();
+        runner.run("history.append.message64", () -> log.append(message));
+        runner.run("history.appendEncoded.message64", () -> log.append(encoded));
+        Random random = new Random(10);
+        runner.run("history.read.batch64", 64,
+                () -> log.read(log.getStartOffset() + random.nextInt((int) Math.min(Integer.MAX_VALUE,
+                        log.getEndOffset() - log.getStartOffset() - 64)), 64));
+        log.close();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static void broadcast(BenchmarkRunner runner, ServerMode mode, int clients, int port) throws Exception {
+        String name = "broadcast." + mode.name().toLowerCase() + "." + clients + "clients";
+        if (!runner.wants(name)) {
+            return;
+        }
+        Loopback loopback = new Loopback(mode, clients, port);
+        MessageClackData message = new MessageClackData("user0", text(64), ClackData.CONSTANT_SENDMESSAGE);
+        runner.run(name, BROADCAST_BATCH, () -> loopback.broadcast(message, BROADCAST_BATCH));
+        loopback.close();
+    }
+
+    /**
+     * Writes a temporary file of size bytes of text in lines of 64 characters.
+     */
+    private static Path textFile(int size) throws IOException {
+        Path path = Files.createTempFile("clack-bench", ".txt");
+        path.toFile().deleteOnExit();
+        StringBuilder lines = new StringBuilder(size);
+        String text = text(size);
+        for (int i = 0; i < size; i += 64) {
+            lines.append(text, i, Math.min(size, i + 63)).append('\n');
+        }
+        Files.write(path, lines.toString().getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    /**
+     * Returns size characters of lower and upper case text with spaces and punctuation.
+     */
+    private static String text(int size) {
+        String words = "the quick brown fox jumps over the lazy dog, Pack My Box With Five Dozen Liquor Jugs. ";
+        StringBuilder text = new StringBuilder(size);
+        Random random = new Random(10);
+        while (text.length() < size) {
+            text.append(words.charAt(random.nextInt(words.length())));
+        }
+        return text.toString();
+    }
+
+    /**
+     * A ClackServer in this JVM with framed binary clients connected to it over loopback. The
+     * first client sends; every client, the sender included, receives each broadcast.
+     */
+    private static class Loopback {
+        private final ArrayList<Socket> sockets; // One per client
+        private final DataOutputStream sender; // The first client's output
+        private final AtomicLong delivered; // Frames received by all clients so far
+        private final CountDownLatch closed; // Counts clients the server has closed
+        private volatile long target; // The delivered count the waiting thread wants
+        private volatile Thread waiter; // The thread waiting for target
+
+        Loopback(ServerMode mode, int clients, int port) throws Exception {
+            ClackServer server = new ClackServer(port);
+            server.setMode(mode);
+            server.setLog(new AsyncLog(null, LogLevel.WARN));
+            server.startInBackground();
+
+            sockets = new ArrayList<Socket>(clients);
+            delivered = new AtomicLong();
+            closed = new CountDownLatch(clients);
+            for (int i = 0; i < clients; i++) {
+                Socket socket = connect(port);
+                sockets.add(socket);
+                Thread receiver = new Thread(() -> receive(socket), "clack-bench-client-" + i);
+                receiver.setDaemon(true);
+                receiver.start();
+            }
+            sender = new DataOutputStream(new BufferedOutputStream(sockets.get(0).getOutputStream()));
+            Thread.sleep(200);
+        }
+
+        /**
+         * Sends count messages from the first client and waits until every client has all of
+         * them.
+         */
+        long broadcast(ClackData message, int count) throws IOException {
+            long expected = delivered.get() + (long) count * sockets.size();
+            waiter = Thread.currentThread();
+            target = expected;
+            for (int i = 0; i < count; i++) {
+                FrameCodec.write(sender, message, FrameCodec.CODEC_BINARY);
+            }
+            long received;
+            while ((received = delivered.get()) < expected) {
+                LockSupport.parkNanos(this, 1_000_000);
+            }
+            return received;
+        }
+
+        /**
+         * Logs every client out, which has the server close its side first, and waits for it.
+         */
+        void close() throws IOException, InterruptedException {
+            for (Socket socket : sockets) {
+                FrameCodec.write(new DataOutputStream(socket.getOutputStream()),
+                        new MessageClackData("user", "", ClackData.CONSTANT_LOGOUT), FrameCodec.CODEC_BINARY);
+            }
+            closed.await(10, TimeUnit.SECONDS);
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+
+        private void receive(Socket socket) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (true) {
+                    FrameCodec.read(in, FrameCodec.CODEC_BINARY);
+                    if (delivered.incrementAndGet() == target) {
+                        LockSupport.unpark(waiter);
+                    }
+                }
+            } catch (IOException ioe) {
+                // The server closed the client.
+            } finally {
+                closed.countDown();
+            }
+        }
+
+        /**
+         * Opens a framed connection and completes the hello.
+         */
+        private static Socket connect(int port) throws IOException {
+            Socket socket = new Socket("localhost", port);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            byte codec = FrameCodec.handshake(in, out, FrameCodec.CODEC_BINARY, ClackData.NO_SEQUENCE);
+            if (codec != FrameCodec.CODEC_BINARY) {
+                throw new IOException("Server did not agree to the binary codec");
+            }
+            return socket;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package bench;
+
+import data.ClackData;
+import data.FileChunkClackData;
+import main.ClackServer;
+import main.FrameCodec;
+import main.ServerMode;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Measures relaying one large streamed file to many receivers through an NIO ClackServer,
+ * with the zero-copy spool relay ("spool") or with every chunk decoded and re-encoded on the
+ * heap ("heap"). The server runs in this JVM; one framed client sends a file of random bytes
+ * as 64 KiB FileChunkClackData frames and every receiver checks the CRC-32 of what it got.
+ * Reports the time until the last receiver has the whole file, the aggregate relay throughput
+ * and the heap allocated by the reactor threads, which is where the relay work happens.
+ *
+ * Run each mode in a fresh JVM, e.g.
+ * java bench.FileRelayBenchmark spool 256 16
+ */
+public class FileRelayBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: FileRelayBenchmark spool|heap <file MiB> <receivers> [port]");
+            return;
+        }
+        boolean spool = args[0].equalsIgnoreCase("spool");
+        long fileBytes = Long.parseLong(args[1]) * 1024 * 1024;
+        int receiverCount = Integer.parseInt(args[2]);
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 7422;
+
+        ClackServer server = new ClackServer(port);
+        server.setMode(ServerMode.NIO);
+        server.setZeroCopyRelay(spool);
+        server.startInBackground();
+
+        CountDownLatch done = new CountDownLatch(receiverCount);
+        ArrayList<Receiver> receivers = new ArrayList<Receiver>(receiverCount);
+        for (int i = 0; i < receiverCount; i++) {
+            Receiver receiver = new Receiver(connect(port), done);
+            receivers.add(receiver);
+            receiver.start();
+        }
+        Socket senderSocket = connect(port);
+        new Receiver(senderSocket, new CountDownLatch(1)).start(); // Drains the sender's own echoes
+        Thread.sleep(500);
+
+        long reactorBytesBefore = reactorAllocatedBytes();
+        long startNanos = System.nanoTime();
+        long checksum = sendFile(new DataOutputStream(new BufferedOutputStream(senderSocket.getOutputStream())), fileBytes);
+        boolean finished = done.await(10, TimeUnit.MINUTES);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long reactorBytes = reactorAllocatedBytes() - reactorBytesBefore;
+
+        int intact = 0;
+        for (Receiver receiver : receivers) {
+            if (receiver.received.get() == fileBytes && receiver.checksum == checksum) {
+                intact++;
+            }
+        }
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("Relay:                " + (spool ? "spool (transferTo)" : "heap"));
+        System.out.println("File size:            " + fileBytes / (1024 * 1024) + " MiB");
+        System.out.println("Receivers:            " + receiverCount + " (" + intact + " got the file intact"
+                + (finished ? "" : ", timed out") + ")");
+        System.out.println("Time to last receiver: " + Math.round(seconds * 1000) + " ms");
+        System.out.println("Relayed throughput:   "
+                + Math.round(fileBytes * (double) receiverCount / (1024 * 1024) / seconds) + " MiB/s");
+        System.out.println("Reactor heap allocated: " + reactorBytes / 1024 + " KiB ("
+                + String.format("%.3f", reactorBytes / (double) fileBytes) + " B per file byte)");
+
+        System.exit(0);
+    }
+
+    /**
+     * Opens a framed connection and completes the hello.
+     */
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        byte codec = FrameCodec.handshake(in, out, FrameCodec.CODEC_BINARY, ClackData.NO_SEQUENCE);
+        if (codec != FrameCodec.CODEC_BINARY) {
+            throw new IOException("Server did not agree to the binary codec");
+        }
+        return socket;
+    }
+
+    /**
+     * Sends fileBytes random bytes as a chunked transfer and returns their CRC-32.
+     */
+    private static long sendFile(DataOutputStream out, long fileBytes) throws IOException {
+        Random random = new Random(42);
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[FileChunkClackData.DEFAULT_CHUNK_SIZE];
+        long transferId = random.nextLong();
+        for (long offset = 0; offset < fileBytes; offset += chunk.length) {
+            int length = (int) Math.min(chunk.length, fileBytes - offset);
+            byte[] bytes = length == chunk.length ? chunk : new byte[length];
+            random.nextBytes(bytes);
+            crc.update(bytes);
+            boolean last = offset + length == fileBytes;
+            FrameCodec.write(out, new FileChunkClackData("sender", "bench.bin", transferId, offset, bytes,
+                    last, last ? crc.getValue() : 0), FrameCodec.CODEC_BINARY);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Sums the heap allocated so far by the server's reactor threads.
+     */
+    private static long reactorAllocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && info.getThreadName().startsWith("clack-reactor-")) {
+                total += threads.getThreadAllocatedBytes(info.getThreadId());
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Reads chunks until the last one of a transfer, checksumming their bytes.
+     */
+    private static class Receiver extends Thread {
+        private final Socket socket;
+        private final CountDownLatch done;
+        final AtomicLong received;
+        volatile long checksum;
+
+        Receiver(Socket socket, CountDownLatch done) {
+            this.socket = socket;
+            this.done = done;
+            this.received = new AtomicLong();
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 17));
+                CRC32 crc = new CRC32();
+                while (true) {
+                    ClackData data = FrameCodec.read(in, FrameCodec.CODEC_BINARY);
+                    if (data instanceof FileChunkClackData) {
+                        FileChunkClackData chunk = (FileChunkClackData) data;
+                        crc.update(chunk.getChunk());
+                        received.addAndGet(chunk.getChunk().length);
+                        if (chunk.isLast()) {
+                            checksum = crc.getValue();
+                            done.countDown();
+                            crc.reset();
+                        }
+                    }
+                }
+            } catch (IOException ioe) {
+                // The benchmark is over.
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package bench;
+
+import main.ClackServer;
+import main.ServerMode;
+import main.ThreadMode;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ * Measures what an idle connection costs a blocking ClackServer with platform threads versus
+ * virtual threads. The server runs in this JVM; the benchmark opens the requested number of
+ * object stream connections that never send anything, so every server-side connection sits
+ * blocked in readObject(), and then reports resident memory, heap and live platform threads
+ * relative to the state before connecting. Client sockets cost the same in both modes, so the
+ * difference between two runs is the cost of the server threads.
+ *
+ * Run each mode in a fresh JVM and raise the open file limit for large counts, e.g.
+ * ulimit -n 120000; java bench.IdleConnectionBenchmark virtual 50000
+ */
+public class IdleConnectionBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: IdleConnectionBenchmark platform|virtual <connections> [port]");
+            return;
+        }
+        ThreadMode threadMode = ThreadMode.valueOf(args[0].toUpperCase());
+        int connectionCount = Integer.parseInt(args[1]);
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 7421;
+
+        ClackServer server = new ClackServer(port);
+        server.setMode(ServerMode.BLOCKING);
+        server.setThreadMode(threadMode);
+        server.startInBackground();
+
+        Snapshot before = Snapshot.take();
+        ArrayList<Socket> sockets = new ArrayList<Socket>(connectionCount);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < connectionCount; i++) {
+            Socket socket = new Socket("localhost", port);
+            // Wait for the server's stream header so we know its connection thread is running,
+            // then send ours so it goes on to block in readObject().
+            new DataInputStream(socket.getInputStream()).readFully(new byte[4]);
+            new ObjectOutputStream(socket.getOutputStream()).flush();
+            sockets.add(socket);
+        }
+        long connectMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        Thread.sleep(1000);
+        Snapshot after = Snapshot.take();
+
+        System.out.println("Thread mode:          " + threadMode);
+        System.out.println("Idle connections:     " + connectionCount + " (opened in " + connectMillis + " ms)");
+        System.out.println("Live platform threads: " + before.threads + " -> " + after.threads);
+        System.out.println("Heap used:            " + kib(before.heapBytes) + " -> " + kib(after.heapBytes)
+                + " (" + (after.heapBytes - before.heapBytes) / connectionCount + " B/connection)");
+        System.out.println("Resident set size:    " + kib(before.rssBytes) + " -> " + kib(after.rssBytes)
+                + " (" + (after.rssBytes - before.rssBytes) / connectionCount + " B/connection)");
+
+        // Exit without closing the sockets one by one so the teardown does not show up as
+        // a burst of disconnect handling in the output.
+        System.exit(0);
+    }
+
+    private static String kib(long bytes) {
+        return (bytes / 1024) + " KiB";
+    }
+
+    private static class Snapshot {
+        long threads;
+        long heapBytes;
+        long rssBytes;
+
+        static Snapshot take() throws IOException {
+            System.gc();
+            Snapshot snapshot = new Snapshot();
+            snapshot.threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            snapshot.heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            snapshot.rssBytes = readRss();
+            return snapshot;
+        }
+
+        /**
+         * Reads VmRSS from /proc, which includes thread stacks the heap numbers miss.
+         * Returns 0 where /proc is not available.
+         */
+        private static long readRss() throws IOException {
+            if (!Files.exists(Paths.get("/proc/self/status"))) {
+                return 0;
+            }
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+            return 0;
+        }
+    }
+}
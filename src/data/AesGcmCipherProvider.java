@@ -0,0 +1,96 @@
+package data;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * The CipherProvider for AES in Galois/Counter Mode, using the JDK's "AES/GCM/NoPadding",
+ * which HotSpot runs on the AES-NI and carry-less multiply instructions where the CPU has
+ * them. Every encryption draws a fresh random 12-byte nonce; a ciphertext is the nonce, the
+ * encrypted bytes and a 16-byte authentication tag, so decrypting data that was altered or
+ * encrypted under another key fails instead of producing garbage.
+ */
+public class AesGcmCipherProvider implements CipherProvider {
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int KEY_BITS = 256;
+    private static final int PASSPHRASE_ITERATIONS = 100_000;
+    private static final byte[] PASSPHRASE_SALT = "ClackData AES-GCM".getBytes(StandardCharsets.US_ASCII);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException gse) {
+            throw new IllegalStateException("AES/GCM is not available", gse);
+        }
+    }); // Cipher objects are not thread-safe and costly to look up, so each thread keeps one
+
+    private final SecretKey key;  // The AES key
+
+    /**
+     * The constructor that sets the key.
+     *
+     * @param key a 128, 192 or 256 bit AES key
+     */
+    public AesGcmCipherProvider(SecretKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Creates a provider whose key is derived from a passphrase with PBKDF2, so that every
+     * client given the same passphrase, the way they all share ClackClient's Vigenere key,
+     * can read each other's data. The salt is fixed for the same reason, which makes the
+     * passphrase the only secret.
+     *
+     * @param passphrase the shared passphrase
+     * @return the provider
+     * @throws GeneralSecurityException if PBKDF2 is not available
+     */
+    public static AesGcmCipherProvider fromPassphrase(char[] passphrase) throws GeneralSecurityException {
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        byte[] keyBytes = factory.generateSecret(
+                new PBEKeySpec(passphrase, PASSPHRASE_SALT, PASSPHRASE_ITERATIONS, KEY_BITS)).getEncoded();
+        return new AesGcmCipherProvider(new SecretKeySpec(keyBytes, "AES"));
+    }
+
+    @Override
+    public String getName() {
+        return "aes-gcm";
+    }
+
+    @Override
+    public int getOverhead() {
+        return NONCE_LENGTH + TAG_LENGTH;
+    }
+
+    @Override
+    public void encrypt(ByteBuffer plaintext, ByteBuffer ciphertext) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        ciphertext.put(nonce);
+        cipher.doFinal(plaintext, ciphertext);
+    }
+
+    @Override
+    public void decrypt(ByteBuffer ciphertext, ByteBuffer plaintext) throws GeneralSecurityException {
+        if (ciphertext.remaining() < NONCE_LENGTH + TAG_LENGTH) {
+            throw new GeneralSecurityException("Ciphertext is too short");
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        ciphertext.get(nonce);
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        cipher.doFinal(ciphertext, plaintext);
+    }
+}
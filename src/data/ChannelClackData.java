@@ -0,0 +1,79 @@
+package data;
+
+import java.util.Objects;
+
+/**
+ * The child of ClackData that asks the server to add the sender to a channel or take it out
+ * of one. The channel is the one set with setChannel(). The server answers with the same
+ * request once it has been carried out.
+ */
+public class ChannelClackData extends ClackData {
+    private static final long serialVersionUID = 1L; // Changed only with an incompatible change to the fields
+
+    /**
+     * Start receiving the channel's messages.
+     */
+    public static final int EVENT_JOIN = 0;
+
+    /**
+     * Stop receiving the channel's messages.
+     */
+    public static final int EVENT_LEAVE = 1;
+
+    private int event;  // One of the EVENT_ constants
+
+    /**
+     * The constructor to set up every instance variable.
+     *
+     * @param userName a string representing the name of the client user
+     * @param event    EVENT_JOIN or EVENT_LEAVE
+     * @param channel  the channel to join or leave
+     */
+    public ChannelClackData(String userName, int event, String channel) {
+        super(userName, CONSTANT_SENDMESSAGE);
+        this.event = event;
+        this.channel = channel;
+    }
+
+    /**
+     * Returns the event.
+     *
+     * @return this.event
+     */
+    public int getEvent() {
+        return this.event;
+    }
+
+    /**
+     * Returns the channel name.
+     *
+     * @return this.channel
+     */
+    public String getData() {
+        return this.channel;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.userName, this.event, this.channel);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ChannelClackData)) {
+            return false;
+        }
+        ChannelClackData otherChannelClackData = (ChannelClackData) other;
+        return Objects.equals(this.userName, otherChannelClackData.userName)
+                && this.event == otherChannelClackData.event
+                && Objects.equals(this.channel, otherChannelClackData.channel);
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelClackData [" + (event == EVENT_JOIN ? "join " : "leave ") + channel + "]";
+    }
+}
@@ -0,0 +1,95 @@
+package data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+/**
+ * A CipherProvider encrypts and decrypts the contents of MessageClackData and FileClackData.
+ * Providers work on ByteBuffers, heap or direct, and also on Strings; by default a String is
+ * encrypted as its UTF-8 bytes and the result carried as Base64, which is what
+ * AesGcmCipherProvider does. VigenereCipherProvider overrides the String methods to stay
+ * identical to the original ClackData.encrypt() and decrypt().
+ *
+ * Providers must be safe to use from several threads at once.
+ */
+public interface CipherProvider {
+    /**
+     * Returns the name of the cipher, such as "vigenere" or "aes-gcm".
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Returns how many bytes longer a ciphertext is than its plaintext.
+     *
+     * @return the number of bytes encrypt() adds
+     */
+    int getOverhead();
+
+    /**
+     * Encrypts the plaintext's remaining bytes into the ciphertext buffer. Advances both
+     * positions.
+     *
+     * @param plaintext  the bytes to encrypt
+     * @param ciphertext the buffer to write to, with at least getOverhead() more bytes left
+     *                   than the plaintext has
+     * @throws GeneralSecurityException if the cipher fails
+     */
+    void encrypt(ByteBuffer plaintext, ByteBuffer ciphertext) throws GeneralSecurityException;
+
+    /**
+     * Decrypts the ciphertext's remaining bytes into the plaintext buffer. Advances both
+     * positions.
+     *
+     * @param ciphertext the bytes to decrypt
+     * @param plaintext  the buffer to write to, with room for the ciphertext less getOverhead()
+     * @throws GeneralSecurityException if the ciphertext is not authentic or the cipher fails
+     */
+    void decrypt(ByteBuffer ciphertext, ByteBuffer plaintext) throws GeneralSecurityException;
+
+    /**
+     * Encrypts a String.
+     *
+     * @param plaintext the text to encrypt, or null for ""
+     * @return the encrypted text
+     * @throws GeneralSecurityException if the cipher fails
+     */
+    default String encrypt(String plaintext) throws GeneralSecurityException {
+        if (plaintext == null) {
+            return "";
+        }
+        ByteBuffer in = ByteBuffer.wrap(plaintext.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer out = ByteBuffer.allocate(in.remaining() + getOverhead());
+        encrypt(in, out);
+        out.flip();
+        return new String(Base64.getEncoder().encode(out).array(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decrypts a String made by encrypt(String).
+     *
+     * @param ciphertext the text to decrypt, or null or "" for ""
+     * @return the decrypted text
+     * @throws GeneralSecurityException if the text is not a ciphertext of this provider
+     */
+    default String decrypt(String ciphertext) throws GeneralSecurityException {
+        if (ciphertext == null || ciphertext.isEmpty()) {
+            return "";
+        }
+        ByteBuffer in;
+        try {
+            in = ByteBuffer.wrap(Base64.getDecoder().decode(ciphertext));
+        } catch (IllegalArgumentException iae) {
+            throw new GeneralSecurityException("Ciphertext is not Base64: " + iae.getMessage());
+        }
+        if (in.remaining() < getOverhead()) {
+            throw new GeneralSecurityException("Ciphertext is too short");
+        }
+        ByteBuffer out = ByteBuffer.allocate(in.remaining() - getOverhead());
+        decrypt(in, out);
+        return new String(out.array(), 0, out.position(), StandardCharsets.UTF_8);
+    }
+}
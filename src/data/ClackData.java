@@ -1,12 +1,16 @@
 package data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Date;
 
 /**
  * Class ClackData is a superclass that represents the data sent between the client and the
- * server. An object of type ClackData consists of the username of the client user, the date
- * and time at which the data was sent and the data itself, which can either be a message
+ * server. An object of type ClackData consists of the username of the client user, the time
+ * at which the data was sent and the data itself, which can either be a message
  * (MessageClackData) or the name and contents of a file (FileClackData). Note that ClackData
  * should not be instantiable.
  *
@@ -33,32 +37,94 @@ public abstract class ClackData implements Serializable {
      */
     public static final int CONSTANT_SENDFILE = 3;
 
+    /**
+     * The sequence of data that has no place in the server's message history.
+     */
+    public static final long NO_SEQUENCE = -1;
+
+    /**
+     * The user id of data that spells out its user name instead.
+     */
+    public static final int NO_USER_ID = 0;
+
+    private static final long serialVersionUID = 3604359985597159959L;
+
+    /**
+     * The serialized form, which clients on an object stream still use: the fields of the
+     * first ClackData, with the time as a Date, so those clients can read what is sent to
+     * them, followed by the fields added since, which they skip. See writeObject().
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("userName", String.class),
+            new ObjectStreamField("type", int.class),
+            new ObjectStreamField("date", Date.class),
+            new ObjectStreamField("timestamp", long.class),
+            new ObjectStreamField("userId", int.class),
+            new ObjectStreamField("sequence", long.class),
+            new ObjectStreamField("channel", String.class),
+            new ObjectStreamField("recipient", String.class)
+    };
+
     /**
      * A string representing the name of the client user.
      */
     protected String userName;
 
+    /**
+     * The id the server gave the user name, sent in its place once the client knows it, or
+     * NO_USER_ID. Data decoded with an id has no user name until the server resolves it.
+     */
+    protected int userId;
+
     /**
      * An integer representing the kind of data exchanged between the client and the server.
      */
     protected int type;
 
     /**
-     * A Date object representing the date and time when ClackData object is created.
+     * The time the data was sent, in microseconds since the epoch. Set from CoarseClock when
+     * the data is created and again by the server as it receives the data, so data passed on
+     * by the server carries the server's clock.
      */
-    protected Date date;
+    protected long timestamp;
+
+    /**
+     * The System.nanoTime() at which this process received the data, for measuring how long
+     * it takes to pass on, or zero if the data was not received here. Not sent.
+     */
+    protected transient long receivedNanos;
+
+    /**
+     * The position of this data in the server's message history, assigned by the server as
+     * it broadcasts the data, or NO_SEQUENCE.
+     */
+    protected long sequence;
+
+    /**
+     * The channel the data is sent to, or null to send it to every client.
+     */
+    protected String channel;
+
+    /**
+     * The user a direct message is sent to, or null if the data is not a direct message.
+     */
+    protected String recipient;
 
     /**
      * The constructor to set up the instance variable username and type.
-     * The instance variable date should be created automatically here.
+     * The instance variable timestamp should be set automatically here.
      *
      * @param userName a string representing the name of the client user
      * @param type     an int representing the data type
      */
     public ClackData(String userName, int type) {
         this.userName = userName;
+        this.userId = NO_USER_ID;
         this.type = type;
-        this.date = new Date();
+        this.timestamp = CoarseClock.currentTimeMicros();
+        this.sequence = NO_SEQUENCE;
+        this.channel = null;
+        this.recipient = null;
     }
 
     /**
@@ -99,12 +165,162 @@ public abstract class ClackData implements Serializable {
     }
 
     /**
-     * Returns the date.
+     * Returns the user id.
      *
-     * @return this.date
+     * @return this.userId, NO_USER_ID if the data goes by its user name
+     */
+    public int getUserId() {
+        return this.userId;
+    }
+
+    /**
+     * Sends the data under the id the server gave its user name, which the binary codec then
+     * writes instead of the name.
+     *
+     * @param userId the id the server announced for the user name, or NO_USER_ID
+     */
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    /**
+     * Replaces the user id with the name it stands for, as the server does with data it
+     * receives, so the data goes on to other clients and into the history by name.
+     *
+     * @param userName the user name the id was given to
+     */
+    public void resolveUser(String userName) {
+        this.userName = userName;
+        this.userId = NO_USER_ID;
+    }
+
+    /**
+     * Returns the date, to the millisecond.
+     *
+     * @return a new Date for this.timestamp
      */
     public Date getDate() {
-        return this.date;
+        return new Date(this.timestamp / 1000);
+    }
+
+    /**
+     * Returns the timestamp.
+     *
+     * @return this.timestamp, in microseconds since the epoch
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Returns the time this process received the data.
+     *
+     * @return this.receivedNanos, on the System.nanoTime() scale, or zero if not received
+     */
+    public long getReceivedNanos() {
+        return this.receivedNanos;
+    }
+
+    /**
+     * Stamps the data with the current time as it is received, as the server does on ingress
+     * so that the timestamps it passes on all come from one clock. The receive time is read
+     * from System.nanoTime(), not the coarse clock, so latencies keep their full resolution.
+     */
+    public void stampReceived() {
+        this.timestamp = CoarseClock.currentTimeMicros();
+        this.receivedNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the sequence.
+     *
+     * @return this.sequence
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Sets the sequence, which the server does as it records the data in its history.
+     *
+     * @param sequence the position in the message history, or NO_SEQUENCE
+     */
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Returns the channel.
+     *
+     * @return this.channel, null for every client
+     */
+    public String getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * Sets the channel the data is sent to; only the channel's members receive it.
+     *
+     * @param channel the channel name, or null to send to every client
+     */
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Returns the recipient.
+     *
+     * @return this.recipient, null if the data is not a direct message
+     */
+    public String getRecipient() {
+        return this.recipient;
+    }
+
+    /**
+     * Makes the data a direct message, received only by the recipient's clients and the
+     * sender.
+     *
+     * @param recipient the user name to send to, or null for none
+     */
+    public void setRecipient(String recipient) {
+        this.recipient = recipient;
+    }
+
+    /**
+     * Writes the serialized form, with the timestamp both as a Date, to the millisecond, and
+     * in full.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("userName", this.userName);
+        fields.put("type", this.type);
+        fields.put("date", getDate());
+        fields.put("timestamp", this.timestamp);
+        fields.put("userId", this.userId);
+        fields.put("sequence", this.sequence);
+        fields.put("channel", this.channel);
+        fields.put("recipient", this.recipient);
+        out.writeFields();
+    }
+
+    /**
+     * Reads the serialized form. Data serialized before the timestamp was added takes it
+     * from its Date, and fields added since take the values the constructor gives them.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        this.userName = (String) fields.get("userName", null);
+        this.type = fields.get("type", CONSTANT_LOGOUT);
+        if (fields.defaulted("timestamp")) {
+            Date date = (Date) fields.get("date", null);
+            this.timestamp = date == null ? 0 : date.getTime() * 1000;
+        } else {
+            this.timestamp = fields.get("timestamp", 0L);
+        }
+        this.userId = fields.get("userId", NO_USER_ID);
+        this.sequence = fields.get("sequence", NO_SEQUENCE);
+        this.channel = (String) fields.get("channel", null);
+        this.recipient = (String) fields.get("recipient", null);
     }
 
     /**
@@ -114,66 +330,27 @@ public abstract class ClackData implements Serializable {
      * @return data
      */
     public abstract String getData();
-    protected String encrypt( String inputStringtoEncrypt, String key ){
-        String resultString = "";
-        String alphabet = "abcdefghijklmnopqrstuvwxyz";
-        int ind = 0;
-
-        if(key == null){ key = "a"; }
-
-        if(inputStringtoEncrypt == null){ return ""; }
-
-        for(int i = 0; i < inputStringtoEncrypt.length(); i++){
-            String s = inputStringtoEncrypt.split("")[i];
-            int k = alphabet.indexOf(key.toLowerCase().split("")[ind % key.length()]);
-
-            if(alphabet.contains(s)){
-                resultString += alphabet.split("")[(alphabet.indexOf(s) + k) % 26];
-                ++ind;
-            } else if (alphabet.toUpperCase().contains(s)) {
-                resultString += alphabet.split("")[(alphabet.toUpperCase().indexOf(s) + k) % 26];
-                ++ind;
-            } else {
-                resultString += s;
-            }
-        }
 
-        return resultString;
+    /**
+     * Encrypts a string with the Vigenere cipher, see VigenereCipher.
+     *
+     * @param inputStringtoEncrypt the string to encrypt, or null for ""
+     * @param key                  the key, or null for "a"
+     * @return the encrypted string
+     */
+    protected String encrypt( String inputStringtoEncrypt, String key ){
+        return VigenereCipher.encrypt(inputStringtoEncrypt, key);
     }
 
+    /**
+     * Decrypts a string encrypted with encrypt(), see VigenereCipher.
+     *
+     * @param inputStringtoDecrypt the string to decrypt, or null for ""
+     * @param key                  the key, or null for "a"
+     * @return the decrypted string
+     */
     protected String decrypt( String inputStringtoDecrypt, String key ){
-        String resultString = "";
-        String alphabet = "abcdefghijklmnopqrstuvwxyz";
-        int ind = 0;
-
-        if(key == null){ key = "a"; }
-
-        if(inputStringtoDecrypt == null){ return ""; }
-
-        for(int i = 0; i < inputStringtoDecrypt.length(); i++){
-            String s = inputStringtoDecrypt.split("")[i];
-            int k = alphabet.indexOf(key.toLowerCase().split("")[ind % key.length()]);
-
-            if(alphabet.contains(s)){
-                if(alphabet.indexOf(s) - k < 0){
-                    resultString += alphabet.split("")[26 + (alphabet.indexOf(s) - k)];
-                } else {
-                    resultString += alphabet.split("")[(alphabet.indexOf(s) - k) % 26];
-                }
-                ++ind;
-            } else if (alphabet.toUpperCase().contains(s)) {
-                if(alphabet.toUpperCase().indexOf(s) - k < 0){
-                    resultString += alphabet.toUpperCase().split("")[26 + (alphabet.toUpperCase().indexOf(s) - k)];
-                } else {
-                    resultString += alphabet.toUpperCase().split("")[(alphabet.toUpperCase().indexOf(s) - k) % 26];
-                }
-                ++ind;
-            } else {
-                resultString += s;
-            }
-        }
-
-        return resultString;
+        return VigenereCipher.decrypt(inputStringtoDecrypt, key);
     }
 
 }
@@ -0,0 +1,570 @@
+package data;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ClackDataCodec is a hand-written binary encoding of the ClackData subclasses, used instead
+ * of Java serialization once both ends have agreed on it. An encoded ClackData is laid out as:
+ * <pre>
+ *   type      1 byte   (kind &lt;&lt; 4) | USER_ID flag | ClackData type, see the KIND_ constants
+ *   userName  string, or with the USER_ID flag a varint holding the user id instead
+ *   timestamp 8 bytes  epoch microseconds, big-endian
+ *   sequence  varint   the sequence plus one, zero meaning NO_SEQUENCE
+ *   channel   string   null for every client
+ *   recipient string   null unless a direct message
+ *   body      kind-specific, see encodeBody()
+ * </pre>
+ * where a string is a varint holding the UTF-8 length plus one (zero meaning null) followed by
+ * the UTF-8 bytes. Varints are unsigned LEB128, seven bits per byte, low bits first.
+ */
+public final class ClackDataCodec {
+    /**
+     * The body is a MessageClackData message.
+     */
+    public static final int KIND_MESSAGE = 1;
+
+    /**
+     * The body is a FileClackData file name and contents.
+     */
+    public static final int KIND_FILE = 2;
+
+    /**
+     * The body is a ListUsersClackData user list.
+     */
+    public static final int KIND_LISTUSERS = 3;
+
+    /**
+     * The body is a FileChunkClackData chunk of a streamed file.
+     */
+    public static final int KIND_FILECHUNK = 4;
+
+    /**
+     * The body is a PresenceClackData event.
+     */
+    public static final int KIND_PRESENCE = 5;
+
+    /**
+     * The body is a ChannelClackData join or leave.
+     */
+    public static final int KIND_CHANNEL = 6;
+
+    /**
+     * The body is empty; the data is a HeartbeatClackData.
+     */
+    public static final int KIND_HEARTBEAT = 7;
+
+    /**
+     * The body is an IdentityClackData id.
+     */
+    public static final int KIND_IDENTITY = 8;
+
+    /**
+     * Set in the type byte when the data goes by a user id the server gave its sender, see
+     * ClackData.setUserId(); the ClackData type only takes the three bits below it.
+     */
+    public static final int USER_ID = 0x08;
+
+    private ClackDataCodec() {
+    }
+
+    /**
+     * Returns the number of bytes encode() will write for the data.
+     *
+     * @param data the data to measure
+     * @return the encoded length in bytes
+     */
+    public static int encodedLength(ClackData data) {
+        int length = headerLength(data);
+        if (data instanceof MessageClackData) {
+            length += stringLength(((MessageClackData) data).getData());
+        } else if (data instanceof FileClackData) {
+            FileClackData fileData = (FileClackData) data;
+            length += stringLength(fileData.getFileName()) + stringLength(fileData.getData());
+        } else if (data instanceof ListUsersClackData) {
+            List<String> users = ((ListUsersClackData) data).getUsers();
+            length += varintLength(users.size());
+            for (String user : users) {
+                length += stringLength(user);
+            }
+        } else if (data instanceof FileChunkClackData) {
+            FileChunkClackData chunkData = (FileChunkClackData) data;
+            int chunkLength = chunkData.getChunk() == null ? 0 : chunkData.getChunk().length;
+            length += stringLength(chunkData.getFileName()) + 8 + 8 + 1 + 4
+                    + varintLength(chunkLength) + chunkLength;
+        } else if (data instanceof PresenceClackData) {
+            List<String> users = ((PresenceClackData) data).getUsers();
+            length += 1 + 8 + varintLength(users.size());
+            for (String user : users) {
+                length += stringLength(user);
+            }
+        } else if (data instanceof ChannelClackData) {
+            length += 1;
+        } else if (data instanceof IdentityClackData) {
+            length += varintLength(((IdentityClackData) data).getAssignedId());
+        } else if (!(data instanceof HeartbeatClackData)) {
+            throw new IllegalArgumentException("No binary encoding for " + data.getClass().getName());
+        }
+        return length;
+    }
+
+    /**
+     * Writes the data at the buffer's position, which must have encodedLength(data) bytes left.
+     *
+     * @param data the data to encode
+     * @param out  the buffer to write to
+     */
+    public static void encode(ClackData data, ByteBuffer out) {
+        putHeader(out, data, kindOf(data));
+        encodeBody(data, out);
+    }
+
+    /**
+     * Reads one ClackData from the buffer's position up to its limit.
+     *
+     * @param in the buffer holding exactly one encoded ClackData
+     * @return the decoded data
+     * @throws IllegalArgumentException if the bytes are not a valid encoding
+     */
+    public static ClackData decode(ByteBuffer in) {
+        try {
+            int typeByte = in.get() & 0xFF;
+            int kind = typeByte >>> 4;
+            int type = typeByte & 0x07;
+            int userId = getUserId(in, typeByte);
+            String userName = userId == ClackData.NO_USER_ID ? getString(in) : null;
+            long timestamp = in.getLong();
+            long sequence = getVarlong(in) - 1;
+            String channel = getString(in);
+            String recipient = getString(in);
+            ClackData data;
+            switch (kind) {
+                case KIND_MESSAGE:
+                    data = new MessageClackData(userName, getString(in), type);
+                    break;
+                case KIND_FILE:
+                    FileClackData fileData = new FileClackData(userName, getString(in), type);
+                    fileData.setFileContents(getString(in));
+                    data = fileData;
+                    break;
+                case KIND_LISTUSERS:
+                    ListUsersClackData listData = new ListUsersClackData(userName, type);
+                    List<String> listed = listData.getUsers(); // Unique as encoded, so skip addUser()'s scan
+                    for (int i = getVarint(in); i > 0; i--) {
+                        listed.add(getString(in));
+                    }
+                    data = listData;
+                    break;
+                case KIND_FILECHUNK:
+                    FileChunkClackData chunkData = getChunkHeader(in, userName, type);
+                    byte[] chunk = new byte[getChunkLength(in)];
+                    in.get(chunk);
+                    chunkData.setChunk(chunk);
+                    data = chunkData;
+                    break;
+                case KIND_PRESENCE:
+                    int event = in.get();
+                    long version = in.getLong();
+                    List<String> users = new ArrayList<String>();
+                    for (int i = getVarint(in); i > 0; i--) {
+                        users.add(getString(in));
+                    }
+                    data = new PresenceClackData(userName, event, version, users);
+                    data.type = type;
+                    break;
+                case KIND_CHANNEL:
+                    data = new ChannelClackData(userName, in.get(), channel);
+                    data.type = type;
+                    break;
+                case KIND_HEARTBEAT:
+                    data = new HeartbeatClackData(userName);
+                    data.type = type;
+                    break;
+                case KIND_IDENTITY:
+                    data = new IdentityClackData(userName, getVarint(in));
+                    data.type = type;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown kind " + kind);
+            }
+            data.userId = userId;
+            data.timestamp = timestamp;
+            data.sequence = sequence;
+            data.channel = channel;
+            data.recipient = recipient;
+            return data;
+        } catch (BufferUnderflowException bue) {
+            throw new IllegalArgumentException("Truncated ClackData encoding");
+        }
+    }
+
+    /**
+     * Reads an encoded FileChunkClackData up to, but not including, its chunk bytes, so the
+     * bytes can be moved somewhere else without being copied into the heap. The returned
+     * data has no chunk; the buffer is left positioned at the chunk bytes, which must run
+     * exactly to its limit.
+     *
+     * @param in the buffer holding exactly one encoded FileChunkClackData
+     * @return the chunk's metadata
+     * @throws IllegalArgumentException if the bytes are not a valid file chunk encoding
+     */
+    public static FileChunkClackData decodeFileChunkHeader(ByteBuffer in) {
+        try {
+            int typeByte = in.get() & 0xFF;
+            if (typeByte >>> 4 != KIND_FILECHUNK) {
+                throw new IllegalArgumentException("Not a file chunk, kind " + (typeByte >>> 4));
+            }
+            int userId = getUserId(in, typeByte);
+            String userName = userId == ClackData.NO_USER_ID ? getString(in) : null;
+            long timestamp = in.getLong();
+            long sequence = getVarlong(in) - 1;
+            String channel = getString(in);
+            String recipient = getString(in);
+            FileChunkClackData chunkData = getChunkHeader(in, userName, typeByte & 0x07);
+            if (getChunkLength(in) != in.remaining()) {
+                throw new IllegalArgumentException("Chunk length does not match the encoding");
+            }
+            chunkData.userId = userId;
+            chunkData.timestamp = timestamp;
+            chunkData.sequence = sequence;
+            chunkData.channel = channel;
+            chunkData.recipient = recipient;
+            return chunkData;
+        } catch (BufferUnderflowException bue) {
+            throw new IllegalArgumentException("Truncated ClackData encoding");
+        }
+    }
+
+    /**
+     * Returns the number of bytes encodeFileChunkHeader() writes.
+     *
+     * @param header      the chunk's metadata; its chunk is ignored
+     * @param chunkLength the number of chunk bytes that will follow
+     * @return the encoded length in bytes, without the chunk bytes
+     */
+    public static int fileChunkHeaderLength(FileChunkClackData header, int chunkLength) {
+        return headerLength(header) + stringLength(header.getFileName()) + 8 + 8 + 1 + 4 + varintLength(chunkLength);
+    }
+
+    /**
+     * Writes an encoded FileChunkClackData up to, but not including, its chunk bytes, which
+     * the caller sends separately; the reverse of decodeFileChunkHeader().
+     *
+     * @param header      the chunk's metadata; its chunk is ignored
+     * @param chunkLength the number of chunk bytes that will follow
+     * @param out         the buffer to write to
+     */
+    public static void encodeFileChunkHeader(FileChunkClackData header, int chunkLength, ByteBuffer out) {
+        putHeader(out, header, KIND_FILECHUNK);
+        putChunkHeader(out, header);
+        putVarint(out, chunkLength);
+    }
+
+    /**
+     * Overwrites the timestamp in an encoding with the data's own, so bytes passed on without
+     * being re-encoded carry the time the data was stamped with after it was decoded.
+     *
+     * @param encoded the buffer holding the encoding at its position, not moved
+     * @param data    the data decoded from it, with the same user name or id
+     */
+    public static void putTimestamp(ByteBuffer encoded, ClackData data) {
+        encoded.putLong(encoded.position() + 1 + userLength(data), data.timestamp);
+    }
+
+    private static int headerLength(ClackData data) {
+        return 1 + userLength(data) + 8 + varlongLength(data.sequence + 1)
+                + stringLength(data.channel) + stringLength(data.recipient);
+    }
+
+    private static int userLength(ClackData data) {
+        return data.userId == ClackData.NO_USER_ID
+                ? stringLength(data.userName)
+                : varintLength(data.userId);
+    }
+
+    private static void putHeader(ByteBuffer out, ClackData data, int kind) {
+        if (data.userId == ClackData.NO_USER_ID) {
+            out.put((byte) ((kind << 4) | (data.type & 0x07)));
+            putString(out, data.userName);
+        } else {
+            out.put((byte) ((kind << 4) | USER_ID | (data.type & 0x07)));
+            putVarint(out, data.userId);
+        }
+        out.putLong(data.timestamp);
+        putVarlong(out, data.sequence + 1);
+        putString(out, data.channel);
+        putString(out, data.recipient);
+    }
+
+    /**
+     * Reads the user id if the type byte has the USER_ID flag, which must not be NO_USER_ID.
+     */
+    private static int getUserId(ByteBuffer in, int typeByte) {
+        if ((typeByte & USER_ID) == 0) {
+            return ClackData.NO_USER_ID;
+        }
+        int userId = getVarint(in);
+        if (userId == ClackData.NO_USER_ID) {
+            throw new IllegalArgumentException("User id flag without a user id");
+        }
+        return userId;
+    }
+
+    private static void putChunkHeader(ByteBuffer out, FileChunkClackData chunkData) {
+        putString(out, chunkData.getFileName());
+        out.putLong(chunkData.getTransferId());
+        out.putLong(chunkData.getOffset());
+        out.put((byte) (chunkData.isLast() ? 1 : 0));
+        out.putInt((int) chunkData.getChecksum());
+    }
+
+    private static FileChunkClackData getChunkHeader(ByteBuffer in, String userName, int type) {
+        String fileName = getString(in);
+        long transferId = in.getLong();
+        long offset = in.getLong();
+        boolean last = in.get() != 0;
+        long checksum = in.getInt() & 0xFFFFFFFFL;
+        FileChunkClackData chunkData =
+                new FileChunkClackData(userName, fileName, transferId, offset, null, last, checksum);
+        chunkData.type = type;
+        return chunkData;
+    }
+
+    private static int getChunkLength(ByteBuffer in) {
+        int chunkLength = getVarint(in);
+        if (chunkLength < 0) {
+            throw new IllegalArgumentException("Negative chunk length " + chunkLength);
+        }
+        if (chunkLength > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return chunkLength;
+    }
+
+    /**
+     * Writes the subclass-specific part: the message for KIND_MESSAGE, the file name and
+     * contents for KIND_FILE, a varint count followed by the names for KIND_LISTUSERS, and for
+     * KIND_FILECHUNK the file name, transfer id and offset (8 bytes each), a last-chunk flag
+     * byte, the CRC-32 (4 bytes) and the varint-prefixed chunk bytes, and for KIND_PRESENCE
+     * the event byte, the version (8 bytes) and a varint count followed by the names, and
+     * for KIND_CHANNEL the event byte, and for KIND_IDENTITY the varint id. KIND_HEARTBEAT has
+     * no body.
+     */
+    private static void encodeBody(ClackData data, ByteBuffer out) {
+        if (data instanceof MessageClackData) {
+            putString(out, ((MessageClackData) data).getData());
+        } else if (data instanceof FileClackData) {
+            FileClackData fileData = (FileClackData) data;
+            putString(out, fileData.getFileName());
+            putString(out, fileData.getData());
+        } else if (data instanceof FileChunkClackData) {
+            FileChunkClackData chunkData = (FileChunkClackData) data;
+            putChunkHeader(out, chunkData);
+            byte[] chunk = chunkData.getChunk() == null ? new byte[0] : chunkData.getChunk();
+            putVarint(out, chunk.length);
+            out.put(chunk);
+        } else if (data instanceof PresenceClackData) {
+            PresenceClackData presenceData = (PresenceClackData) data;
+            out.put((byte) presenceData.getEvent());
+            out.putLong(presenceData.getVersion());
+            putVarint(out, presenceData.getUsers().size());
+            for (String user : presenceData.getUsers()) {
+                putString(out, user);
+            }
+        } else if (data instanceof ChannelClackData) {
+            out.put((byte) ((ChannelClackData) data).getEvent());
+        } else if (data instanceof IdentityClackData) {
+            putVarint(out, ((IdentityClackData) data).getAssignedId());
+        } else if (data instanceof ListUsersClackData) {
+            List<String> users = ((ListUsersClackData) data).getUsers();
+            putVarint(out, users.size());
+            for (String user : users) {
+                putString(out, user);
+            }
+        }
+    }
+
+    private static int kindOf(ClackData data) {
+        if (data instanceof MessageClackData) {
+            return KIND_MESSAGE;
+        } else if (data instanceof FileClackData) {
+            return KIND_FILE;
+        } else if (data instanceof ListUsersClackData) {
+            return KIND_LISTUSERS;
+        } else if (data instanceof FileChunkClackData) {
+            return KIND_FILECHUNK;
+        } else if (data instanceof PresenceClackData) {
+            return KIND_PRESENCE;
+        } else if (data instanceof ChannelClackData) {
+            return KIND_CHANNEL;
+        } else if (data instanceof HeartbeatClackData) {
+            return KIND_HEARTBEAT;
+        } else if (data instanceof IdentityClackData) {
+            return KIND_IDENTITY;
+        }
+        throw new IllegalArgumentException("No binary encoding for " + data.getClass().getName());
+    }
+
+    /**
+     * Writes an unsigned varint.
+     *
+     * @param out   the buffer to write to
+     * @param value a non-negative value
+     */
+    public static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @param in the buffer to read from
+     * @return the value
+     */
+    public static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    /**
+     * Writes an unsigned 64-bit varint.
+     *
+     * @param out   the buffer to write to
+     * @param value a non-negative value
+     */
+    public static void putVarlong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned 64-bit varint.
+     *
+     * @param in the buffer to read from
+     * @return the value
+     */
+    public static long getVarlong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    /**
+     * Returns the number of bytes putVarlong() writes for the value.
+     *
+     * @param value a non-negative value
+     * @return 1 to 10
+     */
+    public static int varlongLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the number of bytes putVarint() writes for the value.
+     *
+     * @param value a non-negative value
+     * @return 1 to 5
+     */
+    public static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private static int stringLength(String s) {
+        if (s == null) {
+            return 1;
+        }
+        int utf8Length = utf8Length(s);
+        return varintLength(utf8Length + 1) + utf8Length;
+    }
+
+    /**
+     * Counts the UTF-8 bytes of a string without encoding it. Unpaired surrogates count as
+     * the single '?' byte that String.getBytes() substitutes for them.
+     */
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putString(ByteBuffer out, String s) {
+        if (s == null) {
+            putVarint(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        putVarint(out, bytes.length + 1);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = getVarint(in) - 1;
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative string length " + length);
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+}
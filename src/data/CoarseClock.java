@@ -0,0 +1,96 @@
+package data;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A clock that is read from a field instead of the operating system. Once start() is called,
+ * a daemon thread wakes every TICK_MICROS and publishes the current epoch time, so stamping
+ * a message costs a volatile read no matter how many messages are stamped per tick. Readings
+ * then run up to a tick behind, and every message stamped within a tick shares its time.
+ *
+ * Only the server, which stamps every message it receives, starts the ticker. Until then,
+ * as in clients and tools that stamp a message now and then, the clock reads the system
+ * clock on every call, to the millisecond, and no thread is started.
+ *
+ * Epoch time is carried forward from the monotonic clock between ticks and re-read from the
+ * system clock once a second, so it follows any adjustment to the system clock within a
+ * second without allocating an Instant per tick.
+ */
+public final class CoarseClock {
+    /**
+     * How often the clock is advanced once started, in microseconds.
+     */
+    public static final long TICK_MICROS = 100;
+
+    private static final long RESYNC_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static volatile boolean ticking; // Whether the ticker publishes epochMicros
+    private static volatile long epochMicros; // Epoch microseconds at the last tick, 0 until the first
+    private static long syncedNanos; // System.nanoTime() when epoch time was last read, ticker thread only
+    private static long syncedEpochMicros; // Epoch microseconds read then, ticker thread only
+
+    private CoarseClock() {
+    }
+
+    /**
+     * Starts the ticker and waits for it to publish the time, unless it is already running.
+     * Called by the server as it starts. The ticker reads the time itself once it runs, since
+     * a time read here would be as stale as the thread is slow to be scheduled.
+     */
+    public static synchronized void start() {
+        if (ticking) {
+            return;
+        }
+        Thread ticker = new Thread(CoarseClock::tick, "clack-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+        while (epochMicros == 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(TICK_MICROS));
+        }
+        ticking = true;
+    }
+
+    /**
+     * Returns whether the ticker is running.
+     *
+     * @return true once start() has been called
+     */
+    public static boolean isTicking() {
+        return ticking;
+    }
+
+    /**
+     * Returns the time of day, as of the last tick once the ticker is running.
+     *
+     * @return microseconds since the epoch
+     */
+    public static long currentTimeMicros() {
+        return ticking ? epochMicros : System.currentTimeMillis() * 1000;
+    }
+
+    private static void tick() {
+        resync();
+        while (true) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(TICK_MICROS));
+            long now = System.nanoTime();
+            if (now - syncedNanos >= RESYNC_NANOS) {
+                resync();
+            } else {
+                epochMicros = syncedEpochMicros + (now - syncedNanos) / 1000;
+            }
+        }
+    }
+
+    /**
+     * Reads the system clock, then the monotonic clock. Should the thread be preempted in
+     * between, the time carried forward runs behind until the next resync, never ahead.
+     */
+    private static void resync() {
+        Instant instant = Instant.now();
+        syncedNanos = System.nanoTime();
+        syncedEpochMicros = instant.getEpochSecond() * 1_000_000 + instant.getNano() / 1000;
+        epochMicros = syncedEpochMicros;
+    }
+}
@@ -0,0 +1,160 @@
+package data;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The child of ClackData that carries one piece of a file sent as a stream of chunks. Unlike
+ * FileClackData, which holds a whole file as a String, a chunk holds raw bytes, so binary files
+ * survive intact and neither end ever needs more than one chunk in memory. All chunks of one
+ * transfer share a transfer id and are sent in order; the last one carries the CRC-32 of the
+ * whole file so the receiver can check what it reassembled.
+ */
+public class FileChunkClackData extends ClackData {
+    private static final long serialVersionUID = 1L; // Changed only with an incompatible change to the fields
+
+    /**
+     * The number of file bytes a sender puts in each chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private String fileName;  // A string representing the name of the file
+    private long transferId;  // Identifies the transfer this chunk belongs to
+    private long offset;  // The position of this chunk in the file
+    private byte[] chunk;  // The file bytes starting at offset
+    private boolean last;  // Whether this is the final chunk of the transfer
+    private long checksum;  // The CRC-32 of the whole file, only meaningful on the last chunk
+
+    /**
+     * The constructor to set up every instance variable.
+     *
+     * @param userName   a string representing the name of the client user
+     * @param fileName   a string representing the name of the file
+     * @param transferId the id shared by all chunks of one transfer
+     * @param offset     the position of the chunk in the file
+     * @param chunk      the file bytes starting at offset
+     * @param last       whether this is the final chunk
+     * @param checksum   the CRC-32 of the whole file if last, otherwise 0
+     */
+    public FileChunkClackData(String userName, String fileName, long transferId, long offset,
+                              byte[] chunk, boolean last, long checksum) {
+        super(userName, CONSTANT_SENDFILE);
+        this.fileName = fileName;
+        this.transferId = transferId;
+        this.offset = offset;
+        this.chunk = chunk;
+        this.last = last;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Returns the file name. The bytes of the chunk are returned by getChunk().
+     *
+     * @return this.fileName
+     */
+    public String getData() {
+        return this.fileName;
+    }
+
+    /**
+     * Returns the file name.
+     *
+     * @return this.fileName
+     */
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * Returns the transfer id.
+     *
+     * @return this.transferId
+     */
+    public long getTransferId() {
+        return this.transferId;
+    }
+
+    /**
+     * Returns the offset of this chunk in the file.
+     *
+     * @return this.offset
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Returns the file bytes of this chunk.
+     *
+     * @return this.chunk
+     */
+    public byte[] getChunk() {
+        return this.chunk;
+    }
+
+    /**
+     * Sets the file bytes of this chunk. Used by ClackDataCodec, which reads the metadata
+     * before the bytes.
+     *
+     * @param chunk the file bytes starting at offset
+     */
+    void setChunk(byte[] chunk) {
+        this.chunk = chunk;
+    }
+
+    /**
+     * Returns whether this is the final chunk of the transfer.
+     *
+     * @return this.last
+     */
+    public boolean isLast() {
+        return this.last;
+    }
+
+    /**
+     * Returns the CRC-32 of the whole file, only meaningful if isLast().
+     *
+     * @return this.checksum
+     */
+    public long getChecksum() {
+        return this.checksum;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.userName, this.type, this.fileName, this.transferId, this.offset,
+                this.last, this.checksum) * 31 + Arrays.hashCode(this.chunk);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof FileChunkClackData)) {
+            return false;
+        }
+        FileChunkClackData otherChunk = (FileChunkClackData) other;
+        return Objects.equals(this.userName, otherChunk.userName)
+                && this.type == otherChunk.type
+                && Objects.equals(this.fileName, otherChunk.fileName)
+                && this.transferId == otherChunk.transferId
+                && this.offset == otherChunk.offset
+                && this.last == otherChunk.last
+                && this.checksum == otherChunk.checksum
+                && Arrays.equals(this.chunk, otherChunk.chunk);
+    }
+
+    @Override
+    public String toString() {
+        return "This instance of FileChunkClackData has the following properties:\n"
+                + "Username: " + this.userName + "\n"
+                + "Type: " + this.type + "\n"
+                + "Date: " + getDate().toString() + "\n"
+                + "File Name: " + this.fileName + "\n"
+                + "Transfer: " + Long.toHexString(this.transferId) + "\n"
+                + "Offset: " + this.offset + "\n"
+                + "Chunk Length: " + (this.chunk == null ? 0 : this.chunk.length) + "\n"
+                + "Last: " + this.last + "\n";
+    }
+}
@@ -1,6 +1,11 @@
 package data;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.util.Objects;
 
 /**
@@ -9,6 +14,8 @@ import java.util.Objects;
  * @author xinchaosong
  */
 public class FileClackData extends ClackData {
+    private static final long serialVersionUID = 6193956063972542671L; // That of the first version, see ClackData
+
     private String fileName;  // A string representing the name of a file
     private String fileContents;  // A string representing the contents of a file
 
@@ -55,6 +62,15 @@ public class FileClackData extends ClackData {
         return this.fileName;
     }
 
+    /**
+     * Sets the file contents as they arrived from the wire, for ClackDataCodec.
+     *
+     * @param fileContents a string representing the contents of a file
+     */
+    void setFileContents(String fileContents) {
+        this.fileContents = fileContents;
+    }
+
     /**
      * Returns the file contents.
      *
@@ -67,6 +83,17 @@ public class FileClackData extends ClackData {
     {
         return decrypt(fileContents, key);
     }
+
+    /**
+     * Returns the file contents decrypted with a cipher provider.
+     *
+     * @param cipher the cipher provider the contents were encrypted with
+     * @return the decrypted contents
+     * @throws GeneralSecurityException if the contents were not encrypted with this provider and key
+     */
+    public String getData(CipherProvider cipher) throws GeneralSecurityException {
+        return cipher.decrypt(fileContents);
+    }
     /**
      * Reads the file contents.
      * Does not return anything.
@@ -107,6 +134,25 @@ public class FileClackData extends ClackData {
         }
     }
 
+    /**
+     * Reads the file contents and encrypts them with a cipher provider. Unlike
+     * readFileContents(String key), which encrypts line by line and drops the line breaks,
+     * this reads the file as it is and encrypts it in one piece.
+     *
+     * @param cipher the cipher provider to encrypt the contents with
+     */
+    public void readFileContents(CipherProvider cipher) {
+        try {
+            fileContents = cipher.encrypt(new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8));
+        } catch (NoSuchFileException nsfe) {
+            System.err.println("File could not be found");
+        } catch (IOException ioe) {
+            System.err.println("IO Exception occured");
+        } catch (GeneralSecurityException gse) {
+            System.err.println("File could not be encrypted");
+        }
+    }
+
     /**
      * Writes the file contents.
      * Does not return anything.
@@ -136,6 +182,21 @@ public class FileClackData extends ClackData {
         }
     }
 
+    /**
+     * Decrypts the file contents with a cipher provider and writes them to the file.
+     *
+     * @param cipher the cipher provider the contents were encrypted with
+     */
+    public void writeFileContents(CipherProvider cipher) {
+        try {
+            Files.write(Paths.get(fileName), cipher.decrypt(fileContents).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ioe) {
+            System.err.println("IO Exception occured");
+        } catch (GeneralSecurityException gse) {
+            System.err.println("File could not be decrypted");
+        }
+    }
+
     @Override
     public int hashCode() {
         // The following is only one of many possible implementations to generate the hash code.
@@ -173,7 +234,7 @@ public class FileClackData extends ClackData {
         return "This instance of FileClackData has the following properties:\n"
                 + "Username: " + this.userName + "\n"
                 + "Type: " + this.type + "\n"
-                + "Date: " + this.date.toString() + "\n"
+                + "Date: " + getDate().toString() + "\n"
                 + "File Name: " + this.fileName + "\n"
                 + "File Contents: " + this.fileContents + "\n";
     }
@@ -0,0 +1,53 @@
+package data;
+
+import java.util.Objects;
+
+/**
+ * The child of ClackData that carries nothing but proof that its sender is still there. The
+ * server sends one to a connection it has not heard from for a while, and the client answers
+ * with one of its own; any frame counts as activity, so a busy connection never sees them.
+ */
+public class HeartbeatClackData extends ClackData {
+    private static final long serialVersionUID = 1L; // Changed only with an incompatible change to the fields
+
+    /**
+     * The constructor to set up the user name.
+     *
+     * @param userName a string representing the name of the sender
+     */
+    public HeartbeatClackData(String userName) {
+        super(userName, CONSTANT_SENDMESSAGE);
+    }
+
+    /**
+     * Returns the empty string; a heartbeat has no data.
+     *
+     * @return ""
+     */
+    public String getData() {
+        return "";
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.userName, this.type);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof HeartbeatClackData)) {
+            return false;
+        }
+        HeartbeatClackData otherHeartbeatClackData = (HeartbeatClackData) other;
+        return Objects.equals(this.userName, otherHeartbeatClackData.userName)
+                && this.type == otherHeartbeatClackData.type;
+    }
+
+    @Override
+    public String toString() {
+        return "HeartbeatClackData [" + userName + "]";
+    }
+}
@@ -0,0 +1,67 @@
+package data;
+
+import java.util.Objects;
+
+/**
+ * The child of ClackData that tells a client the id the server gave its user name. Sent the
+ * first time a connection sends data under a name, to clients that asked for it in their
+ * hello; from then on the client may send the id instead of the name, see setUserId().
+ */
+public class IdentityClackData extends ClackData {
+    private static final long serialVersionUID = 1L; // Changed only with an incompatible change to the fields
+
+    private final int assignedId; // The id the user name goes by
+
+    /**
+     * The constructor to set up the user name and its id.
+     *
+     * @param userName   a string representing the name the id was given to
+     * @param assignedId the id, never NO_USER_ID
+     */
+    public IdentityClackData(String userName, int assignedId) {
+        super(userName, CONSTANT_SENDMESSAGE);
+        this.assignedId = assignedId;
+    }
+
+    /**
+     * Returns the id the user name goes by.
+     *
+     * @return this.assignedId
+     */
+    public int getAssignedId() {
+        return this.assignedId;
+    }
+
+    /**
+     * Returns the empty string; an identity has no data beyond its id.
+     *
+     * @return ""
+     */
+    public String getData() {
+        return "";
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.userName, this.type, this.assignedId);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof IdentityClackData)) {
+            return false;
+        }
+        IdentityClackData otherIdentityClackData = (IdentityClackData) other;
+        return Objects.equals(this.userName, otherIdentityClackData.userName)
+                && this.type == otherIdentityClackData.type
+                && this.assignedId == otherIdentityClackData.assignedId;
+    }
+
+    @Override
+    public String toString() {
+        return "IdentityClackData [" + userName + " = " + assignedId + "]";
+    }
+}
@@ -1,9 +1,11 @@
 package data;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 public class ListUsersClackData extends ClackData {
+    private static final long serialVersionUID = 5804365467569879916L; // That of the first version, see ClackData
 
     /**
      * An ArrayList consisting of users connected to server.
@@ -47,6 +49,15 @@ public class ListUsersClackData extends ClackData {
         userList.remove(username);
     }
 
+    /**
+     * Returns the users in this list, for ClackDataCodec.
+     *
+     * @return userList
+     */
+    List<String> getUsers() {
+        return userList;
+    }
+
     /**
      * Returns the message.
      *
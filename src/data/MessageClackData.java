@@ -1,5 +1,6 @@
 package data;
 
+import java.security.GeneralSecurityException;
 import java.util.Objects;
 
 /**
@@ -8,6 +9,8 @@ import java.util.Objects;
  * @author xinchaosong
  */
 public class MessageClackData extends ClackData {
+    private static final long serialVersionUID = -5751952907424596110L; // That of the first version, see ClackData
+
     private String message;  // A string representing instant message
 
     /**
@@ -23,6 +26,22 @@ public class MessageClackData extends ClackData {
         super(username, type);
         this.message = encrypt(message,key);
     }
+
+    /**
+     * The constructor that encrypts the message with a cipher provider.
+     *
+     * @param userName a string representing the name of the client user
+     * @param message  a string representing instant message
+     * @param cipher   the cipher provider to encrypt the message with
+     * @param type     an int representing the data type
+     * @throws GeneralSecurityException if the message cannot be encrypted
+     */
+    public MessageClackData(String userName, String message, CipherProvider cipher, int type)
+            throws GeneralSecurityException {
+        super(userName, type);
+        this.message = cipher.encrypt(message);
+    }
+
     public MessageClackData(String userName, String message, int type) {
         super(userName, type);
         this.message = message;
@@ -52,6 +71,17 @@ public class MessageClackData extends ClackData {
         return decrypt(message, key);
     }
 
+    /**
+     * Returns the instant message decrypted with a cipher provider.
+     *
+     * @param cipher the cipher provider the message was encrypted with
+     * @return the decrypted message
+     * @throws GeneralSecurityException if the message was not encrypted with this provider and key
+     */
+    public String getData(CipherProvider cipher) throws GeneralSecurityException {
+        return cipher.decrypt(message);
+    }
+
 
     @Override
     public int hashCode() {
@@ -97,7 +127,7 @@ public class MessageClackData extends ClackData {
         return "This instance of MessageClackData has the following properties:\n"
                 + "Username: " + this.userName + "\n"
                 + "Type: " + this.type + "\n"
-                + "Date: " + this.date.toString() + "\n"
+                + "Date: " + getDate().toString() + "\n"
                 + "Message: " + this.message + "\n";
     }
 }
@@ -0,0 +1,139 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The child of ClackData that carries presence: who is online, as a full snapshot or as one
+ * user joining or leaving. A client subscribes once and the server answers with a snapshot
+ * tagged with the server's presence version, then sends a join or leave event for every
+ * change, each tagged with the version it produced. Versions go up by exactly one per event,
+ * so a client that sees a version it did not expect has missed something and subscribes
+ * again to resynchronize from a new snapshot.
+ */
+public class PresenceClackData extends ClackData {
+    private static final long serialVersionUID = 1L; // Changed only with an incompatible change to the fields
+
+    /**
+     * Sent by a client to start receiving presence, or to get a new snapshot after a gap.
+     */
+    public static final int EVENT_SUBSCRIBE = 0;
+
+    /**
+     * Every user online as of the version.
+     */
+    public static final int EVENT_SNAPSHOT = 1;
+
+    /**
+     * One user came online, producing the version.
+     */
+    public static final int EVENT_JOIN = 2;
+
+    /**
+     * One user went offline, producing the version.
+     */
+    public static final int EVENT_LEAVE = 3;
+
+    private int event;  // One of the EVENT_ constants
+    private long version;  // The presence version, meaningless for EVENT_SUBSCRIBE
+    private List<String> users;  // Every user for a snapshot, the one user for a join or leave
+
+    /**
+     * The constructor to set up every instance variable.
+     *
+     * @param userName a string representing the name of the client user
+     * @param event    one of the EVENT_ constants
+     * @param version  the presence version
+     * @param users    every user for a snapshot, the one user for a join or leave
+     */
+    public PresenceClackData(String userName, int event, long version, List<String> users) {
+        super(userName, CONSTANT_LISTUSERS);
+        this.event = event;
+        this.version = version;
+        this.users = users;
+    }
+
+    /**
+     * The constructor for a join or leave event.
+     *
+     * @param userName a string representing the name of the sender
+     * @param event    EVENT_JOIN or EVENT_LEAVE
+     * @param version  the version the event produced
+     * @param user     the user who joined or left
+     */
+    public PresenceClackData(String userName, int event, long version, String user) {
+        this(userName, event, version, Collections.singletonList(user));
+    }
+
+    /**
+     * The constructor for a subscription request.
+     *
+     * @param userName a string representing the name of the client user
+     */
+    public PresenceClackData(String userName) {
+        this(userName, EVENT_SUBSCRIBE, 0, new ArrayList<String>());
+    }
+
+    /**
+     * Returns the event.
+     *
+     * @return this.event
+     */
+    public int getEvent() {
+        return this.event;
+    }
+
+    /**
+     * Returns the version.
+     *
+     * @return this.version
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns the users: every user for a snapshot, the one user for a join or leave.
+     *
+     * @return this.users
+     */
+    public List<String> getUsers() {
+        return this.users;
+    }
+
+    /**
+     * Returns the users joined by ", ".
+     *
+     * @return the user names
+     */
+    public String getData() {
+        return String.join(", ", users);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.userName, this.event, this.version, this.users);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof PresenceClackData)) {
+            return false;
+        }
+        PresenceClackData otherPresenceClackData = (PresenceClackData) other;
+        return Objects.equals(this.userName, otherPresenceClackData.userName)
+                && this.event == otherPresenceClackData.event
+                && this.version == otherPresenceClackData.version
+                && Objects.equals(this.users, otherPresenceClackData.users);
+    }
+
+    @Override
+    public String toString() {
+        return "PresenceClackData [event " + event + ", version " + version + ": " + getData() + "]";
+    }
+}
@@ -0,0 +1,195 @@
+package data;
+
+/**
+ * VigenereCipher is the cipher behind ClackData.encrypt() and decrypt(), working in place on
+ * char[] or byte[] text in a single pass without allocating per character.
+ *
+ * It reproduces the original String-based implementation exactly. Only the ASCII letters a-z
+ * and A-Z are shifted, each by the next letter of the lower-cased key (a = 0, ..., z = 25);
+ * everything else is copied and does not use up a key letter. Encrypting turns upper-case
+ * letters into lower-case ones while decrypting keeps their case. A key character that is not
+ * a letter shifts by -1, which makes encrypting an 'a' fail with an
+ * ArrayIndexOutOfBoundsException as before. A null key means "a", which leaves the text as is.
+ *
+ * An instance remembers its position in the key between calls, so a text split into chunks,
+ * such as a file being streamed, can be processed chunk by chunk with the same result as in
+ * one piece. Because only ASCII letters are touched, processing the UTF-8 bytes of a text with
+ * the byte[] methods gives the UTF-8 bytes of processing its chars.
+ */
+public final class VigenereCipher {
+    private static final char[] LOWER_CASE = "abcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final char[] UPPER_CASE = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    private final int[] shifts; // The shift of each key letter, -1 for key characters that are not letters
+    private int keyIndex; // The key letter used for the next letter of text
+
+    /**
+     * The constructor that prepares a key, starting at its first letter.
+     *
+     * @param key the key, or null for "a"
+     */
+    public VigenereCipher(String key) {
+        if (key == null) {
+            key = "a";
+        }
+        String lowerCaseKey = key.toLowerCase();
+        this.shifts = new int[Math.min(key.length(), lowerCaseKey.length())];
+        for (int i = 0; i < shifts.length; i++) {
+            char c = lowerCaseKey.charAt(i);
+            shifts[i] = c >= 'a' && c <= 'z' ? c - 'a' : -1;
+        }
+        this.keyIndex = 0;
+    }
+
+    /**
+     * Encrypts a String the way ClackData.encrypt() always has.
+     *
+     * @param text the text to encrypt, or null for ""
+     * @param key  the key, or null for "a"
+     * @return the encrypted text
+     */
+    public static String encrypt(String text, String key) {
+        if (text == null) {
+            return "";
+        }
+        char[] chars = text.toCharArray();
+        new VigenereCipher(key).encrypt(chars, 0, chars.length);
+        return new String(chars);
+    }
+
+    /**
+     * Decrypts a String the way ClackData.decrypt() always has.
+     *
+     * @param text the text to decrypt, or null for ""
+     * @param key  the key, or null for "a"
+     * @return the decrypted text
+     */
+    public static String decrypt(String text, String key) {
+        if (text == null) {
+            return "";
+        }
+        char[] chars = text.toCharArray();
+        new VigenereCipher(key).decrypt(chars, 0, chars.length);
+        return new String(chars);
+    }
+
+    /**
+     * Encrypts chars in place, continuing from where the previous call left the key.
+     *
+     * @param text   the chars to encrypt
+     * @param offset the first char to encrypt
+     * @param length the number of chars to encrypt
+     */
+    public void encrypt(char[] text, int offset, int length) {
+        checkKey(length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            char c = text[i];
+            if (c >= 'a' && c <= 'z') {
+                text[i] = LOWER_CASE[wrapEncrypted(c - 'a' + nextShift())];
+            } else if (c >= 'A' && c <= 'Z') {
+                text[i] = LOWER_CASE[wrapEncrypted(c - 'A' + nextShift())];
+            }
+        }
+    }
+
+    /**
+     * Decrypts chars in place, continuing from where the previous call left the key.
+     *
+     * @param text   the chars to decrypt
+     * @param offset the first char to decrypt
+     * @param length the number of chars to decrypt
+     */
+    public void decrypt(char[] text, int offset, int length) {
+        checkKey(length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            char c = text[i];
+            if (c >= 'a' && c <= 'z') {
+                text[i] = LOWER_CASE[wrapDecrypted(c - 'a' - nextShift())];
+            } else if (c >= 'A' && c <= 'Z') {
+                text[i] = UPPER_CASE[wrapDecrypted(c - 'A' - nextShift())];
+            }
+        }
+    }
+
+    /**
+     * Encrypts bytes in place, continuing from where the previous call left the key. Bytes
+     * that are not ASCII letters, including every byte of a multi-byte UTF-8 sequence, are
+     * left alone.
+     *
+     * @param text   the bytes to encrypt
+     * @param offset the first byte to encrypt
+     * @param length the number of bytes to encrypt
+     */
+    public void encrypt(byte[] text, int offset, int length) {
+        checkKey(length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            byte b = text[i];
+            if (b >= 'a' && b <= 'z') {
+                text[i] = (byte) LOWER_CASE[wrapEncrypted(b - 'a' + nextShift())];
+            } else if (b >= 'A' && b <= 'Z') {
+                text[i] = (byte) LOWER_CASE[wrapEncrypted(b - 'A' + nextShift())];
+            }
+        }
+    }
+
+    /**
+     * Decrypts bytes in place, continuing from where the previous call left the key.
+     *
+     * @param text   the bytes to decrypt
+     * @param offset the first byte to decrypt
+     * @param length the number of bytes to decrypt
+     */
+    public void decrypt(byte[] text, int offset, int length) {
+        checkKey(length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            byte b = text[i];
+            if (b >= 'a' && b <= 'z') {
+                text[i] = (byte) LOWER_CASE[wrapDecrypted(b - 'a' - nextShift())];
+            } else if (b >= 'A' && b <= 'Z') {
+                text[i] = (byte) UPPER_CASE[wrapDecrypted(b - 'A' - nextShift())];
+            }
+        }
+    }
+
+    /**
+     * Goes back to the first letter of the key, for starting a new text.
+     */
+    public void reset() {
+        keyIndex = 0;
+    }
+
+    private int nextShift() {
+        int shift = shifts[keyIndex];
+        keyIndex = keyIndex + 1 == shifts.length ? 0 : keyIndex + 1;
+        return shift;
+    }
+
+    /**
+     * Brings a letter index shifted forward, between -1 and 50, back into the alphabet. The
+     * only value it cannot bring back is -1, from encrypting an 'a' with a key character that
+     * is not a letter, which the original cipher also failed on.
+     */
+    private static int wrapEncrypted(int index) {
+        return index >= 26 ? index - 26 : index;
+    }
+
+    /**
+     * Brings a letter index shifted back, between -25 and 26, into the alphabet.
+     */
+    private static int wrapDecrypted(int index) {
+        if (index < 0) {
+            return index + 26;
+        }
+        return index >= 26 ? index - 26 : index;
+    }
+
+    /**
+     * The original cipher divided by the key length for every character, so an empty key
+     * fails on any non-empty text.
+     */
+    private void checkKey(int length) {
+        if (shifts.length == 0 && length > 0) {
+            throw new ArithmeticException("Empty key");
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The CipherProvider for the original Vigenere cipher, kept so that data encrypted with a key
+ * such as ClackClient's "RAMP" still reads the same. Strings are encrypted exactly as
+ * ClackData.encrypt() does; buffers are treated as UTF-8 text, which gives the same bytes.
+ * It offers no real confidentiality.
+ */
+public class VigenereCipherProvider implements CipherProvider {
+    private static final int SCRATCH_SIZE = 8192; // Bytes copied at a time for direct buffers
+
+    private final String key;  // The Vigenere key, null meaning "a"
+
+    /**
+     * The constructor that sets the key.
+     *
+     * @param key the key, or null for "a"
+     */
+    public VigenereCipherProvider(String key) {
+        this.key = key;
+    }
+
+    @Override
+    public String getName() {
+        return "vigenere";
+    }
+
+    @Override
+    public int getOverhead() {
+        return 0;
+    }
+
+    @Override
+    public void encrypt(ByteBuffer plaintext, ByteBuffer ciphertext) {
+        transform(plaintext, ciphertext, true);
+    }
+
+    @Override
+    public void decrypt(ByteBuffer ciphertext, ByteBuffer plaintext) {
+        transform(ciphertext, plaintext, false);
+    }
+
+    @Override
+    public String encrypt(String plaintext) {
+        return VigenereCipher.encrypt(plaintext, key);
+    }
+
+    @Override
+    public String decrypt(String ciphertext) {
+        return VigenereCipher.decrypt(ciphertext, key);
+    }
+
+    /**
+     * Copies the input to the output and runs the cipher over the copy, in place where the
+     * output has an array and through a scratch array otherwise.
+     */
+    private void transform(ByteBuffer in, ByteBuffer out, boolean encrypt) {
+        VigenereCipher cipher = new VigenereCipher(key);
+        if (out.hasArray()) {
+            int start = out.arrayOffset() + out.position();
+            int length = in.remaining();
+            out.put(in);
+            apply(cipher, out.array(), start, length, encrypt);
+            return;
+        }
+        byte[] scratch = new byte[Math.min(in.remaining(), SCRATCH_SIZE)];
+        while (in.hasRemaining()) {
+            int length = Math.min(in.remaining(), scratch.length);
+            in.get(scratch, 0, length);
+            apply(cipher, scratch, 0, length, encrypt);
+            out.put(scratch, 0, length);
+        }
+    }
+
+    private static void apply(VigenereCipher cipher, byte[] text, int offset, int length, boolean encrypt) {
+        if (encrypt) {
+            cipher.encrypt(text, offset, length);
+        } else {
+            cipher.decrypt(text, offset, length);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package main;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A log that never makes the thread logging wait on I/O. Records go into a bounded lock-free
+ * ring (an OutboundQueue) and a single background writer takes them off in batches, formats
+ * them, and writes each batch to the file or console with one flush. Formatting happens on the
+ * writer, so logging an object costs no toString() on the caller's thread, and records below
+ * the log's level are discarded before anything is allocated. When the ring is full the
+ * record is dropped and counted rather than blocking; the writer reports how many were lost.
+ *
+ * The writer thread starts with the first record kept and flushes what is left when the log
+ * is closed or the JVM shuts down.
+ */
+public class AsyncLog {
+    /**
+     * The number of records the ring holds when none is given.
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_BATCH = 512; // Records written between flushes
+
+    private final Path file; // The file appended to, or null for the console
+    private final LogLevel level; // The least severe level kept
+    private final OutboundQueue<Record> ring; // Records waiting for the writer
+    private final LongAdder dropped; // Records lost because the ring was full
+    private final AtomicBoolean started; // Whether the writer thread has been started
+    private Thread writer;
+
+    /**
+     * The constructor that sets the destination, level and capacity.
+     *
+     * @param file     the file to append to, or null to write to System.out
+     * @param level    the least severe level to keep
+     * @param capacity the number of records the ring holds
+     */
+    public AsyncLog(Path file, LogLevel level, int capacity) {
+        this.file = file;
+        this.level = level;
+        this.ring = new OutboundQueue<Record>(capacity);
+        this.dropped = new LongAdder();
+        this.started = new AtomicBoolean(false);
+    }
+
+    /**
+     * The constructor that sets the destination and level, with the default capacity.
+     *
+     * @param file  the file to append to, or null to write to System.out
+     * @param level the least severe level to keep
+     */
+    public AsyncLog(Path file, LogLevel level) {
+        this(file, level, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns whether records of a level are kept, so callers can skip building a message.
+     *
+     * @param recordLevel the level to check
+     * @return true if records of that level are kept
+     */
+    public boolean isEnabled(LogLevel recordLevel) {
+        return recordLevel != LogLevel.OFF && recordLevel.compareTo(level) >= 0;
+    }
+
+    /**
+     * Logs a message.
+     *
+     * @param recordLevel the level of the record
+     * @param message     the message
+     */
+    public void log(LogLevel recordLevel, String message) {
+        log(recordLevel, message, null);
+    }
+
+    /**
+     * Logs a message followed by an object, which the writer turns into text later.
+     *
+     * @param recordLevel the level of the record
+     * @param message     the message
+     * @param detail      the object to append, or null for none; it must not change after this call
+     */
+    public void log(LogLevel recordLevel, String message, Object detail) {
+        if (!isEnabled(recordLevel)) {
+            return;
+        }
+        if (!started.get() && started.compareAndSet(false, true)) {
+            startWriter();
+        }
+        Record record = new Record(System.currentTimeMillis(), recordLevel, Thread.currentThread().getName(),
+                message, detail);
+        if (!ring.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    public void debug(String message, Object detail) {
+        log(LogLevel.DEBUG, message, detail);
+    }
+
+    public void info(String message) {
+        log(LogLevel.INFO, message, null);
+    }
+
+    public void warn(String message) {
+        log(LogLevel.WARN, message, null);
+    }
+
+    /**
+     * Returns the number of records dropped because the ring was full.
+     *
+     * @return the dropped count
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stops taking records, waits for the writer to write what is queued, and closes the
+     * file. Records logged afterwards are dropped.
+     *
+     * @throws InterruptedException if interrupted while waiting for the writer
+     */
+    public void close() throws InterruptedException {
+        ring.close();
+        Thread running;
+        synchronized (this) {
+            running = writer;
+        }
+        if (running != null && running != Thread.currentThread()) {
+            running.join();
+        }
+    }
+
+    private synchronized void startWriter() {
+        writer = new Thread(this::writeRecords, "clack-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                close();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }, "clack-log-shutdown"));
+    }
+
+    /**
+     * The writer thread: takes a record, then whatever else is already queued up to
+     * MAX_BATCH, writes them and flushes once, until the log is closed and drained.
+     */
+    private void writeRecords() {
+        Writer out = null;
+        try {
+            out = file == null
+                    ? null
+                    : Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+            StringBuilder line = new StringBuilder(256);
+            long reportedDropped = 0;
+            Record record;
+            while ((record = ring.take()) != null) {
+                Writer batchOut = out != null
+                        ? out : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                int batch = 0;
+                do {
+                    line.setLength(0);
+                    record.format(line);
+                    batchOut.append(line);
+                } while (++batch < MAX_BATCH && (record = ring.poll()) != null);
+                long lost = dropped.sum();
+                if (lost != reportedDropped) {
+                    line.setLength(0);
+                    new Record(System.currentTimeMillis(), LogLevel.WARN, "clack-log-writer",
+                            (lost - reportedDropped) + " log records dropped, the log ring was full", null)
+                            .format(line);
+                    batchOut.append(line);
+                    reportedDropped = lost;
+                }
+                batchOut.flush();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ioe) {
+            System.err.println("Error in writing the log");
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ioe) {
+                    System.err.println("Error in closing the log");
+                }
+            }
+        }
+    }
+
+    /**
+     * One log record as it waits in the ring.
+     */
+    private static class Record {
+        private final long millis; // When the record was logged
+        private final LogLevel level;
+        private final String threadName; // The thread that logged it
+        private final String message;
+        private final Object detail; // Appended after the message, formatted by the writer
+
+        Record(long millis, LogLevel level, String threadName, String message, Object detail) {
+            this.millis = millis;
+            this.level = level;
+            this.threadName = threadName;
+            this.message = message;
+            this.detail = detail;
+        }
+
+        /**
+         * Appends the record as one or more lines: time, level, thread, message and detail.
+         */
+        void format(StringBuilder line) {
+            line.append(Instant.ofEpochMilli(millis)).append(' ').append(level);
+            for (int i = level.name().length(); i < 5; i++) {
+                line.append(' ');
+            }
+            line.append(" [").append(threadName).append("] ").append(message);
+            if (detail != null) {
+                line.append(' ').append(detail);
+            }
+            line.append(System.lineSeparator());
+        }
+    }
+}
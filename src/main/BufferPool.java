@@ -0,0 +1,236 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of ByteBuffers in power-of-two size classes, so the server's frame encodings and
+ * read buffers are reused instead of allocated for every message. Direct buffers in particular
+ * are expensive to allocate and are only freed by the garbage collector, so a server that
+ * allocates them per message churns native memory as well as the young generation.
+ *
+ * Buffers go to and come from a bounded lock-free ring per class shared by every thread,
+ * which covers buffers acquired on one thread and released on another, as broadcast frames
+ * are. A thread that serves many clients, as a reactor does, can also keep a small stack of
+ * buffers per class with cacheOnThisThread(), which acquire() and release() then try first
+ * without any synchronization. Other threads go straight to the rings: with a thread per
+ * client, caches would strand a few buffers on every client thread and most acquires would
+ * miss them anyway. Only when neither has a buffer is one allocated, and a release that
+ * finds both full leaves the buffer to the garbage collector. Requests larger than the
+ * largest class are allocated exactly and never pooled.
+ *
+ * Every acquired buffer must be released exactly once, and not used after. With leak
+ * detection on, the pool remembers where each outstanding buffer was acquired so a test can
+ * report the ones never released, and a release of a buffer that is not outstanding fails.
+ */
+public class BufferPool {
+    private static final int MIN_CLASS_SHIFT = 8; // The smallest class holds 256 bytes
+    private static final int MAX_CLASS_SHIFT = 20; // The largest class holds 1 MiB
+    private static final int MAX_THREAD_CACHED_SHIFT = 16; // Larger classes are only pooled in the shared rings
+    private static final int THREAD_CACHE_BYTES = 64 * 1024; // Per class and thread
+    private static final int MAX_THREAD_CACHED = 16; // Buffers per class and thread
+    private static final int SHARED_BYTES = 4 * 1024 * 1024; // Per class
+
+    private final boolean direct; // Whether buffers are direct or heap buffers
+    private final List<OutboundQueue<ByteBuffer>> shared; // The buffers every thread can take, by class
+    private final ThreadLocal<ThreadCache> threadCaches; // Unset except on threads that asked for a cache
+    private final LongAdder allocations; // Buffers created because none was free
+    private final LongAdder outstanding; // Buffers acquired and not yet released
+    private volatile Map<ByteBuffer, Throwable> acquiredAt; // Where each outstanding buffer was acquired, null when off
+
+    /**
+     * The constructor that chooses the kind of buffer, with leak detection on if the system
+     * property clack.leakDetection is true.
+     *
+     * @param direct true for direct buffers, false for heap buffers, which have an array
+     */
+    public BufferPool(boolean direct) {
+        this.direct = direct;
+        this.shared = new ArrayList<OutboundQueue<ByteBuffer>>(MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1);
+        for (int i = 0; i <= MAX_CLASS_SHIFT - MIN_CLASS_SHIFT; i++) {
+            shared.add(new OutboundQueue<ByteBuffer>(Math.max(4, SHARED_BYTES >> (MIN_CLASS_SHIFT + i))));
+        }
+        this.threadCaches = new ThreadLocal<ThreadCache>();
+        this.allocations = new LongAdder();
+        this.outstanding = new LongAdder();
+        setLeakDetection(Boolean.getBoolean("clack.leakDetection"));
+    }
+
+    /**
+     * Returns a buffer with position 0 and a limit of the requested size. Its capacity is
+     * that of its size class and may be larger; clear() makes all of it usable.
+     *
+     * @param size the number of bytes needed
+     * @return the buffer, to be handed back with release()
+     */
+    public ByteBuffer acquire(int size) {
+        int index = classIndex(size);
+        ByteBuffer buffer = null;
+        if (index < shared.size()) {
+            ThreadCache cache = threadCaches.get();
+            if (cache != null) {
+                buffer = cache.pop(index);
+            }
+            if (buffer == null) {
+                buffer = shared.get(index).poll();
+            }
+        }
+        if (buffer == null) {
+            buffer = allocate(index < shared.size() ? 1 << (MIN_CLASS_SHIFT + index) : size);
+            allocations.increment();
+        }
+        buffer.clear().limit(size);
+        outstanding.increment();
+        Map<ByteBuffer, Throwable> sites = acquiredAt;
+        if (sites != null) {
+            synchronized (sites) {
+                sites.put(buffer, new Throwable("Buffer of " + size + " bytes acquired here"));
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer from acquire() back to the pool.
+     *
+     * @param buffer the buffer, which must not be used afterwards
+     * @throws IllegalStateException with leak detection on, if the buffer is not outstanding
+     */
+    public void release(ByteBuffer buffer) {
+        Map<ByteBuffer, Throwable> sites = acquiredAt;
+        if (sites != null) {
+            synchronized (sites) {
+                if (sites.remove(buffer) == null) {
+                    throw new IllegalStateException("Released a buffer that is not outstanding");
+                }
+            }
+        }
+        outstanding.decrement();
+        int capacity = buffer.capacity();
+        int index = classIndex(capacity);
+        if (index >= shared.size() || capacity != 1 << (MIN_CLASS_SHIFT + index) || buffer.isDirect() != direct) {
+            return;
+        }
+        ThreadCache cache = threadCaches.get();
+        if (cache == null || !cache.push(index, buffer)) {
+            shared.get(index).offer(buffer);
+        }
+    }
+
+    /**
+     * Gives the calling thread a cache of its own in front of the shared rings, unless it has
+     * one already. Meant for the few long-lived threads that acquire and release most of the
+     * pool's buffers, such as reactors.
+     */
+    public void cacheOnThisThread() {
+        if (threadCaches.get() == null) {
+            threadCaches.set(new ThreadCache());
+        }
+    }
+
+    /**
+     * Turns leak detection on or off. Turning it on only tracks buffers acquired from then on,
+     * so it should be done before the pool is used.
+     *
+     * @param leakDetection whether to record where each buffer is acquired
+     */
+    public void setLeakDetection(boolean leakDetection) {
+        this.acquiredAt = leakDetection ? new IdentityHashMap<ByteBuffer, Throwable>() : null;
+    }
+
+    /**
+     * Returns where each buffer acquired and not released since leak detection was turned on
+     * was acquired.
+     *
+     * @return a stack trace per outstanding buffer, empty if leak detection is off
+     */
+    public List<Throwable> getLeaks() {
+        Map<ByteBuffer, Throwable> sites = acquiredAt;
+        if (sites == null) {
+            return new ArrayList<Throwable>();
+        }
+        synchronized (sites) {
+            return new ArrayList<Throwable>(sites.values());
+        }
+    }
+
+    /**
+     * Returns the number of buffers acquired and not yet released.
+     *
+     * @return the outstanding buffer count
+     */
+    public long getOutstanding() {
+        return outstanding.sum();
+    }
+
+    /**
+     * Returns the number of buffers allocated because the pool had none free of the size
+     * asked for. Once traffic is steady this should stop growing.
+     *
+     * @return the allocation count
+     */
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    /**
+     * Returns whether the pool hands out direct buffers.
+     *
+     * @return this.direct
+     */
+    public boolean isDirect() {
+        return this.direct;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Returns the index of the smallest class that holds the size, which is past the last
+     * class for sizes larger than the largest.
+     */
+    private static int classIndex(int size) {
+        if (size <= 1 << MIN_CLASS_SHIFT) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+    }
+
+    /**
+     * The buffers one thread keeps for itself, a stack per class.
+     */
+    private static final class ThreadCache {
+        private final ByteBuffer[][] stacks;
+        private final int[] sizes;
+
+        private ThreadCache() {
+            this.stacks = new ByteBuffer[MAX_THREAD_CACHED_SHIFT - MIN_CLASS_SHIFT + 1][];
+            for (int i = 0; i < stacks.length; i++) {
+                stacks[i] = new ByteBuffer[Math.min(MAX_THREAD_CACHED, THREAD_CACHE_BYTES >> (MIN_CLASS_SHIFT + i))];
+            }
+            this.sizes = new int[stacks.length];
+        }
+
+        private ByteBuffer pop(int index) {
+            if (index >= stacks.length || sizes[index] == 0) {
+                return null;
+            }
+            ByteBuffer buffer = stacks[index][--sizes[index]];
+            stacks[index][sizes[index]] = null;
+            return buffer;
+        }
+
+        private boolean push(int index, ByteBuffer buffer) {
+            if (index >= stacks.length || sizes[index] == stacks[index].length) {
+                return false;
+            }
+            stacks[index][sizes[index]++] = buffer;
+            return true;
+        }
+    }
+}
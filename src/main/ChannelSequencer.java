@@ -0,0 +1,84 @@
+package main;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out the sequences a server stamps on data sent to a channel, or to every client when
+ * no message history numbers that data instead. Each channel counts up from zero on its own,
+ * so a client can tell from a channel's sequences alone whether it missed or reordered
+ * anything there, see ReorderWindow.
+ *
+ * Every channel also has a lock, which the server holds from taking a sequence until the data
+ * is in every member's outbound queue, and while a connection joins or leaves the channel. So
+ * each member's queue holds the channel's data in sequence order, and a new member's first
+ * sequence is exactly the one it was told it starts at. Senders to different channels do not
+ * contend. Finding a channel is a lock-free map read; only the first use of a new channel
+ * takes the map's lock to create it. Channels outlive their members, so a channel that
+ * empties and fills again carries on from where it was instead of repeating sequences.
+ */
+public class ChannelSequencer {
+    private final Sequence everyone; // The sequence of data sent to every client
+    private final ConcurrentHashMap<String, Sequence> channels; // The sequence of every channel used
+
+    /**
+     * The default constructor, with every count at zero.
+     */
+    public ChannelSequencer() {
+        this.everyone = new Sequence();
+        this.channels = new ConcurrentHashMap<String, Sequence>();
+    }
+
+    /**
+     * Returns the lock that orders a channel: held while taking its sequences and handing the
+     * data to its members, and while changing its members.
+     *
+     * @param channel the channel name, or null for every client
+     * @return the channel's lock
+     */
+    public ReentrantLock lockOf(String channel) {
+        return sequenceOf(channel).lock;
+    }
+
+    /**
+     * Takes the next sequence of a channel. The caller holds the channel's lock until the data
+     * has been handed to every member.
+     *
+     * @param channel the channel name, or null for every client
+     * @return the sequence, one more than the last one taken for the channel
+     */
+    public long next(String channel) {
+        return sequenceOf(channel).next.getAndIncrement();
+    }
+
+    /**
+     * Returns the sequence the next data sent to a channel will get, without taking it.
+     *
+     * @param channel the channel name, or null for every client
+     * @return the number of sequences taken for the channel so far
+     */
+    public long peek(String channel) {
+        if (channel == null) {
+            return everyone.next.get();
+        }
+        Sequence sequence = channels.get(channel);
+        return sequence == null ? 0 : sequence.next.get();
+    }
+
+    private Sequence sequenceOf(String channel) {
+        if (channel == null) {
+            return everyone;
+        }
+        Sequence sequence = channels.get(channel);
+        return sequence != null ? sequence : channels.computeIfAbsent(channel, name -> new Sequence());
+    }
+
+    /**
+     * One channel's count and the lock that orders it.
+     */
+    private static class Sequence {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicLong next = new AtomicLong(); // The sequence the next data gets
+    }
+}
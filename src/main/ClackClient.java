@@ -1,9 +1,13 @@
 package main;
 
+import data.ChannelClackData;
 import data.ClackData;
-import data.FileClackData;
+import data.FileChunkClackData;
+import data.HeartbeatClackData;
+import data.IdentityClackData;
 import data.MessageClackData;
 import data.ListUsersClackData;
+import data.PresenceClackData;
 
 import java.io.*;
 import java.net.*;
@@ -12,10 +16,21 @@ import java.lang.*;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.Time;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
 
 import static java.lang.Integer.parseInt;
 
@@ -29,6 +44,8 @@ import static java.lang.Integer.parseInt;
  */
 public class ClackClient {
     private static final int DEFAULT_PORT = 1738;  // The default port number
+    private static final String DOWNLOAD_DIRECTORY = "clack-downloads"; // Where received files are written
+    private static final long MAX_RECONNECT_BACKOFF_MILLIS = 5000; // The longest wait between reconnect attempts
 
     private String userName;  // A string representing the name of the client
     private String hostName;  // A string representing the name of the computer representing the server
@@ -40,6 +57,18 @@ public class ClackClient {
     private final static String CONSTANT_KEY= "RAMP";
     private ObjectOutputStream outToServer=null;
     private ObjectInputStream inFromServer=null;
+    private boolean framed; // Whether to talk frames (see FrameCodec) instead of an object stream
+    private byte codec; // The frame codec agreed on with the server
+    private ThreadMode threadMode; // The kind of thread the server listener runs on
+    private DataOutputStream frameOutToServer=null;
+    private DataInputStream frameInFromServer=null;
+    private FileChunkAssembler fileChunkAssembler; // Reassembles files streamed by other users
+    private PresenceView presenceView; // Who is online, kept up to date once PRESENCE subscribes
+    private Socket socket; // The connection to the server, replaced when a framed client reconnects
+    private long lastSeen; // The highest history sequence received, NO_SEQUENCE before the first
+    private ReorderWindow reorderWindow; // Puts each channel's data back in sequence order, framed only
+    private volatile int userId; // The id the server gave userName on this connection, sent in its place
+    private volatile String channel; // The channel messages and files are sent to, set by JOIN, null for everyone
 
     /**
      * The constructor to set up the username, host name, and port.
@@ -59,6 +88,14 @@ public class ClackClient {
         this.dataToReceiveFromServer = null;
         this.inFromServer = null;
         this.outToServer = null;
+        this.framed = false;
+        this.threadMode = ThreadMode.PLATFORM;
+        this.fileChunkAssembler = new FileChunkAssembler(Paths.get(DOWNLOAD_DIRECTORY));
+        this.presenceView = new PresenceView();
+        this.lastSeen = ClackData.NO_SEQUENCE;
+        this.reorderWindow = new ReorderWindow();
+        this.userId = ClackData.NO_USER_ID;
+        this.channel = null;
         if(userName==null) {
             throw new IllegalArgumentException("Invalid Argument for user name");
         }
@@ -106,15 +143,25 @@ public class ClackClient {
      */
     public void start() {
         try {
-            Socket skt = new Socket(this.hostName , this.port);
+            Socket skt = this.connect();
+            socket = skt;
             System.out.println("Connected.\n-");
 
-            inFromServer = new ObjectInputStream(skt.getInputStream());
-            outToServer = new ObjectOutputStream(skt.getOutputStream());
+            if (framed) {
+                frameInFromServer = new DataInputStream(new BufferedInputStream(skt.getInputStream()));
+                frameOutToServer = new DataOutputStream(new BufferedOutputStream(skt.getOutputStream()));
+                this.sendHello();
+            } else {
+                inFromServer = new ObjectInputStream(skt.getInputStream());
+                outToServer = new ObjectOutputStream(new BufferedOutputStream(skt.getOutputStream()));
+                outToServer.flush();
+            }
 
             ClientSideServerListener listener = new ClientSideServerListener(this);
-            Thread listenerThread = new Thread(listener);
-            listenerThread.start();
+            ExecutorService listenerExecutor =
+                    ConnectionExecutors.newThreadPerTaskExecutor(threadMode, "clack-listener-");
+            listenerExecutor.execute(listener);
+            listenerExecutor.shutdown();
             inFromStd = new Scanner(System.in);
 
             while(!closeConnection) {
@@ -124,7 +171,7 @@ public class ClackClient {
             }
 
             inFromStd.close();
-            skt.close();
+            socket.close();
         } catch(UnknownHostException uhe) {
             System.err.println("Unknown host");
         } catch(SecurityException se) {
@@ -144,52 +191,289 @@ public class ClackClient {
         }
     }
 
+    /**
+     * Opens a socket to the server with Nagle's algorithm off. Every send is written as one
+     * buffered block and flushed at once, so there is nothing for Nagle to coalesce and it
+     * would only hold a message back until the previous one is acknowledged.
+     *
+     * @return the connected socket
+     * @throws IOException if the connection fails
+     */
+    private Socket connect() throws IOException {
+        Socket skt = new Socket(this.hostName, this.port);
+        skt.setTcpNoDelay(true);
+        return skt;
+    }
+
+    /**
+     * Skips the object stream header the server opens with, offers the newest codec in the
+     * hello and takes whichever codec the server answers with. Once a sequenced message has
+     * been received, the hello asks the server to replay the history after it first. The
+     * hello also asks for the user id, which a new connection has to be told again.
+     *
+     * @throws IOException if the server does not accept frames
+     */
+    private void sendHello() throws IOException {
+        userId = ClackData.NO_USER_ID;
+        codec = FrameCodec.handshake(frameInFromServer, frameOutToServer,
+                (byte) (FrameCodec.NEWEST_CODEC | FrameCodec.HELLO_IDENTIFY), lastSeen);
+    }
+
     public void readClientData() {
         String input = inFromStd.next();
         if (input.equals("LOGOUT") || input.equals("DONE")) {
             closeConnection = true;
             dataToSendToServer = new MessageClackData(this.userName, "", dataToSendToServer.CONSTANT_LOGOUT);
-        } else if(input.length() >= 8 && input.substring(0,7).equals("SENDFILE")) {
+        } else if(input.equals("SENDFILE")) {
             String filename = inFromStd.next();
-            dataToSendToServer = new FileClackData(this.userName, filename, dataToSendToServer.CONSTANT_SENDFILE);
+            this.sendFile(filename);
+            dataToSendToServer = null;
         } else if (input.equals("LISTUSERS")) {
             dataToSendToServer = new ListUsersClackData(userName, ClackData.CONSTANT_LISTUSERS);
+        } else if (input.equals("PRESENCE")) {
+            dataToSendToServer = new PresenceClackData(userName);
+        } else if (input.equals("JOIN")) {
+            channel = inFromStd.next();
+            dataToSendToServer = new ChannelClackData(userName, ChannelClackData.EVENT_JOIN, channel);
+        } else if (input.equals("LEAVE")) {
+            String left = inFromStd.next();
+            if (left.equals(channel)) {
+                channel = null;
+            }
+            dataToSendToServer = new ChannelClackData(userName, ChannelClackData.EVENT_LEAVE, left);
+        } else if (input.equals("DM")) {
+            String recipient = inFromStd.next();
+            dataToSendToServer = new MessageClackData(this.userName, inFromStd.nextLine().trim(), ClackData.CONSTANT_SENDMESSAGE);
+            dataToSendToServer.setRecipient(recipient);
         } else {
             input += inFromStd.nextLine();
             dataToSendToServer = new data.MessageClackData(this.userName, input, dataToSendToServer.CONSTANT_SENDMESSAGE);
+            dataToSendToServer.setChannel(channel);
+        }
+    }
+
+    /**
+     * Streams a file to the server as FileChunkClackData chunks of DEFAULT_CHUNK_SIZE bytes,
+     * holding only one chunk in memory at a time. The last chunk (empty if the file length is
+     * a multiple of the chunk size) carries the CRC-32 of the whole file.
+     *
+     * @param fileName the name of the file to send
+     */
+    public void sendFile(String fileName) {
+        long transferId = ThreadLocalRandom.current().nextLong();
+        try (FileChannel file = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(FileChunkClackData.DEFAULT_CHUNK_SIZE);
+            CRC32 crc = new CRC32();
+            long offset = 0;
+            boolean endOfFile = false;
+            while (!endOfFile) {
+                buffer.clear();
+                while (buffer.hasRemaining() && !endOfFile) {
+                    endOfFile = file.read(buffer) < 0;
+                }
+                byte[] chunk = Arrays.copyOf(buffer.array(), buffer.position());
+                crc.update(chunk);
+                dataToSendToServer = new FileChunkClackData(this.userName, fileName, transferId, offset,
+                        chunk, endOfFile, endOfFile ? crc.getValue() : 0);
+                dataToSendToServer.setChannel(channel);
+                this.sendData();
+                if (!framed) {
+                    // Keep the object stream from holding on to every chunk already sent.
+                    outToServer.reset();
+                }
+                offset += chunk.length;
+            }
+        } catch (FileNotFoundException | NoSuchFileException fnfe) {
+            System.err.println("File could not be found");
+        } catch (IOException ioe) {
+            System.err.println("IO Exception occured");
         }
     }
 
     public void sendData() {
+        if (dataToSendToServer == null) {
+            return;
+        }
+        send(dataToSendToServer);
+    }
+
+    /**
+     * Writes data to the server. Synchronized because the listener thread also writes, when
+     * it has to subscribe to presence again. Once the server has told this client its user
+     * id, data goes under the id instead of the name, except file chunks, which the server
+     * relays as they are.
+     *
+     * @param data the data to send
+     */
+    private synchronized void send(ClackData data) {
         try {
-            outToServer.writeObject(dataToSendToServer);
+            if (framed) {
+                if (userId != ClackData.NO_USER_ID && !(data instanceof FileChunkClackData)
+                        && userName.equals(data.getUserName())) {
+                    data.setUserId(userId);
+                }
+                FrameCodec.write(frameOutToServer, data, codec);
+            } else {
+                outToServer.writeObject(data);
+                outToServer.flush();
+            }
         } catch (IOException ioe) {
             System.err.println("Error in writing to stream or closing stream when sending to server");
         }
     }
 
+    /**
+     * Receives the next data from the server, which a framed client takes in each channel's
+     * sequence order, see receiveInOrder(). A framed client that loses its connection
+     * reconnects and resumes from the last sequence it received, leaving no data received.
+     * A heartbeat is answered at once and also leaves no data received, and so does the
+     * server telling this client its user id.
+     */
     public void receiveData() {
         try {
-            dataToReceiveFromServer = (ClackData) inFromServer.readObject();
+            if (framed) {
+                dataToReceiveFromServer = this.receiveInOrder();
+                if (dataToReceiveFromServer.getChannel() == null) {
+                    lastSeen = Math.max(lastSeen, dataToReceiveFromServer.getSequence());
+                }
+            } else {
+                dataToReceiveFromServer = (ClackData) inFromServer.readObject();
+            }
+            if (dataToReceiveFromServer instanceof HeartbeatClackData) {
+                dataToReceiveFromServer = null;
+                send(new HeartbeatClackData(userName));
+            } else if (dataToReceiveFromServer instanceof IdentityClackData) {
+                IdentityClackData identity = (IdentityClackData) dataToReceiveFromServer;
+                if (userName.equals(identity.getUserName())) {
+                    userId = identity.getAssignedId();
+                }
+                dataToReceiveFromServer = null;
+            }
         } catch (IOException ioe) {
             System.err.println("Error in reading or closing the stream");
+            if (framed && !closeConnection) {
+                dataToReceiveFromServer = null;
+                this.reconnect();
+            }
         } catch (ClassNotFoundException cnfe) {
             System.err.println("Error in finding object from stream");
         }
     }
 
     /**
-     * Prints the received data to the standard output.
+     * Returns the next data the reorder window releases, reading frames until it releases
+     * one. While it holds data back behind a gap, a frame is only read once one has arrived,
+     * so that a gap that is never filled is given up on after the window's delay rather than
+     * whenever the server next sends something. Sequences given up on are reported.
+     *
+     * @return the data
+     * @throws IOException if reading a frame fails
+     */
+    private ClackData receiveInOrder() throws IOException {
+        ClackData data;
+        long missed = reorderWindow.getMissed();
+        while ((data = reorderWindow.poll()) == null) {
+            if (reorderWindow.isHolding() && frameInFromServer.available() == 0) {
+                if (System.nanoTime() - reorderWindow.nextDeadline() >= 0) {
+                    reorderWindow.expire();
+                } else {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            } else {
+                reorderWindow.accept(FrameCodec.read(frameInFromServer, codec));
+            }
+        }
+        if (reorderWindow.getMissed() > missed) {
+            System.out.println("Missed " + (reorderWindow.getMissed() - missed) + " messages.");
+        }
+        return data;
+    }
+
+    /**
+     * Connects to the server again after the connection was lost, waiting twice as long
+     * after each failed attempt up to MAX_RECONNECT_BACKOFF_MILLIS. The hello asks for the
+     * messages sent meanwhile, a presence subscription is renewed and the current channel is
+     * joined again, since the server forgets a connection's channels when it closes.
+     */
+    private void reconnect() {
+        long backoffMillis = 100;
+        while (!closeConnection) {
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                Socket skt = this.connect();
+                synchronized (this) {
+                    socket.close();
+                    socket = skt;
+                    frameInFromServer = new DataInputStream(new BufferedInputStream(skt.getInputStream()));
+                    frameOutToServer = new DataOutputStream(new BufferedOutputStream(skt.getOutputStream()));
+                    this.sendHello();
+                }
+                System.out.println("Reconnected.");
+                if (presenceView.getVersion() >= 0) {
+                    send(new PresenceClackData(userName));
+                }
+                String joined = channel;
+                if (joined != null) {
+                    send(new ChannelClackData(userName, ChannelClackData.EVENT_JOIN, joined));
+                }
+                return;
+            } catch (IOException ioe) {
+                System.err.println("Could not reconnect to the server");
+                backoffMillis = Math.min(backoffMillis * 2, MAX_RECONNECT_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Prints the received data to the standard output, if there is any.
      */
     public void printData() {
+            if (dataToReceiveFromServer == null) {
+                return;
+            }
             if (dataToReceiveFromServer.getType() == ClackData.CONSTANT_LOGOUT) {
                 System.out.println("Logging out.");
+            } else if (dataToReceiveFromServer instanceof FileChunkClackData) {
+                String received = fileChunkAssembler.accept((FileChunkClackData) dataToReceiveFromServer);
+                if (received != null) {
+                    System.out.println(received);
+                }
+            } else if (dataToReceiveFromServer instanceof PresenceClackData) {
+                this.printPresence((PresenceClackData) dataToReceiveFromServer);
+            } else if (dataToReceiveFromServer instanceof ChannelClackData) {
+                boolean joined = ((ChannelClackData) dataToReceiveFromServer).getEvent() == ChannelClackData.EVENT_JOIN;
+                System.out.println((joined ? "Joined " : "Left ") + dataToReceiveFromServer.getChannel());
             } else {
-                System.out.println("Username: " + dataToReceiveFromServer.getUserName() + ", Type: " + dataToReceiveFromServer.getType() + ", Date: " + dataToReceiveFromServer.getDate());
+                System.out.println("Username: " + dataToReceiveFromServer.getUserName() + ", Type: " + dataToReceiveFromServer.getType() + ", Date: " + dataToReceiveFromServer.getDate()
+                        + (dataToReceiveFromServer.getChannel() != null ? ", Channel: " + dataToReceiveFromServer.getChannel() : "")
+                        + (dataToReceiveFromServer.getRecipient() != null ? ", To: " + dataToReceiveFromServer.getRecipient() : ""));
                 System.out.println(dataToReceiveFromServer.getData());
             }
     }
 
+    /**
+     * Applies a presence event to the presence view and prints it, or subscribes again if
+     * events were missed.
+     *
+     * @param presenceData the event received
+     */
+    private void printPresence(PresenceClackData presenceData) {
+        if (!presenceView.apply(presenceData)) {
+            System.out.println("Presence out of date, resynchronizing.");
+            send(new PresenceClackData(userName));
+        } else if (presenceData.getEvent() == PresenceClackData.EVENT_SNAPSHOT) {
+            System.out.println("Online: " + presenceData.getData());
+        } else if (presenceData.getVersion() == presenceView.getVersion()) {
+            System.out.println(presenceData.getData()
+                    + (presenceData.getEvent() == PresenceClackData.EVENT_JOIN ? " is online" : " went offline"));
+        }
+    }
+
     /**
      * Returns the username.
      *
@@ -221,6 +505,25 @@ public class ClackClient {
         return this.closeConnection;
     }
 
+    /**
+     * Chooses frames instead of an object stream for the next start(). Framed clients can
+     * talk to the server in either mode; object stream clients only to a blocking server.
+     *
+     * @param framed true to talk frames
+     */
+    public void setFramed(boolean framed) {
+        this.framed = framed;
+    }
+
+    /**
+     * Sets the kind of thread the server listener runs on.
+     *
+     * @param threadMode platform or virtual threads
+     */
+    public void setThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+    }
+
     @Override
     public int hashCode() {
         // The following is only one of many possible implementations to generate the hash code.
@@ -274,14 +577,31 @@ public class ClackClient {
                 + "Data to send to the server: " + this.dataToSendToServer + "\n"
                 + "Data to receive from the server: " + this.dataToReceiveFromServer + "\n";
     }
+    /**
+     * Starts a client. Pass --framed on the command line to talk frames, which also makes the
+     * client reconnect and catch up on what it missed if the connection drops, and
+     * --threads=virtual to run the server listener on a virtual thread. With --load, runs
+     * ClackLoadGenerator instead, passing it the other options.
+     *
+     * @param args the command line arguments
+     */
     public static void main(String args[])
     {
+        if (Arrays.asList(args).contains("--load")) {
+            ClackLoadGenerator.main(args);
+            return;
+        }
+        boolean framed = Arrays.asList(args).contains("--framed");
+        ThreadMode threadMode =
+                Arrays.asList(args).contains("--threads=virtual") ? ThreadMode.VIRTUAL : ThreadMode.PLATFORM;
         try {
             System.out.println("Type username@hostname:port or press enter to use defaults: ");
             BufferedReader bufferedreader = new BufferedReader(new InputStreamReader(System.in));
             String line = bufferedreader.readLine();
             if (line.isEmpty()) {
                 ClackClient client = new ClackClient();
+                client.setFramed(framed);
+                client.setThreadMode(threadMode);
                 System.out.println("Using username: Anon, hostname: localhost, port: " + DEFAULT_PORT);
                 client.start();
             } else if(line.contains("@")&& line.contains(":")) {
@@ -289,17 +609,23 @@ public class ClackClient {
                 String hname= line.substring(line.indexOf("@")+1,line.indexOf(":"));
                 int portnum= parseInt(line.substring(line.indexOf(":")+1));
                 ClackClient client = new ClackClient(uname, hname, portnum);
+                client.setFramed(framed);
+                client.setThreadMode(threadMode);
                 System.out.println("Using Username: " + uname + ", Hostname: " + hname + ", Port: " + portnum);
                 client.start();
             } else if(line.contains("@")) {
                 String uname= line.substring(0,line.indexOf("@"));
                 String hname= line.substring(line.indexOf("@")+1);
                 ClackClient client = new ClackClient(uname, hname);
+                client.setFramed(framed);
+                client.setThreadMode(threadMode);
                 System.out.println("Using Username: " + uname + ", Hostname: " + hname + ", Port: " + DEFAULT_PORT);
                 client.start();
             }
             else {
                 ClackClient client = new ClackClient(line);
+                client.setFramed(framed);
+                client.setThreadMode(threadMode);
                 System.out.println("Using Username: " + line + ", Hostname: localhost ," + "Port: " + DEFAULT_PORT);
                 client.start();
             }
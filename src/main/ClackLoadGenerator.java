@@ -0,0 +1,623 @@
+package main;
+
+import data.ClackData;
+import data.FileChunkClackData;
+import data.HeartbeatClackData;
+import data.IdentityClackData;
+import data.ListUsersClackData;
+import data.MessageClackData;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * A headless stand-in for many ClackClients. A ClackLoadGenerator opens a number of framed
+ * connections to a ClackServer from a single selector thread, then for a set duration sends
+ * messages, LISTUSERS requests and streamed files at a target total rate, mixed by weight, each
+ * from a connection picked at random. Every second it prints the send and receive rates; at
+ * the end it prints totals and the latency percentiles of:
+ * <ul>
+ *     <li>messages, from the timestamp each ClackData carries, which the server stamps as it
+ *     receives the message, to its arrival at each client it was broadcast to</li>
+ *     <li>LISTUSERS, from sending the request to receiving the reply</li>
+ *     <li>files, from the server's timestamp on the last chunk to its arrival at each client</li>
+ * </ul>
+ * The server and the generator are meant to share one machine, so their clocks agree.
+ *
+ * java main.ClackLoadGenerator [--host=name] [--port=N] [--connections=N] [--rate=ops/s]
+ * [--duration=s] [--mix=messages,listusers,files] [--message-size=chars] [--file-size=bytes]
+ * [--codec=binary|serialized]
+ */
+public class ClackLoadGenerator {
+    private static final int DEFAULT_PORT = 1738; // The default port number, as ClackServer uses
+    private static final int MAX_CONNECTING = 64; // Connections opened at once, to stay within the accept backlog
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_OUTBOUND_BYTES = 4 * 1024 * 1024; // Queued per connection before sends are skipped
+    private static final long CONNECT_TIMEOUT_NANOS = 60_000_000_000L;
+    private static final long DRAIN_NANOS = 2_000_000_000L; // Time to wait for replies after the last send
+    private static final int MESSAGE = 0;
+    private static final int LISTUSERS = 1;
+    private static final int FILE = 2;
+    private static final String[] KIND_NAMES = {"messages", "listusers", "files"};
+
+    private String hostName; // The host name of the server
+    private int port; // The port of the server
+    private int connectionCount; // The number of connections to open
+    private double rate; // Operations per second across all connections
+    private long durationNanos; // How long to send for
+    private int[] mix; // The weight of each kind of operation, indexed by kind
+    private int messageSize; // The number of characters in each message
+    private int fileSize; // The number of bytes in each file
+    private byte codec; // The frame codec to ask the server for
+
+    private Selector selector;
+    private ArrayList<Connection> ready; // Connections that have finished their handshake
+    private Random random;
+    private String messageText;
+    private byte[] fileBytes;
+    private long fileChecksum;
+    private long opened; // Connections opened so far
+    private int connecting; // Connections opened but not yet ready
+    private long failed; // Connections that failed or were closed by the server
+    private final long[] sent; // Operations sent, indexed by kind
+    private long skipped; // Operations not sent because the chosen connection was backed up
+    private long framesIn;
+    private long bytesIn;
+    private long bytesOut;
+    private long expectedDeliveries; // Broadcast messages that should arrive: messages sent times connections
+    private final LatencyHistogram messageLatency; // Microseconds
+    private final LatencyHistogram intervalMessageLatency; // Microseconds, since the last progress line
+    private final LatencyHistogram listUsersLatency; // Microseconds
+    private final LatencyHistogram fileLatency; // Microseconds
+
+    /**
+     * The constructor that sets the server to load and the default load: 1000 connections,
+     * 1000 operations per second for 30 seconds, 90% messages of 64 characters, 9% LISTUSERS
+     * and 1% files of 256 KiB, over the binary codec.
+     *
+     * @param hostName the host name of the server
+     * @param port     the port of the server
+     */
+    public ClackLoadGenerator(String hostName, int port) {
+        this.hostName = hostName;
+        this.port = port;
+        this.connectionCount = 1000;
+        this.rate = 1000;
+        this.durationNanos = 30_000_000_000L;
+        this.mix = new int[]{90, 9, 1};
+        this.messageSize = 64;
+        this.fileSize = 256 * 1024;
+        this.codec = FrameCodec.CODEC_BINARY;
+        this.sent = new long[KIND_NAMES.length];
+        this.messageLatency = new LatencyHistogram();
+        this.intervalMessageLatency = new LatencyHistogram();
+        this.listUsersLatency = new LatencyHistogram();
+        this.fileLatency = new LatencyHistogram();
+    }
+
+    /**
+     * Sets the number of connections to open.
+     *
+     * @param connectionCount the number of connections
+     */
+    public void setConnectionCount(int connectionCount) {
+        this.connectionCount = connectionCount;
+    }
+
+    /**
+     * Sets the target rate of operations across all connections.
+     *
+     * @param rate operations per second
+     */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Sets how long to send for once every connection is ready.
+     *
+     * @param seconds the duration in seconds
+     */
+    public void setDuration(double seconds) {
+        this.durationNanos = (long) (seconds * 1e9);
+    }
+
+    /**
+     * Sets the relative weights of messages, LISTUSERS requests and files.
+     *
+     * @param messages  the weight of messages
+     * @param listUsers the weight of LISTUSERS requests
+     * @param files     the weight of files
+     */
+    public void setMix(int messages, int listUsers, int files) {
+        this.mix = new int[]{messages, listUsers, files};
+    }
+
+    /**
+     * Sets the number of characters in each message.
+     *
+     * @param messageSize the message size
+     */
+    public void setMessageSize(int messageSize) {
+        this.messageSize = messageSize;
+    }
+
+    /**
+     * Sets the number of bytes in each file, which is sent in chunks of
+     * FileChunkClackData.DEFAULT_CHUNK_SIZE.
+     *
+     * @param fileSize the file size
+     */
+    public void setFileSize(int fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Sets the frame codec to ask the server for.
+     *
+     * @param codec FrameCodec.CODEC_BINARY or FrameCodec.CODEC_SERIALIZED
+     */
+    public void setCodec(byte codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Opens the connections, runs the load and prints the report. Returns when done.
+     *
+     * @throws IOException if the selector cannot be opened
+     */
+    public void run() throws IOException {
+        selector = Selector.open();
+        ready = new ArrayList<Connection>(connectionCount);
+        random = new Random();
+        StringBuilder text = new StringBuilder(messageSize);
+        while (text.length() < messageSize) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        messageText = text.toString();
+        fileBytes = new byte[fileSize];
+        random.nextBytes(fileBytes);
+        CRC32 crc = new CRC32();
+        crc.update(fileBytes);
+        fileChecksum = crc.getValue();
+
+        System.out.println("Opening " + connectionCount + " connections to " + hostName + ":" + port);
+        long connectStart = System.nanoTime();
+        while (ready.size() + failed < connectionCount && System.nanoTime() - connectStart < CONNECT_TIMEOUT_NANOS) {
+            openConnections();
+            poll(10);
+        }
+        System.out.printf("%d connections ready in %.1f s, %d failed%n", ready.size(),
+                (System.nanoTime() - connectStart) / 1e9, connectionCount - ready.size());
+        if (ready.isEmpty()) {
+            selector.close();
+            return;
+        }
+
+        long start = System.nanoTime();
+        long nextReport = start + 1_000_000_000L;
+        long lastSent = 0;
+        long lastFramesIn = 0;
+        long lastBytesIn = 0;
+        long lastBytesOut = 0;
+        long operations = 0;
+        long now;
+        while ((now = System.nanoTime()) - start < durationNanos) {
+            long due = (long) ((now - start) / 1e9 * rate);
+            for (; operations < due && !ready.isEmpty(); operations++) {
+                send(ready.get(random.nextInt(ready.size())), pickKind());
+            }
+            poll(1);
+            if (now >= nextReport) {
+                long totalSent = sent[MESSAGE] + sent[LISTUSERS] + sent[FILE];
+                System.out.printf("%4.0f s  sent %7d/s  received %8d frames/s  out %7.1f MiB/s  in %7.1f MiB/s"
+                                + "  message p99 %s ms%n", (now - start) / 1e9, totalSent - lastSent,
+                        framesIn - lastFramesIn, (bytesOut - lastBytesOut) / 1048576.0,
+                        (bytesIn - lastBytesIn) / 1048576.0, millis(intervalMessageLatency.getValueAtPercentile(99)));
+                intervalMessageLatency.reset();
+                lastSent = totalSent;
+                lastFramesIn = framesIn;
+                lastBytesIn = bytesIn;
+                lastBytesOut = bytesOut;
+                nextReport += 1_000_000_000L;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long drainStart = System.nanoTime();
+        while (System.nanoTime() - drainStart < DRAIN_NANOS) {
+            poll(10);
+        }
+        report(seconds);
+
+        for (Connection connection : new ArrayList<Connection>(ready)) {
+            try {
+                connection.send(new MessageClackData(connection.userName, "", ClackData.CONSTANT_LOGOUT));
+            } catch (IOException ioe) {
+                connection.fail();
+            }
+        }
+        drainStart = System.nanoTime();
+        while (System.nanoTime() - drainStart < DRAIN_NANOS && selector.keys().size() > 0) {
+            poll(10);
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((Connection) key.attachment()).close();
+        }
+        selector.close();
+    }
+
+    /**
+     * Starts connecting more clients, keeping at most MAX_CONNECTING handshakes in flight.
+     */
+    private void openConnections() {
+        while (opened < connectionCount && connecting < MAX_CONNECTING) {
+            opened++;
+            connecting++;
+            try {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                Connection connection = new Connection(channel, "load" + opened);
+                if (channel.connect(new InetSocketAddress(hostName, port))) {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } else {
+                    connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+                }
+            } catch (IOException ioe) {
+                System.err.println("Error in opening a connection: " + ioe.getMessage());
+                connecting--;
+                failed++;
+            }
+        }
+    }
+
+    /**
+     * Waits up to the timeout for ready channels and serves them.
+     */
+    private void poll(long timeoutMillis) throws IOException {
+        selector.select(timeoutMillis);
+        for (SelectionKey key : selector.selectedKeys()) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isConnectable()) {
+                    connection.channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException ioe) {
+                connection.fail();
+            }
+        }
+        selector.selectedKeys().clear();
+    }
+
+    /**
+     * Picks the kind of the next operation by weight.
+     */
+    private int pickKind() {
+        int pick = random.nextInt(mix[MESSAGE] + mix[LISTUSERS] + mix[FILE]);
+        if (pick < mix[MESSAGE]) {
+            return MESSAGE;
+        }
+        return pick < mix[MESSAGE] + mix[LISTUSERS] ? LISTUSERS : FILE;
+    }
+
+    /**
+     * Sends one operation of the given kind from a connection, unless its outbound bytes are
+     * backed up. A connection that cannot be written to is closed.
+     */
+    private void send(Connection connection, int kind) {
+        if (connection.outboundBytes > MAX_OUTBOUND_BYTES) {
+            skipped++;
+            return;
+        }
+        sent[kind]++;
+        try {
+            sendOperation(connection, kind);
+        } catch (IOException ioe) {
+            connection.fail();
+        }
+    }
+
+    private void sendOperation(Connection connection, int kind) throws IOException {
+        if (kind == MESSAGE) {
+            connection.send(new MessageClackData(connection.userName, messageText, ClackData.CONSTANT_SENDMESSAGE));
+            expectedDeliveries += ready.size();
+        } else if (kind == LISTUSERS) {
+            connection.listUsersSent.add(System.nanoTime());
+            connection.send(new ListUsersClackData(connection.userName, ClackData.CONSTANT_LISTUSERS));
+        } else {
+            long transferId = random.nextLong();
+            int offset = 0;
+            do {
+                int length = Math.min(FileChunkClackData.DEFAULT_CHUNK_SIZE, fileSize - offset);
+                boolean last = offset + length == fileSize;
+                connection.send(FrameCodec.encode(new FileChunkClackData(connection.userName, "load.bin", transferId,
+                        offset, Arrays.copyOfRange(fileBytes, offset, offset + length), last,
+                        last ? fileChecksum : 0), connection.codec));
+                offset += length;
+            } while (offset < fileSize);
+        }
+    }
+
+    /**
+     * Records the latency of data received by a connection, answers a heartbeat so an idle
+     * connection is not reaped by the server, or takes note of the connection's user id.
+     */
+    private void received(Connection connection, ClackData data) {
+        if (data instanceof IdentityClackData) {
+            connection.userId = ((IdentityClackData) data).getAssignedId();
+        } else if (data instanceof HeartbeatClackData) {
+            try {
+                connection.send(new HeartbeatClackData(connection.userName));
+            } catch (IOException ioe) {
+                connection.fail();
+            }
+        } else if (data instanceof FileChunkClackData) {
+            if (((FileChunkClackData) data).isLast()) {
+                fileLatency.record(nowMicros() - data.getTimestamp());
+            }
+        } else if (data.getType() == ClackData.CONSTANT_LISTUSERS) {
+            Long requested = connection.listUsersSent.poll();
+            if (requested != null) {
+                listUsersLatency.record((System.nanoTime() - requested) / 1000);
+            }
+        } else if (data.getType() == ClackData.CONSTANT_SENDMESSAGE) {
+            long latency = nowMicros() - data.getTimestamp();
+            messageLatency.record(latency);
+            intervalMessageLatency.record(latency);
+        }
+    }
+
+    private void report(double seconds) {
+        long totalSent = sent[MESSAGE] + sent[LISTUSERS] + sent[FILE];
+        System.out.println();
+        System.out.printf("Connections:  %d ready, %d failed or closed%n", ready.size(), failed);
+        System.out.printf("Sent:         %d operations in %.1f s, %.0f/s (target %.0f/s), %d skipped as backed up%n",
+                totalSent, seconds, totalSent / seconds, rate, skipped);
+        for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+            System.out.printf("              %-10s %d%n", KIND_NAMES[kind], sent[kind]);
+        }
+        System.out.printf("Received:     %d frames, %.0f/s; %d of %d expected message deliveries (%.2f%%)%n",
+                framesIn, framesIn / seconds, messageLatency.getCount(), expectedDeliveries,
+                expectedDeliveries == 0 ? 100.0 : messageLatency.getCount() * 100.0 / expectedDeliveries);
+        System.out.printf("Bytes:        out %.1f MiB/s, in %.1f MiB/s%n", bytesOut / seconds / 1048576.0,
+                bytesIn / seconds / 1048576.0);
+        System.out.printf("%-13s %10s %10s %10s %10s %10s %10s%n", "Latency (ms)", "count", "mean", "p50", "p99",
+                "p99.9", "max");
+        printLatency("message", messageLatency);
+        printLatency("listusers", listUsersLatency);
+        printLatency("file", fileLatency);
+        System.out.println("Message and file latencies are measured from the ClackData timestamp, which has"
+                + " millisecond resolution.");
+    }
+
+    private static void printLatency(String name, LatencyHistogram histogram) {
+        System.out.printf("%-13s %10d %10.3f %10s %10s %10s %10s%n", name, histogram.getCount(),
+                histogram.getMean() / 1000, millis(histogram.getValueAtPercentile(50)),
+                millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getMax()));
+    }
+
+    private static String millis(long micros) {
+        return String.format("%.3f", micros / 1000.0);
+    }
+
+    private static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+    }
+
+    /**
+     * The state of one simulated client: its handshake, the bytes read but not yet decoded and
+     * the frames waiting to be written.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final String userName;
+        private final ArrayDeque<ByteBuffer> outbound; // Frames not yet fully written
+        private final ArrayDeque<Long> listUsersSent; // Send times of unanswered LISTUSERS requests
+        private SelectionKey key;
+        private ByteBuffer readBuffer;
+        private int stage; // 0 awaiting the stream header, 1 awaiting the hello reply, 2 ready
+        private byte codec;
+        private int userId; // The id the server gave userName, sent in its place once known
+        private long outboundBytes;
+        private boolean closed;
+
+        Connection(SocketChannel channel, String userName) {
+            this.channel = channel;
+            this.userName = userName;
+            this.outbound = new ArrayDeque<ByteBuffer>();
+            this.listUsersSent = new ArrayDeque<Long>();
+            this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            this.stage = 0;
+            this.userId = ClackData.NO_USER_ID;
+        }
+
+        void read() throws IOException {
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                fail();
+                return;
+            }
+            bytesIn += count;
+            readBuffer.flip();
+            if (stage == 0 && readBuffer.remaining() >= FrameCodec.STREAM_HEADER.length) {
+                readBuffer.position(readBuffer.position() + FrameCodec.STREAM_HEADER.length);
+                ByteBuffer hello = ByteBuffer.allocate(FrameCodec.HELLO_LENGTH);
+                byte offered = (byte) (ClackLoadGenerator.this.codec | FrameCodec.HELLO_IDENTIFY);
+                hello.putInt(FrameCodec.MAGIC).put(offered).flip();
+                send(hello);
+                stage = 1;
+            }
+            if (stage == 1 && readBuffer.remaining() >= FrameCodec.HELLO_LENGTH) {
+                if (readBuffer.getInt() != FrameCodec.MAGIC) {
+                    throw new IOException("Server does not speak frames");
+                }
+                codec = readBuffer.get();
+                stage = 2;
+                connecting--;
+                ready.add(this);
+            }
+            while (stage == 2 && readBuffer.remaining() >= FrameCodec.HEADER_LENGTH) {
+                int length = readBuffer.getInt(readBuffer.position());
+                FrameCodec.checkLength(length);
+                if (readBuffer.remaining() < FrameCodec.HEADER_LENGTH + length) {
+                    if (readBuffer.capacity() < FrameCodec.HEADER_LENGTH + length) {
+                        ByteBuffer larger = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH + length);
+                        larger.put(readBuffer);
+                        readBuffer = larger;
+                        return;
+                    }
+                    break;
+                }
+                readBuffer.position(readBuffer.position() + FrameCodec.HEADER_LENGTH);
+                ByteBuffer payload = readBuffer.slice();
+                payload.limit(length);
+                readBuffer.position(readBuffer.position() + length);
+                framesIn++;
+                ClackData data = FrameCodec.decode(payload, codec);
+                if (data != null) {
+                    received(this, data);
+                }
+            }
+            readBuffer.compact();
+        }
+
+        /**
+         * Queues data sent under the connection's user id once the server has given it one.
+         */
+        void send(ClackData data) throws IOException {
+            data.setUserId(userId);
+            send(FrameCodec.encode(data, codec));
+        }
+
+        /**
+         * Queues bytes and writes as many as the socket takes now.
+         */
+        void send(ByteBuffer bytes) throws IOException {
+            outbound.add(bytes);
+            outboundBytes += bytes.remaining();
+            if (outbound.size() == 1) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            ByteBuffer head;
+            while ((head = outbound.peek()) != null) {
+                int count = channel.write(head);
+                bytesOut += count;
+                outboundBytes -= count;
+                if (head.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                outbound.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        /**
+         * Closes the connection after an error or the server closing it.
+         */
+        void fail() {
+            if (closed) {
+                return;
+            }
+            if (stage < 2) {
+                connecting--;
+            } else {
+                ready.remove(this);
+            }
+            failed++;
+            close();
+        }
+
+        void close() {
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                System.err.println("Error in closing a connection");
+            }
+        }
+    }
+
+    /**
+     * Runs the load generator. Accepts --host=name, --port=N, --connections=N, --rate=ops/s,
+     * --duration=s, --mix=messages,listusers,files, --message-size=chars, --file-size=bytes and
+     * --codec=binary|serialized.
+     *
+     * @param args the options
+     */
+    public static void main(String args[]) {
+        ClackLoadGenerator generator;
+        try {
+            String host = "localhost";
+            int port = DEFAULT_PORT;
+            for (String arg : args) {
+                if (arg.startsWith("--host=")) {
+                    host = arg.substring("--host=".length());
+                } else if (arg.startsWith("--port=")) {
+                    port = Integer.parseInt(arg.substring("--port=".length()));
+                }
+            }
+            generator = new ClackLoadGenerator(host, port);
+            for (String arg : args) {
+                if (arg.startsWith("--connections=")) {
+                    generator.setConnectionCount(Integer.parseInt(arg.substring("--connections=".length())));
+                } else if (arg.startsWith("--rate=")) {
+                    generator.setRate(Double.parseDouble(arg.substring("--rate=".length())));
+                } else if (arg.startsWith("--duration=")) {
+                    generator.setDuration(Double.parseDouble(arg.substring("--duration=".length())));
+                } else if (arg.startsWith("--mix=")) {
+                    String[] weights = arg.substring("--mix=".length()).split(",");
+                    generator.setMix(Integer.parseInt(weights[0]), Integer.parseInt(weights[1]),
+                            Integer.parseInt(weights[2]));
+                } else if (arg.startsWith("--message-size=")) {
+                    generator.setMessageSize(Integer.parseInt(arg.substring("--message-size=".length())));
+                } else if (arg.startsWith("--file-size=")) {
+                    generator.setFileSize(Integer.parseInt(arg.substring("--file-size=".length())));
+                } else if (arg.startsWith("--codec=")) {
+                    String codec = arg.substring("--codec=".length());
+                    if (!codec.equals("binary") && !codec.equals("serialized")) {
+                        throw new IllegalArgumentException(codec);
+                    }
+                    generator.setCodec(codec.equals("binary") ? FrameCodec.CODEC_BINARY : FrameCodec.CODEC_SERIALIZED);
+                } else if (!arg.startsWith("--host=") && !arg.startsWith("--port=") && !arg.equals("--load")) {
+                    throw new IllegalArgumentException(arg);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: ClackLoadGenerator [--host=name] [--port=N] [--connections=N] [--rate=ops/s]"
+                    + " [--duration=s] [--mix=messages,listusers,files] [--message-size=chars] [--file-size=bytes]"
+                    + " [--codec=binary|serialized]");
+            return;
+        }
+        try {
+            generator.run();
+        } catch (IOException ioe) {
+            System.err.println("Error in running the load generator: " + ioe.getMessage());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A ClackReactor is one event loop of the non-blocking server mode. It owns a Selector and
+ * serves every NioClientConnection registered with it: reading and decoding frames,
+ * dispatching them to the server and flushing queued outbound frames. Work coming from other
+ * threads (new connections, write requests) is queued with execute() and picked up on the
+ * next turn of the loop, so connection state is only ever touched by the reactor thread.
+ * A connection that throws while being served is closed on its own; the loop and every
+ * other connection carry on.
+ *
+ * Connections write through one direct buffer owned by the reactor: frames are copied into
+ * it until it is full or the connection's queue is empty and then written with a single
+ * call. Flushes requested while the loop is busy run together at the start of its next turn,
+ * so everything a turn delivers to a connection goes out in as few writes as possible.
+ */
+class ClackReactor implements Runnable {
+    private final ClackServer server;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> pendingTasks;
+    private final ByteBuffer writeBuffer; // Shared by the connections' flushes, which never overlap
+    private volatile boolean running;
+
+    /**
+     * The constructor that opens the selector.
+     *
+     * @param server the server that received data is dispatched to
+     * @throws IOException if the selector cannot be opened
+     */
+    ClackReactor(ClackServer server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+        this.writeBuffer = ByteBuffer.allocateDirect(server.getWriteBufferSize());
+        this.running = true;
+    }
+
+    /**
+     * Hands an accepted channel to this reactor.
+     *
+     * @param channel the accepted client channel
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioClientConnection connection = new NioClientConnection(server, this, channel, key);
+                key.attach(connection);
+                connection.open();
+            } catch (IOException ioe) {
+                System.err.println("Could not register client channel");
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the reactor thread.
+     *
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the buffer a connection copies frames into for one write. It is shared by every
+     * connection of this reactor, so nothing may be left in it once the flush returns.
+     *
+     * @return the write buffer, cleared
+     */
+    ByteBuffer writeBuffer() {
+        return writeBuffer.clear();
+    }
+
+    /**
+     * Stops the event loop and closes every channel it serves.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        server.getBufferPool().cacheOnThisThread();
+        try {
+            while (running) {
+                selector.select();
+                runPendingTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioClientConnection connection = (NioClientConnection) key.attachment();
+                    if (connection == null) {
+                        continue;
+                    }
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (RuntimeException re) {
+                        System.err.println("Error in serving a client, closing it: " + re);
+                        connection.closeNow();
+                    }
+                }
+            }
+        } catch (ClosedSelectorException cse) {
+            System.err.println("Selector closed while reactor was running");
+        } catch (IOException ioe) {
+            System.err.println("Error in selecting ready channels");
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() != null) {
+                    ((NioClientConnection) key.attachment()).closeNow();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ioe) {
+                System.err.println("Error in closing selector");
+            }
+        }
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException re) {
+                System.err.println("Error in running a reactor task: " + re);
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            System.err.println("Error in closing client channel");
+        }
+    }
+}
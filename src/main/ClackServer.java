@@ -1,9 +1,28 @@
 package main;
 
+import data.ChannelClackData;
 import data.ClackData;
+import data.ClackDataCodec;
+import data.CoarseClock;
+import data.FileChunkClackData;
+import data.HeartbeatClackData;
+import data.IdentityClackData;
 import data.ListUsersClackData;
+import data.MessageClackData;
+import data.PresenceClackData;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.*;
 import java.net.*;
 import java.io.*;
@@ -23,11 +42,45 @@ import static java.lang.Integer.parseInt;
  */
 public class ClackServer {
     private static final int DEFAULT_PORT = 1738;  // The default port number
+    private static final int DEFAULT_REACTOR_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final long OVERFLOW_WARNING_INTERVAL_NANOS = 1_000_000_000L; // At most one full-queue warning a second
+    private static final long DEFAULT_HEARTBEAT_MILLIS = 30_000; // Quiet time before a client is sent a heartbeat
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 90_000; // Quiet time before a client is disconnected
+    private static final int DEFAULT_WRITE_BUFFER_SIZE = 64 * 1024; // Bytes coalesced into one socket write
+    private static final long DEFAULT_FLUSH_MICROS = 100; // How long a burst may hold back a flush
+    private static final long START_TIMEOUT_MILLIS = 10_000; // How long startInBackground() waits for the socket
 
     private int port; // An integer representing the port number on the server connected to
     private boolean closeConnection; // A boolean representing whether the connection is closed or not
-    private ArrayList<ServerSideClientIO> serverSideClientIOList;
-    public ListUsersClackData LUClackData;
+    private Set<ClientConnection> clientConnections; // Every connected client, safe to iterate while it changes
+    private ServerMode mode; // How clients are served, see ServerMode
+    private int reactorCount; // The number of reactor threads used in NIO mode
+    private ThreadMode threadMode; // The kind of thread each client runs on in blocking mode
+    private FileRelay fileRelay; // Spools streamed files for zero-copy fan-out in NIO mode, null when off
+    private ServerMetrics metrics; // Counters and histograms of the hot paths
+    private int metricsPort; // The port of the plain-text metrics endpoint, 0 for none
+    private AsyncLog log; // Where the message path logs, off the calling thread
+    private PresenceIndex presence; // The users online, for LISTUSERS and direct messages
+    private UserTable userTable; // The id given to every user name, which clients may send instead
+    private RoutingTable routes; // The members of every channel
+    private ChannelSequencer sequencer; // The sequences of every channel, and of every client without a history
+    private MessageLog history; // Every broadcast ClackData in order, null when none is kept
+    private Set<ClientConnection> catchingUp; // Connections replaying history, skipped by broadcasts
+    private ReentrantReadWriteLock liveLock; // Read-held to record and broadcast, write-held to end a replay
+    private int outboundLimit; // The frames each client's outbound queue holds
+    private SlowConsumerPolicy slowConsumerPolicy; // What happens to a frame for a client whose queue is full
+    private volatile long lastOverflowWarning; // When a full queue was last logged, in System.nanoTime()
+    private long heartbeatMillis; // Quiet time before a client is sent a heartbeat, 0 for none
+    private long idleTimeoutMillis; // Quiet time before a client is disconnected, 0 for never
+    private HeartbeatMonitor heartbeatMonitor; // Sends heartbeats and closes quiet connections, null when off
+    private boolean tcpNoDelay; // Whether Nagle's algorithm is off on client sockets
+    private int sendBufferSize; // SO_SNDBUF of client sockets, 0 for the system default
+    private int receiveBufferSize; // SO_RCVBUF of client sockets, 0 for the system default
+    private int writeBufferSize; // The most bytes coalesced into one socket write
+    private long flushMicros; // How long a blocking writer may wait for more frames during a burst
+    private BufferPool bufferPool; // Frame encodings and read buffers, direct in NIO mode and heap otherwise
+    private CountDownLatch started; // Counted down once clients can connect, or once starting has failed
+    private volatile boolean listening; // Whether the server socket is bound and clients are accepted
     /**
      * The constructor that sets the port number.
      * Should set dataToReceiveFromClient and dataToSendToClient as null.
@@ -38,9 +91,36 @@ public class ClackServer {
         if (port < 1024) {
             throw new IllegalArgumentException("port must be greater than 1024");
         }
-        serverSideClientIOList = new ArrayList<ServerSideClientIO>();
-        LUClackData = new ListUsersClackData();
+        clientConnections = ConcurrentHashMap.newKeySet();
+        this.catchingUp = ConcurrentHashMap.newKeySet();
+        this.liveLock = new ReentrantReadWriteLock();
+        this.outboundLimit = OutboundQueue.DEFAULT_CAPACITY;
+        this.slowConsumerPolicy = SlowConsumerPolicy.DROP_NEWEST;
+        this.lastOverflowWarning = System.nanoTime() - OVERFLOW_WARNING_INTERVAL_NANOS;
+        this.heartbeatMillis = DEFAULT_HEARTBEAT_MILLIS;
+        this.idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+        this.heartbeatMonitor = null;
+        this.tcpNoDelay = true;
+        this.sendBufferSize = 0;
+        this.receiveBufferSize = 0;
+        this.writeBufferSize = DEFAULT_WRITE_BUFFER_SIZE;
+        this.flushMicros = DEFAULT_FLUSH_MICROS;
+        this.presence = new PresenceIndex();
+        this.userTable = new UserTable();
+        this.routes = new RoutingTable();
+        this.sequencer = new ChannelSequencer();
         this.port = port;
+        this.mode = ServerMode.BLOCKING;
+        this.reactorCount = DEFAULT_REACTOR_COUNT;
+        this.threadMode = ThreadMode.PLATFORM;
+        this.fileRelay = new FileRelay();
+        this.metrics = new ServerMetrics(clientConnections);
+        this.bufferPool = new BufferPool(false);
+        this.metrics.setBufferPool(bufferPool);
+        this.metricsPort = 0;
+        this.log = new AsyncLog(null, LogLevel.INFO);
+        this.started = new CountDownLatch(1);
+        this.listening = false;
     }
 
     /**
@@ -49,23 +129,92 @@ public class ClackServer {
      * This constructor should call another constructor.
      */
     public ClackServer() {
-        this.port = DEFAULT_PORT;
-        serverSideClientIOList = new ArrayList<ServerSideClientIO>();
-        LUClackData = new ListUsersClackData();
-        this.port = port;
+        this(DEFAULT_PORT);
     }
 
+    /**
+     * Starts the server in the mode chosen with setMode(), after starting the CoarseClock it
+     * stamps received data with, registering its metrics with JMX, starting the plain-text
+     * metrics endpoint if a metrics port is set, and starting the heartbeat monitor unless
+     * both heartbeats and the idle timeout are off.
+     */
     public void start() {
+        CoarseClock.start();
+        metrics.register(port);
+        if (metricsPort > 0) {
+            try {
+                metrics.serve(metricsPort);
+            } catch (IOException ioe) {
+                System.err.println("Could not start the metrics endpoint on port " + metricsPort);
+            }
+        }
+        if (heartbeatMillis > 0 || idleTimeoutMillis > 0) {
+            long never = Long.MAX_VALUE / 2;
+            heartbeatMonitor = new HeartbeatMonitor(this,
+                    heartbeatMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(heartbeatMillis) : never,
+                    idleTimeoutMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis) : never);
+            Thread heartbeats = new Thread(heartbeatMonitor, "clack-heartbeat");
+            heartbeats.setDaemon(true);
+            heartbeats.start();
+        }
+        if (mode == ServerMode.NIO) {
+            startNonBlocking();
+        } else {
+            startBlocking();
+        }
+    }
+
+    /**
+     * Runs start() on a daemon thread and returns once clients can connect, for tests and
+     * benchmarks that run a server in the same JVM as its clients.
+     *
+     * @return the thread the server runs on
+     * @throws IOException          if the server could not start accepting clients
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Thread startInBackground() throws IOException, InterruptedException {
+        Thread serverThread = new Thread(this::start, "clack-server-" + port);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        if (!awaitListening(START_TIMEOUT_MILLIS)) {
+            throw new IOException("Server did not start accepting clients on port " + port);
+        }
+        return serverThread;
+    }
+
+    /**
+     * Waits until the server started on another thread accepts clients.
+     *
+     * @param timeoutMillis the longest to wait
+     * @return true if clients can connect, false if the server failed to start or the wait
+     *         timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitListening(long timeoutMillis) throws InterruptedException {
+        return started.await(timeoutMillis, TimeUnit.MILLISECONDS) && listening;
+    }
+
+    /**
+     * Accepts clients and serves each of them on its own platform or virtual thread.
+     */
+    private void startBlocking() {
+        ExecutorService connectionExecutor =
+                ConnectionExecutors.newThreadPerTaskExecutor(threadMode, "clack-client-");
         try {
-            ServerSocket sskt = new ServerSocket(port);
+            ServerSocket sskt = new ServerSocket();
+            if (receiveBufferSize > 0) {
+                sskt.setReceiveBufferSize(receiveBufferSize);
+            }
+            sskt.bind(new InetSocketAddress(port));
             //System.out.println(sskt);
+            listening = true;
+            started.countDown();
             while (!closeConnection) {
                 Socket cskt = sskt.accept();
-                ServerSideClientIO sscio = new ServerSideClientIO(this, cskt);
-                serverSideClientIOList.add(sscio);
-                //System.out.println(serverSideClientIOList);
-                Thread runningServer = new Thread(sscio);
-                runningServer.start();
+                metrics.recordAccept();
+                configure(cskt);
+                ServerSideClientIO sscio = new ServerSideClientIO(this, cskt, connectionExecutor);
+                connectionExecutor.execute(sscio);
             }
             sskt.close();
         } catch(SecurityException se) {
@@ -82,33 +231,539 @@ public class ClackServer {
             System.err.println("Stream header could not be found");
         } catch(IOException ioe){
             System.err.println("Input/Output error in stream");
+        } finally {
+            listening = false;
+            started.countDown();
+            connectionExecutor.shutdown();
         }
     }
 
     /**
-     * Receives data from client.
+     * Accepts clients on this thread and spreads them round-robin over a fixed pool of
+     * reactors, each of which serves all of its clients from a single thread.
      */
+    private void startNonBlocking() {
+        ClackReactor[] reactors = new ClackReactor[reactorCount];
+        try (ServerSocketChannel acceptor = ServerSocketChannel.open()) {
+            if (receiveBufferSize > 0) {
+                acceptor.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            acceptor.bind(new InetSocketAddress(port));
+            for (int i = 0; i < reactors.length; i++) {
+                reactors[i] = new ClackReactor(this);
+                new Thread(reactors[i], "clack-reactor-" + i).start();
+            }
+            listening = true;
+            started.countDown();
+            int next = 0;
+            while (!closeConnection) {
+                SocketChannel channel = acceptor.accept();
+                metrics.recordAccept();
+                configure(channel.socket());
+                reactors[next].register(channel);
+                next = (next + 1) % reactors.length;
+            }
+        } catch(SecurityException se) {
+            System.err.println("Operation not allowed for security reasons");
+        } catch(IllegalArgumentException iae){
+            System.err.println("Port number not allowed");
+        } catch(IOException ioe){
+            System.err.println("Input/Output error in server channel");
+        } finally {
+            listening = false;
+            started.countDown();
+            for (ClackReactor reactor : reactors) {
+                if (reactor != null) {
+                    reactor.shutdown();
+                }
+            }
+        }
+    }
 
+    /**
+     * Applies the socket options to an accepted client socket. The receive buffer size is set
+     * on the listening socket instead, which accepted sockets inherit, because a window larger
+     * than 64 KiB has to be negotiated in the handshake. A socket whose options cannot be set
+     * is served with the defaults.
+     *
+     * @param socket the accepted socket
+     */
+    private void configure(Socket socket) {
+        try {
+            socket.setTcpNoDelay(tcpNoDelay);
+            if (sendBufferSize > 0) {
+                socket.setSendBufferSize(sendBufferSize);
+            }
+        } catch (SocketException se) {
+            System.err.println("Could not set client socket options");
+        }
+    }
 
     /**
-     * Sends data to client.
+     * Handles data received from a client. LOGOUT is echoed back before the connection is
+     * closed. A heartbeat is dropped; its arrival has already counted as activity.
+     * LISTUSERS is answered to the sender only. A presence subscription is answered with a
+     * snapshot followed by join and leave events. A channel join or leave is carried out
+     * and echoed back. Anything else is routed by route(). Data sent under a user id first
+     * gets its user name back, see resolve(), and the sender is bound to the user name on
+     * the data, see bind(). Data is stamped with the server's time as it comes in, so
+     * clients see timestamps from one clock whatever their own clocks say. Data for a
+     * channel or every client takes the next sequence there, or with a message history its
+     * place in the history, and is handed to every recipient under the channel's lock, so
+     * each client receives it in sequence order. Data too large for a history segment is
+     * dropped. Direct messages are left unsequenced, whatever the sender put there.
+     *
+     * @param sender the connection the data came from
+     * @param data   the received data
      */
+    void dispatch(ClientConnection sender, ClackData data) {
+        if (!resolve(sender, data)) {
+            return;
+        }
+        data.stampReceived();
+        if (data.getType() == ClackData.CONSTANT_LOGOUT) {
+            log.info(data.getUserName() + " logging out");
+            presence.leave(sender);
+            sender.deliver(data);
+            sender.close();
+        } else if (data instanceof HeartbeatClackData) {
+            return;
+        } else if (data instanceof ListUsersClackData) {
+            bind(sender, data.getUserName());
+            sender.deliver(presence.snapshot().reply());
+        } else if (data instanceof PresenceClackData) {
+            bind(sender, data.getUserName());
+            presence.subscribe(sender);
+        } else if (data instanceof ChannelClackData) {
+            bind(sender, data.getUserName());
+            changeChannel(sender, (ChannelClackData) data);
+        } else {
+            bind(sender, data.getUserName());
+            log.debug("Received", data);
+            if (data.getRecipient() != null) {
+                data.setSequence(ClackData.NO_SEQUENCE);
+                route(sender, data, new OutboundFrame(data));
+                return;
+            }
+            ReentrantLock order = sequencer.lockOf(data.getChannel());
+            order.lock();
+            try {
+                if (history == null || !isForEveryone(data)) {
+                    data.setSequence(sequencer.next(data.getChannel()));
+                    route(sender, data, new OutboundFrame(data));
+                    return;
+                }
+                liveLock.readLock().lock();
+                try {
+                    try {
+                        history.append(data);
+                    } catch (IOException ioe) {
+                        data.setSequence(ClackData.NO_SEQUENCE);
+                        log.warn("Could not append to the message history: " + ioe.getMessage());
+                    } catch (IllegalArgumentException iae) {
+                        log.warn("Dropping data too large for the message history: " + iae.getMessage());
+                        return;
+                    }
+                    broadcast(data);
+                } finally {
+                    liveLock.readLock().unlock();
+                }
+            } finally {
+                order.unlock();
+            }
+        }
+    }
 
-    public synchronized void broadcast(ClackData dataToBroadcastToClients)
+    /**
+     * Gives data sent under a user id the user name back, so the rest of the server and every
+     * client it goes to see the name. Only the id the sender was told is accepted; data under
+     * any other id is dropped.
+     *
+     * @return false if the data is to be dropped
+     */
+    private boolean resolve(ClientConnection sender, ClackData data) {
+        int userId = data.getUserId();
+        if (userId == ClackData.NO_USER_ID) {
+            return true;
+        }
+        if (userId != sender.getUserId()) {
+            log.warn("Dropping data sent under user id " + userId + ", which the client was not given");
+            return false;
+        }
+        data.resolveUser(userTable.nameOf(userId));
+        return true;
+    }
+
+    /**
+     * Binds the sender to the user name it sent data as. The first data under a new name
+     * gives the name an id, puts the sender in presence under it, and tells a client that
+     * asked for it the id. After that, the check costs one String comparison, which for data
+     * sent under the id compares the table's String with itself.
+     */
+    private void bind(ClientConnection sender, String userName) {
+        if (userName == null) {
+            return;
+        }
+        int userId = sender.getUserId();
+        if (userId != ClackData.NO_USER_ID && userName.equals(userTable.nameOf(userId))) {
+            return;
+        }
+        userId = userTable.intern(userName);
+        sender.setUserId(userId);
+        presence.join(sender, userName);
+        if (sender.acceptsUserIds()) {
+            sender.deliver(new IdentityClackData(userName, userId));
+        }
+    }
+
+    /**
+     * Handles a binary file chunk frame received in NIO mode without decoding it: the chunk
+     * bytes are spooled by the FileRelay and the chunk is routed from the spool file. With a
+     * message history, a chunk for every client is appended to it as received and the header
+     * sent on carries the sequence it was given and the time the server stamped it with,
+     * which is also written into the appended bytes; a chunk too large for a history segment
+     * is dropped. The history has to name the sender, so a chunk for every client sent under
+     * a user id is decoded and dispatched instead.
+     *
+     * @param sender the connection the frame came from
+     * @param frame  the whole frame, length header included, not consumed
+     * @throws IOException if the frame is malformed or cannot be spooled
+     */
+    void relay(ClientConnection sender, ByteBuffer frame) throws IOException {
+        ByteBuffer payload = frame.duplicate().position(frame.position() + FrameCodec.HEADER_LENGTH);
+        ByteBuffer chunk = payload.duplicate();
+        FileChunkClackData header = FileRelay.readHeader(chunk);
+        if (header.getUserId() != ClackData.NO_USER_ID && history != null && isForEveryone(header)) {
+            dispatch(sender, FrameCodec.decode(payload, FrameCodec.CODEC_BINARY));
+            return;
+        }
+        if (!resolve(sender, header)) {
+            return;
+        }
+        header.stampReceived();
+        bind(sender, header.getUserName());
+        if (header.getRecipient() != null) {
+            header.setSequence(ClackData.NO_SEQUENCE);
+            relay(sender, header, chunk);
+            return;
+        }
+        ReentrantLock order = sequencer.lockOf(header.getChannel());
+        order.lock();
+        try {
+            if (history == null || !isForEveryone(header)) {
+                header.setSequence(sequencer.next(header.getChannel()));
+                relay(sender, header, chunk);
+                return;
+            }
+            ClackDataCodec.putTimestamp(payload, header);
+            liveLock.readLock().lock();
+            try {
+                try {
+                    header.setSequence(record(payload));
+                } catch (IllegalArgumentException iae) {
+                    log.warn("Dropping a file chunk too large for the message history: " + iae.getMessage());
+                    return;
+                }
+                relay(sender, header, chunk);
+            } finally {
+                liveLock.readLock().unlock();
+            }
+        } finally {
+            order.unlock();
+        }
+    }
+
+    private void relay(ClientConnection sender, FileChunkClackData header, ByteBuffer chunk) throws IOException {
+        SpooledChunkFrame chunkFrame = fileRelay.spool(sender, header, chunk);
+        if (header.isLast()) {
+            log.info(header.getUserName() + " sent " + header.getFileName() + " ("
+                    + (header.getOffset() + chunkFrame.length()) + " bytes)");
+        }
+        route(sender, header, chunkFrame);
+    }
+
+    /**
+     * Adds the sender to the requested channel or takes it out, then echoes the request back
+     * as confirmation. A join confirmation carries the sequence the channel's next data will
+     * have, which is where the new member's data from the channel starts. The change and the
+     * confirmation are made under the channel's lock, so no data of the channel is sequenced
+     * in between and the confirmation is queued ahead of the first data the member gets. A
+     * request without a channel is ignored.
+     */
+    private void changeChannel(ClientConnection sender, ChannelClackData request) {
+        String channel = request.getChannel();
+        if (channel == null) {
+            return;
+        }
+        ReentrantLock order = sequencer.lockOf(channel);
+        order.lock();
+        try {
+            if (request.getEvent() == ChannelClackData.EVENT_JOIN) {
+                routes.join(channel, sender);
+                request.setSequence(sequencer.peek(channel));
+            } else {
+                routes.leave(channel, sender);
+                request.setSequence(ClackData.NO_SEQUENCE);
+            }
+            log.debug("Channel change", request);
+            sender.deliver(request);
+        } finally {
+            order.unlock();
+        }
+    }
+
+    /**
+     * Sends a frame to whoever its data is addressed to: a direct message to the recipient's
+     * clients and back to the sender, a channel message to the channel's members, and
+     * anything else to every client. Only those clients encode and queue the frame.
+     *
+     * @param sender the connection the data came from
+     * @param data   the data, or for a relayed file chunk its metadata
+     * @param frame  the frame to send, whose reference passes to this method
+     */
+    private void route(ClientConnection sender, ClackData data, OutboundFrame frame) {
+        if (data.getRecipient() != null) {
+            sendDirect(sender, data.getRecipient(), frame);
+        } else if (data.getChannel() != null) {
+            publish(data.getChannel(), frame);
+        } else {
+            broadcast(frame);
+        }
+    }
+
+    /**
+     * Returns whether data goes to every client, which is what the message history keeps.
+     */
+    private static boolean isForEveryone(ClackData data) {
+        return data.getRecipient() == null && data.getChannel() == null;
+    }
+
+    /**
+     * Appends a ClackDataCodec encoding to the message history.
+     *
+     * @param encoded the encoded data
+     * @return the sequence it was given, or NO_SEQUENCE if it could not be appended
+     */
+    private long record(ByteBuffer encoded) {
+        try {
+            return history.append(encoded);
+        } catch (IOException ioe) {
+            log.warn("Could not append to the message history: " + ioe.getMessage());
+            return ClackData.NO_SEQUENCE;
+        }
+    }
+
+    /**
+     * Adds a client that reconnected and starts replaying the message history to it, from
+     * the sequence after the last one it received. Called during the handshake in place of
+     * add(): broadcasts skip the connection until the replay has caught up and
+     * finishReplay() makes it live. Without a history the connection is simply added.
+     *
+     * @param connection the reconnected client
+     * @param from       the first sequence to send
+     */
+    void resume(ClientConnection connection, long from) {
+        if (history == null) {
+            add(connection);
+            return;
+        }
+        catchingUp.add(connection);
+        add(connection);
+        Thread replay = new Thread(new HistoryReplay(this, history, connection, from), "clack-replay");
+        replay.setDaemon(true);
+        replay.start();
+    }
+
+    /**
+     * Sends a replay's last records and makes its connection live. Holds the live lock's
+     * write side, so no record can be appended after the replay's last read and then skip
+     * the connection in its broadcast.
+     *
+     * @param replay the replay that has nearly caught up
+     */
+    void finishReplay(HistoryReplay replay) {
+        liveLock.writeLock().lock();
+        try {
+            replay.sendRemaining();
+            catchingUp.remove(replay.getConnection());
+        } finally {
+            liveLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns whether a connection is still replaying history. False once it has gone live
+     * or disconnected.
+     *
+     * @param connection the connection
+     * @return true if broadcasts skip it
+     */
+    boolean isCatchingUp(ClientConnection connection) {
+        return catchingUp.contains(connection);
+    }
+
+    /**
+     * Sends data to every client that is not replaying history. Takes no lock: each connection
+     * queues the data for its own writer, and clients connecting or leaving meanwhile may or
+     * may not receive it. The data is wrapped in a single OutboundFrame so it is encoded once
+     * per codec, not per client.
+     */
+    public void broadcast(ClackData dataToBroadcastToClients)
     {
-        for (int i = 0; i < serverSideClientIOList.size(); i++) {
-            serverSideClientIOList.get(i).setDataToSendToClient(dataToBroadcastToClients);
-            //serverSideClientIOList.get(i).sendData();
+        broadcast(new OutboundFrame(dataToBroadcastToClients));
+    }
+
+    /**
+     * Delivers a frame to every client, giving each its own reference, then gives up the
+     * caller's reference.
+     *
+     * @param frame the frame to send, whose reference passes to this method
+     */
+    void broadcast(OutboundFrame frame)
+    {
+        long start = System.nanoTime();
+        boolean replaying = !catchingUp.isEmpty();
+        for (ClientConnection clientConnection : clientConnections) {
+            if (!replaying || !catchingUp.contains(clientConnection)) {
+                clientConnection.deliver(frame.retain());
+            }
         }
+        metrics.recordBroadcastFanout(System.nanoTime() - start);
+        frame.release();
     }
 
-    public synchronized void remove (ServerSideClientIO serverSideClientToRemove)
+    /**
+     * Delivers a frame to every member of a channel, like broadcast() does to every client.
+     *
+     * @param channel the channel name
+     * @param frame   the frame to send, whose reference passes to this method
+     */
+    void publish(String channel, OutboundFrame frame)
     {
-        for(int i=0;i<serverSideClientIOList.size();i++){
-            if((this.serverSideClientIOList.get(i)).equals(serverSideClientToRemove)){
-                serverSideClientIOList.remove(i);
+        long start = System.nanoTime();
+        for (ClientConnection member : routes.members(channel)) {
+            member.deliver(frame.retain());
+        }
+        metrics.recordBroadcastFanout(System.nanoTime() - start);
+        frame.release();
+    }
+
+    /**
+     * Delivers a direct message to every client the recipient is connected with, and to the
+     * sender unless it is one of them. If the recipient is not online the sender is told so
+     * instead.
+     *
+     * @param sender    the connection the message came from
+     * @param recipient the user name the message is for
+     * @param frame     the frame to send, whose reference passes to this method
+     */
+    void sendDirect(ClientConnection sender, String recipient, OutboundFrame frame)
+    {
+        Set<Object> sessions = presence.sessionsOf(recipient);
+        if (sessions.isEmpty()) {
+            sender.deliver(new MessageClackData("Server", recipient + " is not online", ClackData.CONSTANT_SENDMESSAGE));
+        } else {
+            for (Object session : sessions) {
+                ((ClientConnection) session).deliver(frame.retain());
+            }
+            if (!sessions.contains(sender)) {
+                sender.deliver(frame.retain());
             }
         }
+        frame.release();
+    }
+
+    /**
+     * Queues a frame for a connection. If the connection's queue is full, the slow-consumer
+     * policy decides what is dropped, or whether the connection is; either way the caller
+     * does not wait. A queue that is full because the connection is closing just drops the
+     * frame.
+     *
+     * @param connection the connection the frame is for
+     * @param outbound   the connection's outbound queue
+     * @param frame      the frame, whose reference passes to this method
+     * @return true if the frame was queued
+     */
+    boolean enqueue(ClientConnection connection, OutboundQueue<OutboundFrame> outbound, OutboundFrame frame) {
+        if (outbound.offer(frame)) {
+            return true;
+        }
+        if (outbound.isClosed()) {
+            frame.release();
+            return false;
+        }
+        SlowConsumerPolicy policy = slowConsumerPolicy;
+        metrics.recordOverflow(policy);
+        long now = System.nanoTime();
+        if (now - lastOverflowWarning >= OVERFLOW_WARNING_INTERVAL_NANOS) {
+            lastOverflowWarning = now;
+            log.warn("Outbound queue full for a slow client, applying " + policy);
+        }
+        switch (policy) {
+            case DROP_OLDEST:
+                OutboundFrame oldest = outbound.poll();
+                if (oldest != null) {
+                    oldest.release();
+                    metrics.recordDrop();
+                }
+                if (outbound.offer(frame)) {
+                    return true;
+                }
+                break;
+            case COALESCE:
+                int skipped = 0;
+                OutboundFrame queued;
+                while ((queued = outbound.poll()) != null) {
+                    queued.release();
+                    skipped++;
+                }
+                metrics.recordDrops(skipped);
+                OutboundFrame notice = new OutboundFrame(new MessageClackData("Server",
+                        "Skipped " + skipped + " messages to catch up", ClackData.CONSTANT_SENDMESSAGE));
+                if (!outbound.offer(notice)) {
+                    notice.release();
+                }
+                if (outbound.offer(frame)) {
+                    return true;
+                }
+                break;
+            case DISCONNECT:
+                connection.abort();
+                break;
+            default:
+                break;
+        }
+        metrics.recordDrop();
+        frame.release();
+        return false;
+    }
+
+    /**
+     * Starts watching a newly accepted connection for going quiet, if the heartbeat monitor
+     * is running.
+     *
+     * @param connection the accepted connection
+     */
+    void watch(ClientConnection connection) {
+        if (heartbeatMonitor != null) {
+            heartbeatMonitor.watch(connection);
+        }
+    }
+
+    void add(ClientConnection clientConnectionToAdd)
+    {
+        clientConnections.add(clientConnectionToAdd);
+    }
+
+    void remove(ClientConnection clientConnectionToRemove)
+    {
+        clientConnections.remove(clientConnectionToRemove);
+        catchingUp.remove(clientConnectionToRemove);
+        presence.leave(clientConnectionToRemove);
+        routes.leaveAll(clientConnectionToRemove);
+        if (fileRelay != null) {
+            fileRelay.abandon(clientConnectionToRemove);
+        }
     }
 
     /**
@@ -120,8 +775,318 @@ public class ClackServer {
         return this.port;
     }
 
-    public ArrayList<ServerSideClientIO> getServerSideClientIOList(){
-        return this.serverSideClientIOList;
+    /**
+     * Returns the mode.
+     *
+     * @return this.mode
+     */
+    public ServerMode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Sets the mode used by start(), and replaces the buffer pool with one of the kind the
+     * mode writes from.
+     *
+     * @param mode the mode to serve clients in
+     */
+    public void setMode(ServerMode mode) {
+        this.mode = mode;
+        this.bufferPool = new BufferPool(mode == ServerMode.NIO);
+        this.metrics.setBufferPool(bufferPool);
+    }
+
+    /**
+     * Sets the number of reactor threads used in NIO mode.
+     *
+     * @param reactorCount a positive number of reactors
+     */
+    public void setReactorCount(int reactorCount) {
+        if (reactorCount < 1) {
+            throw new IllegalArgumentException("reactor count must be at least 1");
+        }
+        this.reactorCount = reactorCount;
+    }
+
+    /**
+     * Sets the kind of thread each client runs on in blocking mode.
+     *
+     * @param threadMode platform or virtual threads
+     */
+    public void setThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+    }
+
+    /**
+     * Turns the zero-copy file relay used in NIO mode on or off. When off, file chunks are
+     * decoded and re-encoded on the heap like any other data.
+     *
+     * @param zeroCopyRelay whether to spool file chunks and send them with transferTo()
+     */
+    public void setZeroCopyRelay(boolean zeroCopyRelay) {
+        this.fileRelay = zeroCopyRelay ? new FileRelay() : null;
+    }
+
+    /**
+     * Returns whether NIO connections should hand file chunks to relay().
+     *
+     * @return true if the zero-copy file relay is on
+     */
+    boolean isZeroCopyRelay() {
+        return this.fileRelay != null;
+    }
+
+    /**
+     * Sets how many frames each client's outbound queue holds, rounded up to a power of two.
+     * Applies to clients that connect afterwards.
+     *
+     * @param outboundLimit the limit in frames
+     */
+    public void setOutboundLimit(int outboundLimit) {
+        if (outboundLimit < 1) {
+            throw new IllegalArgumentException("outbound limit must be at least 1");
+        }
+        this.outboundLimit = outboundLimit;
+    }
+
+    /**
+     * Returns how many frames each client's outbound queue holds.
+     *
+     * @return this.outboundLimit
+     */
+    int getOutboundLimit() {
+        return this.outboundLimit;
+    }
+
+    /**
+     * Sets what happens when a frame is delivered to a client whose outbound queue is full.
+     * The default is DROP_NEWEST.
+     *
+     * @param slowConsumerPolicy the policy
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    /**
+     * Sets how long a client may send nothing before it is sent a heartbeat, which it answers,
+     * 0 to send none. The default is 30 seconds. Applies from the next start().
+     *
+     * @param heartbeatMillis the quiet time in milliseconds
+     */
+    public void setHeartbeatInterval(long heartbeatMillis) {
+        if (heartbeatMillis < 0) {
+            throw new IllegalArgumentException("heartbeat interval must not be negative");
+        }
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    /**
+     * Sets how long a client may send nothing, heartbeat answers included, before it is
+     * disconnected, 0 to never disconnect quiet clients. The default is 90 seconds, three
+     * heartbeat intervals. Applies from the next start().
+     *
+     * @param idleTimeoutMillis the quiet time in milliseconds
+     */
+    public void setIdleTimeout(long idleTimeoutMillis) {
+        if (idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("idle timeout must not be negative");
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Turns Nagle's algorithm off or on for client sockets. It is off by default: writes are
+     * already coalesced by the server, so Nagle would only hold a lone message back until the
+     * previous one is acknowledged. Applies to clients that connect afterwards.
+     *
+     * @param tcpNoDelay true to turn Nagle's algorithm off
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Sets the socket send buffer size of client sockets, 0 for the system default. Applies to
+     * clients that connect afterwards.
+     *
+     * @param sendBufferSize the size in bytes
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("send buffer size must not be negative");
+        }
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * Sets the socket receive buffer size of client sockets, 0 for the system default.
+     * Applies from the next start().
+     *
+     * @param receiveBufferSize the size in bytes
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("receive buffer size must not be negative");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Sets the most bytes coalesced into one socket write: the size of each reactor's write
+     * buffer in NIO mode, and of each client's output buffer in blocking mode. The default is
+     * 64 KiB. Applies from the next start() in NIO mode and to clients that connect afterwards
+     * in blocking mode.
+     *
+     * @param writeBufferSize the size in bytes
+     */
+    public void setWriteBufferSize(int writeBufferSize) {
+        if (writeBufferSize < 1) {
+            throw new IllegalArgumentException("write buffer size must be at least 1");
+        }
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    /**
+     * Returns the most bytes coalesced into one socket write.
+     *
+     * @return this.writeBufferSize
+     */
+    int getWriteBufferSize() {
+        return this.writeBufferSize;
+    }
+
+    /**
+     * Sets how long a blocking mode writer may hold back a flush to coalesce the frames of a
+     * burst, 0 to flush whenever the client's queue is empty. A writer only waits when its
+     * previous flush was less than this long ago, so a message arriving on its own is never
+     * delayed. The default is 100 microseconds. NIO reactors do not wait; they flush once per
+     * turn of the event loop, which coalesces everything the turn produced.
+     *
+     * @param flushMicros the delay in microseconds
+     */
+    public void setFlushMicros(long flushMicros) {
+        if (flushMicros < 0) {
+            throw new IllegalArgumentException("flush delay must not be negative");
+        }
+        this.flushMicros = flushMicros;
+    }
+
+    /**
+     * Returns how long a blocking mode writer may hold back a flush during a burst.
+     *
+     * @return this.flushMicros in nanoseconds
+     */
+    long getFlushNanos() {
+        return TimeUnit.MICROSECONDS.toNanos(this.flushMicros);
+    }
+
+    /**
+     * Sets the port of the plain-text metrics endpoint started by start(), 0 for none.
+     *
+     * @param metricsPort the port to serve /metrics on
+     */
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * Returns the metrics of this server.
+     *
+     * @return this.metrics
+     */
+    public ServerMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Returns the pool the server's frame encodings and read buffers come from. A new one is
+     * made by setMode(), holding direct buffers for NIO mode and heap buffers, which socket
+     * streams can write from, for blocking mode.
+     *
+     * @return this.bufferPool
+     */
+    public BufferPool getBufferPool() {
+        return this.bufferPool;
+    }
+
+    /**
+     * Sets the log the server writes received data and events to. The default logs INFO and
+     * above to the console.
+     *
+     * @param log the log to use
+     */
+    public void setLog(AsyncLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Returns the log.
+     *
+     * @return this.log
+     */
+    public AsyncLog getLog() {
+        return this.log;
+    }
+
+    /**
+     * Returns the users online.
+     *
+     * @return this.presence
+     */
+    public PresenceIndex getPresence() {
+        return this.presence;
+    }
+
+    /**
+     * Returns the ids given to user names.
+     *
+     * @return this.userTable
+     */
+    public UserTable getUserTable() {
+        return this.userTable;
+    }
+
+    /**
+     * Returns the sequences of every channel.
+     *
+     * @return this.sequencer
+     */
+    public ChannelSequencer getSequencer() {
+        return this.sequencer;
+    }
+
+    /**
+     * Returns the channels and their members.
+     *
+     * @return this.routes
+     */
+    public RoutingTable getRoutingTable() {
+        return this.routes;
+    }
+
+    /**
+     * Sets the log every broadcast is appended to, already opened, or null to keep none.
+     * Broadcasts are given their offset in the log as their sequence, and clients that
+     * reconnect with the last sequence they received are replayed what they missed from it.
+     *
+     * @param history the message log
+     */
+    public void setHistory(MessageLog history) {
+        this.history = history;
+    }
+
+    /**
+     * Returns the message log, or null if none is kept.
+     *
+     * @return this.history
+     */
+    public MessageLog getHistory() {
+        return this.history;
+    }
+
+    Set<ClientConnection> getClientConnections(){
+        return this.clientConnections;
     }
 
 
@@ -133,7 +1098,7 @@ public class ClackServer {
         // See the hashCode() method in other classes for some different implementations.
         // It is okay to select only some of the instance variables to calculate the hash code
         // but must use the same instance variables with equals() to maintain consistency.
-        return Objects.hash(this.port, this.closeConnection, this.serverSideClientIOList);
+        return Objects.hash(this.port, this.closeConnection, this.clientConnections);
     }
 
     @Override
@@ -153,7 +1118,7 @@ public class ClackServer {
         // instance variables with hashCode() to maintain consistency.
         return this.port == otherClackServer.port
                 && this.closeConnection == otherClackServer.closeConnection
-                && Objects.equals(this.serverSideClientIOList, otherClackServer.serverSideClientIOList);
+                && Objects.equals(this.clientConnections, otherClackServer.clientConnections);
     }
 
     @Override
@@ -161,26 +1126,136 @@ public class ClackServer {
         // Should return a full description of the class with all instance variables.
         return "This instance of ClackServer has the following properties:\n"
                 + "Port number: " + this.port + "\n"
+                + "Mode: " + this.mode + "\n"
+                + "Threads: " + this.threadMode + "\n"
                 + "Connection status: " + (this.closeConnection ? "Closed" : "Open") + "\n";
 
     }
+    /**
+     * Starts a server. Accepts --mode=blocking|nio, --reactors=N, --threads=platform|virtual,
+     * --relay=spool|heap, --metrics-port=N, --log-level=debug|info|warn|off (debug logs every
+     * message received), --log-file=path (the console without it), and --history-dir=path to
+     * keep every broadcast in a MessageLog there, with --history-segment-mb=N and
+     * --history-retention-mb=N, and --outbound-limit=N frames per client with
+     * --slow-consumer=drop-newest|drop-oldest|coalesce|disconnect for what happens past it, and
+     * --heartbeat-seconds=N and --idle-timeout-seconds=N (0 turns either off), and
+     * --tcp-nodelay=true|false, --send-buffer-kb=N and --receive-buffer-kb=N (0 for the system
+     * default), --write-buffer-kb=N and --flush-micros=N for the socket writes, on the command
+     * line.
+     *
+     * @param args the command line arguments
+     */
     public static void main(String args[])
     {
+        ServerMode mode = ServerMode.BLOCKING;
+        int reactorCount = DEFAULT_REACTOR_COUNT;
+        ThreadMode threadMode = ThreadMode.PLATFORM;
+        boolean zeroCopyRelay = true;
+        int metricsPort = 0;
+        LogLevel logLevel = LogLevel.INFO;
+        Path logFile = null;
+        MessageLog history = null;
+        int historySegmentMegabytes = MessageLog.DEFAULT_SEGMENT_BYTES >> 20;
+        long historyRetentionMegabytes = MessageLog.DEFAULT_RETENTION_BYTES >> 20;
+        int outboundLimit = OutboundQueue.DEFAULT_CAPACITY;
+        SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP_NEWEST;
+        long heartbeatMillis = DEFAULT_HEARTBEAT_MILLIS;
+        long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+        boolean tcpNoDelay = true;
+        int sendBufferKilobytes = 0;
+        int receiveBufferKilobytes = 0;
+        int writeBufferKilobytes = DEFAULT_WRITE_BUFFER_SIZE >> 10;
+        long flushMicros = DEFAULT_FLUSH_MICROS;
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--mode=")) {
+                    mode = ServerMode.valueOf(arg.substring("--mode=".length()).toUpperCase());
+                } else if (arg.startsWith("--reactors=")) {
+                    reactorCount = parseInt(arg.substring("--reactors=".length()));
+                } else if (arg.startsWith("--threads=")) {
+                    threadMode = ThreadMode.valueOf(arg.substring("--threads=".length()).toUpperCase());
+                } else if (arg.equals("--relay=spool") || arg.equals("--relay=heap")) {
+                    zeroCopyRelay = arg.equals("--relay=spool");
+                } else if (arg.startsWith("--metrics-port=")) {
+                    metricsPort = parseInt(arg.substring("--metrics-port=".length()));
+                } else if (arg.startsWith("--log-level=")) {
+                    logLevel = LogLevel.valueOf(arg.substring("--log-level=".length()).toUpperCase());
+                } else if (arg.startsWith("--log-file=")) {
+                    logFile = Paths.get(arg.substring("--log-file=".length()));
+                } else if (arg.startsWith("--history-dir=")) {
+                    history = new MessageLog(Paths.get(arg.substring("--history-dir=".length())));
+                } else if (arg.startsWith("--history-segment-mb=")) {
+                    historySegmentMegabytes = parseInt(arg.substring("--history-segment-mb=".length()));
+                } else if (arg.startsWith("--history-retention-mb=")) {
+                    historyRetentionMegabytes = Long.parseLong(arg.substring("--history-retention-mb=".length()));
+                } else if (arg.startsWith("--outbound-limit=")) {
+                    outboundLimit = parseInt(arg.substring("--outbound-limit=".length()));
+                } else if (arg.startsWith("--slow-consumer=")) {
+                    slowConsumerPolicy = SlowConsumerPolicy.valueOf(
+                            arg.substring("--slow-consumer=".length()).toUpperCase().replace('-', '_'));
+                } else if (arg.startsWith("--heartbeat-seconds=")) {
+                    heartbeatMillis = Long.parseLong(arg.substring("--heartbeat-seconds=".length())) * 1000;
+                } else if (arg.startsWith("--idle-timeout-seconds=")) {
+                    idleTimeoutMillis = Long.parseLong(arg.substring("--idle-timeout-seconds=".length())) * 1000;
+                } else if (arg.equals("--tcp-nodelay=true") || arg.equals("--tcp-nodelay=false")) {
+                    tcpNoDelay = arg.equals("--tcp-nodelay=true");
+                } else if (arg.startsWith("--send-buffer-kb=")) {
+                    sendBufferKilobytes = parseInt(arg.substring("--send-buffer-kb=".length()));
+                } else if (arg.startsWith("--receive-buffer-kb=")) {
+                    receiveBufferKilobytes = parseInt(arg.substring("--receive-buffer-kb=".length()));
+                } else if (arg.startsWith("--write-buffer-kb=")) {
+                    writeBufferKilobytes = parseInt(arg.substring("--write-buffer-kb=".length()));
+                } else if (arg.startsWith("--flush-micros=")) {
+                    flushMicros = Long.parseLong(arg.substring("--flush-micros=".length()));
+                } else {
+                    throw new IllegalArgumentException(arg);
+                }
+            }
+        } catch (IllegalArgumentException iae) {
+            System.err.println("Usage: ClackServer [--mode=blocking|nio] [--reactors=N] [--threads=platform|virtual] [--relay=spool|heap] [--metrics-port=N]"
+                    + " [--log-level=debug|info|warn|off] [--log-file=path]"
+                    + " [--history-dir=path] [--history-segment-mb=N] [--history-retention-mb=N]"
+                    + " [--outbound-limit=N] [--slow-consumer=drop-newest|drop-oldest|coalesce|disconnect]"
+                    + " [--heartbeat-seconds=N] [--idle-timeout-seconds=N]"
+                    + " [--tcp-nodelay=true|false] [--send-buffer-kb=N] [--receive-buffer-kb=N]"
+                    + " [--write-buffer-kb=N] [--flush-micros=N]");
+            return;
+        }
+        if (history != null) {
+            try {
+                history.setSegmentBytes(historySegmentMegabytes << 20);
+                history.setRetentionBytes(historyRetentionMegabytes << 20);
+                history.open();
+            } catch (IOException ioe) {
+                System.err.println("Could not open the message history: " + ioe.getMessage());
+                return;
+            }
+        }
         try {
 
             System.out.println("Type port or press enter to use default port: ");
             BufferedReader bufferedreader = new BufferedReader(new InputStreamReader(System.in));
             String line = bufferedreader.readLine();
             String newline = line;
-            if (newline.isEmpty()) {
-                ClackServer server = new ClackServer();
-                System.out.println("Using port: " + DEFAULT_PORT);
-                server.start();
-            } else {
-                ClackServer server = new ClackServer(parseInt(newline));
-                System.out.println("Using port: " + newline);
-                server.start();
-            }
+            ClackServer server = newline.isEmpty() ? new ClackServer() : new ClackServer(parseInt(newline));
+            server.setMode(mode);
+            server.setReactorCount(reactorCount);
+            server.setThreadMode(threadMode);
+            server.setZeroCopyRelay(zeroCopyRelay);
+            server.setMetricsPort(metricsPort);
+            server.setLog(new AsyncLog(logFile, logLevel));
+            server.setHistory(history);
+            server.setOutboundLimit(outboundLimit);
+            server.setSlowConsumerPolicy(slowConsumerPolicy);
+            server.setHeartbeatInterval(heartbeatMillis);
+            server.setIdleTimeout(idleTimeoutMillis);
+            server.setTcpNoDelay(tcpNoDelay);
+            server.setSendBufferSize(sendBufferKilobytes << 10);
+            server.setReceiveBufferSize(receiveBufferKilobytes << 10);
+            server.setWriteBufferSize(writeBufferKilobytes << 10);
+            server.setFlushMicros(flushMicros);
+            System.out.println("Using port: " + server.getPort() + ", mode: " + mode);
+            server.start();
         } catch(IOException ioe) {
             System.err.println("Error reading from buffer");
         }
@@ -0,0 +1,93 @@
+package main;
+
+import data.ClackData;
+
+/**
+ * A ClientConnection is the server's view of one connected client, independent of whether
+ * the client is served by its own thread (ServerSideClientIO) or by a reactor
+ * (NioClientConnection).
+ */
+interface ClientConnection {
+    /**
+     * Hands a frame to this connection for delivery to its client. The same frame may be
+     * handed to many connections; none of them may change it. The connection takes over one
+     * reference to the frame and releases it once the frame is written or dropped.
+     *
+     * @param frame the frame to send to the client
+     */
+    void deliver(OutboundFrame frame);
+
+    /**
+     * Hands data meant for this client only to this connection.
+     *
+     * @param data the data to send to the client
+     */
+    default void deliver(ClackData data) {
+        deliver(new OutboundFrame(data));
+    }
+
+    /**
+     * Closes this connection once everything already handed to deliver() has been sent.
+     */
+    void close();
+
+    /**
+     * Closes this connection now, dropping everything not yet sent. Safe to call from any
+     * thread.
+     */
+    void abort();
+
+    /**
+     * Returns whether the connection is still open. Safe to call from any thread.
+     *
+     * @return false once the connection has been closed
+     */
+    boolean isOpen();
+
+    /**
+     * Returns when anything was last received from the client. Safe to call from any thread.
+     *
+     * @return the System.nanoTime() of the last read, or of the accept before any
+     */
+    long getLastActivity();
+
+    /**
+     * Returns the id of the user this connection last sent data as. Only called by the thread
+     * that dispatches the connection's data.
+     *
+     * @return the user id, NO_USER_ID before the connection has sent data under a name
+     */
+    int getUserId();
+
+    /**
+     * Binds the connection to a user id. Only called by the thread that dispatches the
+     * connection's data.
+     *
+     * @param userId the id of the user the connection sends data as
+     */
+    void setUserId(int userId);
+
+    /**
+     * Returns whether the client asked in its hello to be told its user id, see
+     * FrameCodec.HELLO_IDENTIFY.
+     *
+     * @return true if the client should be sent an IdentityClackData
+     */
+    boolean acceptsUserIds();
+
+    /**
+     * Returns whether the client turned out to talk a plain object stream, as clients from
+     * before the hello do. Such a client cannot read a heartbeat and never answers one, so it
+     * is neither sent heartbeats nor closed for going quiet. Safe to call from any thread.
+     *
+     * @return true once the connection has settled on an object stream
+     */
+    boolean isObjectStream();
+
+    /**
+     * Returns the number of frames waiting to be written to this client.
+     *
+     * @return the outbound queue depth
+     */
+    int getQueueDepth();
+}
@@ -0,0 +1,53 @@
+package main;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ConnectionExecutors creates the executors that run blocking connection loops
+ * (ServerSideClientIO on the server, ClientSideServerListener on the client). Every task gets
+ * a thread of its own, so the blocking programming model is unchanged; only the kind of
+ * thread differs.
+ */
+final class ConnectionExecutors {
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * Creates an executor that starts one thread per submitted task.
+     * Virtual threads are looked up reflectively so the code still runs on JVMs that do not
+     * have them (before Java 21, or 19/20 without --enable-preview).
+     *
+     * @param threadMode the kind of thread to run tasks on
+     * @param namePrefix the name prefix for platform threads
+     * @return a thread-per-task executor
+     */
+    static ExecutorService newThreadPerTaskExecutor(ThreadMode threadMode, String namePrefix) {
+        if (threadMode == ThreadMode.VIRTUAL) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException roe) {
+                System.err.println("Virtual threads are not available on this JVM, using platform threads");
+            }
+        }
+        return Executors.newCachedThreadPool(new NamedThreadFactory(namePrefix));
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger nextId = new AtomicInteger();
+
+        NamedThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            return new Thread(task, namePrefix + nextId.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package main;
+
+import data.FileChunkClackData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A FileChunkAssembler writes incoming FileChunkClackData chunks straight to disk as they
+ * arrive, so a received file never has to fit in memory. Each transfer gets its own open
+ * FileChannel and running CRC-32 until its last chunk arrives. Transfers whose first chunk was
+ * missed (the receiver connected mid-transfer) are ignored.
+ */
+class FileChunkAssembler {
+    private final Path directory;  // Where received files are written
+    private final HashMap<Long, Transfer> transfers;  // Open transfers by transfer id
+
+    /**
+     * The constructor that sets the download directory.
+     *
+     * @param directory the directory received files are written to
+     */
+    FileChunkAssembler(Path directory) {
+        this.directory = directory;
+        this.transfers = new HashMap<Long, Transfer>();
+    }
+
+    /**
+     * Writes a chunk to its file.
+     *
+     * @param chunk the received chunk
+     * @return a line describing the finished file if this was the last chunk, otherwise null
+     */
+    String accept(FileChunkClackData chunk) {
+        Transfer transfer = transfers.get(chunk.getTransferId());
+        try {
+            if (transfer == null) {
+                if (chunk.getOffset() != 0) {
+                    return null;
+                }
+                transfer = new Transfer(directory.resolve(safeName(chunk.getFileName())));
+                transfers.put(chunk.getTransferId(), transfer);
+            }
+            transfer.write(chunk);
+            if (!chunk.isLast()) {
+                return null;
+            }
+            transfers.remove(chunk.getTransferId());
+            return transfer.finish(chunk.getChecksum(), chunk.getUserName());
+        } catch (IOException ioe) {
+            transfers.remove(chunk.getTransferId());
+            if (transfer != null) {
+                transfer.abandon();
+            }
+            return "Could not write " + chunk.getFileName() + " from " + chunk.getUserName();
+        }
+    }
+
+    /**
+     * Closes and deletes every unfinished file.
+     */
+    void abandonAll() {
+        for (Transfer transfer : transfers.values()) {
+            transfer.abandon();
+        }
+        transfers.clear();
+    }
+
+    /**
+     * Keeps only the last path element so a sender cannot write outside the directory.
+     */
+    private static String safeName(String fileName) {
+        Path name = fileName == null ? null : Paths.get(fileName).getFileName();
+        return name == null || name.toString().equals("..") ? "unnamed" : name.toString();
+    }
+
+    private static class Transfer {
+        private final Path path;
+        private final FileChannel channel;
+        private final CRC32 crc;
+        private long nextOffset;
+
+        Transfer(Path path) throws IOException {
+            Files.createDirectories(path.getParent());
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            this.crc = new CRC32();
+            this.nextOffset = 0;
+        }
+
+        void write(FileChunkClackData chunk) throws IOException {
+            if (chunk.getOffset() != nextOffset) {
+                throw new IOException("Chunk at " + chunk.getOffset() + " but expected " + nextOffset);
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(chunk.getChunk());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, nextOffset + bytes.position());
+            }
+            crc.update(chunk.getChunk());
+            nextOffset += chunk.getChunk().length;
+        }
+
+        String finish(long expectedChecksum, String userName) throws IOException {
+            channel.close();
+            if (crc.getValue() != expectedChecksum) {
+                Files.deleteIfExists(path);
+                return "Checksum mismatch, discarded " + path.getFileName() + " from " + userName;
+            }
+            return "Received " + path + " (" + nextOffset + " bytes) from " + userName;
+        }
+
+        void abandon() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException ioe) {
+                System.err.println("Error in discarding " + path);
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package main;
+
+import data.ClackDataCodec;
+import data.FileChunkClackData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A FileRelay lets the NIO server pass streamed files on without the file bytes entering the
+ * Java heap. Each FileChunkClackData frame is split where its chunk bytes start: the small
+ * header is encoded again once, with the sequence and routing the server gave it, and shared
+ * by every recipient, while the chunk bytes go straight from the connection's direct read
+ * buffer into a temp spool file for the transfer. Recipients
+ * then send the header followed by the chunk's region of the spool file, which
+ * NioClientConnection does with FileChannel.transferTo(), so the kernel copies the bytes from
+ * the page cache to each socket.
+ *
+ * Chunks are relayed as soon as they are spooled, not once the whole file has arrived. A spool
+ * file is deleted when the sender has sent the last chunk (or gone away) and every frame that
+ * refers to it has been released.
+ */
+class FileRelay {
+    private final Map<Long, Transfer> transfers; // Spooling transfers by transfer id
+    private volatile Path spoolDirectory; // Created on first use
+
+    /**
+     * The default constructor.
+     */
+    FileRelay() {
+        this.transfers = new ConcurrentHashMap<Long, Transfer>();
+    }
+
+    /**
+     * Decodes the metadata of a file chunk frame's payload, leaving the buffer positioned at
+     * the chunk bytes.
+     *
+     * @param payload the frame payload, length header excluded, from its position to its limit
+     * @return the chunk's metadata, without the chunk
+     * @throws IOException if the payload is not a file chunk
+     */
+    static FileChunkClackData readHeader(ByteBuffer payload) throws IOException {
+        try {
+            return ClackDataCodec.decodeFileChunkHeader(payload);
+        } catch (IllegalArgumentException iae) {
+            throw new IOException("Frame does not hold a file chunk: " + iae.getMessage());
+        }
+    }
+
+    /**
+     * Spools one file chunk and returns the frame to relay it with, whose header is encoded
+     * again from the given metadata so the server can change it, e.g. to set the sequence.
+     *
+     * @param sender the connection the chunk came from
+     * @param header the chunk's metadata, from readHeader()
+     * @param chunk  the chunk bytes, from its position to its limit; not consumed
+     * @return the frame to deliver to recipients, holding one reference
+     * @throws IOException if the spool file cannot be written
+     */
+    SpooledChunkFrame spool(ClientConnection sender, FileChunkClackData header, ByteBuffer chunk) throws IOException {
+        int chunkLength = chunk.remaining();
+        int headerLength = ClackDataCodec.fileChunkHeaderLength(header, chunkLength);
+        ByteBuffer headerBytes = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH + headerLength);
+        headerBytes.putInt(headerLength + chunkLength);
+        ClackDataCodec.encodeFileChunkHeader(header, chunkLength, headerBytes);
+        headerBytes.flip();
+
+        Transfer transfer = transferFor(sender, header.getTransferId());
+        transfer.write(chunk.duplicate(), header.getOffset());
+        SpooledChunkFrame chunkFrame =
+                new SpooledChunkFrame(transfer, header, headerBytes.asReadOnlyBuffer(), header.getOffset(), chunkLength);
+        if (header.isLast()) {
+            finish(header.getTransferId(), transfer);
+        }
+        return chunkFrame;
+    }
+
+    /**
+     * Drops every transfer a connection was still sending, for when it goes away mid-file.
+     * Frames already relayed stay valid until they are released.
+     *
+     * @param sender the connection that went away
+     */
+    void abandon(ClientConnection sender) {
+        Iterator<Map.Entry<Long, Transfer>> entries = transfers.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Long, Transfer> entry = entries.next();
+            if (entry.getValue().sender == sender) {
+                finish(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private Transfer transferFor(ClientConnection sender, long transferId) throws IOException {
+        Transfer transfer = transfers.get(transferId);
+        if (transfer == null) {
+            Transfer created = new Transfer(sender, Files.createTempFile(spoolDirectory(), "transfer-", ".spool"));
+            transfer = transfers.putIfAbsent(transferId, created);
+            if (transfer == null) {
+                return created;
+            }
+            created.release();
+        }
+        if (transfer.sender != sender) {
+            throw new IOException("Transfer " + Long.toHexString(transferId) + " belongs to another client");
+        }
+        return transfer;
+    }
+
+    private void finish(long transferId, Transfer transfer) {
+        if (transfers.remove(transferId, transfer)) {
+            transfer.release();
+        }
+    }
+
+    private Path spoolDirectory() throws IOException {
+        Path directory = spoolDirectory;
+        if (directory == null) {
+            synchronized (this) {
+                directory = spoolDirectory;
+                if (directory == null) {
+                    directory = Files.createTempDirectory("clack-spool");
+                    directory.toFile().deleteOnExit();
+                    spoolDirectory = directory;
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * The spool file of one transfer. It is referenced by its sender until the last chunk has
+     * arrived and by every SpooledChunkFrame over it; the file is deleted when the channel is
+     * closed after the last reference goes.
+     */
+    static class Transfer {
+        private final ClientConnection sender;
+        private final FileChannel channel;
+        private final AtomicInteger references; // The sender plus every live chunk frame
+
+        private Transfer(ClientConnection sender, Path spoolFile) throws IOException {
+            this.sender = sender;
+            this.channel = FileChannel.open(spoolFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+            this.references = new AtomicInteger(1);
+        }
+
+        /**
+         * Writes chunk bytes at their offset in the spool file.
+         *
+         * @param chunk    the bytes, consumed
+         * @param position the offset of the chunk in the file
+         * @throws IOException if writing fails
+         */
+        private void write(ByteBuffer chunk, long position) throws IOException {
+            while (chunk.hasRemaining()) {
+                position += channel.write(chunk, position);
+            }
+        }
+
+        /**
+         * Returns the spool file, which may be read at any position from any thread.
+         *
+         * @return the channel over the spool file
+         */
+        FileChannel channel() {
+            return channel;
+        }
+
+        void retain() {
+            references.incrementAndGet();
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                try {
+                    channel.close();
+                } catch (IOException ioe) {
+                    System.err.println("Error in closing spool file");
+                }
+            }
+        }
+    }
+}
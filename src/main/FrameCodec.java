@@ -0,0 +1,399 @@
+package main;
+
+import data.ClackData;
+import data.ClackDataCodec;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FrameCodec holds the wire format shared by the framed client and both server modes.
+ * A framed client starts by reading the four byte object stream header that the server
+ * always sends first, then answers with a hello (MAGIC followed by a codec id) instead of
+ * its own object stream header. The codec id in the client hello is the newest codec the
+ * client supports; the server answers with a hello naming the codec both sides then use,
+ * which is the older of the two ends' newest codecs. A client that has been connected before
+ * can set HELLO_RESUME on the codec id and follow the hello with the sequence of the last
+ * history message it received, and the server then replays what it missed before sending it
+ * live traffic. A client can also set HELLO_IDENTIFY to be told the id the server gives its
+ * user name, which it may then send in place of the name. After that, every ClackData
+ * travels as a frame: a four byte big-endian payload length followed by the payload.
+ * Clients that never send the hello keep talking plain Java object streams, which only the
+ * blocking server mode understands. The class is public so that tools outside the server,
+ * such as the benchmarks, can talk to a server the way a framed client does.
+ */
+public final class FrameCodec {
+    /**
+     * The hello magic sent by framed clients, "CLAK" in ASCII.
+     */
+    public static final int MAGIC = 0x434C414B;
+
+    /**
+     * Not a frame codec: the client never sent a hello and talks a plain object stream.
+     */
+    public static final byte CODEC_OBJECT_STREAM = 0;
+
+    /**
+     * Payloads are single ClackData objects written with Java serialization.
+     */
+    public static final byte CODEC_SERIALIZED = 1;
+
+    /**
+     * Payloads are written with ClackDataCodec; an empty payload stands for null.
+     */
+    public static final byte CODEC_BINARY = 2;
+
+    /**
+     * The newest codec this side of the connection supports.
+     */
+    public static final byte NEWEST_CODEC = CODEC_BINARY;
+
+    /**
+     * Set on the codec id of a client hello that is followed by a resume request.
+     */
+    public static final byte HELLO_RESUME = (byte) 0x80;
+
+    /**
+     * Set on the codec id of a client hello to ask for an IdentityClackData once the client
+     * first sends data under a user name.
+     */
+    public static final byte HELLO_IDENTIFY = 0x40;
+
+    /**
+     * The length of the resume request that follows a hello with HELLO_RESUME: the 8-byte
+     * sequence of the last history message the client received.
+     */
+    public static final int RESUME_LENGTH = 8;
+
+    /**
+     * The length of the hello in bytes (magic plus codec id).
+     */
+    public static final int HELLO_LENGTH = 5;
+
+    /**
+     * The length of the frame header in bytes.
+     */
+    public static final int HEADER_LENGTH = 4;
+
+    /**
+     * Frames longer than this are treated as a corrupt stream.
+     */
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * The header of a Java object stream (STREAM_MAGIC, STREAM_VERSION), which the server
+     * sends to every client as soon as it accepts the connection.
+     */
+    public static final byte[] STREAM_HEADER = {
+            (byte) (ObjectStreamConstants.STREAM_MAGIC >> 8), (byte) ObjectStreamConstants.STREAM_MAGIC,
+            (byte) (ObjectStreamConstants.STREAM_VERSION >> 8), (byte) ObjectStreamConstants.STREAM_VERSION
+    };
+
+    private FrameCodec() {
+    }
+
+    /**
+     * Picks the codec for a connection from the newest codec the client offered, ignoring
+     * HELLO_RESUME and HELLO_IDENTIFY.
+     *
+     * @param offered the codec id from the client hello
+     * @return the codec both sides use
+     * @throws IOException if the client offered no usable codec
+     */
+    public static byte negotiate(byte offered) throws IOException {
+        offered &= ~(HELLO_RESUME | HELLO_IDENTIFY);
+        if (offered < CODEC_SERIALIZED) {
+            throw new StreamCorruptedException("Unsupported codec " + offered);
+        }
+        return offered < NEWEST_CODEC ? offered : NEWEST_CODEC;
+    }
+
+    /**
+     * Encodes a ClackData as a complete frame, header included.
+     *
+     * @param data  the ClackData to encode
+     * @param codec the codec of the connection
+     * @return a buffer positioned at the start of the frame
+     * @throws IOException if the data cannot be serialized
+     */
+    public static ByteBuffer encode(ClackData data, byte codec) throws IOException {
+        return encode(data, codec, null);
+    }
+
+    /**
+     * Encodes a ClackData as a complete frame, header included, into a buffer from a pool.
+     * The binary codec encodes straight into the pooled buffer; serialization has to go
+     * through a byte array first.
+     *
+     * @param data  the ClackData to encode
+     * @param codec the codec of the connection
+     * @param pool  the pool to take the buffer from, or null for a new heap buffer
+     * @return a buffer positioned at the start of the frame, to be released to the pool
+     * @throws IOException if the data cannot be serialized
+     */
+    public static ByteBuffer encode(ClackData data, byte codec, BufferPool pool) throws IOException {
+        if (codec == CODEC_BINARY) {
+            int length = data == null ? 0 : ClackDataCodec.encodedLength(data);
+            ByteBuffer frame = allocate(HEADER_LENGTH + length, pool);
+            frame.putInt(length);
+            if (data != null) {
+                ClackDataCodec.encode(data, frame);
+            }
+            frame.flip();
+            return frame;
+        }
+        byte[] payload = serialize(data);
+        ByteBuffer frame = allocate(HEADER_LENGTH + payload.length, pool);
+        frame.putInt(payload.length);
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Encodes a ClackData as it appears inside an object stream that has already started.
+     * The bytes begin with TC_RESET, which clears the receiver's back-reference table, so the
+     * same bytes are valid in any client's stream no matter what was written to it before.
+     *
+     * @param data the ClackData to encode
+     * @return a buffer positioned at the start of the bytes
+     * @throws IOException if the data cannot be serialized
+     */
+    public static ByteBuffer encodeForObjectStream(ClackData data) throws IOException {
+        return encodeForObjectStream(data, null);
+    }
+
+    /**
+     * Encodes a ClackData as it appears inside an object stream, into a buffer from a pool.
+     *
+     * @param data the ClackData to encode
+     * @param pool the pool to take the buffer from, or null for a new heap buffer
+     * @return a buffer positioned at the start of the bytes, to be released to the pool
+     * @throws IOException if the data cannot be serialized
+     */
+    public static ByteBuffer encodeForObjectStream(ClackData data, BufferPool pool) throws IOException {
+        byte[] serialized = serialize(data);
+        ByteBuffer bytes = allocate(1 + serialized.length - STREAM_HEADER.length, pool);
+        bytes.put(ObjectStreamConstants.TC_RESET);
+        bytes.put(serialized, STREAM_HEADER.length, serialized.length - STREAM_HEADER.length);
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Decodes a frame payload (without its header) from the buffer's position up to its limit.
+     *
+     * @param payload the payload bytes
+     * @param codec   the codec of the connection
+     * @return the decoded ClackData
+     * @throws IOException if the payload is not a valid ClackData
+     */
+    public static ClackData decode(ByteBuffer payload, byte codec) throws IOException {
+        if (codec == CODEC_BINARY) {
+            if (!payload.hasRemaining()) {
+                return null;
+            }
+            try {
+                return ClackDataCodec.decode(payload);
+            } catch (IllegalArgumentException iae) {
+                throw new StreamCorruptedException("Frame does not hold a ClackData: " + iae.getMessage());
+            }
+        }
+        InputStream bytes;
+        if (payload.hasArray()) {
+            bytes = new ByteArrayInputStream(
+                    payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        } else {
+            byte[] copy = new byte[payload.remaining()];
+            payload.duplicate().get(copy);
+            bytes = new ByteArrayInputStream(copy);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(bytes)) {
+            return (ClackData) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new StreamCorruptedException("Frame does not hold a ClackData: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns whether a frame payload holds a binary-encoded FileChunkClackData, which the
+     * NIO server relays without decoding (see FileRelay).
+     *
+     * @param payload the payload bytes, which are not consumed
+     * @param codec   the codec of the connection
+     * @return true if the payload is a binary file chunk
+     */
+    public static boolean isFileChunk(ByteBuffer payload, byte codec) {
+        return codec == CODEC_BINARY && payload.hasRemaining()
+                && (payload.get(payload.position()) & 0xFF) >>> 4 == ClackDataCodec.KIND_FILECHUNK;
+    }
+
+    /**
+     * Writes one frame to a blocking stream and flushes it.
+     *
+     * @param out   the stream to write to
+     * @param data  the ClackData to send
+     * @param codec the codec of the connection
+     * @throws IOException if writing fails
+     */
+    public static void write(DataOutputStream out, ClackData data, byte codec) throws IOException {
+        ByteBuffer frame = encode(data, codec);
+        out.write(frame.array(), frame.arrayOffset(), frame.remaining());
+        out.flush();
+    }
+
+    /**
+     * Reads one frame from a blocking stream.
+     *
+     * @param in    the stream to read from
+     * @param codec the codec of the connection
+     * @return the decoded ClackData
+     * @throws IOException if reading fails or the frame is malformed
+     */
+    public static ClackData read(DataInputStream in, byte codec) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return decode(ByteBuffer.wrap(payload), codec);
+    }
+
+    /**
+     * Writes the hello announcing a codec.
+     *
+     * @param out   the stream to write to
+     * @param codec the codec id
+     * @throws IOException if writing fails
+     */
+    public static void writeHello(DataOutputStream out, byte codec) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(codec);
+        out.flush();
+    }
+
+    /**
+     * Returns whether a client hello's codec id says a resume request follows.
+     *
+     * @param offered the codec id from the client hello
+     * @return true if RESUME_LENGTH more bytes follow the hello
+     */
+    public static boolean isResume(byte offered) {
+        return (offered & HELLO_RESUME) != 0;
+    }
+
+    /**
+     * Returns whether a client hello's codec id asks to be told the client's user id.
+     *
+     * @param offered the codec id from the client hello
+     * @return true if the client wants an IdentityClackData
+     */
+    public static boolean isIdentify(byte offered) {
+        return (offered & HELLO_IDENTIFY) != 0;
+    }
+
+    /**
+     * Writes a hello announcing a codec, followed by a request to replay the history after
+     * the last message the client received.
+     *
+     * @param out      the stream to write to
+     * @param codec    the codec id
+     * @param lastSeen the sequence of the last history message received
+     * @throws IOException if writing fails
+     */
+    public static void writeResumeHello(DataOutputStream out, byte codec, long lastSeen) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(codec | HELLO_RESUME);
+        out.writeLong(lastSeen);
+        out.flush();
+    }
+
+    /**
+     * Opens a framed connection from the client side: skips the object stream header the
+     * server sends first, writes the hello, with a resume request if lastSeen is a sequence,
+     * and reads back the server's hello.
+     *
+     * @param in       the stream from the server
+     * @param out      the stream to the server
+     * @param offered  the codec id to offer, with HELLO_IDENTIFY set if wanted
+     * @param lastSeen the sequence of the last history message received, or NO_SEQUENCE
+     * @return the codec the server chose
+     * @throws IOException if the server does not accept frames
+     */
+    public static byte handshake(DataInputStream in, DataOutputStream out, byte offered, long lastSeen)
+            throws IOException {
+        byte[] header = new byte[STREAM_HEADER.length];
+        in.readFully(header);
+        if (!Arrays.equals(header, STREAM_HEADER)) {
+            throw new StreamCorruptedException("Unexpected stream header from server");
+        }
+        if (lastSeen == ClackData.NO_SEQUENCE) {
+            writeHello(out, offered);
+        } else {
+            writeResumeHello(out, offered, lastSeen);
+        }
+        if (in.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Server did not accept the hello");
+        }
+        byte codec = in.readByte();
+        if (codec < CODEC_SERIALIZED || codec > NEWEST_CODEC) {
+            throw new StreamCorruptedException("Server chose unsupported codec " + codec);
+        }
+        return codec;
+    }
+
+    /**
+     * Opens a framed connection on a connected socket, for tools that talk to the server
+     * directly. The stream returned is not buffered, so the socket's own streams can still
+     * be used alongside it.
+     *
+     * @param socket  the socket connected to the server
+     * @param offered the codec id to offer, with HELLO_IDENTIFY set if wanted
+     * @return a stream reading the frames that follow
+     * @throws IOException if the server does not accept frames
+     */
+    public static DataInputStream connect(Socket socket, byte offered) throws IOException {
+        return connect(socket, offered, ClackData.NO_SEQUENCE);
+    }
+
+    /**
+     * Opens a framed connection on a connected socket, asking the server to replay the
+     * history after lastSeen first.
+     *
+     * @param socket   the socket connected to the server
+     * @param offered  the codec id to offer, with HELLO_IDENTIFY set if wanted
+     * @param lastSeen the sequence of the last history message received, or NO_SEQUENCE
+     * @return a stream reading the frames that follow
+     * @throws IOException if the server does not accept frames
+     */
+    public static DataInputStream connect(Socket socket, byte offered, long lastSeen) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        handshake(in, new DataOutputStream(socket.getOutputStream()), offered, lastSeen);
+        return in;
+    }
+
+    /**
+     * Checks that a frame length read off the wire is sane.
+     *
+     * @param length the length to check
+     * @throws StreamCorruptedException if the length is out of range
+     */
+    public static void checkLength(int length) throws StreamCorruptedException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length " + length);
+        }
+    }
+
+    private static ByteBuffer allocate(int size, BufferPool pool) {
+        return pool == null ? ByteBuffer.allocate(size) : pool.acquire(size);
+    }
+
+    private static byte[] serialize(ClackData data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(data);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,90 @@
+package main;
+
+import data.HeartbeatClackData;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Finds connections that have gone quiet, on a thread of its own. Every connection records
+ * when it last received anything, which costs its reader one write per read; this monitor
+ * keeps one timer per connection in a TimerWheel and only looks at a connection when its
+ * timer expires. A connection that received something since the timer was set gets a new
+ * timer from that time, so a busy connection costs one wheel slot visit per heartbeat
+ * interval however many messages it sends.
+ *
+ * A connection that has been quiet for the heartbeat interval is sent a heartbeat, which
+ * clients answer, and again every interval after that. One still quiet at the idle timeout is
+ * aborted, which removes it from the server's connections, presence, channels and file relay
+ * and releases its queued frames like any other disconnect. This also catches connections
+ * that never finish the hello, which are not yet sent heartbeats. Object stream clients
+ * predate heartbeats, so once a connection turns out to be one it is no longer watched.
+ */
+class HeartbeatMonitor implements Runnable {
+    private static final int SLOT_COUNT = 64; // Slots in the wheel, a turn being 8 intervals
+    private static final int TICKS_PER_INTERVAL = 8; // Wheel ticks in one heartbeat interval
+
+    private final ClackServer server; // The server whose connections are watched
+    private final long intervalNanos; // Quiet time before a heartbeat is sent
+    private final long timeoutNanos; // Quiet time before the connection is closed
+    private final TimerWheel<ClientConnection> wheel; // When to look at each connection next
+    private final OutboundFrame heartbeat; // Shared by every heartbeat sent, never released, so unpooled
+
+    /**
+     * The constructor that sets the heartbeat interval and the idle timeout.
+     *
+     * @param server        the server whose connections are watched
+     * @param intervalNanos the quiet time before a heartbeat is sent
+     * @param timeoutNanos  the quiet time before a connection is closed
+     */
+    HeartbeatMonitor(ClackServer server, long intervalNanos, long timeoutNanos) {
+        this.server = server;
+        this.intervalNanos = intervalNanos;
+        this.timeoutNanos = timeoutNanos;
+        this.wheel = new TimerWheel<ClientConnection>(SLOT_COUNT, Math.max(1_000_000L, intervalNanos / TICKS_PER_INTERVAL));
+        this.heartbeat = new OutboundFrame(new HeartbeatClackData("Server"), false);
+    }
+
+    /**
+     * Starts watching a newly accepted connection. Safe to call from any thread.
+     *
+     * @param connection the connection to watch
+     */
+    void watch(ClientConnection connection) {
+        wheel.schedule(connection, connection.getLastActivity() + Math.min(intervalNanos, timeoutNanos));
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(wheel.getTickNanos());
+            wheel.advance(System.nanoTime(), this::check);
+        }
+    }
+
+    /**
+     * Looks at a connection whose timer expired: forgets it if it is closed or an object
+     * stream client, closes it if it has been quiet for the idle timeout, sends it a heartbeat
+     * if it has been quiet for the interval, and sets its next timer.
+     */
+    private void check(ClientConnection connection) {
+        if (!connection.isOpen() || connection.isObjectStream()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long lastActivity = connection.getLastActivity();
+        long quiet = now - lastActivity;
+        if (quiet >= timeoutNanos) {
+            server.getLog().info("Closing a connection quiet for " + quiet / 1_000_000 + " ms");
+            server.getMetrics().recordIdleTimeout();
+            connection.abort();
+        } else if (quiet >= intervalNanos) {
+            if (server.getClientConnections().contains(connection)) {
+                connection.deliver(heartbeat.retain());
+                server.getMetrics().recordHeartbeatSent();
+            }
+            wheel.schedule(connection, Math.min(now + intervalNanos, lastActivity + timeoutNanos));
+        } else {
+            wheel.schedule(connection, lastActivity + Math.min(intervalNanos, timeoutNanos));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package main;
+
+/**
+ * A summary of a LatencyHistogram at one moment, as ServerMetricsMXBean reports it. JMX shows
+ * it as composite data with one item per getter.
+ */
+public class HistogramSnapshot {
+    private final long count; // The number of values recorded
+    private final double mean; // The mean value
+    private final long p50; // The median
+    private final long p99; // The 99th percentile
+    private final long p999; // The 99.9th percentile
+    private final long max; // The largest value
+
+    /**
+     * The constructor that summarizes a histogram.
+     *
+     * @param histogram the histogram to summarize
+     */
+    public HistogramSnapshot(LatencyHistogram histogram) {
+        this.count = histogram.getCount();
+        this.mean = histogram.getMean();
+        this.p50 = histogram.getValueAtPercentile(50);
+        this.p99 = histogram.getValueAtPercentile(99);
+        this.p999 = histogram.getValueAtPercentile(99.9);
+        this.max = histogram.getMax();
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public double getMean() {
+        return this.mean;
+    }
+
+    public long getP50() {
+        return this.p50;
+    }
+
+    public long getP99() {
+        return this.p99;
+    }
+
+    public long getP999() {
+        return this.p999;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + String.format("%.1f", mean) + " p50=" + p50 + " p99=" + p99
+                + " p99.9=" + p999 + " max=" + max;
+    }
+}
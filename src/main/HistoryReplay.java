@@ -0,0 +1,100 @@
+package main;
+
+import data.ClackData;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends a reconnected client the messages it missed from the server's MessageLog, on a thread
+ * of its own, while broadcasts skip the client. Records are read and delivered a batch at a
+ * time, and the next batch waits until the client's outbound queue has drained below a
+ * quarter of the server's outbound limit. A replay therefore holds at most a couple of batches
+ * in memory however far behind the client is, does not set off the slow-consumer policy, and
+ * only slows down for a slow client instead of slowing anyone else.
+ *
+ * Once the records left fit in one batch the replay asks the server to finish it: the last
+ * records are sent with appends held off, and the client goes live with the next broadcast.
+ */
+class HistoryReplay implements Runnable {
+    /**
+     * The most records read and delivered at once.
+     */
+    static final int BATCH_RECORDS = 256;
+
+    private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1); // How long to park while the queue drains
+
+    private final ClackServer server; // The server that ends the replay
+    private final MessageLog history; // Where the records are read from
+    private final ClientConnection connection; // The client replayed to
+    private final int batchRecords; // The records sent at once, at most half the outbound limit
+    private final int maxQueued; // The queue depth the next batch waits for
+    private long next; // The sequence of the next record to send
+
+    /**
+     * The constructor that sets where the replay starts.
+     *
+     * @param server     the server the client is connected to
+     * @param history    the server's message log
+     * @param connection the client replayed to
+     * @param from       the first sequence to send
+     */
+    HistoryReplay(ClackServer server, MessageLog history, ClientConnection connection, long from) {
+        this.server = server;
+        this.history = history;
+        this.connection = connection;
+        this.next = Math.max(0, from);
+        this.batchRecords = Math.max(1, Math.min(BATCH_RECORDS, server.getOutboundLimit() / 2));
+        this.maxQueued = server.getOutboundLimit() / 4;
+    }
+
+    @Override
+    public void run() {
+        while (server.isCatchingUp(connection)) {
+            if (connection.getQueueDepth() > maxQueued) {
+                LockSupport.parkNanos(WAIT_NANOS);
+            } else if (history.getEndOffset() - next <= batchRecords) {
+                server.finishReplay(this);
+                return;
+            } else {
+                sendBatch();
+            }
+        }
+    }
+
+    /**
+     * Sends every record not sent yet. Called by the server with appends held off.
+     */
+    void sendRemaining() {
+        while (sendBatch() > 0) {
+            // read() comes back empty once the replay has reached the end
+        }
+    }
+
+    /**
+     * Returns the client replayed to.
+     *
+     * @return this.connection
+     */
+    ClientConnection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * Reads and delivers up to one batch from the next sequence. Records already dropped by
+     * retention are skipped; the batch starts at the oldest one left.
+     *
+     * @return the number of records sent
+     */
+    private int sendBatch() {
+        List<ClackData> records = history.read(next, batchRecords);
+        for (ClackData record : records) {
+            connection.deliver(record);
+        }
+        if (!records.isEmpty()) {
+            next = records.get(records.size() - 1).getSequence() + 1;
+        }
+        return records.size();
+    }
+}
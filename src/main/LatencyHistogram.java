@@ -0,0 +1,175 @@
+package main;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative long values, such as latencies in microseconds, laid out like
+ * an HDR histogram: values below 128 are counted exactly and every power of two above that is
+ * split into 64 equal buckets, so any recorded value is known to within 1/64 of itself using
+ * a fixed 3712 counters. Recording takes no lock, only a few atomic additions, and is safe
+ * from any number of threads; reading while others record gives a view that is at most
+ * slightly behind.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 64; // Buckets per power of two above the exact range
+    private static final int EXACT = 2 * SUB_BUCKETS; // Values below this have a bucket each
+    private static final int BUCKETS = EXACT + 56 * SUB_BUCKETS; // Enough for Long.MAX_VALUE
+
+    private final AtomicLongArray counts; // The count in each bucket
+    private final LongAdder total; // The number of values recorded
+    private final LongAdder sum; // The sum of the values recorded
+    private final AtomicLong max; // The largest value recorded
+
+    /**
+     * The constructor that creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.total = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a value. Negative values, which a clock step can produce, are recorded as 0.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        total.increment();
+        sum.add(value);
+        long largest;
+        while (value > (largest = max.get()) && !max.compareAndSet(largest, value)) {
+            // Another thread raised the maximum; try again against the new one.
+        }
+    }
+
+    /**
+     * Adds every value recorded in another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+        long largest;
+        long otherMax = other.max.get();
+        while (otherMax > (largest = max.get()) && !max.compareAndSet(largest, otherMax)) {
+            // Another thread raised the maximum; try again against the new one.
+        }
+    }
+
+    /**
+     * Clears the histogram. Values recorded while it is being cleared may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * Returns the mean of the values recorded, or 0 if there are none.
+     *
+     * @return the mean
+     */
+    public double getMean() {
+        long count = total.sum();
+        return count == 0 ? 0 : sum.sum() / (double) count;
+    }
+
+    /**
+     * Returns the sum of the values recorded.
+     *
+     * @return the sum
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Returns the largest value recorded, or 0 if there are none.
+     *
+     * @return the maximum
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of recorded values fall, as
+     * the largest value of its bucket, or 0 if there are none.
+     *
+     * @param percentile the percentage, from 0 to 100
+     * @return the value at the percentile
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Returns the bucket holding a value.
+     */
+    private static int indexOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6; // Leaves the top 7 bits
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the largest value a bucket holds.
+     */
+    private static long highestValueIn(int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        long top = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + String.format("%.1f", getMean())
+                + " p50=" + getValueAtPercentile(50) + " p99=" + getValueAtPercentile(99)
+                + " p99.9=" + getValueAtPercentile(99.9) + " max=" + getMax();
+    }
+}
@@ -0,0 +1,27 @@
+package main;
+
+/**
+ * The severities of AsyncLog records, least severe first. A log set to one level keeps records
+ * of that level and above.
+ */
+public enum LogLevel {
+    /**
+     * Per-message detail, such as every ClackData the server receives.
+     */
+    DEBUG,
+
+    /**
+     * Occasional events, such as a user logging out or a file finishing.
+     */
+    INFO,
+
+    /**
+     * Trouble the server recovers from, such as dropping data for a slow client.
+     */
+    WARN,
+
+    /**
+     * Keeps nothing.
+     */
+    OFF
+}
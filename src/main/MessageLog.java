@@ -0,0 +1,654 @@
+package main;
+
+import data.ClackData;
+import data.ClackDataCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * A durable, append-only log of ClackData. Every record gets the next offset, starting at 0,
+ * and the log keeps them in order in segment files named after the offset of their first
+ * record. A segment starts with a magic number and the format version, and a segment
+ * without them, or of another version, is refused on open rather than misread: segments
+ * written before the header was added encode timestamps in milliseconds, not the
+ * microseconds ClackDataCodec now reads. A record is its payload length and CRC-32C (4 bytes each) followed by the payload,
+ * which is the ClackDataCodec encoding of the data, so a binary frame's payload can be
+ * appended as it is.
+ *
+ * Segments are memory-mapped at their full size when created, so an append is a copy into
+ * the page cache under one lock and never a system call. Alongside each segment a sparse
+ * index, also mapped, holds the position of one record every indexIntervalBytes, so a read
+ * from any offset scans at most that many bytes. Appends do not wait for the disk: a
+ * background thread forces whatever was appended every syncIntervalMillis, one fsync for
+ * every append in between (group commit), and awaitDurable() lets a caller wait for it. When
+ * a record does not fit in the active segment, the segment is forced, trimmed to its records
+ * and sealed, a new one is started, and the oldest segments are deleted while the log is
+ * larger than retentionBytes.
+ *
+ * Reads take no lock: they see every record appended before they started.
+ *
+ * On open, the last segment is scanned and cut at the first record that is incomplete or
+ * fails its checksum, so a crash loses at most the records that were not yet forced.
+ */
+public class MessageLog {
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final int DEFAULT_INDEX_INTERVAL_BYTES = 4096;
+    public static final long DEFAULT_RETENTION_BYTES = 1024L * 1024 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 5;
+    private static final int SEGMENT_MAGIC = 0x434C4F47; // "CLOG"
+    private static final int FORMAT_VERSION = 2; // Version 1 had no header and millisecond timestamps
+    private static final int SEGMENT_HEADER_LENGTH = 8; // Magic number and format version
+    private static final int RECORD_HEADER_LENGTH = 8; // Payload length and CRC-32C
+    private static final int INDEX_ENTRY_LENGTH = 8; // Record number within the segment and position
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".index";
+
+    private final Path directory; // Where the segment and index files are
+    private int segmentBytes; // The size segments are created with
+    private int indexIntervalBytes; // The most bytes between two indexed records
+    private long retentionBytes; // The size the oldest segments are deleted down to
+    private long syncIntervalMillis; // How often appended records are forced to disk
+    private final CRC32C crc; // Used under the append lock
+    private final Object durableSignal; // Notified whenever durableOffset moves
+    private volatile Segment[] segments; // Oldest first; the last is appended to
+    private volatile long endOffset; // The offset the next record gets
+    private volatile long durableOffset; // Every record below this offset has been forced
+    private volatile boolean closed;
+    private Thread syncer;
+
+    /**
+     * The constructor that sets the directory, with the default sizes and sync interval.
+     * Nothing is read or written until open().
+     *
+     * @param directory the directory holding the log, created if missing
+     */
+    public MessageLog(Path directory) {
+        this.directory = directory;
+        this.segmentBytes = DEFAULT_SEGMENT_BYTES;
+        this.indexIntervalBytes = DEFAULT_INDEX_INTERVAL_BYTES;
+        this.retentionBytes = DEFAULT_RETENTION_BYTES;
+        this.syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+        this.crc = new CRC32C();
+        this.durableSignal = new Object();
+        this.segments = new Segment[0];
+        this.closed = false;
+    }
+
+    /**
+     * Sets the size new segments are created with, which bounds the largest record.
+     *
+     * @param segmentBytes the segment size in bytes
+     */
+    public void setSegmentBytes(int segmentBytes) {
+        if (segmentBytes < 1024) {
+            throw new IllegalArgumentException("segments must be at least 1024 bytes");
+        }
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Sets how far apart indexed records may be; smaller intervals make reads from an
+     * arbitrary offset scan less at the cost of a larger index.
+     *
+     * @param indexIntervalBytes the interval in bytes
+     */
+    public void setIndexIntervalBytes(int indexIntervalBytes) {
+        if (indexIntervalBytes < 1) {
+            throw new IllegalArgumentException("index interval must be positive");
+        }
+        this.indexIntervalBytes = indexIntervalBytes;
+    }
+
+    /**
+     * Sets the size above which the oldest segments are deleted as new ones are started. The
+     * segment being appended to is never deleted.
+     *
+     * @param retentionBytes the size to keep the log under, in bytes
+     */
+    public void setRetentionBytes(long retentionBytes) {
+        this.retentionBytes = retentionBytes;
+    }
+
+    /**
+     * Sets how often the background thread forces appended records to disk.
+     *
+     * @param syncIntervalMillis the interval in milliseconds
+     */
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        if (syncIntervalMillis < 1) {
+            throw new IllegalArgumentException("sync interval must be at least 1 ms");
+        }
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    /**
+     * Opens the segments already in the directory, recovering the last one, or starts an
+     * empty log, and starts the sync thread.
+     *
+     * @throws IOException if the directory or a segment cannot be read, or a segment is of
+     *                     another format version
+     */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(directory);
+        List<Long> baseOffsets = new ArrayList<Long>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    baseOffsets.add(Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length())));
+                } catch (NumberFormatException nfe) {
+                    System.err.println("Ignoring " + file + " in the message log directory");
+                }
+            }
+        }
+        Collections.sort(baseOffsets);
+        Segment[] opened = new Segment[Math.max(1, baseOffsets.size())];
+        for (int i = 0; i < baseOffsets.size(); i++) {
+            boolean active = i == baseOffsets.size() - 1;
+            opened[i] = new Segment(baseOffsets.get(i), active);
+            if (!active) {
+                opened[i].records = (int) (baseOffsets.get(i + 1) - baseOffsets.get(i));
+            }
+        }
+        if (baseOffsets.isEmpty()) {
+            opened[0] = new Segment(0, true);
+        }
+        Segment active = opened[opened.length - 1];
+        segments = opened;
+        endOffset = active.baseOffset + active.records;
+        durableOffset = endOffset;
+        syncer = new Thread(this::syncRecords, "clack-history-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Appends data, encoding it straight into the active segment. The data's sequence is set
+     * to its offset first, so whoever it is sent to next learns where it is in the log.
+     *
+     * @param data the data to append
+     * @return the offset of the record
+     * @throws IOException if a new segment is needed and cannot be created
+     * @throws IllegalArgumentException if the record is larger than a segment
+     */
+    public long append(ClackData data) throws IOException {
+        return append(data, null);
+    }
+
+    /**
+     * Appends data that is already encoded with ClackDataCodec, such as a binary frame's
+     * payload. The buffer is not consumed.
+     *
+     * @param encoded the encoded data from its position to its limit
+     * @return the offset of the record
+     * @throws IOException if a new segment is needed and cannot be created
+     * @throws IllegalArgumentException if the record is larger than a segment
+     */
+    public long append(ByteBuffer encoded) throws IOException {
+        if (!encoded.hasRemaining()) {
+            throw new IllegalArgumentException("cannot append an empty record");
+        }
+        return append(null, encoded);
+    }
+
+    private synchronized long append(ClackData data, ByteBuffer encoded) throws IOException {
+        if (closed) {
+            throw new IOException("The message log is closed");
+        }
+        long offset = endOffset;
+        int length;
+        if (data != null) {
+            // The sequence is part of the encoding, so it is set before measuring.
+            data.setSequence(offset);
+            length = ClackDataCodec.encodedLength(data);
+        } else {
+            length = encoded.remaining();
+        }
+        if (RECORD_HEADER_LENGTH + length > segmentBytes) {
+            if (data != null) {
+                data.setSequence(ClackData.NO_SEQUENCE);
+            }
+            throw new IllegalArgumentException("a record of " + length + " bytes does not fit in a segment");
+        }
+        Segment active = segments[segments.length - 1];
+        if (!active.hasRoomFor(length)) {
+            active = roll();
+        }
+        active.append(data, encoded, length, crc);
+        endOffset = offset + 1;
+        return offset;
+    }
+
+    /**
+     * Reads records in order, starting at an offset, each with its offset as its sequence.
+     * Records removed by retention are skipped, so the first record returned may have a
+     * later offset than asked for; see getStartOffset(). Records that cannot be decoded are
+     * skipped too, leaving a gap in the sequences.
+     *
+     * @param fromOffset the offset of the first record wanted
+     * @param maxRecords the most records to return
+     * @return the records, as many as there are up to maxRecords
+     */
+    public List<ClackData> read(long fromOffset, int maxRecords) {
+        List<ClackData> records = new ArrayList<ClackData>(Math.min(maxRecords, 1024));
+        Segment[] current = segments;
+        int first = current.length - 1;
+        while (first > 0 && current[first].baseOffset > fromOffset) {
+            first--;
+        }
+        long next = Math.max(fromOffset, current[0].baseOffset);
+        for (int i = first; i < current.length && records.size() < maxRecords; i++) {
+            if (i > first) {
+                next = current[i].baseOffset;
+            }
+            current[i].read(next, maxRecords - records.size(), records);
+        }
+        return records;
+    }
+
+    /**
+     * Returns the offset of the oldest record kept.
+     *
+     * @return the start offset
+     */
+    public long getStartOffset() {
+        return segments[0].baseOffset;
+    }
+
+    /**
+     * Returns the offset the next record appended will get.
+     *
+     * @return the end offset
+     */
+    public long getEndOffset() {
+        return this.endOffset;
+    }
+
+    /**
+     * Returns the offset below which every record has been forced to disk.
+     *
+     * @return the durable offset
+     */
+    public long getDurableOffset() {
+        return this.durableOffset;
+    }
+
+    /**
+     * Returns the number of segment files, the active one included.
+     *
+     * @return the segment count
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Waits until a record has been forced to disk by the sync thread.
+     *
+     * @param offset the offset of the record
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitDurable(long offset) throws InterruptedException {
+        synchronized (durableSignal) {
+            while (durableOffset <= offset && !closed) {
+                durableSignal.wait();
+            }
+        }
+    }
+
+    /**
+     * Forces every record appended so far to disk now, without waiting for the sync thread.
+     */
+    public void sync() {
+        long target = endOffset;
+        Segment[] current = segments;
+        try {
+            current[current.length - 1].force();
+        } catch (IOException ioe) {
+            System.err.println("Error in forcing the message log to disk");
+            return;
+        }
+        markDurable(target);
+    }
+
+    /**
+     * Stops the sync thread, forces and trims the active segment, and closes the log.
+     *
+     * @throws InterruptedException if interrupted while waiting for the sync thread
+     */
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (syncer != null) {
+            syncer.interrupt();
+            syncer.join();
+        }
+        synchronized (this) {
+            try {
+                segments[segments.length - 1].seal();
+            } catch (IOException ioe) {
+                System.err.println("Error in closing the message log");
+            }
+        }
+        markDurable(endOffset);
+    }
+
+    /**
+     * Seals the active segment, starts a new one at the end offset and applies retention.
+     * Called under the append lock.
+     */
+    private Segment roll() throws IOException {
+        Segment[] current = segments;
+        current[current.length - 1].seal();
+        markDurable(endOffset);
+        Segment next = new Segment(endOffset, true);
+        int keepFrom = 0;
+        long total = next.length();
+        for (Segment segment : current) {
+            total += segment.length();
+        }
+        while (keepFrom < current.length && total > retentionBytes) {
+            total -= current[keepFrom].length();
+            keepFrom++;
+        }
+        Segment[] rolled = Arrays.copyOfRange(current, keepFrom, current.length + 1);
+        rolled[rolled.length - 1] = next;
+        segments = rolled;
+        for (int i = 0; i < keepFrom; i++) {
+            current[i].delete();
+        }
+        return next;
+    }
+
+    private void markDurable(long offset) {
+        synchronized (durableSignal) {
+            if (offset > durableOffset) {
+                durableOffset = offset;
+            }
+            durableSignal.notifyAll();
+        }
+    }
+
+    /**
+     * The sync thread: every syncIntervalMillis, forces what was appended since the last
+     * time, if anything, until the log is closed.
+     */
+    private void syncRecords() {
+        while (!closed) {
+            try {
+                Thread.sleep(syncIntervalMillis);
+            } catch (InterruptedException ie) {
+                return;
+            }
+            if (endOffset != durableOffset) {
+                sync();
+            }
+        }
+    }
+
+    private Path fileFor(long baseOffset, String suffix) {
+        return directory.resolve(String.format("%020d", baseOffset) + suffix);
+    }
+
+    /**
+     * One segment file and its index. Only the appending thread, holding the log's lock,
+     * writes to it; readers see the records below size, which is published after each record
+     * is complete.
+     */
+    private final class Segment {
+        private final long baseOffset; // The offset of the first record
+        private final MappedByteBuffer log; // The records
+        private final MappedByteBuffer index; // Record number and position pairs
+        private final ByteBuffer writer; // The appending thread's view of log
+        private volatile int size; // The bytes of complete records
+        private volatile int indexEntries; // The pairs written to index
+        private volatile int records; // The records in the segment
+        private int lastIndexed; // The position of the last indexed record
+        private int forced; // The bytes already forced to disk
+        private boolean sealed; // Whether the segment was trimmed and is no longer written
+
+        /**
+         * Opens or creates a segment. An active segment is mapped at the full segment size
+         * and scanned for its records; a sealed one is mapped as it is, and its index is
+         * trusted unless it was never trimmed. A new segment gets its header; an existing one
+         * must have a header of this format version.
+         */
+        Segment(long baseOffset, boolean active) throws IOException {
+            this.baseOffset = baseOffset;
+            int indexBytes = (segmentBytes / indexIntervalBytes + 2) * INDEX_ENTRY_LENGTH;
+            try (FileChannel logChannel = FileChannel.open(fileFor(baseOffset, LOG_SUFFIX),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileChannel indexChannel = FileChannel.open(fileFor(baseOffset, INDEX_SUFFIX),
+                         StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long logSize = logChannel.size();
+                long indexSize = indexChannel.size();
+                boolean rebuild = active || indexSize >= indexBytes || indexSize % INDEX_ENTRY_LENGTH != 0;
+                this.log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        active ? Math.max(segmentBytes, logSize) : logSize);
+                this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        rebuild ? Math.max(indexBytes, indexSize) : indexSize);
+                this.writer = log.duplicate();
+                this.sealed = !active;
+                // An active segment created just before a crash may be all zeros, header included.
+                boolean created = active && log.getInt(0) == 0;
+                if (created) {
+                    log.putInt(0, SEGMENT_MAGIC);
+                    log.putInt(4, FORMAT_VERSION);
+                } else if (logSize > 0) {
+                    checkHeader(logSize);
+                }
+                if (logSize == 0 && !active) {
+                    this.size = 0;
+                    this.indexEntries = 0;
+                } else if (created) {
+                    this.size = SEGMENT_HEADER_LENGTH;
+                    this.indexEntries = 0;
+                } else if (rebuild) {
+                    scan(active);
+                    if (!active) {
+                        // An index left untrimmed by a crash while rolling: trim what was rebuilt.
+                        index.force();
+                        indexChannel.truncate((long) indexEntries * INDEX_ENTRY_LENGTH);
+                    }
+                } else {
+                    this.size = (int) logSize;
+                    this.indexEntries = (int) (indexSize / INDEX_ENTRY_LENGTH);
+                }
+                this.forced = created ? 0 : size;
+            }
+        }
+
+        private void checkHeader(long logSize) throws IOException {
+            if (logSize < SEGMENT_HEADER_LENGTH || log.getInt(0) != SEGMENT_MAGIC) {
+                throw new IOException("Message log segment " + fileFor(baseOffset, LOG_SUFFIX)
+                        + " has no format header and was written with millisecond timestamps;"
+                        + " move the old segments out of " + directory + " to start a new history");
+            }
+            int version = log.getInt(4);
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Message log segment " + fileFor(baseOffset, LOG_SUFFIX)
+                        + " has format version " + version + ", expected " + FORMAT_VERSION);
+            }
+        }
+
+        /**
+         * Finds the records by walking them from the start, indexing as it goes, and stops at
+         * the first one that is incomplete or fails its checksum. In an active segment, the
+         * bytes from there on are cleared so a torn record cannot be read back later.
+         */
+        private void scan(boolean active) {
+            CRC32C check = new CRC32C();
+            int position = SEGMENT_HEADER_LENGTH;
+            int count = 0;
+            indexEntries = 0;
+            while (position + RECORD_HEADER_LENGTH <= log.capacity()) {
+                int length = log.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_LENGTH + length > log.capacity()) {
+                    break;
+                }
+                check.reset();
+                check.update(log.duplicate().position(position + RECORD_HEADER_LENGTH)
+                        .limit(position + RECORD_HEADER_LENGTH + length));
+                if ((int) check.getValue() != log.getInt(position + 4)) {
+                    break;
+                }
+                indexRecord(count, position);
+                position += RECORD_HEADER_LENGTH + length;
+                count++;
+            }
+            if (active) {
+                int dirty = position;
+                while (dirty < log.capacity() && log.get(dirty) == 0) {
+                    dirty++;
+                }
+                for (int i = position; dirty < log.capacity() && i < log.capacity(); i++) {
+                    log.put(i, (byte) 0);
+                }
+            }
+            size = position;
+            records = count;
+        }
+
+        boolean hasRoomFor(int length) {
+            return size + RECORD_HEADER_LENGTH + length <= log.capacity();
+        }
+
+        /**
+         * Writes the payload, then its header, then publishes the new size.
+         */
+        void append(ClackData data, ByteBuffer encoded, int length, CRC32C crc) {
+            int position = size;
+            int payloadStart = position + RECORD_HEADER_LENGTH;
+            writer.limit(payloadStart + length).position(payloadStart);
+            if (data != null) {
+                ClackDataCodec.encode(data, writer);
+            } else {
+                writer.put(encoded.duplicate());
+            }
+            crc.reset();
+            crc.update(writer.position(payloadStart));
+            writer.putInt(position, length);
+            writer.putInt(position + 4, (int) crc.getValue());
+            indexRecord(records, position);
+            records++;
+            size = payloadStart + length;
+        }
+
+        private void indexRecord(int record, int position) {
+            if (indexEntries == 0 || position - lastIndexed >= indexIntervalBytes) {
+                int at = indexEntries * INDEX_ENTRY_LENGTH;
+                index.putInt(at, record);
+                index.putInt(at + 4, position);
+                lastIndexed = position;
+                indexEntries++;
+            }
+        }
+
+        /**
+         * Decodes records from an offset in this segment onwards into a list. A record that
+         * passed its checksum but cannot be decoded is skipped with a warning, so one bad
+         * record does not end every replay that reaches it.
+         */
+        void read(long fromOffset, int maxRecords, List<ClackData> into) {
+            int end = size;
+            int wanted = (int) (fromOffset - baseOffset);
+            int low = 0;
+            int high = indexEntries - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (index.getInt(middle * INDEX_ENTRY_LENGTH) <= wanted) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            if (high < 0) {
+                return;
+            }
+            int record = index.getInt(low * INDEX_ENTRY_LENGTH);
+            int position = index.getInt(low * INDEX_ENTRY_LENGTH + 4);
+            ByteBuffer reader = log.duplicate();
+            while (position < end && record < wanted) {
+                position += RECORD_HEADER_LENGTH + log.getInt(position);
+                record++;
+            }
+            int read = 0;
+            while (position < end && read < maxRecords) {
+                int length = log.getInt(position);
+                if (length <= 0) {
+                    break;
+                }
+                int payloadStart = position + RECORD_HEADER_LENGTH;
+                reader.limit(payloadStart + length).position(payloadStart);
+                try {
+                    ClackData data = ClackDataCodec.decode(reader);
+                    data.setSequence(baseOffset + record);
+                    into.add(data);
+                    read++;
+                } catch (IllegalArgumentException iae) {
+                    System.err.println("Skipping unreadable message log record " + (baseOffset + record)
+                            + ": " + iae.getMessage());
+                }
+                position = payloadStart + length;
+                record++;
+            }
+        }
+
+        /**
+         * Forces the records appended since the last force to disk.
+         */
+        synchronized void force() throws IOException {
+            int end = size;
+            if (!sealed && end > forced) {
+                log.force(forced, end - forced);
+                forced = end;
+            }
+        }
+
+        /**
+         * Forces the segment, trims both files to what they hold and stops writing to it.
+         */
+        synchronized void seal() throws IOException {
+            if (sealed) {
+                return;
+            }
+            log.force();
+            index.force();
+            sealed = true;
+            try (FileChannel logChannel = FileChannel.open(fileFor(baseOffset, LOG_SUFFIX), StandardOpenOption.WRITE);
+                 FileChannel indexChannel = FileChannel.open(fileFor(baseOffset, INDEX_SUFFIX), StandardOpenOption.WRITE)) {
+                logChannel.truncate(size);
+                indexChannel.truncate((long) indexEntries * INDEX_ENTRY_LENGTH);
+            }
+        }
+
+        long length() {
+            return size + (long) indexEntries * INDEX_ENTRY_LENGTH;
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(fileFor(baseOffset, LOG_SUFFIX));
+                Files.deleteIfExists(fileFor(baseOffset, INDEX_SUFFIX));
+            } catch (IOException ioe) {
+                System.err.println("Error in deleting message log segment " + baseOffset);
+            }
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package main;
+
+import data.ClackData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The non-blocking counterpart of ServerSideClientIO. A NioClientConnection holds the state of
+ * one client served by a ClackReactor: the partially received bytes, the handshake progress and
+ * the frames waiting to be written. Apart from deliver() and close(), which may be called from
+ * any thread, every method runs on the owning reactor thread.
+ *
+ * The read buffer is direct, so file chunk frames handed to the server's FileRelay go from the
+ * socket to the spool file without passing through the heap, and spooled chunks are written
+ * back out with FileChannel.transferTo(). Outgoing frames are copied into the reactor's direct
+ * write buffer and written many at a time, see flush(). The read buffer and the backlog come
+ * from the server's BufferPool and go back to it when they are outgrown, drained or closed.
+ */
+class NioClientConnection implements ClientConnection {
+    private static final int INITIAL_READ_BUFFER_SIZE = 4096;
+
+    private final ClackServer server;
+    private final ClackReactor reactor;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final OutboundQueue<OutboundFrame> outbound;
+    private final AtomicBoolean flushScheduled;
+    private OutboundFrame writing; // The frame being copied into write buffers, null between frames
+    private ByteBuffer writingBytes; // The shared bytes of that frame or of a chunk header
+    private int writingOffset; // Where in writingBytes copying continues
+    private ByteBuffer backlog; // Bytes copied for a write that the socket did not take in full
+    private SpooledChunkFrame pendingChunk; // Chunk whose file bytes follow its header in the last write
+    private long pendingChunkSent; // File bytes of pendingChunk already sent
+    private final BufferPool pool; // Where the read buffer and backlog come from
+    private ByteBuffer readBuffer;
+    private boolean handshakeDone;
+    private byte codec;
+    private boolean acceptsUserIds; // Whether the hello asked for the client's user id
+    private int userId; // The user the connection last sent data as
+    private volatile boolean closeAfterFlush;
+    private boolean closed;
+    private volatile long lastActivity; // When the channel was last read from, in System.nanoTime()
+
+    /**
+     * The constructor that binds the connection to its channel and reactor.
+     *
+     * @param server  the server that received data is dispatched to
+     * @param reactor the reactor serving this connection
+     * @param channel the client channel, already in non-blocking mode
+     * @param key     the key of the channel in the reactor's selector
+     */
+    NioClientConnection(ClackServer server, ClackReactor reactor, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.reactor = reactor;
+        this.channel = channel;
+        this.key = key;
+        this.outbound = new OutboundQueue<OutboundFrame>(server.getOutboundLimit());
+        this.flushScheduled = new AtomicBoolean(false);
+        this.writing = null;
+        this.writingBytes = null;
+        this.backlog = null;
+        this.pendingChunk = null;
+        this.pool = server.getBufferPool();
+        this.readBuffer = pool.acquire(INITIAL_READ_BUFFER_SIZE);
+        this.readBuffer.clear();
+        this.handshakeDone = false;
+        this.acceptsUserIds = false;
+        this.userId = ClackData.NO_USER_ID;
+        this.closeAfterFlush = false;
+        this.closed = false;
+        this.lastActivity = System.nanoTime();
+    }
+
+    /**
+     * Starts the connection by sending the stream header every client expects first.
+     * The connection only joins the server's broadcast list once the hello has settled
+     * the codec, so no frame can overtake the hello reply. The server watches it for going
+     * quiet from here on, so a client that never sends the hello is closed too.
+     */
+    void open() {
+        server.watch(this);
+        sendRaw(ByteBuffer.wrap(FrameCodec.STREAM_HEADER));
+    }
+
+    @Override
+    public void deliver(OutboundFrame frame) {
+        if (closeAfterFlush) {
+            frame.release();
+            return;
+        }
+        if (!server.enqueue(this, outbound, frame)) {
+            return;
+        }
+        server.getMetrics().recordQueueDepth(outbound.size());
+        scheduleFlush();
+    }
+
+    @Override
+    public void close() {
+        closeAfterFlush = true;
+        outbound.close();
+        scheduleFlush();
+    }
+
+    @Override
+    public void abort() {
+        closeAfterFlush = true;
+        outbound.close();
+        reactor.execute(this::closeNow);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    @Override
+    public int getUserId() {
+        return userId;
+    }
+
+    @Override
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    @Override
+    public boolean acceptsUserIds() {
+        return acceptsUserIds;
+    }
+
+    @Override
+    public boolean isObjectStream() {
+        return false;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return outbound.size();
+    }
+
+    /**
+     * Reads whatever the channel has and dispatches every complete frame, up to the one that
+     * asks for the connection to be closed, such as a LOGOUT. Anything read after that is
+     * dropped while the frames already queued are flushed.
+     */
+    void onReadable() {
+        try {
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                closeNow();
+                return;
+            }
+            lastActivity = System.nanoTime();
+            server.getMetrics().recordBytesIn(count);
+            if (closeAfterFlush) {
+                readBuffer.clear();
+                return;
+            }
+            readBuffer.flip();
+            if (!handshakeDone && !readHello()) {
+                readBuffer.compact();
+                return;
+            }
+            while (!closed && !closeAfterFlush && readBuffer.remaining() >= FrameCodec.HEADER_LENGTH) {
+                int length = readBuffer.getInt(readBuffer.position());
+                FrameCodec.checkLength(length);
+                if (readBuffer.remaining() < FrameCodec.HEADER_LENGTH + length) {
+                    ensureReadCapacity(FrameCodec.HEADER_LENGTH + length);
+                    break;
+                }
+                int frameStart = readBuffer.position();
+                int payloadStart = frameStart + FrameCodec.HEADER_LENGTH;
+                int received = readBuffer.limit();
+                readBuffer.position(payloadStart).limit(payloadStart + length);
+                server.getMetrics().recordFrameIn();
+                if (server.isZeroCopyRelay() && FrameCodec.isFileChunk(readBuffer, codec)) {
+                    server.relay(this, readBuffer.position(frameStart));
+                } else {
+                    long start = System.nanoTime();
+                    ClackData data = FrameCodec.decode(readBuffer, codec);
+                    server.getMetrics().recordDecode(System.nanoTime() - start);
+                    server.dispatch(this, data);
+                }
+                if (!closed) {
+                    readBuffer.limit(received).position(payloadStart + length);
+                }
+            }
+            if (closeAfterFlush && !closed) {
+                readBuffer.clear();
+            } else if (!closed) {
+                readBuffer.compact();
+            }
+        } catch (IOException ioe) {
+            System.err.println("Error reading from client channel");
+            closeNow();
+        }
+    }
+
+    /**
+     * Continues writing queued frames once the socket has room again.
+     */
+    void onWritable() {
+        flush();
+    }
+
+    /**
+     * Closes the channel immediately, dropping anything not yet written.
+     */
+    void closeNow() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            System.err.println("Error in closing client channel");
+        }
+        outbound.closeAndDrain(OutboundFrame::release);
+        if (writing != null) {
+            writing.release();
+            writing = null;
+        }
+        writingBytes = null;
+        if (backlog != null) {
+            pool.release(backlog);
+            backlog = null;
+        }
+        pool.release(readBuffer);
+        readBuffer = null;
+        if (pendingChunk != null) {
+            pendingChunk.release();
+            pendingChunk = null;
+        }
+        server.remove(this);
+    }
+
+    /**
+     * Consumes the client hello, and the resume request after it if there is one, from the
+     * read buffer once it has fully arrived. The connection joins the server before the reply
+     * is sent, so the client gets every broadcast sent after it has the reply. A resume marks
+     * the connection as catching up as it joins, so live traffic waits until the replay is
+     * done.
+     *
+     * @return true if the handshake is complete
+     * @throws IOException if the client is not a framed client
+     */
+    private boolean readHello() throws IOException {
+        if (readBuffer.remaining() < FrameCodec.HELLO_LENGTH) {
+            return false;
+        }
+        byte offered = readBuffer.get(readBuffer.position() + 4);
+        if (FrameCodec.isResume(offered)
+                && readBuffer.remaining() < FrameCodec.HELLO_LENGTH + FrameCodec.RESUME_LENGTH) {
+            return false;
+        }
+        if (readBuffer.getInt() != FrameCodec.MAGIC) {
+            throw new IOException("Client did not send a framed hello; object stream clients need blocking mode");
+        }
+        codec = FrameCodec.negotiate(readBuffer.get());
+        acceptsUserIds = FrameCodec.isIdentify(offered);
+        handshakeDone = true;
+        if (FrameCodec.isResume(offered)) {
+            server.resume(this, readBuffer.getLong() + 1);
+        } else {
+            server.add(this);
+        }
+        ByteBuffer reply = ByteBuffer.allocate(FrameCodec.HELLO_LENGTH);
+        reply.putInt(FrameCodec.MAGIC).put(codec).flip();
+        sendRaw(reply);
+        return true;
+    }
+
+    private void ensureReadCapacity(int frameLength) {
+        if (readBuffer.capacity() < frameLength) {
+            ByteBuffer larger = pool.acquire(Math.max(frameLength, readBuffer.capacity() * 2));
+            larger.clear();
+            larger.put(readBuffer);
+            larger.flip();
+            pool.release(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            reactor.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    /**
+     * Writes bytes that are not a frame, such as the stream header and the hello reply. Only
+     * used during the handshake on the reactor thread, before any queued frame can have been
+     * flushed, so the bytes go out ahead of every frame.
+     *
+     * @param bytes the bytes to write
+     */
+    private void sendRaw(ByteBuffer bytes) {
+        ByteBuffer raw = pool.acquire((backlog == null ? 0 : backlog.remaining()) + bytes.remaining());
+        if (backlog != null) {
+            raw.put(backlog);
+            pool.release(backlog);
+        }
+        backlog = raw.put(bytes).flip();
+        flush();
+    }
+
+    /**
+     * Writes queued frames until the queue is empty or the socket stops accepting bytes.
+     * Frames are copied into the reactor's write buffer, one larger than the buffer over
+     * several writes, and each full buffer, or what is left once the queue is empty, is
+     * written with one call. Whatever the socket does not take is moved to this connection's
+     * backlog and written first once the socket has room again. A spooled file chunk ends a
+     * write with its header; its file bytes are then sent with transferTo() before anything
+     * queued behind it.
+     */
+    private void flush() {
+        if (closed) {
+            return;
+        }
+        try {
+            while (true) {
+                if (backlog != null) {
+                    write(backlog);
+                    if (backlog.hasRemaining()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    pool.release(backlog);
+                    backlog = null;
+                }
+                if (writingBytes == null && !writePendingChunk()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                ByteBuffer out = reactor.writeBuffer();
+                fill(out);
+                out.flip();
+                if (!out.hasRemaining()) {
+                    break;
+                }
+                write(out);
+                if (out.hasRemaining()) {
+                    backlog = pool.acquire(out.remaining()).put(out).flip();
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closeAfterFlush && outbound.isEmpty()) {
+                closeNow();
+            }
+        } catch (IOException ioe) {
+            System.err.println("Error in writing to client channel");
+            closeNow();
+        }
+    }
+
+    /**
+     * Copies frames into a write buffer until it is full, the queue is empty or the header of
+     * a spooled chunk has been copied. A frame is released once all of it has been copied.
+     * The frame's bytes are shared with other connections, so they are copied with absolute
+     * gets and this connection keeps its own offset into them.
+     *
+     * @param out the buffer to copy into
+     */
+    private void fill(ByteBuffer out) {
+        while (out.hasRemaining() && (writingBytes != null || next())) {
+            int count = Math.min(writingBytes.limit() - writingOffset, out.remaining());
+            out.put(out.position(), writingBytes, writingOffset, count);
+            out.position(out.position() + count);
+            writingOffset += count;
+            if (writingOffset == writingBytes.limit()) {
+                writingBytes = null;
+                if (writing != null) {
+                    server.getMetrics().recordFrameOut(writing.getData());
+                    writing.release();
+                    writing = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the next frame to copy off the queue, unless a spooled chunk is still waiting for
+     * its file bytes to be sent.
+     *
+     * @return true if there is a frame to copy
+     */
+    private boolean next() {
+        OutboundFrame frame;
+        while (pendingChunk == null && (frame = outbound.poll()) != null) {
+            if (codec == FrameCodec.CODEC_BINARY && frame instanceof SpooledChunkFrame) {
+                pendingChunk = (SpooledChunkFrame) frame;
+                pendingChunkSent = 0;
+                writingBytes = pendingChunk.headerBytes();
+                writingOffset = writingBytes.position();
+                return true;
+            }
+            try {
+                writingBytes = frame.bytesFor(codec, pool, server.getMetrics());
+                writingOffset = writingBytes.position();
+                writing = frame;
+                return true;
+            } catch (IOException ioe) {
+                System.err.println("Error in encoding data for client");
+                frame.release();
+            }
+        }
+        return false;
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        server.getMetrics().recordBytesOut(channel.write(bytes));
+        server.getMetrics().recordSocketWrite();
+    }
+
+    /**
+     * Sends the file bytes of the pending spooled chunk straight from the spool file.
+     *
+     * @return true if there is no pending chunk left to send
+     * @throws IOException if reading the spool file or writing the channel fails
+     */
+    private boolean writePendingChunk() throws IOException {
+        while (pendingChunk != null) {
+            if (pendingChunkSent == pendingChunk.length()) {
+                server.getMetrics().recordFrameOut(pendingChunk.getData());
+                pendingChunk.release();
+                pendingChunk = null;
+                break;
+            }
+            long sent = pendingChunk.transferTo(pendingChunkSent, channel);
+            server.getMetrics().recordSocketWrite();
+            if (sent == 0) {
+                return false;
+            }
+            server.getMetrics().recordBytesOut(sent);
+            pendingChunkSent += sent;
+        }
+        return true;
+    }
+}
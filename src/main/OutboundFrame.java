@@ -0,0 +1,181 @@
+package main;
+
+import data.ClackData;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An OutboundFrame is one ClackData on its way to one or more clients. It encodes the data
+ * lazily, at most once per codec, and every recipient copies from the same bytes, so a
+ * broadcast to N clients costs one encoding per codec in use rather than N. Recipients find
+ * an encoding that is already there with a volatile read; only the first recipient on a
+ * codec takes the frame's lock, to encode it once.
+ *
+ * A frame is reference counted so that whatever backs it is freed when the last recipient is
+ * done with it: the encodings go back to the server's BufferPool, and a SpooledChunkFrame
+ * also lets go of its spool file. A new frame holds one reference; every connection a frame
+ * is delivered to owns one reference and calls release() once the frame is written or
+ * dropped. Frames that are never released, such as those a PresenceIndex.Snapshot keeps,
+ * are created unpooled so their encodings are left to the garbage collector.
+ */
+class OutboundFrame {
+    private static final AtomicIntegerFieldUpdater<OutboundFrame> REFERENCES =
+            AtomicIntegerFieldUpdater.newUpdater(OutboundFrame.class, "references");
+
+    private final ClackData data;
+    private final AtomicReferenceArray<ByteBuffer> encodings; // Indexed by codec, filled on first use
+    private final boolean pooled; // Whether the encodings come from a BufferPool
+    private BufferPool pool; // The pool the encodings came from, set with the first one under the lock
+    private volatile int references; // Owners that have not called release() yet
+
+    /**
+     * The constructor that wraps the data to send, for a frame that is released.
+     *
+     * @param data the data to send, may be null
+     */
+    OutboundFrame(ClackData data) {
+        this(data, true);
+    }
+
+    /**
+     * The constructor that wraps the data to send and says whether it will be released.
+     *
+     * @param data   the data to send, may be null
+     * @param pooled true to encode into pooled buffers, which requires the last owner to
+     *               call release(); false for a frame kept for good
+     */
+    OutboundFrame(ClackData data, boolean pooled) {
+        this.data = data;
+        this.encodings = new AtomicReferenceArray<ByteBuffer>(FrameCodec.NEWEST_CODEC + 1);
+        this.pooled = pooled;
+        this.references = 1;
+    }
+
+    /**
+     * Returns the data.
+     *
+     * @return this.data
+     */
+    ClackData getData() {
+        return this.data;
+    }
+
+    /**
+     * Returns the bytes to write to a client using the given codec. The buffer is shared by
+     * every recipient on that codec, possibly on other threads, so callers must only read it
+     * with absolute gets and must not even move its position; the bytes run from its
+     * position to its limit. It is valid until the caller releases its reference.
+     *
+     * @param codec   the codec of the receiving connection
+     * @param pool    the pool to encode into
+     * @param metrics the metrics to record the encoding time in
+     * @return the shared buffer holding the encoded bytes
+     * @throws IOException if the data cannot be encoded
+     */
+    ByteBuffer bytesFor(byte codec, BufferPool pool, ServerMetrics metrics) throws IOException {
+        return encodingFor(codec, pool, metrics);
+    }
+
+    /**
+     * Writes the bytes for a client using the given codec to a stream, without flushing.
+     * The pool must hand out heap buffers.
+     *
+     * @param out     the stream to write to
+     * @param codec   the codec of the receiving connection
+     * @param pool    the pool to encode into
+     * @param metrics the metrics to record the encoding time in
+     * @throws IOException if the data cannot be encoded or written
+     */
+    void writeTo(OutputStream out, byte codec, BufferPool pool, ServerMetrics metrics) throws IOException {
+        ByteBuffer encoded = encodingFor(codec, pool, metrics);
+        out.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+    }
+
+    /**
+     * Adds a reference for one more owner, typically just before delivering to a connection.
+     *
+     * @return this frame
+     */
+    OutboundFrame retain() {
+        REFERENCES.incrementAndGet(this);
+        return this;
+    }
+
+    /**
+     * Gives up one reference. The last release frees whatever backs the frame.
+     */
+    void release() {
+        if (REFERENCES.decrementAndGet(this) == 0) {
+            deallocate();
+        }
+    }
+
+    /**
+     * Called once the last reference is released. Hands the encodings back to their pool;
+     * no recipient can still be reading them, since each holds a reference while it does.
+     */
+    void deallocate() {
+        synchronized (encodings) {
+            if (pool == null) {
+                return;
+            }
+            for (int i = 0; i < encodings.length(); i++) {
+                ByteBuffer encoded = encodings.getAndSet(i, null);
+                if (encoded != null) {
+                    pool.release(encoded);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the bytes for one codec. Called at most once per codec.
+     *
+     * @param codec the codec to encode for
+     * @param pool  the pool to take the buffer from, or null for a new heap buffer
+     * @return a buffer positioned at the start of the bytes
+     * @throws IOException if the data cannot be encoded
+     */
+    ByteBuffer encode(byte codec, BufferPool pool) throws IOException {
+        return encode(data, codec, pool);
+    }
+
+    /**
+     * Encodes data the way a client using the given codec reads it.
+     *
+     * @param data  the data to encode, may be null
+     * @param codec the codec of the receiving connection
+     * @param pool  the pool to take the buffer from, or null for a new heap buffer
+     * @return a buffer positioned at the start of the bytes
+     * @throws IOException if the data cannot be encoded
+     */
+    static ByteBuffer encode(ClackData data, byte codec, BufferPool pool) throws IOException {
+        return codec == FrameCodec.CODEC_OBJECT_STREAM
+                ? FrameCodec.encodeForObjectStream(data, pool)
+                : FrameCodec.encode(data, codec, pool);
+    }
+
+    private ByteBuffer encodingFor(byte codec, BufferPool pool, ServerMetrics metrics) throws IOException {
+        ByteBuffer encoded = encodings.get(codec);
+        if (encoded != null) {
+            return encoded;
+        }
+        synchronized (encodings) {
+            encoded = encodings.get(codec);
+            if (encoded == null) {
+                long start = System.nanoTime();
+                encoded = encode(codec, pooled ? pool : null);
+                metrics.recordEncode(System.nanoTime() - start);
+                if (pooled) {
+                    this.pool = pool;
+                }
+                encodings.set(codec, encoded);
+            }
+            return encoded;
+        }
+    }
+}
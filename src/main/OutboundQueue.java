@@ -0,0 +1,257 @@
+package main;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * An OutboundQueue holds what is waiting to be written to one client. Any number of threads
+ * may offer() (every broadcasting connection is a producer) and any thread may poll(), which
+ * besides the connection's writer lets a producer make room under the server's slow-consumer
+ * policy; only the writer may take(). Producers claim a slot with a single compare-and-set on
+ * the tail and never block or take a lock; when the queue is full offer() fails instead of
+ * waiting, so a slow client can never stall the sender.
+ *
+ * Every slot has a sequence number saying whose turn it is: the position a producer may fill
+ * it at, or that position plus one once it holds an element a consumer may take. A thread
+ * claims a position by moving the tail or head past it, and hands the slot on by advancing
+ * its sequence, so producers and consumers never touch a slot at the same time.
+ *
+ * A producer can pass the closed check just before the queue closes and publish its element
+ * after the owner's last drain. closeAndDrain() covers that: a producer that finds the queue
+ * closed after publishing drains it with the same release the owner gave, so no element is
+ * left behind in a queue nobody reads any more.
+ *
+ * @param <E> the element type
+ */
+public class OutboundQueue<E> {
+    /**
+     * The capacity used when none is given.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences; // For each slot, the position it may next be filled or taken at
+    private final int mask;
+    private final AtomicLong tail; // The next position a producer will claim
+    private final AtomicLong head; // The next position a consumer will claim
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed;
+    private volatile Consumer<? super E> discard; // Set by closeAndDrain(), releases what nobody will take
+
+    /**
+     * The constructor that sets the capacity, rounded up to a power of two.
+     *
+     * @param capacity the minimum number of elements the queue can hold
+     */
+    public OutboundQueue(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.head = new AtomicLong();
+        this.closed = false;
+    }
+
+    /**
+     * The default constructor.
+     */
+    public OutboundQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Adds an element without blocking. Safe to call from any thread.
+     *
+     * @param element the element to add, not null
+     * @return false if the queue is full or closed; true if added, though after
+     *         closeAndDrain() the element may already have been released
+     */
+    public boolean offer(E element) {
+        if (closed) {
+            return false;
+        }
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long turn = sequences.get(index) - position;
+            if (turn == 0 && tail.compareAndSet(position, position + 1)) {
+                slots.lazySet(index, element);
+                // A volatile store, so it cannot pass the read of waitingConsumer below: take()
+                // sets waitingConsumer before polling again, so either it sees the element or
+                // this sees it waiting.
+                sequences.set(index, position + 1);
+                Thread consumer = waitingConsumer;
+                if (consumer != null) {
+                    LockSupport.unpark(consumer);
+                }
+                if (closed) {
+                    // The owner may have drained for the last time before this was published.
+                    Consumer<? super E> release = discard;
+                    if (release != null) {
+                        drainTo(release);
+                    }
+                }
+                return true;
+            }
+            if (turn < 0) {
+                return false;
+            }
+            position = tail.get();
+        }
+    }
+
+    /**
+     * Removes the oldest element. Safe to call from any thread.
+     *
+     * @return the element, or null if nothing has been published yet
+     */
+    public E poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long turn = sequences.get(index) - (position + 1);
+            if (turn == 0 && head.compareAndSet(position, position + 1)) {
+                E element = slots.get(index);
+                slots.lazySet(index, null);
+                sequences.lazySet(index, position + mask + 1);
+                return element;
+            }
+            if (turn < 0) {
+                return null;
+            }
+            position = head.get();
+        }
+    }
+
+    /**
+     * Removes the oldest element, parking until one arrives. The connection's writer only.
+     *
+     * @return the element, or null once the queue is closed and drained
+     * @throws InterruptedException if the consumer is interrupted while waiting
+     */
+    public E take() throws InterruptedException {
+        E element;
+        while ((element = poll()) == null) {
+            if (closed && isEmpty()) {
+                return null;
+            }
+            waitingConsumer = Thread.currentThread();
+            element = poll();
+            if (element == null && !closed) {
+                LockSupport.park(this);
+            }
+            waitingConsumer = null;
+            if (element != null) {
+                return element;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return element;
+    }
+
+    /**
+     * Removes the oldest element, parking until one arrives or the timeout passes. The
+     * connection's writer only.
+     *
+     * @param timeoutNanos the longest time to wait
+     * @return the element, or null if none arrived in time or the queue is closed and drained
+     * @throws InterruptedException if the consumer is interrupted while waiting
+     */
+    public E poll(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        E element;
+        while ((element = poll()) == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || (closed && isEmpty())) {
+                return null;
+            }
+            waitingConsumer = Thread.currentThread();
+            element = poll();
+            if (element == null && !closed) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            waitingConsumer = null;
+            if (element != null) {
+                return element;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return element;
+    }
+
+    /**
+     * Stops accepting elements; take() returns null once what is already queued is drained.
+     */
+    public void close() {
+        closed = true;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Closes the queue for good and hands every element left in it, and any a racing producer
+     * publishes afterwards, to a release function. The owner's last call, once nothing will
+     * take() any more.
+     *
+     * @param release what to do with each element nobody will take
+     */
+    public void closeAndDrain(Consumer<? super E> release) {
+        discard = release;
+        close();
+        drainTo(release);
+    }
+
+    private void drainTo(Consumer<? super E> release) {
+        E element;
+        while ((element = poll()) != null) {
+            release.accept(element);
+        }
+    }
+
+    /**
+     * Returns whether close() has been called.
+     *
+     * @return true if offer() no longer accepts elements
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns whether no element has been claimed beyond what consumers have taken.
+     *
+     * @return true if the queue is empty
+     */
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * Returns the number of queued elements, which may be stale by the time it is used.
+     *
+     * @return the queue depth
+     */
+    public int size() {
+        long current = head.get();
+        return (int) Math.max(0, tail.get() - current);
+    }
+}
@@ -0,0 +1,266 @@
+package main;
+
+import data.ClackData;
+import data.MessageClackData;
+import data.PresenceClackData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The users a server currently has online. Every session (a connection, to the server) is
+ * bound to the user name it last sent data as, and every user keeps the set of its sessions,
+ * so a user with two clients stays online until both have logged out or disconnected, and
+ * direct messages to the user reach both.
+ *
+ * Binding a session to the name it is already bound to, which is what happens for every
+ * message after the first, is a single lock-free map lookup. Only a change in who is online
+ * bumps the version, and the sorted user list, its text and the reply frames are rebuilt from
+ * the version lazily, the first time a snapshot is asked for after a change. Repeated
+ * LISTUSERS requests in between are all answered from the same cached frame.
+ *
+ * Connections can also subscribe: they get one PresenceClackData snapshot and then a join or
+ * leave event per change instead of polling the whole list. Changes to who is online are made
+ * under this object's lock, and so are the deliveries of their events and of snapshots to new
+ * subscribers, so every subscriber sees versions in order with no gaps unless its outbound
+ * queue drops a frame.
+ */
+public class PresenceIndex {
+    private final ConcurrentHashMap<Object, String> sessions; // The user name each session is bound to
+    private final ConcurrentHashMap<String, Set<Object>> users; // The sessions bound to each user
+    private final Set<ClientConnection> subscribers; // Connections sent an event for every change
+    private volatile long version; // Bumped whenever a user comes online or goes offline, under the lock
+    private volatile Snapshot snapshot; // The last snapshot built, possibly of an older version
+
+    /**
+     * The default constructor, with nobody online.
+     */
+    public PresenceIndex() {
+        this.sessions = new ConcurrentHashMap<Object, String>();
+        this.users = new ConcurrentHashMap<String, Set<Object>>();
+        this.subscribers = ConcurrentHashMap.newKeySet();
+        this.version = 0;
+        this.snapshot = new Snapshot(0, Collections.<String>emptyList());
+    }
+
+    /**
+     * Binds a session to a user name, unbinding it from any other name first. Cheap when the
+     * session is already bound to the name.
+     *
+     * @param session  the session, compared by equals()
+     * @param userName the name the session sent data as; null is ignored
+     */
+    public void join(Object session, String userName) {
+        if (userName == null || userName.equals(sessions.get(session))) {
+            return;
+        }
+        synchronized (this) {
+            String previous = sessions.put(session, userName);
+            if (userName.equals(previous)) {
+                return;
+            }
+            if (previous != null) {
+                release(previous, session);
+            }
+            Set<Object> userSessions = users.get(userName);
+            if (userSessions == null) {
+                userSessions = ConcurrentHashMap.newKeySet();
+                users.put(userName, userSessions);
+                publish(PresenceClackData.EVENT_JOIN, userName);
+            }
+            userSessions.add(session);
+        }
+    }
+
+    /**
+     * Unbinds a session, taking its user offline if it was the user's last session, and
+     * ends its subscription. Does nothing if the session is not bound or subscribed.
+     *
+     * @param session the session that logged out or disconnected
+     */
+    public void leave(Object session) {
+        if (!sessions.containsKey(session) && !subscribers.contains(session)) {
+            return;
+        }
+        synchronized (this) {
+            subscribers.remove(session);
+            String previous = sessions.remove(session);
+            if (previous != null) {
+                release(previous, session);
+            }
+        }
+    }
+
+    /**
+     * Subscribes a connection to presence events, or resynchronizes it if it already is:
+     * either way it is sent a snapshot of the current version, and an event for every change
+     * after it.
+     *
+     * @param connection the connection to send presence to
+     */
+    synchronized void subscribe(ClientConnection connection) {
+        subscribers.add(connection);
+        connection.deliver(snapshot().subscribeReply());
+    }
+
+    /**
+     * Returns whether a user has at least one session.
+     *
+     * @param userName the user
+     * @return true if the user is online
+     */
+    public boolean isOnline(String userName) {
+        return users.containsKey(userName);
+    }
+
+    /**
+     * Returns the sessions bound to a user, for sending to the user directly. The set is
+     * live and may change while it is iterated.
+     *
+     * @param userName the user
+     * @return the user's sessions, empty if the user is offline
+     */
+    public Set<Object> sessionsOf(String userName) {
+        Set<Object> userSessions = users.get(userName);
+        return userSessions == null ? Collections.emptySet() : userSessions;
+    }
+
+    /**
+     * Returns the number of users online.
+     *
+     * @return the user count
+     */
+    public int size() {
+        return users.size();
+    }
+
+    /**
+     * Returns the number of connections subscribed to presence events.
+     *
+     * @return the subscriber count
+     */
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Returns the version, which goes up by one whenever a user comes online or goes offline.
+     *
+     * @return the current version
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns the users online as of the current version, rebuilding the snapshot only if a
+     * user has come or gone since the last call.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current.version == version) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (current.version != version) {
+                List<String> online = new ArrayList<String>(users.keySet());
+                Collections.sort(online);
+                current = new Snapshot(version, online);
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Takes one session away from a user, and the user offline with the last. Called under
+     * the lock.
+     */
+    private void release(String userName, Object session) {
+        Set<Object> userSessions = users.get(userName);
+        if (userSessions == null) {
+            return;
+        }
+        userSessions.remove(session);
+        if (userSessions.isEmpty()) {
+            users.remove(userName);
+            publish(PresenceClackData.EVENT_LEAVE, userName);
+        }
+    }
+
+    /**
+     * Bumps the version and sends the event that produced it to every subscriber, as one
+     * frame encoded once per codec. Called under the lock.
+     */
+    private void publish(int event, String userName) {
+        long next = version + 1;
+        version = next;
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        OutboundFrame frame = new OutboundFrame(new PresenceClackData("Server", event, next, userName));
+        for (ClientConnection subscriber : subscribers) {
+            subscriber.deliver(frame.retain());
+        }
+        frame.release();
+    }
+
+    /**
+     * The users online as of one version, with the LISTUSERS reply and the subscription
+     * snapshot built from them once.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final List<String> users; // Sorted by name
+        private final String text; // The names joined by ", ", as ListUsersClackData.getData() does
+        private final OutboundFrame reply; // The LISTUSERS answer, shared by every request for this version
+        private final OutboundFrame subscribeReply; // The snapshot sent to subscribers at this version
+
+        private Snapshot(long version, List<String> users) {
+            this.version = version;
+            this.users = Collections.unmodifiableList(users);
+            this.text = String.join(", ", users);
+            this.reply = new OutboundFrame(new MessageClackData("Server", text, ClackData.CONSTANT_LISTUSERS), false);
+            this.subscribeReply = new OutboundFrame(
+                    new PresenceClackData("Server", PresenceClackData.EVENT_SNAPSHOT, version, this.users), false);
+        }
+
+        public long getVersion() {
+            return this.version;
+        }
+
+        public List<String> getUsers() {
+            return this.users;
+        }
+
+        public String getText() {
+            return this.text;
+        }
+
+        /**
+         * Returns the reply to a LISTUSERS request with a reference for the caller, which
+         * passes to the connection it is delivered to. The snapshot keeps its own reference,
+         * so the frame and its encodings live as long as the snapshot, outside the buffer pool.
+         *
+         * @return the reply frame
+         */
+        OutboundFrame reply() {
+            return this.reply.retain();
+        }
+
+        /**
+         * Returns the PresenceClackData snapshot for a subscriber, referenced like reply().
+         *
+         * @return the snapshot frame
+         */
+        OutboundFrame subscribeReply() {
+            return this.subscribeReply.retain();
+        }
+    }
+}
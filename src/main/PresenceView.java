@@ -0,0 +1,92 @@
+package main;
+
+import data.PresenceClackData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A client's copy of who is online, kept up to date from the server's PresenceClackData
+ * events. A snapshot replaces the copy; a join or leave is applied only if its version is the
+ * one after the copy's. An event at or below the copy's version is already reflected in it
+ * and is ignored. An event further ahead means events were missed: the view stops applying
+ * events and asks its caller to subscribe again, and waits for the new snapshot.
+ */
+public class PresenceView {
+    private final TreeSet<String> users; // The users online, sorted by name
+    private long version; // The version the copy is at, -1 before the first snapshot
+    private boolean resyncing; // Whether a gap was seen and a snapshot is awaited
+
+    /**
+     * The default constructor, before any snapshot.
+     */
+    public PresenceView() {
+        this.users = new TreeSet<String>();
+        this.version = -1;
+        this.resyncing = false;
+    }
+
+    /**
+     * Applies an event from the server.
+     *
+     * @param presenceData a snapshot, join or leave
+     * @return false if events were missed and the caller should subscribe again
+     */
+    public synchronized boolean apply(PresenceClackData presenceData) {
+        long eventVersion = presenceData.getVersion();
+        switch (presenceData.getEvent()) {
+            case PresenceClackData.EVENT_SNAPSHOT:
+                users.clear();
+                users.addAll(presenceData.getUsers());
+                version = eventVersion;
+                resyncing = false;
+                return true;
+            case PresenceClackData.EVENT_JOIN:
+            case PresenceClackData.EVENT_LEAVE:
+                if (resyncing || version < 0 || eventVersion <= version) {
+                    return true;
+                }
+                if (eventVersion != version + 1) {
+                    resyncing = true;
+                    return false;
+                }
+                if (presenceData.getEvent() == PresenceClackData.EVENT_JOIN) {
+                    users.addAll(presenceData.getUsers());
+                } else {
+                    users.removeAll(presenceData.getUsers());
+                }
+                version = eventVersion;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Returns whether the view is waiting for a snapshot, before the first or after a gap.
+     *
+     * @return true if the copy cannot be trusted yet
+     */
+    public synchronized boolean isResyncing() {
+        return resyncing || version < 0;
+    }
+
+    /**
+     * Returns the version the copy is at.
+     *
+     * @return the version, -1 before the first snapshot
+     */
+    public synchronized long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns the users online, sorted by name.
+     *
+     * @return a copy of the users
+     */
+    public synchronized List<String> getUsers() {
+        return new ArrayList<String>(users);
+    }
+}
@@ -0,0 +1,232 @@
+package main;
+
+import data.ChannelClackData;
+import data.ClackData;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client's ordering of the sequenced data it receives. The server numbers the data of each
+ * channel, and of every client, on its own and queues it for each connection in that order
+ * (see ChannelSequencer), but frames can still go missing or arrive twice, and a history
+ * replay meets live data where it catches up. The window keeps each channel's data in
+ * sequence order before it is polled: data that arrives ahead of a gap is held back until the
+ * gap is filled, and data at or below the last sequence released is a duplicate, such as a
+ * message replayed after a reconnect, and is dropped.
+ *
+ * A gap that is never filled, because the server dropped a frame for a slow consumer or the
+ * client missed it while disconnected, is given up on once more than the window's capacity is
+ * held back or the oldest data held has waited the window's delay; its sequences are counted
+ * as missed and everything held up to the next gap is released. Unsequenced data, such as
+ * direct messages and presence events, is released as it arrives.
+ *
+ * A channel join confirmation carries the sequence the channel was at when the client joined,
+ * which is where the window starts the channel; a leave confirmation forgets the channel.
+ * Data of a channel whose start is not known, such as the data sent to every client, is held
+ * back for the window's delay, so that a sequence sent just before the first data received
+ * but received just after it is not taken for a duplicate. The lowest sequence held then sets
+ * the start.
+ */
+public class ReorderWindow {
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 100;
+
+    private final int capacity; // Data held back in one channel before its first gap is given up on
+    private final long maxDelayNanos; // How long data is held back before the gap before it is given up on
+    private final Map<String, Stream> streams; // The position of every channel, null for every client
+    private final ArrayDeque<ClackData> ready; // Data released in order and not yet polled
+    private int held; // Data held back across all channels
+    private long missed; // Sequences given up on
+    private long duplicates; // Data dropped as already released
+
+    /**
+     * The default constructor, with DEFAULT_CAPACITY and DEFAULT_MAX_DELAY_MILLIS.
+     */
+    public ReorderWindow() {
+        this(DEFAULT_CAPACITY, TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_DELAY_MILLIS));
+    }
+
+    /**
+     * The constructor to set up how much data may be held back and for how long.
+     *
+     * @param capacity      the most data held back in one channel, at least 1
+     * @param maxDelayNanos the longest data is held back, in nanoseconds
+     */
+    public ReorderWindow(int capacity, long maxDelayNanos) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.maxDelayNanos = maxDelayNanos;
+        this.streams = new HashMap<String, Stream>();
+        this.ready = new ArrayDeque<ClackData>();
+        this.held = 0;
+        this.missed = 0;
+        this.duplicates = 0;
+    }
+
+    /**
+     * Takes in data received from the server, releasing it and whatever it unblocks, holding
+     * it back or dropping it.
+     *
+     * @param data the data received
+     */
+    public synchronized void accept(ClackData data) {
+        if (data instanceof ChannelClackData) {
+            reset(data.getChannel());
+            if (((ChannelClackData) data).getEvent() == ChannelClackData.EVENT_JOIN
+                    && data.getSequence() != ClackData.NO_SEQUENCE) {
+                streams.put(data.getChannel(), new Stream(data.getSequence()));
+            }
+            ready.add(data);
+            return;
+        }
+        long sequence = data.getSequence();
+        if (sequence == ClackData.NO_SEQUENCE || data.getRecipient() != null) {
+            ready.add(data);
+            return;
+        }
+        Stream stream = streams.computeIfAbsent(data.getChannel(), channel -> new Stream(ClackData.NO_SEQUENCE));
+        if ((stream.next != ClackData.NO_SEQUENCE && sequence < stream.next) || stream.held.containsKey(sequence)) {
+            duplicates++;
+        } else if (sequence == stream.next) {
+            release(stream, data);
+        } else {
+            stream.held.put(sequence, new Held(data, System.nanoTime()));
+            held++;
+            while (stream.held.size() > capacity) {
+                skipGap(stream);
+            }
+        }
+    }
+
+    /**
+     * Returns the next data released, in the order released.
+     *
+     * @return the data, or null if none is ready
+     */
+    public synchronized ClackData poll() {
+        return ready.poll();
+    }
+
+    /**
+     * Returns whether any data is held back behind a gap.
+     *
+     * @return true if expire() may yet release data
+     */
+    public synchronized boolean isHolding() {
+        return held > 0;
+    }
+
+    /**
+     * Returns when the oldest data held back will have waited the window's delay.
+     *
+     * @return the time on the System.nanoTime() scale, or Long.MAX_VALUE if nothing is held
+     */
+    public synchronized long nextDeadline() {
+        long deadline = Long.MAX_VALUE;
+        for (Stream stream : streams.values()) {
+            if (!stream.held.isEmpty()) {
+                deadline = Math.min(deadline, stream.held.firstEntry().getValue().arrived + maxDelayNanos);
+            }
+        }
+        return deadline;
+    }
+
+    /**
+     * Gives up on every gap whose next data has waited the window's delay.
+     */
+    public synchronized void expire() {
+        long now = System.nanoTime();
+        for (Stream stream : streams.values()) {
+            while (!stream.held.isEmpty() && now - stream.held.firstEntry().getValue().arrived >= maxDelayNanos) {
+                skipGap(stream);
+            }
+        }
+    }
+
+    /**
+     * Forgets a channel's position, first releasing whatever it held back in sequence order,
+     * so the channel starts over as if its start were not known.
+     *
+     * @param channel the channel name, or null for every client
+     */
+    public synchronized void reset(String channel) {
+        Stream stream = streams.remove(channel);
+        if (stream == null) {
+            return;
+        }
+        for (Held entry : stream.held.values()) {
+            ready.add(entry.data);
+        }
+        held -= stream.held.size();
+    }
+
+    /**
+     * Returns the number of sequences given up on.
+     *
+     * @return this.missed
+     */
+    public synchronized long getMissed() {
+        return missed;
+    }
+
+    /**
+     * Returns the number of data dropped as duplicates.
+     *
+     * @return this.duplicates
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    private void release(Stream stream, ClackData data) {
+        ready.add(data);
+        stream.next = data.getSequence() + 1;
+        Held next;
+        while ((next = stream.held.remove(stream.next)) != null) {
+            held--;
+            ready.add(next.data);
+            stream.next++;
+        }
+    }
+
+    private void skipGap(Stream stream) {
+        Map.Entry<Long, Held> first = stream.held.pollFirstEntry();
+        held--;
+        if (stream.next != ClackData.NO_SEQUENCE) {
+            missed += first.getKey() - stream.next;
+        }
+        release(stream, first.getValue().data);
+    }
+
+    /**
+     * The position of one channel: the sequence expected next and the data held back.
+     */
+    private static class Stream {
+        private long next; // The sequence to release next, NO_SEQUENCE until the start is known
+        private final TreeMap<Long, Held> held; // Data ahead of a gap, by sequence
+
+        private Stream(long next) {
+            this.next = next;
+            this.held = new TreeMap<Long, Held>();
+        }
+    }
+
+    /**
+     * Data held back and when it arrived.
+     */
+    private static class Held {
+        private final ClackData data;
+        private final long arrived; // System.nanoTime() on arrival
+
+        private Held(ClackData data, long arrived) {
+            this.data = data;
+            this.arrived = arrived;
+        }
+    }
+}
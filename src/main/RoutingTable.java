@@ -0,0 +1,110 @@
+package main;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The channels a server routes messages by: which connections are members of each channel,
+ * and which channels each connection is a member of, so a disconnect can take it out of all
+ * of them. A channel exists while it has members; the first join creates it and the last
+ * leave removes it.
+ *
+ * Looking up a channel's members is a single lock-free map read, and the returned set can be
+ * iterated while connections join and leave, like the server's list of every client.
+ */
+public class RoutingTable {
+    private final ConcurrentHashMap<String, Set<ClientConnection>> channels; // The members of every channel that has any
+    private final ConcurrentHashMap<ClientConnection, Set<String>> memberships; // The channels of every connection in any
+
+    /**
+     * The default constructor, with no channels.
+     */
+    public RoutingTable() {
+        this.channels = new ConcurrentHashMap<String, Set<ClientConnection>>();
+        this.memberships = new ConcurrentHashMap<ClientConnection, Set<String>>();
+    }
+
+    /**
+     * Adds a connection to a channel, creating the channel if it has no members yet.
+     *
+     * @param channel    the channel name
+     * @param connection the connection to add
+     */
+    void join(String channel, ClientConnection connection) {
+        channels.compute(channel, (name, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+            }
+            members.add(connection);
+            return members;
+        });
+        memberships.computeIfAbsent(connection, key -> ConcurrentHashMap.newKeySet()).add(channel);
+    }
+
+    /**
+     * Takes a connection out of a channel, removing the channel with its last member. Does
+     * nothing if the connection is not a member.
+     *
+     * @param channel    the channel name
+     * @param connection the connection to take out
+     */
+    void leave(String channel, ClientConnection connection) {
+        removeMember(channel, connection);
+        memberships.computeIfPresent(connection, (key, joined) -> {
+            joined.remove(channel);
+            return joined.isEmpty() ? null : joined;
+        });
+    }
+
+    /**
+     * Takes a connection out of every channel it is a member of, as it disconnects.
+     *
+     * @param connection the connection to take out
+     */
+    void leaveAll(ClientConnection connection) {
+        Set<String> joined = memberships.remove(connection);
+        if (joined != null) {
+            for (String channel : joined) {
+                removeMember(channel, connection);
+            }
+        }
+    }
+
+    /**
+     * Returns the members of a channel. The set is live and may change while it is iterated.
+     *
+     * @param channel the channel name
+     * @return the members, empty if the channel does not exist
+     */
+    Set<ClientConnection> members(String channel) {
+        Set<ClientConnection> members = channels.get(channel);
+        return members == null ? Collections.<ClientConnection>emptySet() : members;
+    }
+
+    /**
+     * Returns the number of channels with at least one member.
+     *
+     * @return the channel count
+     */
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    /**
+     * Returns the number of connections in a channel.
+     *
+     * @param channel the channel name
+     * @return the member count, 0 if the channel does not exist
+     */
+    public int getMemberCount(String channel) {
+        return members(channel).size();
+    }
+
+    private void removeMember(String channel, ClientConnection connection) {
+        channels.computeIfPresent(channel, (name, members) -> {
+            members.remove(connection);
+            return members.isEmpty() ? null : members;
+        });
+    }
+}
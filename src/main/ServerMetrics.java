@@ -0,0 +1,427 @@
+package main;
+
+import com.sun.net.httpserver.HttpServer;
+import data.ClackData;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The counters and histograms a ClackServer keeps about its own hot paths. Every record
+ * method is lock-free: counters are LongAdders, which spread contended increments over
+ * per-thread cells, and histograms are LatencyHistograms. Reading sums the cells, so it is
+ * left to whoever scrapes, through JMX (see ServerMetricsMXBean) or the plain-text endpoint
+ * started by serve().
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    private final Set<ClientConnection> connections; // The server's connections, for the gauges
+    private final LongAdder accepts;
+    private final LongAdder framesIn;
+    private final LongAdder framesOut;
+    private final LongAdder bytesIn;
+    private final LongAdder bytesOut;
+    private final LongAdder socketWrites; // Write calls on client sockets, each usually one syscall
+    private final LongAdder framesDropped;
+    private final LongAdder[] queueOverflows; // Times each SlowConsumerPolicy acted, by ordinal
+    private final LongAdder heartbeatsSent;
+    private final LongAdder idleTimeouts; // Connections closed for going quiet
+    private final LatencyHistogram queueDepth; // Frames, sampled as each frame is queued
+    private final LatencyHistogram broadcastFanoutNanos;
+    private final LatencyHistogram decodeNanos;
+    private final LatencyHistogram encodeNanos;
+    private final LatencyHistogram deliveryNanos; // From receiving data to writing it out, per client
+    private volatile BufferPool bufferPool; // The server's buffer pool, for the gauges
+
+    /**
+     * The constructor that binds the metrics to the server's connections.
+     *
+     * @param connections the connections to report queue depths for
+     */
+    ServerMetrics(Set<ClientConnection> connections) {
+        this.connections = connections;
+        this.accepts = new LongAdder();
+        this.framesIn = new LongAdder();
+        this.framesOut = new LongAdder();
+        this.bytesIn = new LongAdder();
+        this.bytesOut = new LongAdder();
+        this.socketWrites = new LongAdder();
+        this.framesDropped = new LongAdder();
+        this.queueOverflows = new LongAdder[SlowConsumerPolicy.values().length];
+        for (int i = 0; i < queueOverflows.length; i++) {
+            queueOverflows[i] = new LongAdder();
+        }
+        this.heartbeatsSent = new LongAdder();
+        this.idleTimeouts = new LongAdder();
+        this.queueDepth = new LatencyHistogram();
+        this.broadcastFanoutNanos = new LatencyHistogram();
+        this.decodeNanos = new LatencyHistogram();
+        this.encodeNanos = new LatencyHistogram();
+        this.deliveryNanos = new LatencyHistogram();
+    }
+
+    void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    void recordAccept() {
+        accepts.increment();
+    }
+
+    void recordFrameIn() {
+        framesIn.increment();
+    }
+
+    /**
+     * Counts a frame written to a client and, if its data came from a client, how long after
+     * the server received the data that was.
+     *
+     * @param data the frame's data
+     */
+    void recordFrameOut(ClackData data) {
+        framesOut.increment();
+        long receivedNanos = data.getReceivedNanos();
+        if (receivedNanos != 0) {
+            deliveryNanos.record(System.nanoTime() - receivedNanos);
+        }
+    }
+
+    void recordBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void recordBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    void recordSocketWrite() {
+        socketWrites.increment();
+    }
+
+    void recordDrop() {
+        framesDropped.increment();
+    }
+
+    void recordDrops(long frames) {
+        framesDropped.add(frames);
+    }
+
+    void recordOverflow(SlowConsumerPolicy policy) {
+        queueOverflows[policy.ordinal()].increment();
+    }
+
+    void recordHeartbeatSent() {
+        heartbeatsSent.increment();
+    }
+
+    void recordIdleTimeout() {
+        idleTimeouts.increment();
+    }
+
+    void recordQueueDepth(int depth) {
+        queueDepth.record(depth);
+    }
+
+    void recordBroadcastFanout(long nanos) {
+        broadcastFanoutNanos.record(nanos);
+    }
+
+    void recordDecode(long nanos) {
+        decodeNanos.record(nanos);
+    }
+
+    void recordEncode(long nanos) {
+        encodeNanos.record(nanos);
+    }
+
+    /**
+     * Wraps a socket's input stream so that the bytes read from it are counted.
+     *
+     * @param in the stream to wrap
+     * @return the counting stream
+     */
+    InputStream meter(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int next = super.read();
+                if (next >= 0) {
+                    bytesIn.increment();
+                }
+                return next;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int count = super.read(buffer, offset, length);
+                if (count > 0) {
+                    bytesIn.add(count);
+                }
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Wraps a socket's output stream so that the bytes and the write calls made on it are
+     * counted.
+     *
+     * @param out the stream to wrap
+     * @return the counting stream
+     */
+    OutputStream meter(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesOut.increment();
+                socketWrites.increment();
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                out.write(buffer, offset, length);
+                bytesOut.add(length);
+                socketWrites.increment();
+            }
+        };
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server as
+     * main:type=ClackServer,port=&lt;port&gt;.
+     *
+     * @param port the server's port, which tells servers in one JVM apart
+     */
+    void register(int port) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("main:type=ClackServer,port=" + port));
+        } catch (JMException jme) {
+            System.err.println("Could not register server metrics with JMX: " + jme.getMessage());
+        }
+    }
+
+    /**
+     * Serves scrape() as text/plain at http://host:port/metrics from the HTTP server's own thread.
+     *
+     * @param port the port to listen on
+     * @return the HTTP server, already started
+     * @throws IOException if the port cannot be bound
+     */
+    HttpServer serve(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+        return http;
+    }
+
+    /**
+     * Formats every metric in the Prometheus text exposition format: counters and gauges as
+     * single samples, histograms as summaries with quantiles, times in seconds.
+     *
+     * @return the text
+     */
+    public String scrape() {
+        StringBuilder text = new StringBuilder(2048);
+        sample(text, "clack_accepts_total", "counter", "Connections accepted", getAccepts());
+        sample(text, "clack_connections", "gauge", "Clients connected", getConnections());
+        sample(text, "clack_frames_in_total", "counter", "Frames received from clients", getFramesIn());
+        sample(text, "clack_frames_out_total", "counter", "Frames written to clients", getFramesOut());
+        sample(text, "clack_bytes_in_total", "counter", "Bytes received from clients", getBytesIn());
+        sample(text, "clack_bytes_out_total", "counter", "Bytes written to clients", getBytesOut());
+        sample(text, "clack_socket_writes_total", "counter", "Write calls made on client sockets", getSocketWrites());
+        sample(text, "clack_frames_dropped_total", "counter", "Frames dropped because an outbound queue was full",
+                getFramesDropped());
+        text.append("# HELP clack_queue_overflows_total Full outbound queues handled, by slow-consumer policy\n");
+        text.append("# TYPE clack_queue_overflows_total counter\n");
+        for (SlowConsumerPolicy policy : SlowConsumerPolicy.values()) {
+            text.append("clack_queue_overflows_total{policy=\"").append(policy.name().toLowerCase()).append("\"} ")
+                    .append(getQueueOverflows(policy)).append('\n');
+        }
+        sample(text, "clack_heartbeats_sent_total", "counter", "Heartbeats sent to quiet clients", getHeartbeatsSent());
+        sample(text, "clack_idle_timeouts_total", "counter", "Connections closed after going quiet for the idle timeout",
+                getIdleTimeouts());
+        sample(text, "clack_queued_frames", "gauge", "Frames waiting in all outbound queues", getQueuedFrames());
+        sample(text, "clack_queue_depth_max", "gauge", "Deepest outbound queue", getMaxQueueDepth());
+        sample(text, "clack_pooled_buffers_allocated_total", "counter", "Buffers the buffer pool had to allocate",
+                getPooledBuffersAllocated());
+        sample(text, "clack_pooled_buffers_outstanding", "gauge", "Pooled buffers in use", getPooledBuffersOutstanding());
+        summary(text, "clack_queue_depth", "Outbound queue depth as each frame is queued", queueDepth, 1);
+        summary(text, "clack_broadcast_fanout_seconds", "Time to hand a broadcast to every connection",
+                broadcastFanoutNanos, 1e-9);
+        summary(text, "clack_decode_seconds", "Time to decode a received frame", decodeNanos, 1e-9);
+        summary(text, "clack_encode_seconds", "Time to encode a frame for one codec", encodeNanos, 1e-9);
+        summary(text, "clack_delivery_seconds", "Time from receiving data to writing it to one client",
+                deliveryNanos, 1e-9);
+        return text.toString();
+    }
+
+    private static void sample(StringBuilder text, String name, String type, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder text, String name, String help, LatencyHistogram histogram,
+                                double scale) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(format(histogram.getValueAtPercentile(quantile * 100) * scale)).append('\n');
+        }
+        text.append(name).append("_sum ").append(format(histogram.getSum() * scale)).append('\n');
+        text.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+                ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    @Override
+    public long getAccepts() {
+        return accepts.sum();
+    }
+
+    @Override
+    public int getConnections() {
+        return connections.size();
+    }
+
+    @Override
+    public long getFramesIn() {
+        return framesIn.sum();
+    }
+
+    @Override
+    public long getFramesOut() {
+        return framesOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getSocketWrites() {
+        return socketWrites.sum();
+    }
+
+    @Override
+    public long getFramesDropped() {
+        return framesDropped.sum();
+    }
+
+    @Override
+    public long getQueueOverflows() {
+        long overflows = 0;
+        for (LongAdder policyOverflows : queueOverflows) {
+            overflows += policyOverflows.sum();
+        }
+        return overflows;
+    }
+
+    @Override
+    public long getSlowConsumerDisconnects() {
+        return getQueueOverflows(SlowConsumerPolicy.DISCONNECT);
+    }
+
+    /**
+     * Returns the number of times one slow-consumer policy handled a full outbound queue.
+     *
+     * @param policy the policy
+     * @return the number of overflows it handled
+     */
+    public long getQueueOverflows(SlowConsumerPolicy policy) {
+        return queueOverflows[policy.ordinal()].sum();
+    }
+
+    @Override
+    public long getHeartbeatsSent() {
+        return heartbeatsSent.sum();
+    }
+
+    @Override
+    public long getIdleTimeouts() {
+        return idleTimeouts.sum();
+    }
+
+    @Override
+    public long getQueuedFrames() {
+        long queued = 0;
+        for (ClientConnection connection : connections) {
+            queued += connection.getQueueDepth();
+        }
+        return queued;
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        int deepest = 0;
+        for (ClientConnection connection : connections) {
+            deepest = Math.max(deepest, connection.getQueueDepth());
+        }
+        return deepest;
+    }
+
+    @Override
+    public long getPooledBuffersAllocated() {
+        BufferPool pool = bufferPool;
+        return pool == null ? 0 : pool.getAllocations();
+    }
+
+    @Override
+    public long getPooledBuffersOutstanding() {
+        BufferPool pool = bufferPool;
+        return pool == null ? 0 : pool.getOutstanding();
+    }
+
+    @Override
+    public HistogramSnapshot getQueueDepth() {
+        return new HistogramSnapshot(queueDepth);
+    }
+
+    @Override
+    public HistogramSnapshot getBroadcastFanoutNanos() {
+        return new HistogramSnapshot(broadcastFanoutNanos);
+    }
+
+    @Override
+    public HistogramSnapshot getDecodeNanos() {
+        return new HistogramSnapshot(decodeNanos);
+    }
+
+    @Override
+    public HistogramSnapshot getEncodeNanos() {
+        return new HistogramSnapshot(encodeNanos);
+    }
+
+    @Override
+    public HistogramSnapshot getDeliveryNanos() {
+        return new HistogramSnapshot(deliveryNanos);
+    }
+}
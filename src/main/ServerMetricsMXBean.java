@@ -0,0 +1,115 @@
+package main;
+
+/**
+ * The JMX view of a ClackServer's ServerMetrics, registered as
+ * main:type=ClackServer,port=&lt;port&gt; when the server starts. Counters count from the
+ * start of the server; times are in nanoseconds.
+ */
+public interface ServerMetricsMXBean {
+    /**
+     * @return the number of connections accepted
+     */
+    long getAccepts();
+
+    /**
+     * @return the number of clients currently connected
+     */
+    int getConnections();
+
+    /**
+     * @return the number of frames received from clients
+     */
+    long getFramesIn();
+
+    /**
+     * @return the number of frames written to clients
+     */
+    long getFramesOut();
+
+    /**
+     * @return the number of bytes received from clients
+     */
+    long getBytesIn();
+
+    /**
+     * @return the number of bytes written to clients
+     */
+    long getBytesOut();
+
+    /**
+     * @return the number of write calls made on client sockets; frames out divided by this is
+     *         how well writes are coalesced
+     */
+    long getSocketWrites();
+
+    /**
+     * @return the number of frames dropped because a client's outbound queue was full
+     */
+    long getFramesDropped();
+
+    /**
+     * @return the number of times a full outbound queue was handled by the slow-consumer policy
+     */
+    long getQueueOverflows();
+
+    /**
+     * @return the number of clients disconnected because their outbound queue was full
+     */
+    long getSlowConsumerDisconnects();
+
+    /**
+     * @return the number of heartbeats sent to clients that had gone quiet
+     */
+    long getHeartbeatsSent();
+
+    /**
+     * @return the number of connections closed because nothing was received for the idle timeout
+     */
+    long getIdleTimeouts();
+
+    /**
+     * @return the number of frames waiting in all outbound queues right now
+     */
+    long getQueuedFrames();
+
+    /**
+     * @return the deepest outbound queue right now
+     */
+    int getMaxQueueDepth();
+
+    /**
+     * @return the number of buffers the buffer pool allocated because it had none free
+     */
+    long getPooledBuffersAllocated();
+
+    /**
+     * @return the number of pooled buffers acquired and not yet released right now
+     */
+    long getPooledBuffersOutstanding();
+
+    /**
+     * @return the depth of the outbound queue each frame was added to, counting itself
+     */
+    HistogramSnapshot getQueueDepth();
+
+    /**
+     * @return the time to hand one broadcast to every connection
+     */
+    HistogramSnapshot getBroadcastFanoutNanos();
+
+    /**
+     * @return the time to decode one received frame
+     */
+    HistogramSnapshot getDecodeNanos();
+
+    /**
+     * @return the time to encode one outbound frame for one codec
+     */
+    HistogramSnapshot getEncodeNanos();
+
+    /**
+     * @return the time from receiving data from a client to writing it to one client, to
+     * within a tick of the coarse clock
+     */
+    HistogramSnapshot getDeliveryNanos();
+}
@@ -0,0 +1,16 @@
+package main;
+
+/**
+ * The ways a ClackServer can serve its clients, chosen at startup.
+ */
+public enum ServerMode {
+    /**
+     * One thread per client, each blocking on its socket (ServerSideClientIO).
+     */
+    BLOCKING,
+
+    /**
+     * A small fixed pool of selector-driven reactors serving all clients (ClackReactor).
+     */
+    NIO
+}
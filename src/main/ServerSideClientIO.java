@@ -1,86 +1,287 @@
 package main;
 
 import data.ClackData;
-import data.MessageClackData;
-import data.FileClackData;
-import data.ListUsersClackData;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
-public class ServerSideClientIO implements Runnable{
-    private boolean closeConnection;
+/**
+ * A ServerSideClientIO serves one client on blocking streams. run() is the reader: it receives
+ * data and hands it to the server for dispatch. Everything going back to the client is queued
+ * in an OutboundQueue by deliver() and written by a separate writer task, so senders never
+ * wait on this client's socket and no message is overwritten before it is sent. The writer
+ * copies the already-encoded bytes of each OutboundFrame into one buffered stream, whether the
+ * client talks frames or a plain object stream, and flushes it when the buffer fills or the
+ * queue runs dry. During a burst it waits up to the server's flush delay for more frames
+ * before flushing, so a burst costs a few large writes instead of one write per frame.
+ */
+public class ServerSideClientIO implements Runnable, ClientConnection{
+    private volatile boolean closeConnection;
+    private volatile boolean writeFailed; // Set when the socket could not be written to
+    private volatile long lastActivity; // When data was last received, in System.nanoTime()
+    private boolean framed; // Whether the client sent a hello and speaks frames (see FrameCodec)
+    private volatile boolean objectStream; // Set once the client turned out to have no hello
+    private byte codec; // The frame codec agreed on in the hello, CODEC_OBJECT_STREAM without one
+    private boolean acceptsUserIds; // Whether the hello asked for the client's user id
+    private int userId; // The user the connection last sent data as
     private data.ClackData dataToReceieveFromClient;
-    private data.ClackData dataToSendToClient;
     private ObjectInputStream inFromClient;
-    private ObjectOutputStream outToClient;
+    private DataInputStream frameInFromClient;
+    private BufferedOutputStream outToClient;
     private ClackServer server;
     private Socket clientSocket;
+    private final OutboundQueue<OutboundFrame> outbound; // Frames waiting for the writer task
+    private final Executor writerExecutor; // Runs the writer task once the streams are set up
+    private long lastFlush; // When the writer last flushed, in System.nanoTime()
 
-    public ServerSideClientIO(ClackServer server, Socket clientSocket){
+    /**
+     * The constructor that binds the connection to its socket.
+     *
+     * @param server         the server that received data is dispatched to
+     * @param clientSocket   the accepted client socket
+     * @param writerExecutor the executor that runs this connection's writer task
+     */
+    public ServerSideClientIO(ClackServer server, Socket clientSocket, Executor writerExecutor){
         this.server = server;
         this.clientSocket = clientSocket;
+        this.writerExecutor = writerExecutor;
+        this.outbound = new OutboundQueue<OutboundFrame>(server.getOutboundLimit());
         this.closeConnection = false;
+        this.lastActivity = System.nanoTime();
+        this.codec = FrameCodec.CODEC_OBJECT_STREAM;
+        this.acceptsUserIds = false;
+        this.userId = ClackData.NO_USER_ID;
         this.dataToReceieveFromClient = null;
-        this.dataToSendToClient = null;
         this.inFromClient = null;
+        this.frameInFromClient = null;
         this.outToClient = null;
+        this.lastFlush = System.nanoTime() - server.getFlushNanos();
     }
 
     @Override
     public void run(){
+        server.watch(this);
         try{
-            outToClient = new ObjectOutputStream(clientSocket.getOutputStream());
-            inFromClient = new ObjectInputStream(clientSocket.getInputStream());
+            outToClient = new BufferedOutputStream(server.getMetrics().meter(clientSocket.getOutputStream()),
+                    server.getWriteBufferSize());
+            outToClient.write(FrameCodec.STREAM_HEADER);
+            outToClient.flush();
+            BufferedInputStream in = new BufferedInputStream(server.getMetrics().meter(clientSocket.getInputStream()));
+            framed = acceptHello(in);
+            if (!framed) {
+                objectStream = true;
+                inFromClient = new ObjectInputStream(in);
+                server.add(this);
+            }
+            writerExecutor.execute(this::writeQueuedData);
             while(!closeConnection){
                 this.receiveData();
-                this.server.LUClackData.addUser(dataToReceieveFromClient.getUserName());
-                if (dataToReceieveFromClient instanceof ListUsersClackData) {
-                    setDataToSendToClient(new MessageClackData("Server", this.server.LUClackData.getData(), ClackData.CONSTANT_LISTUSERS));
-                    System.out.println(this.server.LUClackData.getData());
-                } else {
-                    this.server.broadcast(dataToReceieveFromClient);
+                if (dataToReceieveFromClient != null) {
+                    this.server.dispatch(this, dataToReceieveFromClient);
                 }
-                this.server.broadcast(dataToSendToClient);
-                this.sendData();
             }
         }catch(IOException ioe){
             System.err.println("Error reading input or output stream");
             closeConnection=true;
+        } finally {
+            server.remove(this);
+            outbound.close();
+        }
+    }
+
+    /**
+     * The writer task: sends queued data in order until the queue is closed and drained or the
+     * socket fails, then closes the socket, which also ends the reader.
+     */
+    private void writeQueuedData() {
+        try {
+            OutboundFrame next;
+            while (!writeFailed && (next = outbound.take()) != null) {
+                this.sendData(next);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            outbound.closeAndDrain(OutboundFrame::release);
+            try {
+                clientSocket.close();
+            } catch (IOException ioe) {
+                System.err.println("Error in closing client socket");
+            }
+        }
+    }
+
+    /**
+     * Checks whether the client opened with a hello instead of an object stream header and,
+     * if so, adds this connection to the server, answers the hello and switches to frames.
+     * The connection is added before the answer goes out, so the client gets every broadcast
+     * sent after it has its answer. A resume request after the hello starts the history
+     * replay.
+     *
+     * @param in the buffered client input, left positioned at the first unread byte
+     * @return true if the client is a framed client
+     * @throws IOException if reading the first bytes fails
+     */
+    private boolean acceptHello(BufferedInputStream in) throws IOException {
+        in.mark(FrameCodec.HELLO_LENGTH);
+        DataInputStream helloIn = new DataInputStream(in);
+        if (helloIn.readInt() != FrameCodec.MAGIC) {
+            in.reset();
+            return false;
+        }
+        byte offered = helloIn.readByte();
+        codec = FrameCodec.negotiate(offered);
+        acceptsUserIds = FrameCodec.isIdentify(offered);
+        frameInFromClient = helloIn;
+        if (FrameCodec.isResume(offered)) {
+            server.resume(this, helloIn.readLong() + 1);
+        } else {
+            server.add(this);
         }
+        FrameCodec.writeHello(new DataOutputStream(outToClient), codec);
+        return true;
     }
 
+    /**
+     * Receives the next data from the client. For framed clients the frame is read in full
+     * before it is decoded, so the decode time recorded excludes waiting on the socket; an
+     * object stream decodes as it reads, so its decode time is not recorded.
+     */
     public void receiveData(){
         try {
-            dataToReceieveFromClient = (ClackData) inFromClient.readObject();
-            if (dataToReceieveFromClient.getType() == ClackData.CONSTANT_LOGOUT) {
-                this.server.broadcast(dataToSendToClient);
-                closeConnection = true;
-                this.sendData();
-                server.remove(this);
-                System.out.println(dataToReceieveFromClient.getUserName() + " logging out");
+            if (framed) {
+                int length = frameInFromClient.readInt();
+                FrameCodec.checkLength(length);
+                ByteBuffer payload = server.getBufferPool().acquire(length);
+                try {
+                    frameInFromClient.readFully(payload.array(), payload.arrayOffset(), length);
+                    long start = System.nanoTime();
+                    dataToReceieveFromClient = FrameCodec.decode(payload, codec);
+                    server.getMetrics().recordDecode(System.nanoTime() - start);
+                } finally {
+                    server.getBufferPool().release(payload);
+                }
             } else {
-                System.out.println(dataToReceieveFromClient);
+                dataToReceieveFromClient = (ClackData) inFromClient.readObject();
             }
+            lastActivity = System.nanoTime();
+            server.getMetrics().recordFrameIn();
         } catch (IOException ioe) {
             System.err.println("Error in reading or closing the stream");
+            dataToReceieveFromClient = null;
+            closeConnection = true;
         } catch (ClassNotFoundException cnfe) {
+            dataToReceieveFromClient = null;
             System.err.println("Error in finding object from stream");
         }
     }
 
-    public void sendData(){
+    /**
+     * Writes a frame followed by every frame already queued behind it, then flushes once. If
+     * the previous flush was less than the flush delay before the first frame, frames are
+     * arriving faster than they would be flushed one by one, so the writer waits for more
+     * until the delay has passed since the first frame; otherwise it flushes as soon as the
+     * queue is empty and a lone message goes out at once. The buffered stream flushes by
+     * itself whenever its buffer fills.
+     *
+     * @param first the frame taken off the queue
+     * @throws InterruptedException if the writer is interrupted while waiting for more frames
+     */
+    private void sendData(OutboundFrame first) throws InterruptedException {
         try {
-            outToClient.writeObject(dataToSendToClient);
+            long flushNanos = server.getFlushNanos();
+            long firstWritten = System.nanoTime();
+            boolean burst = firstWritten - lastFlush < flushNanos;
+            OutboundFrame next = first;
+            do {
+                try {
+                    next.writeTo(outToClient, codec, server.getBufferPool(), server.getMetrics());
+                    server.getMetrics().recordFrameOut(next.getData());
+                } finally {
+                    next.release();
+                }
+                next = outbound.poll();
+                if (next == null && burst) {
+                    next = outbound.poll(firstWritten + flushNanos - System.nanoTime());
+                }
+            } while (next != null);
+            outToClient.flush();
+            lastFlush = System.nanoTime();
         } catch (IOException ioe) {
             System.err.println("Error in writing to stream or closing stream");
             closeConnection = true;
+            writeFailed = true;
+        }
+    }
+
+    @Override
+    public void deliver(OutboundFrame frame) {
+        if (!server.enqueue(this, outbound, frame)) {
+            return;
         }
+        server.getMetrics().recordQueueDepth(outbound.size());
+    }
+
+    @Override
+    public void close() {
+        closeConnection = true;
+        outbound.close();
     }
 
-    public void setDataToSendToClient(data.ClackData dataToSendToClient){
-        this.dataToSendToClient = dataToSendToClient;
+    /**
+     * Closes the socket, which fails the reader and, if it is stuck writing to the client,
+     * the writer task, and each then cleans up as it would after any socket error.
+     */
+    @Override
+    public void abort() {
+        closeConnection = true;
+        outbound.close();
+        try {
+            clientSocket.close();
+        } catch (IOException ioe) {
+            System.err.println("Error in closing client socket");
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !clientSocket.isClosed();
+    }
+
+    @Override
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    @Override
+    public int getUserId() {
+        return userId;
+    }
+
+    @Override
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    @Override
+    public boolean acceptsUserIds() {
+        return acceptsUserIds;
+    }
+
+    @Override
+    public boolean isObjectStream() {
+        return objectStream;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return outbound.size();
     }
 }
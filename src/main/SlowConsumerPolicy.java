@@ -0,0 +1,29 @@
+package main;
+
+/**
+ * What a ClackServer does when a frame is delivered to a client whose outbound queue is full,
+ * chosen at startup. Every policy keeps the sender from waiting on the slow client.
+ */
+public enum SlowConsumerPolicy {
+    /**
+     * Drops the frame being delivered, keeping what is already queued.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Drops the oldest queued frame to make room, so the client stays as current as it can.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drops everything queued and puts a single notice of how many frames were skipped in its
+     * place, so the client jumps to the present instead of working through the backlog. A
+     * client with the message history can fetch what it skipped by reconnecting.
+     */
+    COALESCE,
+
+    /**
+     * Disconnects the client, dropping everything queued for it.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,107 @@
+package main;
+
+import data.FileChunkClackData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A SpooledChunkFrame is a file chunk whose bytes live in a FileRelay spool file instead of the
+ * heap. A binary codec client receives the shared frame header from headerBytes() followed by
+ * the chunk's region of the spool file, sent with transferTo(). Clients on another codec, and
+ * writers that only have a stream, fall back to encode(), which reads the chunk into a buffer.
+ */
+class SpooledChunkFrame extends OutboundFrame {
+    private final FileRelay.Transfer transfer;
+    private final FileChunkClackData header; // The chunk's metadata, without its bytes
+    private final ByteBuffer headerBytes; // Length header and encoding up to the chunk bytes
+    private final long position; // Where the chunk starts in the spool file
+    private final int length; // The number of chunk bytes
+
+    /**
+     * The constructor that takes a reference to the spool file.
+     *
+     * @param transfer    the transfer whose spool file holds the chunk
+     * @param header      the chunk's metadata
+     * @param headerBytes the frame bytes that come before the chunk bytes
+     * @param position    where the chunk starts in the spool file
+     * @param length      the number of chunk bytes
+     */
+    SpooledChunkFrame(FileRelay.Transfer transfer, FileChunkClackData header, ByteBuffer headerBytes,
+                      long position, int length) {
+        super(header);
+        this.transfer = transfer;
+        this.header = header;
+        this.headerBytes = headerBytes;
+        this.position = position;
+        this.length = length;
+        transfer.retain();
+    }
+
+    /**
+     * Returns the chunk's metadata; its getChunk() is null.
+     *
+     * @return this.header
+     */
+    FileChunkClackData getHeader() {
+        return this.header;
+    }
+
+    /**
+     * Returns the frame bytes up to the chunk bytes, for a binary codec client. The buffer is
+     * shared like the one from bytesFor(), so callers must not move its position.
+     *
+     * @return a read-only buffer positioned at the start of the frame
+     */
+    ByteBuffer headerBytes() {
+        return headerBytes;
+    }
+
+    /**
+     * Returns the number of chunk bytes that follow headerBytes().
+     *
+     * @return this.length
+     */
+    int length() {
+        return this.length;
+    }
+
+    /**
+     * Sends chunk bytes from the spool file straight to a channel.
+     *
+     * @param sent   the number of chunk bytes already sent
+     * @param target the channel to send to
+     * @return the number of bytes sent by this call, possibly 0 if the channel is full
+     * @throws IOException if reading the spool file or writing the channel fails
+     */
+    long transferTo(long sent, WritableByteChannel target) throws IOException {
+        return transfer.channel().transferTo(position + sent, length - sent, target);
+    }
+
+    @Override
+    ByteBuffer encode(byte codec, BufferPool pool) throws IOException {
+        int frameLength = headerBytes.remaining() + length;
+        ByteBuffer frame = codec == FrameCodec.CODEC_BINARY && pool != null
+                ? pool.acquire(frameLength)
+                : ByteBuffer.allocate(frameLength);
+        frame.put(headerBytes.duplicate());
+        while (frame.hasRemaining()) {
+            if (transfer.channel().read(frame, position + frame.position() - headerBytes.remaining()) < 0) {
+                throw new IOException("Spool file is shorter than the chunk");
+            }
+        }
+        frame.flip();
+        if (codec == FrameCodec.CODEC_BINARY) {
+            return frame;
+        }
+        frame.position(FrameCodec.HEADER_LENGTH);
+        return encode(FrameCodec.decode(frame, FrameCodec.CODEC_BINARY), codec, pool);
+    }
+
+    @Override
+    void deallocate() {
+        super.deallocate();
+        transfer.release();
+    }
+}
@@ -0,0 +1,17 @@
+package main;
+
+/**
+ * The kind of thread a blocking connection runs on, chosen at startup.
+ */
+public enum ThreadMode {
+    /**
+     * An operating system thread with its own fixed-size stack.
+     */
+    PLATFORM,
+
+    /**
+     * A JVM-scheduled virtual thread whose stack lives on the heap and grows as needed.
+     * Falls back to PLATFORM on JVMs without virtual threads.
+     */
+    VIRTUAL
+}
@@ -0,0 +1,104 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timer wheel: a ring of slots, one per tick, each holding the timers due in that
+ * tick of the current or a later turn of the wheel. Scheduling is a queue append and each
+ * tick only looks at its own slot, so the cost per tick does not grow with the number of
+ * timers that are not yet due, unlike a priority queue of deadlines.
+ *
+ * schedule() may be called from any thread; new timers wait in a lock-free queue until the
+ * next advance(), which must always be called from the same thread. Timers cannot be
+ * cancelled; whoever handles an expired timer checks whether it still matters.
+ *
+ * @param <E> the type of the elements timed
+ */
+class TimerWheel<E> {
+    private final List<ArrayDeque<Timer<E>>> slots; // The timers of each tick, by tick modulo the slot count
+    private final ConcurrentLinkedQueue<Timer<E>> scheduled; // Timers not yet put in their slot
+    private final long tickNanos; // The length of a tick
+    private final long originNanos; // The System.nanoTime() tick 0 starts at
+    private long nextTick; // The first tick advance() has not expired yet
+
+    /**
+     * The constructor that sets the resolution of the wheel.
+     *
+     * @param slotCount the number of slots; deadlines further out than this many ticks take
+     *                  more than one turn of the wheel
+     * @param tickNanos the length of a tick; timers expire up to one tick late
+     */
+    TimerWheel(int slotCount, long tickNanos) {
+        if (slotCount < 1 || tickNanos < 1) {
+            throw new IllegalArgumentException("a timer wheel needs at least one slot and a positive tick");
+        }
+        this.slots = new ArrayList<ArrayDeque<Timer<E>>>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayDeque<Timer<E>>());
+        }
+        this.scheduled = new ConcurrentLinkedQueue<Timer<E>>();
+        this.tickNanos = tickNanos;
+        this.originNanos = System.nanoTime();
+        this.nextTick = 0;
+    }
+
+    /**
+     * Sets a timer for an element. A deadline already past expires at the next advance().
+     *
+     * @param element       the element handed back when the timer expires
+     * @param deadlineNanos the System.nanoTime() to expire at
+     */
+    void schedule(E element, long deadlineNanos) {
+        long ticks = deadlineNanos - originNanos;
+        scheduled.add(new Timer<E>(element, ticks <= 0 ? 0 : (ticks + tickNanos - 1) / tickNanos));
+    }
+
+    /**
+     * Expires every timer due up to now, handing its element to the consumer. The consumer may
+     * schedule again; timers it sets are put in their slots on the next call.
+     *
+     * @param nowNanos the current System.nanoTime()
+     * @param expired  what to do with the element of each expired timer
+     */
+    void advance(long nowNanos, Consumer<? super E> expired) {
+        Timer<E> timer;
+        while ((timer = scheduled.poll()) != null) {
+            slots.get((int) (Math.max(timer.tick, nextTick) % slots.size())).add(timer);
+        }
+        long nowTick = (nowNanos - originNanos) / tickNanos;
+        for (; nextTick <= nowTick; nextTick++) {
+            ArrayDeque<Timer<E>> slot = slots.get((int) (nextTick % slots.size()));
+            for (int i = slot.size(); i > 0; i--) {
+                timer = slot.poll();
+                if (timer.tick <= nextTick) {
+                    expired.accept(timer.element);
+                } else {
+                    slot.add(timer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the length of a tick.
+     *
+     * @return this.tickNanos
+     */
+    long getTickNanos() {
+        return this.tickNanos;
+    }
+
+    private static final class Timer<E> {
+        private final E element;
+        private final long tick; // The tick the timer expires in
+
+        private Timer(E element, long tick) {
+            this.element = element;
+            this.tick = tick;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package main;
+
+import data.ClackData;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ids a server has given user names. Every name gets the next id the first time a
+ * connection sends data under it and keeps it for the life of the server, so a client that
+ * was told its id can send the id in place of its name, and the server turns it back into
+ * the one shared String for that name with an array read instead of decoding and hashing a
+ * new String per message.
+ *
+ * Looking up an id takes no lock. Giving out a new id is done under the table's lock, which
+ * only happens once per name. Ids are never reused, so the table grows with the number of
+ * distinct names the server has seen.
+ */
+public class UserTable {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ConcurrentHashMap<String, Integer> ids; // The id of every name
+    private volatile String[] names; // The name of every id, by id; slot 0 is NO_USER_ID
+    private int nextId; // The id the next new name gets, under the lock
+
+    /**
+     * The default constructor, with no names.
+     */
+    public UserTable() {
+        this.ids = new ConcurrentHashMap<String, Integer>();
+        this.names = new String[INITIAL_CAPACITY];
+        this.nextId = ClackData.NO_USER_ID + 1;
+    }
+
+    /**
+     * Returns the id of a user name, giving it the next id if it has none yet.
+     *
+     * @param userName the user name, not null
+     * @return the name's id, never NO_USER_ID
+     */
+    public int intern(String userName) {
+        Integer id = ids.get(userName);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(userName);
+            if (id != null) {
+                return id;
+            }
+            String[] current = names;
+            if (nextId == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[nextId] = userName;
+            names = current;
+            ids.put(userName, nextId);
+            return nextId++;
+        }
+    }
+
+    /**
+     * Returns the name an id was given to. Every call for the same id returns the same String.
+     *
+     * @param userId the id
+     * @return the user name, or null if no name has the id
+     */
+    public String nameOf(int userId) {
+        String[] current = names;
+        return userId > ClackData.NO_USER_ID && userId < current.length ? current[userId] : null;
+    }
+
+    /**
+     * Returns the id of a user name without giving it one.
+     *
+     * @param userName the user name
+     * @return the name's id, or NO_USER_ID if it has none
+     */
+    public int idOf(String userName) {
+        Integer id = ids.get(userName);
+        return id == null ? ClackData.NO_USER_ID : id;
+    }
+
+    /**
+     * Returns the number of names given an id.
+     *
+     * @return the name count
+     */
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,84 @@
+package test;
+
+import main.AsyncLog;
+import main.LogLevel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Logs from several threads to a temporary file and checks levels, ordering per thread,
+ * dropping when the ring is full and that details are formatted on the writer thread.
+ */
+public class TestAsyncLog {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path file = Files.createTempFile("clack-log", ".log");
+        file.toFile().deleteOnExit();
+        AsyncLog log = new AsyncLog(file, LogLevel.INFO);
+        System.out.println("debug enabled at info: " + log.isEnabled(LogLevel.DEBUG)); // false
+        System.out.println("warn enabled at info: " + log.isEnabled(LogLevel.WARN)); // true
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    log.info("thread" + id + " record " + i);
+                    log.debug("never written", i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Object detail = new Object() {
+            @Override
+            public String toString() {
+                return "formatted on " + Thread.currentThread().getName();
+            }
+        };
+        log.log(LogLevel.WARN, "detail", detail);
+        log.close();
+
+        List<String> lines = Files.readAllLines(file);
+        System.out.println("lines == 4001 less drops: " + (lines.size() == 4001 - (int) log.getDropped()));
+        System.out.println("no debug records: " + lines.stream().noneMatch(line -> line.contains("never written")));
+        boolean ordered = true;
+        for (int t = 0; t < threads.length; t++) {
+            int last = -1;
+            for (String line : lines) {
+                int at = line.indexOf("thread" + t + " record ");
+                if (at >= 0) {
+                    int record = Integer.parseInt(line.substring(at + ("thread" + t + " record ").length()));
+                    ordered &= record > last;
+                    last = record;
+                }
+            }
+        }
+        System.out.println("each thread's records in order: " + ordered);
+        System.out.println("detail formatted by the writer: "
+                + lines.get(lines.size() - 1).endsWith("detail formatted on clack-log-writer"));
+        System.out.println("sample line: " + lines.get(0));
+
+        Path tinyFile = Files.createTempFile("clack-log", ".log");
+        tinyFile.toFile().deleteOnExit();
+        AsyncLog tiny = new AsyncLog(tinyFile, LogLevel.DEBUG, 4);
+        for (int i = 0; i < 10_000; i++) {
+            tiny.info("record " + i);
+        }
+        tiny.close();
+        List<String> tinyLines = Files.readAllLines(tinyFile);
+        long written = tinyLines.stream().filter(line -> line.contains(" record ")).count();
+        System.out.println("full ring drops instead of blocking: " + (tiny.getDropped() > 0
+                && written + tiny.getDropped() == 10_000));
+        System.out.println("drops reported: " + tinyLines.stream().anyMatch(line -> line.contains("log records dropped")));
+
+        AsyncLog off = new AsyncLog(null, LogLevel.OFF);
+        off.log(LogLevel.WARN, "not written");
+        System.out.println("off keeps nothing: " + !off.isEnabled(LogLevel.WARN));
+        off.close();
+    }
+}
@@ -0,0 +1,125 @@
+package test;
+
+import data.ClackData;
+import data.MessageClackData;
+import main.BufferPool;
+import main.ClackServer;
+import main.FrameCodec;
+import main.ServerMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Checks that a BufferPool hands out buffers of the right size, reuses released ones, and
+ * with leak detection on reports buffers never released and refuses ones released twice.
+ * Checks that only a thread that asked for a cache keeps buffers to itself. Then runs a
+ * server with leak detection in each mode, with one binary and one serialized client
+ * echoing messages in lockstep. Checks that the pool warms up with a few buffers, even with
+ * a thread per client, then stops allocating, and that every buffer is back in the pool
+ * once the clients are gone.
+ */
+public class TestBufferPool {
+    private static final int WARM_UP = 2000;
+    private static final int MESSAGES = 5000;
+    private static final int WARM_ALLOCATIONS = 16; // A buffer or two per size class in use, not one per thread
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7500;
+        testPool();
+        run(ServerMode.NIO, port);
+        run(ServerMode.BLOCKING, port + 1);
+    }
+
+    private static void testPool() {
+        BufferPool pool = new BufferPool(true);
+        pool.setLeakDetection(true);
+        ByteBuffer small = pool.acquire(100);
+        System.out.println("sized: " + (small.isDirect() && small.position() == 0 && small.limit() == 100
+                && small.capacity() == 256));
+        pool.release(small);
+        System.out.println("reused: " + (pool.acquire(200) == small) + " " + (pool.getAllocations() == 1));
+        ByteBuffer huge = pool.acquire(3 * 1024 * 1024);
+        System.out.println("oversized: " + (huge.capacity() == 3 * 1024 * 1024));
+        pool.release(huge);
+        System.out.println("leak reported: " + (pool.getOutstanding() == 1) + " " + (pool.getLeaks().size() == 1));
+        pool.release(small);
+        try {
+            pool.release(small);
+            System.out.println("double release refused: false");
+        } catch (IllegalStateException ise) {
+            System.out.println("double release refused: true");
+        }
+        System.out.println("all released: " + (pool.getOutstanding() == 0) + " " + pool.getLeaks().isEmpty());
+
+        BufferPool cached = new BufferPool(false);
+        ByteBuffer first = cached.acquire(100);
+        ByteBuffer second = cached.acquire(100);
+        cached.release(first);
+        cached.release(second);
+        System.out.println("uncached thread shares the ring: " + (cached.acquire(100) == first));
+        cached.cacheOnThisThread();
+        ByteBuffer third = cached.acquire(100);
+        cached.release(third);
+        System.out.println("cached thread reuses its last: " + (cached.acquire(100) == third));
+    }
+
+    private static void run(ServerMode mode, int port) throws IOException, InterruptedException {
+        ClackServer server = new ClackServer(port);
+        server.setMode(mode);
+        server.getBufferPool().setLeakDetection(true);
+        server.startInBackground();
+
+        BufferPool pool = server.getBufferPool();
+        long warmAllocations;
+        try (Socket binary = new Socket("localhost", port);
+             Socket serialized = new Socket("localhost", port)) {
+            DataInputStream binaryIn = FrameCodec.connect(binary, FrameCodec.CODEC_BINARY);
+            DataInputStream serializedIn = FrameCodec.connect(serialized, FrameCodec.CODEC_SERIALIZED);
+            DataOutputStream binaryOut = new DataOutputStream(binary.getOutputStream());
+            DataOutputStream serializedOut = new DataOutputStream(serialized.getOutputStream());
+            echo(binaryOut, serializedOut, binaryIn, serializedIn, WARM_UP);
+            warmAllocations = pool.getAllocations();
+            boolean echoed = echo(binaryOut, serializedOut, binaryIn, serializedIn, MESSAGES);
+
+            String label = mode + ": ";
+            System.out.println(label + "pool is " + (pool.isDirect() ? "direct" : "heap") + ": "
+                    + (pool.isDirect() == (mode == ServerMode.NIO)));
+            System.out.println(label + "every message echoed: " + echoed);
+            System.out.println(label + "no allocations once warm: " + (pool.getAllocations() == warmAllocations)
+                    + " (" + warmAllocations + " to warm up)");
+            System.out.println(label + "few allocations to warm up: " + (warmAllocations <= WARM_ALLOCATIONS));
+        }
+        Thread.sleep(500);
+        String label = mode + ": ";
+        System.out.println(label + "nothing outstanding after disconnect: " + (pool.getOutstanding() == 0)
+                + " " + (server.getMetrics().getPooledBuffersOutstanding() == 0));
+        System.out.println(label + "no leaks: " + pool.getLeaks().isEmpty()
+                + " (" + pool.getLeaks().size() + " leaked)");
+    }
+
+    /**
+     * Has the two clients take turns sending a message, each waiting until both have
+     * received it before the next is sent, so the server never holds more than a few frames.
+     */
+    private static boolean echo(DataOutputStream binaryOut, DataOutputStream serializedOut,
+                                DataInputStream binaryIn, DataInputStream serializedIn, int count) throws IOException {
+        boolean echoed = true;
+        for (int i = 0; i < count; i++) {
+            String text = "message " + i;
+            if (i % 2 == 0) {
+                FrameCodec.write(binaryOut, new MessageClackData("binary", text, ClackData.CONSTANT_SENDMESSAGE),
+                        FrameCodec.CODEC_BINARY);
+            } else {
+                FrameCodec.write(serializedOut, new MessageClackData("serialized", text,
+                        ClackData.CONSTANT_SENDMESSAGE), FrameCodec.CODEC_SERIALIZED);
+            }
+            echoed &= text.equals(FrameCodec.read(binaryIn, FrameCodec.CODEC_BINARY).getData());
+            echoed &= text.equals(FrameCodec.read(serializedIn, FrameCodec.CODEC_SERIALIZED).getData());
+        }
+        return echoed;
+    }
+}
@@ -0,0 +1,92 @@
+package test;
+
+import data.AesGcmCipherProvider;
+import data.CipherProvider;
+import data.ClackData;
+import data.FileClackData;
+import data.MessageClackData;
+import data.VigenereCipherProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+/**
+ * Exercises both cipher providers directly and through MessageClackData and FileClackData.
+ */
+public class TestCipherProvider {
+    public static void main(String[] args) throws GeneralSecurityException, IOException {
+        CipherProvider vigenere = new VigenereCipherProvider("RAMP");
+        CipherProvider aes = AesGcmCipherProvider.fromPassphrase("RAMP".toCharArray());
+        CipherProvider otherAes = AesGcmCipherProvider.fromPassphrase("PMAR".toCharArray());
+        String text = "testing this message, h\u00e9llo \ud83d\ude00";
+
+        // The Vigenere provider is the old key-based cipher
+        MessageClackData keyed = new MessageClackData("testUser1", text, "RAMP", ClackData.CONSTANT_SENDMESSAGE);
+        MessageClackData provided = new MessageClackData("testUser1", text, vigenere, ClackData.CONSTANT_SENDMESSAGE);
+        System.out.println("vigenere provider matches key: " + keyed.getData().equals(provided.getData()));
+        System.out.println("vigenere getData(provider): " + provided.getData(vigenere));
+
+        // AES-GCM
+        MessageClackData encrypted = new MessageClackData("testUser1", text, aes, ClackData.CONSTANT_SENDMESSAGE);
+        System.out.println("aes ciphertext differs: " + !encrypted.getData().contains("testing"));
+        System.out.println("aes getData(provider) round trip: " + encrypted.getData(aes).equals(text));
+        System.out.println("aes same passphrase, new provider: "
+                + encrypted.getData(AesGcmCipherProvider.fromPassphrase("RAMP".toCharArray())).equals(text));
+        System.out.println("aes nonces differ: " + !aes.encrypt(text).equals(aes.encrypt(text)));
+        try {
+            encrypted.getData(otherAes);
+            System.out.println("aes wrong key decrypted");
+        } catch (GeneralSecurityException gse) {
+            System.out.println("aes wrong key rejected: " + gse.getClass().getSimpleName());
+        }
+        byte[] tampered = Base64.getDecoder().decode(encrypted.getData());
+        tampered[15] ^= 1;
+        try {
+            aes.decrypt(Base64.getEncoder().encodeToString(tampered));
+            System.out.println("aes tampered ciphertext decrypted");
+        } catch (GeneralSecurityException gse) {
+            System.out.println("aes tampered ciphertext rejected: " + gse.getClass().getSimpleName());
+        }
+        System.out.println("aes null encrypts and decrypts to empty: " + aes.decrypt(aes.encrypt(null)).isEmpty());
+
+        // ByteBuffers, heap and direct
+        for (CipherProvider cipher : new CipherProvider[]{vigenere, aes}) {
+            byte[] plain = text.getBytes(StandardCharsets.UTF_8);
+            for (boolean direct : new boolean[]{false, true}) {
+                ByteBuffer in = allocate(plain.length, direct).put(plain).flip();
+                ByteBuffer sealed = allocate(plain.length + cipher.getOverhead(), direct);
+                cipher.encrypt(in, sealed);
+                sealed.flip();
+                ByteBuffer opened = allocate(plain.length, direct);
+                cipher.decrypt(sealed, opened);
+                opened.flip();
+                byte[] result = new byte[opened.remaining()];
+                opened.get(result);
+                System.out.println(cipher.getName() + (direct ? " direct" : " heap") + " buffer round trip: "
+                        + new String(result, StandardCharsets.UTF_8).equals(cipher == vigenere
+                        ? vigenere.decrypt(vigenere.encrypt(text)) : text));
+            }
+        }
+
+        // FileClackData
+        File file = File.createTempFile("clack-cipher", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "line one\nline two\n".getBytes(StandardCharsets.UTF_8));
+        FileClackData fileClackData = new FileClackData("testUser2", file.getPath(), ClackData.CONSTANT_SENDFILE);
+        fileClackData.readFileContents(aes);
+        System.out.println("file getData(provider): " + fileClackData.getData(aes).equals("line one\nline two\n"));
+        Files.write(file.toPath(), new byte[0]);
+        fileClackData.writeFileContents(aes);
+        System.out.println("file written back: "
+                + new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).equals("line one\nline two\n"));
+    }
+
+    private static ByteBuffer allocate(int capacity, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
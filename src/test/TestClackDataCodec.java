@@ -0,0 +1,167 @@
+package test;
+
+import data.ChannelClackData;
+import data.ClackData;
+import data.ClackDataCodec;
+import data.FileChunkClackData;
+import data.FileClackData;
+import data.HeartbeatClackData;
+import data.IdentityClackData;
+import data.ListUsersClackData;
+import data.MessageClackData;
+import data.PresenceClackData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * You don't have to have a Javadoc for a test class.
+ * Round-trips every ClackData subclass through ClackDataCodec and compares
+ * the encoded size with Java serialization.
+ */
+public class TestClackDataCodec {
+    public static void main(String[] args) throws IOException {
+        MessageClackData messageClackData1 = new MessageClackData();
+        MessageClackData messageClackData2 =
+                new MessageClackData("testUser1", "testMessage", ClackData.CONSTANT_SENDMESSAGE);
+        MessageClackData messageClackData3 =
+                new MessageClackData("t\u00ebst\u00dcser", "h\u00e9llo \ud83d\ude00 w\u00f6rld", ClackData.CONSTANT_SENDMESSAGE);
+        MessageClackData messageClackData4 = new MessageClackData("testUser2", null, ClackData.CONSTANT_LOGOUT);
+        FileClackData fileClackData1 = new FileClackData();
+        FileClackData fileClackData2 =
+                new FileClackData("testUser2", "filename0", ClackData.CONSTANT_SENDFILE);
+        ListUsersClackData listUsersClackData1 = new ListUsersClackData();
+        ListUsersClackData listUsersClackData2 = new ListUsersClackData("testUser3", ClackData.CONSTANT_LISTUSERS);
+        listUsersClackData2.addUser("testUser1");
+        listUsersClackData2.addUser("testUser2");
+
+        FileChunkClackData fileChunkClackData1 = new FileChunkClackData("testUser4", "filename1", 42L, 0L,
+                new byte[]{0, 1, 2, (byte) 0xFF, (byte) 0x80}, false, 0L);
+        FileChunkClackData fileChunkClackData2 = new FileChunkClackData("testUser4", "filename1", 42L, 5L,
+                new byte[0], true, 0xFFFFFFFFL);
+        PresenceClackData presenceClackData1 = new PresenceClackData("testUser5");
+        PresenceClackData presenceClackData2 = new PresenceClackData("Server", PresenceClackData.EVENT_SNAPSHOT,
+                1L << 40, Arrays.asList("testUser1", "testUser2"));
+        PresenceClackData presenceClackData3 =
+                new PresenceClackData("Server", PresenceClackData.EVENT_LEAVE, 7L, "testUser1");
+        ChannelClackData channelClackData1 = new ChannelClackData("testUser6", ChannelClackData.EVENT_JOIN, "dev");
+        ChannelClackData channelClackData2 = new ChannelClackData("testUser6", ChannelClackData.EVENT_LEAVE, "dev");
+        MessageClackData messageClackData5 =
+                new MessageClackData("testUser6", "to the channel", ClackData.CONSTANT_SENDMESSAGE);
+        messageClackData5.setChannel("dev");
+        messageClackData5.setSequence(300);
+        MessageClackData messageClackData6 =
+                new MessageClackData("testUser6", "to one user", ClackData.CONSTANT_SENDMESSAGE);
+        messageClackData6.setRecipient("testUser1");
+        HeartbeatClackData heartbeatClackData1 = new HeartbeatClackData("Server");
+        IdentityClackData identityClackData1 = new IdentityClackData("testUser1", 300);
+
+        ClackData[] allData = {messageClackData1, messageClackData2, messageClackData3, messageClackData4,
+                fileClackData1, fileClackData2, listUsersClackData1, listUsersClackData2,
+                fileChunkClackData1, fileChunkClackData2, presenceClackData1, presenceClackData2, presenceClackData3,
+                channelClackData1, channelClackData2, messageClackData5, messageClackData6, heartbeatClackData1,
+                identityClackData1};
+
+        for (ClackData data : allData) {
+            ByteBuffer buffer = ByteBuffer.allocate(ClackDataCodec.encodedLength(data));
+            ClackDataCodec.encode(data, buffer);
+            System.out.println(data.getClass().getSimpleName() + " fills buffer: " + !buffer.hasRemaining());
+            buffer.flip();
+            ClackData decoded = ClackDataCodec.decode(buffer);
+            System.out.println("decoded equals original: " + decoded.equals(data)); // true except ListUsersClackData
+            System.out.println("decoded getData() equals: " + Objects.equals(decoded.getData(), data.getData()));
+            System.out.println("decoded getTimestamp() equals: " + (decoded.getTimestamp() == data.getTimestamp()));
+            System.out.println("decoded sequence and routing equal: " + (decoded.getSequence() == data.getSequence()
+                    && Objects.equals(decoded.getChannel(), data.getChannel())
+                    && Objects.equals(decoded.getRecipient(), data.getRecipient())));
+            System.out.println("binary bytes: " + buffer.limit() + ", serialized bytes: " + serializedLength(data));
+            System.out.println();
+        }
+
+        // Varints
+        int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE};
+        for (int value : values) {
+            ByteBuffer buffer = ByteBuffer.allocate(5);
+            ClackDataCodec.putVarint(buffer, value);
+            System.out.println("varint " + value + " length " + buffer.position()
+                    + " (expected " + ClackDataCodec.varintLength(value) + ")");
+            buffer.flip();
+            System.out.println("varint " + value + " decodes to " + ClackDataCodec.getVarint(buffer));
+        }
+        System.out.println();
+
+        // User id in place of the user name
+        MessageClackData messageClackData7 =
+                new MessageClackData("testUser1", "testMessage", ClackData.CONSTANT_SENDMESSAGE);
+        messageClackData7.setUserId(300);
+        ByteBuffer byId = ByteBuffer.allocate(ClackDataCodec.encodedLength(messageClackData7));
+        ClackDataCodec.encode(messageClackData7, byId);
+        byId.flip();
+        ClackData decodedById = ClackDataCodec.decode(byId);
+        System.out.println("by id decodes without a name: " + (decodedById.getUserId() == 300)
+                + " " + (decodedById.getUserName() == null)
+                + " " + (decodedById.getType() == ClackData.CONSTANT_SENDMESSAGE));
+        decodedById.resolveUser("testUser1");
+        System.out.println("by id resolves: " + decodedById.equals(messageClackData2)
+                + " " + (decodedById.getUserId() == ClackData.NO_USER_ID));
+        System.out.println("by id bytes: " + byId.limit()
+                + " (by name " + ClackDataCodec.encodedLength(messageClackData2) + ")");
+        System.out.println();
+
+        // File chunk header only, as the server's file relay reads it
+        ByteBuffer chunkBuffer = ByteBuffer.allocateDirect(ClackDataCodec.encodedLength(fileChunkClackData1));
+        ClackDataCodec.encode(fileChunkClackData1, chunkBuffer);
+        chunkBuffer.flip();
+        FileChunkClackData header = ClackDataCodec.decodeFileChunkHeader(chunkBuffer);
+        System.out.println("header file name: " + header.getFileName() + ", offset: " + header.getOffset()
+                + ", chunk: " + header.getChunk());
+        System.out.println("header leaves chunk bytes: " + chunkBuffer.remaining()
+                + " (expected " + fileChunkClackData1.getChunk().length + ")");
+        try {
+            ClackDataCodec.decodeFileChunkHeader(ByteBuffer.allocate(ClackDataCodec.encodedLength(messageClackData2))
+                    .put((byte) (ClackDataCodec.KIND_MESSAGE << 4)).rewind());
+            System.out.println("message decoded as chunk header");
+        } catch (IllegalArgumentException iae) {
+            System.out.println("message rejected as chunk header: " + iae.getMessage());
+        }
+        System.out.println();
+
+        // Truncated input
+        ByteBuffer truncated = ByteBuffer.allocate(ClackDataCodec.encodedLength(messageClackData2));
+        ClackDataCodec.encode(messageClackData2, truncated);
+        truncated.flip();
+        truncated.limit(truncated.limit() - 3);
+        try {
+            ClackDataCodec.decode(truncated);
+            System.out.println("truncated input decoded");
+        } catch (IllegalArgumentException iae) {
+            System.out.println("truncated input rejected: " + iae.getMessage());
+        }
+
+        // A corrupt five-byte chunk length that reads as negative
+        FileChunkClackData emptyChunk = new FileChunkClackData("testUser1", "filename0", 7, 0, new byte[0], true, 0);
+        int emptyLength = ClackDataCodec.encodedLength(emptyChunk);
+        ByteBuffer negative = ByteBuffer.allocate(emptyLength + 4);
+        ClackDataCodec.encode(emptyChunk, negative);
+        negative.position(emptyLength - 1);
+        negative.put(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}).flip();
+        try {
+            ClackDataCodec.decode(negative);
+            System.out.println("negative chunk length decoded");
+        } catch (IllegalArgumentException iae) {
+            System.out.println("negative chunk length rejected: " + iae.getMessage());
+        }
+    }
+
+    private static int serializedLength(ClackData data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(data);
+        }
+        return bytes.size();
+    }
+}
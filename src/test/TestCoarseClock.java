@@ -0,0 +1,71 @@
+package test;
+
+import data.ClackData;
+import data.CoarseClock;
+import data.MessageClackData;
+
+/**
+ * Checks that CoarseClock reads the system clock and starts no thread until it is started,
+ * and that once started it runs one ticker thread, never goes back, resolves time finer
+ * than a millisecond and keeps within a few ticks of System.currentTimeMillis(). Also checks
+ * that new data is stamped from it.
+ */
+public class TestCoarseClock {
+    private static final long SLACK_MICROS = 20_000; // A sleeping ticker on a busy machine
+    private static final long SAMPLE_NANOS = 50_000_000; // How long the started clock is read for
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("not ticking until started: " + !CoarseClock.isTicking() + " " + (tickers() == 0));
+        System.out.println("reads the system clock meanwhile: " + tracksSystemClock());
+
+        CoarseClock.start();
+        CoarseClock.start();
+        System.out.println("one ticker once started: " + CoarseClock.isTicking() + " " + (tickers() == 1));
+        System.out.println("tracks the system clock: " + tracksSystemClock());
+
+        long last = CoarseClock.currentTimeMicros();
+        boolean monotonic = true;
+        long finestStep = Long.MAX_VALUE;
+        long end = System.nanoTime() + SAMPLE_NANOS;
+        while (System.nanoTime() < end) {
+            long now = CoarseClock.currentTimeMicros();
+            monotonic &= now >= last;
+            if (now > last) {
+                finestStep = Math.min(finestStep, now - last);
+            }
+            last = now;
+        }
+        System.out.println("never goes back: " + monotonic);
+        System.out.println("finer than a millisecond: " + (finestStep < 1000) + " (" + finestStep + " us)");
+
+        MessageClackData data = new MessageClackData("alice", "stamped", ClackData.CONSTANT_SENDMESSAGE);
+        System.out.println("new data stamped: " + (Math.abs(data.getTimestamp() - CoarseClock.currentTimeMicros())
+                < SLACK_MICROS) + " " + (data.getReceivedNanos() == 0)
+                + " " + (data.getDate().getTime() == data.getTimestamp() / 1000));
+        Thread.sleep(20);
+        data.stampReceived();
+        System.out.println("received stamped: " + (data.getReceivedNanos() != 0)
+                + " " + (Math.abs(data.getTimestamp() - CoarseClock.currentTimeMicros()) < SLACK_MICROS));
+    }
+
+    /**
+     * Returns whether the clock is within SLACK_MICROS of System.currentTimeMillis(), read
+     * on either side of it.
+     */
+    private static boolean tracksSystemClock() {
+        long before = System.currentTimeMillis() * 1000;
+        long coarse = CoarseClock.currentTimeMicros();
+        long after = System.currentTimeMillis() * 1000;
+        return coarse >= before - SLACK_MICROS && coarse <= after + 1000;
+    }
+
+    private static int tickers() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("clack-clock")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,113 @@
+package test;
+
+import data.ClackData;
+import data.HeartbeatClackData;
+import data.MessageClackData;
+import main.ClackServer;
+import main.FrameCodec;
+import main.ServerMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Starts a server in each mode with a short heartbeat interval and idle timeout, and connects
+ * a client that answers heartbeats, one that logs in and then never sends anything again, and
+ * one that never even sends the hello. Checks that after a few timeouts the first is still
+ * connected and online, that the silent one was sent heartbeats before it was disconnected
+ * and taken out of presence, and that the one stuck in the handshake was closed too. In
+ * blocking mode an object stream client, which cannot answer heartbeats, also stays quiet
+ * throughout and is checked to be left connected and never sent one.
+ */
+public class TestHeartbeatMonitor {
+    private static final long HEARTBEAT_MILLIS = 100;
+    private static final long IDLE_TIMEOUT_MILLIS = 300;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7490;
+        run(ServerMode.NIO, port);
+        run(ServerMode.BLOCKING, port + 1);
+    }
+
+    private static void run(ServerMode mode, int port) throws IOException, InterruptedException {
+        ClackServer server = new ClackServer(port);
+        server.setMode(mode);
+        server.setHeartbeatInterval(HEARTBEAT_MILLIS);
+        server.setIdleTimeout(IDLE_TIMEOUT_MILLIS);
+        server.startInBackground();
+
+        boolean objectStream = mode == ServerMode.BLOCKING;
+        try (Socket alive = new Socket("localhost", port);
+             Socket silent = new Socket("localhost", port);
+             Socket handshaking = new Socket("localhost", port);
+             Socket legacy = objectStream ? new Socket("localhost", port) : null) {
+            if (objectStream) {
+                new ObjectOutputStream(legacy.getOutputStream()).flush();
+            }
+            DataInputStream aliveIn = FrameCodec.connect(alive, FrameCodec.CODEC_BINARY);
+            DataInputStream silentIn = FrameCodec.connect(silent, FrameCodec.CODEC_BINARY);
+            DataOutputStream aliveOut = new DataOutputStream(alive.getOutputStream());
+            FrameCodec.write(aliveOut, new MessageClackData("alive", "hi", ClackData.CONSTANT_SENDMESSAGE),
+                    FrameCodec.CODEC_BINARY);
+            FrameCodec.write(new DataOutputStream(silent.getOutputStream()),
+                    new MessageClackData("silent", "hi", ClackData.CONSTANT_SENDMESSAGE), FrameCodec.CODEC_BINARY);
+
+            int[] answered = new int[1];
+            Thread answering = new Thread(() -> {
+                try {
+                    while (true) {
+                        if (FrameCodec.read(aliveIn, FrameCodec.CODEC_BINARY) instanceof HeartbeatClackData) {
+                            FrameCodec.write(aliveOut, new HeartbeatClackData("alive"), FrameCodec.CODEC_BINARY);
+                            answered[0]++;
+                        }
+                    }
+                } catch (IOException closed) {
+                    // The test is over
+                }
+            });
+            answering.setDaemon(true);
+            answering.start();
+
+            int heartbeats = 0;
+            boolean disconnected = false;
+            try {
+                while (true) {
+                    if (FrameCodec.read(silentIn, FrameCodec.CODEC_BINARY) instanceof HeartbeatClackData) {
+                        heartbeats++;
+                    }
+                }
+            } catch (EOFException | SocketException closed) {
+                disconnected = true;
+            }
+            boolean handshakeClosed = false;
+            try {
+                handshaking.getInputStream().readAllBytes();
+                handshakeClosed = true;
+            } catch (SocketException closed) {
+                handshakeClosed = true;
+            }
+            Thread.sleep(3 * IDLE_TIMEOUT_MILLIS);
+
+            String label = mode + ": ";
+            System.out.println(label + "silent client sent heartbeats first: " + (heartbeats >= 2));
+            System.out.println(label + "silent client disconnected: " + disconnected);
+            System.out.println(label + "client stuck in the handshake closed: " + handshakeClosed);
+            System.out.println(label + "answering client still connected: "
+                    + (server.getMetrics().getConnections() == (objectStream ? 2 : 1))
+                    + ", answered: " + (answered[0] >= 5));
+            if (objectStream) {
+                System.out.println(label + "object stream client left alone: "
+                        + (legacy.getInputStream().available() == FrameCodec.STREAM_HEADER.length));
+            }
+            System.out.println(label + "presence updated: " + (server.getPresence().isOnline("alive")
+                    && !server.getPresence().isOnline("silent")));
+            System.out.println(label + "counted: " + (server.getMetrics().getIdleTimeouts() == 2)
+                    + " " + (server.getMetrics().getHeartbeatsSent() >= heartbeats + answered[0]));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package test;
+
+import data.ClackData;
+import data.MessageClackData;
+import main.ClackServer;
+import main.FrameCodec;
+import main.MessageLog;
+import main.ServerMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Starts a server in each mode with a message history, sends it more messages than one replay
+ * batch, then reconnects a client from the middle of the history while more messages keep
+ * arriving, and checks that the client gets every sequence after the one it resumed from
+ * exactly once and in order, the replayed ones first and then the live ones.
+ */
+public class TestHistoryReplay {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7460;
+        replay(ServerMode.NIO, port);
+        replay(ServerMode.BLOCKING, port + 1);
+    }
+
+    private static void replay(ServerMode mode, int port) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("clack-replay");
+        MessageLog history = new MessageLog(directory);
+        history.open();
+        try {
+            ClackServer server = new ClackServer(port);
+            server.setMode(mode);
+            server.setHistory(history);
+            server.startInBackground();
+
+            try (Socket sender = new Socket("localhost", port)) {
+                FrameCodec.connect(sender, FrameCodec.CODEC_BINARY);
+                DataOutputStream senderOut = new DataOutputStream(sender.getOutputStream());
+                for (int i = 0; i < 1000; i++) {
+                    send(senderOut, i);
+                }
+                while (history.getEndOffset() < 1000) {
+                    Thread.sleep(10);
+                }
+                System.out.println(mode + " history holds the first messages: " + history.getEndOffset());
+
+                try (Socket resumed = new Socket("localhost", port)) {
+                    DataInputStream resumedIn = FrameCodec.connect(resumed, FrameCodec.CODEC_BINARY, 499);
+                    for (int i = 1000; i < 1200; i++) {
+                        send(senderOut, i);
+                    }
+
+                    boolean inOrder = true;
+                    for (long expected = 500; expected < 1200; expected++) {
+                        ClackData data = FrameCodec.read(resumedIn, FrameCodec.CODEC_BINARY);
+                        inOrder &= data.getSequence() == expected && data.getData().equals("message " + expected);
+                    }
+                    System.out.println(mode + " resumed client got 500 to 1199 in order: " + inOrder);
+                }
+            }
+        } finally {
+            history.close();
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void send(DataOutputStream out, int i) throws IOException {
+        FrameCodec.write(out, new MessageClackData("sender", "message " + i, ClackData.CONSTANT_SENDMESSAGE),
+                FrameCodec.CODEC_BINARY);
+    }
+}
@@ -0,0 +1,74 @@
+package test;
+
+import main.LatencyHistogram;
+
+import java.util.Random;
+
+/**
+ * Checks LatencyHistogram percentiles against exact ones computed from the sorted values, and
+ * that concurrent recording loses nothing.
+ */
+public class TestLatencyHistogram {
+    public static void main(String[] args) throws InterruptedException {
+        LatencyHistogram empty = new LatencyHistogram();
+        System.out.println("empty: " + empty);
+
+        LatencyHistogram exact = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            exact.record(i);
+        }
+        System.out.println("1..100 p50 == 50: " + (exact.getValueAtPercentile(50) == 50));
+        System.out.println("1..100 p99 == 99: " + (exact.getValueAtPercentile(99) == 99));
+        System.out.println("1..100 p100 == 100: " + (exact.getValueAtPercentile(100) == 100));
+        System.out.println("1..100 mean == 50.5: " + (exact.getMean() == 50.5));
+
+        Random random = new Random(1);
+        long[] values = new long[100_000];
+        LatencyHistogram wide = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 40); // Up to about 2^57
+            wide.record(values[i]);
+        }
+        java.util.Arrays.sort(values);
+        boolean withinPrecision = true;
+        for (double percentile : new double[]{1, 10, 50, 90, 99, 99.9, 99.99, 100}) {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = wide.getValueAtPercentile(percentile);
+            if (actual < expected || actual > expected + expected / 64) {
+                withinPrecision = false;
+                System.out.println("p" + percentile + " expected " + expected + " got " + actual);
+            }
+        }
+        System.out.println("wide percentiles within 1/64: " + withinPrecision);
+        System.out.println("wide max exact: " + (wide.getMax() == values[values.length - 1]));
+
+        LatencyHistogram huge = new LatencyHistogram();
+        huge.record(Long.MAX_VALUE);
+        huge.record(-5);
+        System.out.println("extremes: " + (huge.getValueAtPercentile(100) == Long.MAX_VALUE
+                && huge.getValueAtPercentile(50) == 0));
+
+        LatencyHistogram shared = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 250_000; i++) {
+                    shared.record(i % 1000);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.println("concurrent count == 1000000: " + (shared.getCount() == 1_000_000));
+        System.out.println("concurrent max == 999: " + (shared.getMax() == 999));
+
+        LatencyHistogram sum = new LatencyHistogram();
+        sum.add(exact);
+        sum.add(shared);
+        System.out.println("add count == 1000100: " + (sum.getCount() == 1_000_100));
+        sum.reset();
+        System.out.println("reset: " + sum);
+    }
+}
@@ -0,0 +1,176 @@
+package test;
+
+import data.ClackData;
+import data.ClackDataCodec;
+import data.MessageClackData;
+import main.MessageLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Appends to a MessageLog with small segments from several threads, reads back from
+ * arbitrary offsets, and checks rolling, retention, durability, and recovery after a clean
+ * close and after a torn write. Also checks that segments carry their format header, that
+ * a segment from before the header is refused and that an undecodable record is skipped.
+ */
+public class TestMessageLog {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("clack-history");
+        try {
+            MessageLog log = new MessageLog(directory);
+            log.setSegmentBytes(16 * 1024);
+            log.setIndexIntervalBytes(512);
+            log.open();
+            System.out.println("empty log starts at 0: " + (log.getStartOffset() == 0 && log.getEndOffset() == 0));
+
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                int id = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 1000; i++) {
+                            log.append(new MessageClackData("user" + id, "message " + i, ClackData.CONSTANT_SENDMESSAGE));
+                        }
+                    } catch (IOException ioe) {
+                        System.out.println("append failed: " + ioe.getMessage());
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.println("end offset == 4000: " + (log.getEndOffset() == 4000));
+            System.out.println("rolled into several segments: " + (log.getSegmentCount() > 1));
+
+            List<ClackData> all = log.read(0, Integer.MAX_VALUE);
+            boolean ordered = all.size() == 4000;
+            int[] next = new int[threads.length];
+            for (ClackData data : all) {
+                int id = data.getUserName().charAt(4) - '0';
+                ordered &= data.getData().equals("message " + next[id]++);
+            }
+            System.out.println("every record read back, each thread in order: " + ordered);
+
+            List<ClackData> middle = log.read(2345, 3);
+            System.out.println("read from an offset: " + (middle.size() == 3
+                    && middle.get(0).getData().equals(all.get(2345).getData())
+                    && middle.get(2).getData().equals(all.get(2347).getData())));
+            System.out.println("read past the end is empty: " + log.read(4000, 10).isEmpty());
+
+            MessageClackData encodedData = new MessageClackData("encoded", "from a frame", ClackData.CONSTANT_SENDMESSAGE);
+            ByteBuffer encoded = ByteBuffer.allocate(ClackDataCodec.encodedLength(encodedData));
+            ClackDataCodec.encode(encodedData, encoded);
+            long offset = log.append(encoded.flip());
+            System.out.println("encoded append read back: " + log.read(offset, 1).get(0).equals(encodedData));
+
+            log.awaitDurable(offset);
+            System.out.println("durable after the sync thread runs: " + (log.getDurableOffset() > offset));
+            log.close();
+
+            MessageLog reopened = new MessageLog(directory);
+            reopened.setSegmentBytes(16 * 1024);
+            reopened.setIndexIntervalBytes(512);
+            reopened.open();
+            System.out.println("reopened at the same end: " + (reopened.getEndOffset() == 4001));
+            System.out.println("reopened reads the same: "
+                    + reopened.read(1234, 1).get(0).getData().equals(all.get(1234).getData()));
+            reopened.close();
+
+            Path lastSegment;
+            try (Stream<Path> files = Files.list(directory)) {
+                lastSegment = files.filter(file -> file.toString().endsWith(".log"))
+                        .max(Comparator.naturalOrder()).get();
+            }
+            ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(lastSegment), 0, 8);
+            System.out.println("segments start with the format header: " + (header.getInt() == 0x434C4F47)
+                    + " " + (header.getInt() == 2));
+            Files.write(lastSegment, new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 5, 6}, StandardOpenOption.APPEND);
+            MessageLog recovered = new MessageLog(directory);
+            recovered.setSegmentBytes(16 * 1024);
+            recovered.open();
+            System.out.println("torn record dropped: " + (recovered.getEndOffset() == 4001));
+            long after = recovered.append(new MessageClackData("after", "recovery", ClackData.CONSTANT_SENDMESSAGE));
+            System.out.println("appends continue after it: " + (after == 4001
+                    && recovered.read(after, 1).get(0).getData().equals("recovery")));
+            recovered.close();
+
+            MessageLog retained = new MessageLog(directory);
+            retained.setSegmentBytes(16 * 1024);
+            retained.setRetentionBytes(64 * 1024);
+            retained.open();
+            for (int i = 0; i < 2000; i++) {
+                retained.append(new MessageClackData("retained", "message " + i, ClackData.CONSTANT_SENDMESSAGE));
+            }
+            long start = retained.getStartOffset();
+            System.out.println("retention removed old segments: " + (start > 0 && retained.getSegmentCount() <= 5));
+            System.out.println("reading before the start begins at the start: "
+                    + retained.read(0, 1).get(0).getData().equals(retained.read(start, 1).get(0).getData()));
+            retained.close();
+            testHeaderless();
+            testUndecodable();
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Checks that a record that passes its checksum but cannot be decoded is skipped by a
+     * read instead of ending it.
+     */
+    private static void testUndecodable() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("clack-history-bad");
+        MessageLog log = new MessageLog(directory);
+        log.open();
+        try {
+            log.append(new MessageClackData("before", "first", ClackData.CONSTANT_SENDMESSAGE));
+            log.append(ByteBuffer.wrap(new byte[]{(byte) 0xF2, 1, 2}));
+            log.append(new MessageClackData("after", "third", ClackData.CONSTANT_SENDMESSAGE));
+            List<ClackData> read = log.read(0, 10);
+            System.out.println("undecodable record skipped: " + (read.size() == 2)
+                    + " " + (read.get(0).getSequence() == 0) + " " + (read.get(1).getSequence() == 2));
+        } finally {
+            log.close();
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Checks that a segment written before segments had a header, with its timestamps in
+     * milliseconds, is refused instead of misread.
+     */
+    private static void testHeaderless() throws IOException {
+        Path directory = Files.createTempDirectory("clack-history-v1");
+        Path segment = directory.resolve(String.format("%020d", 0) + ".log");
+        MessageClackData data = new MessageClackData("old", "millis", ClackData.CONSTANT_SENDMESSAGE);
+        int length = ClackDataCodec.encodedLength(data);
+        ByteBuffer old = ByteBuffer.allocate(8 + length);
+        old.putInt(length).putInt(0);
+        ClackDataCodec.encode(data, old);
+        Files.write(segment, old.array());
+        try {
+            new MessageLog(directory).open();
+            System.out.println("headerless segment refused: false");
+        } catch (IOException ioe) {
+            System.out.println("headerless segment refused: " + ioe.getMessage().contains("no format header"));
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package test;
+
+import data.ChannelClackData;
+import data.ClackData;
+import data.MessageClackData;
+import main.ChannelSequencer;
+import main.ClackServer;
+import main.FrameCodec;
+import main.ReorderWindow;
+import main.ServerMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Checks that a ChannelSequencer gives threads racing on one channel every sequence exactly
+ * once, and that a ReorderWindow puts a channel back in order, drops duplicates and gives up
+ * on gaps that are not filled in time or in capacity. Then runs a server in each mode with
+ * two clients sending to a channel and to everyone at once, and checks that a third client,
+ * told by its join confirmation where the channel starts, gets every sequence of both in
+ * order as they arrive, with no reordering needed.
+ */
+public class TestOrderedDelivery {
+    private static final int THREADS = 4;
+    private static final int PER_THREAD = 10000;
+    private static final int PER_SENDER = 200;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7530;
+        testSequencer();
+        testWindow();
+        run(ServerMode.NIO, port);
+        run(ServerMode.BLOCKING, port + 1);
+    }
+
+    private static void testSequencer() throws InterruptedException {
+        ChannelSequencer sequencer = new ChannelSequencer();
+        AtomicIntegerArray taken = new AtomicIntegerArray(THREADS * PER_THREAD);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    taken.incrementAndGet((int) sequencer.next("ops"));
+                    sequencer.next(null);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        boolean once = true;
+        for (int i = 0; i < taken.length(); i++) {
+            once &= taken.get(i) == 1;
+        }
+        System.out.println("every sequence taken once: " + once);
+        System.out.println("channels counted apart: " + (sequencer.peek("ops") == THREADS * PER_THREAD)
+                + " " + (sequencer.peek(null) == THREADS * PER_THREAD) + " " + (sequencer.peek("dev") == 0));
+    }
+
+    private static void testWindow() throws InterruptedException {
+        ReorderWindow window = new ReorderWindow(4, TimeUnit.MILLISECONDS.toNanos(50));
+        ChannelClackData join = new ChannelClackData("alice", ChannelClackData.EVENT_JOIN, "ops");
+        join.setSequence(0);
+        window.accept(join);
+        for (long sequence : new long[]{0, 2, 3}) {
+            window.accept(message("ops", sequence));
+        }
+        System.out.println("held behind a gap: " + (window.poll() == join) + " " + (window.poll().getSequence() == 0)
+                + " " + (window.poll() == null) + " " + window.isHolding());
+        window.accept(direct(5));
+        window.accept(message("ops", 1));
+        window.accept(message("ops", 2));
+        System.out.println("unsequenced not held: " + (window.poll().getRecipient() != null));
+        System.out.println("gap filled in order: " + (window.poll().getSequence() == 1) + " "
+                + (window.poll().getSequence() == 2) + " " + (window.poll().getSequence() == 3)
+                + " " + !window.isHolding() + " " + (window.getDuplicates() == 1));
+
+        window.accept(message("ops", 5));
+        Thread.sleep(60);
+        window.expire();
+        System.out.println("gap given up after the delay: " + (window.poll().getSequence() == 5)
+                + " " + (window.getMissed() == 1));
+        for (long sequence = 7; sequence <= 11; sequence++) {
+            window.accept(message("ops", sequence));
+        }
+        boolean inOrder = true;
+        for (long sequence = 7; sequence <= 11; sequence++) {
+            inOrder &= window.poll().getSequence() == sequence;
+        }
+        System.out.println("gap given up past the capacity: " + inOrder + " " + (window.getMissed() == 2));
+
+        window.accept(message(null, 8));
+        window.accept(message(null, 7));
+        boolean held = window.poll() == null;
+        Thread.sleep(60);
+        window.expire();
+        System.out.println("unknown start held for the delay: " + held + " " + (window.poll().getSequence() == 7)
+                + " " + (window.poll().getSequence() == 8) + " " + (window.getMissed() == 2));
+
+        window.accept(message("ops", 20));
+        window.accept(new ChannelClackData("alice", ChannelClackData.EVENT_LEAVE, "ops"));
+        window.accept(message("ops", 3));
+        System.out.println("leaving forgets the channel: " + (window.poll().getSequence() == 20)
+                + " " + (window.poll() instanceof ChannelClackData) + " " + (window.poll() == null)
+                + " " + (window.getDuplicates() == 1));
+    }
+
+    private static void run(ServerMode mode, int port) throws IOException, InterruptedException {
+        ClackServer server = new ClackServer(port);
+        server.setMode(mode);
+        server.startInBackground();
+
+        try (Socket receiver = new Socket("localhost", port);
+             Socket first = new Socket("localhost", port);
+             Socket second = new Socket("localhost", port)) {
+            DataInputStream in = FrameCodec.connect(receiver, FrameCodec.CODEC_BINARY);
+            DataOutputStream out = new DataOutputStream(receiver.getOutputStream());
+            FrameCodec.write(out, new ChannelClackData("receiver", ChannelClackData.EVENT_JOIN, "ops"),
+                    FrameCodec.CODEC_BINARY);
+            ClackData joined = FrameCodec.read(in, FrameCodec.CODEC_BINARY);
+
+            Thread[] senders = {sender(first, "first"), sender(second, "second")};
+            for (Thread sender : senders) {
+                sender.start();
+            }
+            long[] next = {ClackData.NO_SEQUENCE, joined.getSequence()}; // Everyone, then the channel
+            boolean inOrder = true;
+            for (int received = 0; received < 2 * PER_SENDER; received++) {
+                ClackData data = FrameCodec.read(in, FrameCodec.CODEC_BINARY);
+                int stream = data.getChannel() == null ? 0 : 1;
+                if (next[stream] == ClackData.NO_SEQUENCE) {
+                    next[stream] = data.getSequence();
+                }
+                inOrder &= data.getSequence() == next[stream]++;
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            String label = mode + ": ";
+            System.out.println(label + "every sequence once and in order: " + inOrder
+                    + " " + (next[0] == PER_SENDER) + " " + (next[1] == PER_SENDER));
+            System.out.println(label + "channel starts where the join said: " + (joined.getSequence() == 0)
+                    + " " + (server.getSequencer().peek("ops") == PER_SENDER));
+        }
+    }
+
+    /**
+     * Returns a thread that sends PER_SENDER messages from a client, alternating between the
+     * channel and everyone.
+     */
+    private static Thread sender(Socket socket, String userName) throws IOException {
+        FrameCodec.connect(socket, FrameCodec.CODEC_BINARY);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        return new Thread(() -> {
+            try {
+                for (int i = 0; i < PER_SENDER; i++) {
+                    MessageClackData data = new MessageClackData(userName, "message " + i, ClackData.CONSTANT_SENDMESSAGE);
+                    data.setChannel(i % 2 == 0 ? "ops" : null);
+                    FrameCodec.write(out, data, FrameCodec.CODEC_BINARY);
+                }
+            } catch (IOException ioe) {
+                System.err.println("Could not send: " + ioe.getMessage());
+            }
+        });
+    }
+
+    private static MessageClackData message(String channel, long sequence) {
+        MessageClackData data = new MessageClackData("alice", "message " + sequence, ClackData.CONSTANT_SENDMESSAGE);
+        data.setChannel(channel);
+        data.setSequence(sequence);
+        return data;
+    }
+
+    private static MessageClackData direct(long sequence) {
+        MessageClackData data = message(null, sequence);
+        data.setRecipient("bob");
+        return data;
+    }
+}
@@ -0,0 +1,171 @@
+package test;
+
+import main.OutboundQueue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks OutboundQueue on one thread (capacity rounding, order across many turns of the
+ * ring, a full queue and close), then with several producers and consumers racing on a
+ * small queue: every element is taken exactly once and each consumer sees each producer's
+ * elements in order. Finally checks that closeAndDrain() racing with producers leaves no
+ * element behind.
+ */
+public class TestOutboundQueue {
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 2;
+    private static final int PER_PRODUCER = 50_000;
+    private static final int CLOSE_ROUNDS = 200;
+
+    public static void main(String[] args) throws InterruptedException {
+        testSingleThread();
+        testFull();
+        testClose();
+        testConcurrent();
+        testCloseAndDrain();
+    }
+
+    private static void testSingleThread() {
+        OutboundQueue<Integer> queue = new OutboundQueue<Integer>(5);
+        boolean inOrder = queue.offer(0) && queue.offer(1) && queue.offer(2);
+        int next = 0;
+        for (int i = 3; i < 1000; i++) {
+            inOrder &= queue.offer(i);
+            inOrder &= queue.poll() == next++;
+        }
+        while (!queue.isEmpty()) {
+            inOrder &= queue.poll() == next++;
+        }
+        System.out.println("in order across wraparound: " + inOrder + " " + (next == 1000) + " " + (queue.poll() == null));
+    }
+
+    private static void testFull() {
+        OutboundQueue<Integer> queue = new OutboundQueue<Integer>(5);
+        int accepted = 0;
+        while (queue.offer(accepted)) {
+            accepted++;
+        }
+        System.out.println("full at the rounded capacity: " + (accepted == 8) + " " + (queue.size() == 8));
+        boolean room = queue.poll() == 0 && queue.offer(8) && !queue.offer(9);
+        System.out.println("room after a poll: " + room + " " + (queue.size() == 8));
+    }
+
+    private static void testClose() throws InterruptedException {
+        OutboundQueue<Integer> queue = new OutboundQueue<Integer>(8);
+        queue.offer(1);
+        queue.offer(2);
+        queue.close();
+        System.out.println("closed refuses offers: " + queue.isClosed() + " " + !queue.offer(3));
+        System.out.println("take drains then ends: " + (queue.take() == 1) + " " + (queue.take() == 2)
+                + " " + (queue.take() == null) + " " + (queue.poll(1_000_000) == null));
+
+        OutboundQueue<Integer> waiting = new OutboundQueue<Integer>(8);
+        Integer[] taken = new Integer[1];
+        Thread consumer = new Thread(() -> {
+            try {
+                taken[0] = waiting.take();
+            } catch (InterruptedException ie) {
+                taken[0] = -1;
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        waiting.close();
+        consumer.join(1000);
+        System.out.println("close wakes a parked take: " + !consumer.isAlive() + " " + (taken[0] == null));
+    }
+
+    private static void testConcurrent() throws InterruptedException {
+        OutboundQueue<Integer> queue = new OutboundQueue<Integer>(64);
+        AtomicIntegerArray seen = new AtomicIntegerArray(PRODUCERS * PER_PRODUCER);
+        AtomicLong outOfOrder = new AtomicLong();
+        AtomicLong fullOffers = new AtomicLong();
+        CountDownLatch produced = new CountDownLatch(PRODUCERS);
+        Thread[] threads = new Thread[PRODUCERS + CONSUMERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < PER_PRODUCER; i++) {
+                    while (!queue.offer(producer * PER_PRODUCER + i)) {
+                        fullOffers.incrementAndGet();
+                        Thread.yield();
+                    }
+                }
+                produced.countDown();
+            });
+        }
+        for (int c = 0; c < CONSUMERS; c++) {
+            threads[PRODUCERS + c] = new Thread(() -> {
+                int[] last = new int[PRODUCERS];
+                Arrays.fill(last, -1);
+                while (true) {
+                    Integer element = queue.poll();
+                    if (element == null) {
+                        if (produced.getCount() == 0 && queue.isEmpty()) {
+                            return;
+                        }
+                        Thread.yield();
+                        continue;
+                    }
+                    seen.incrementAndGet(element);
+                    int producer = element / PER_PRODUCER;
+                    if (element <= last[producer]) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    last[producer] = element;
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        boolean once = true;
+        for (int i = 0; i < seen.length(); i++) {
+            once &= seen.get(i) == 1;
+        }
+        System.out.println("every element taken once: " + once + " " + queue.isEmpty());
+        System.out.println("each producer in order per consumer: " + (outOfOrder.get() == 0));
+        System.out.println("producers met a full queue: " + (fullOffers.get() > 0));
+    }
+
+    /**
+     * Has producers offer while the owner takes and then closes and drains the queue, and
+     * checks that everything accepted was either taken or released.
+     */
+    private static void testCloseAndDrain() throws InterruptedException {
+        boolean accounted = true;
+        for (int round = 0; round < CLOSE_ROUNDS; round++) {
+            OutboundQueue<Integer> queue = new OutboundQueue<Integer>(16);
+            AtomicLong accepted = new AtomicLong();
+            AtomicLong released = new AtomicLong();
+            Thread[] producers = new Thread[2];
+            for (int p = 0; p < producers.length; p++) {
+                producers[p] = new Thread(() -> {
+                    for (int i = 0; i < 100 && !queue.isClosed(); i++) {
+                        if (queue.offer(i)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                });
+                producers[p].start();
+            }
+            long taken = 0;
+            while (taken < round % 20 && queue.poll(TimeUnit.MILLISECONDS.toNanos(1)) != null) {
+                taken++;
+            }
+            queue.closeAndDrain(element -> released.incrementAndGet());
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            accounted &= accepted.get() == taken + released.get() && queue.isEmpty();
+        }
+        System.out.println("nothing left behind by closeAndDrain: " + accounted);
+    }
+}
@@ -0,0 +1,147 @@
+package test;
+
+import data.ClackData;
+import data.MessageClackData;
+import data.PresenceClackData;
+import main.ClackServer;
+import main.FrameCodec;
+import main.PresenceIndex;
+import main.PresenceView;
+import main.ServerMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Binds sessions to users, including from several threads at once, and checks reference
+ * counting, renames, leaving, and that snapshots are only rebuilt when someone comes or goes.
+ * Then applies presence events to a PresenceView, gaps included, and subscribes to a running
+ * NIO server to check the snapshot and the join and leave events that follow it, and that a
+ * message sent in the same write as a LOGOUT is not delivered.
+ */
+public class TestPresenceIndex {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        PresenceIndex presence = new PresenceIndex();
+        Object session1 = new Object();
+        Object session2 = new Object();
+        Object session3 = new Object();
+
+        presence.join(session1, "bob");
+        presence.join(session2, "alice");
+        presence.join(session3, "bob");
+        presence.join(session1, "bob");
+        presence.join(session1, null);
+        PresenceIndex.Snapshot snapshot = presence.snapshot();
+        System.out.println("users sorted: " + snapshot.getText().equals("alice, bob"));
+        System.out.println("version == 2: " + (snapshot.getVersion() == 2));
+        System.out.println("repeated snapshot is cached: " + (presence.snapshot() == snapshot));
+
+        presence.leave(session1);
+        System.out.println("bob online with one session left: " + presence.isOnline("bob"));
+        System.out.println("snapshot unchanged: " + (presence.snapshot() == snapshot));
+        presence.leave(session3);
+        presence.leave(session3);
+        System.out.println("bob offline after his last session: " + !presence.isOnline("bob"));
+        System.out.println("snapshot rebuilt: " + presence.snapshot().getText().equals("alice"));
+
+        presence.join(session2, "carol");
+        System.out.println("rename moves the session: " + presence.snapshot().getUsers().equals(Arrays.asList("carol")));
+
+        PresenceIndex concurrent = new PresenceIndex();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                Object[] mine = new Object[1000];
+                for (int i = 0; i < mine.length; i++) {
+                    mine[i] = new Object();
+                    concurrent.join(mine[i], "user" + (i % 100));
+                    concurrent.snapshot();
+                }
+                for (int i = 0; i < mine.length; i += 2) {
+                    concurrent.leave(mine[i]);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // Each thread leaves the sessions of the even users only, so the odd users remain.
+        System.out.println("50 users left online: " + (concurrent.size() == 50));
+        System.out.println("snapshot agrees: " + (concurrent.snapshot().getUsers().size() == 50));
+        System.out.println("only odd users: " + concurrent.snapshot().getUsers().stream()
+                .allMatch(user -> Integer.parseInt(user.substring(4)) % 2 == 1));
+    
+        PresenceView view = new PresenceView();
+        System.out.println("join before snapshot ignored: " + (view.apply(event(PresenceClackData.EVENT_JOIN, 3, "dan"))
+                && view.isResyncing()));
+        view.apply(new PresenceClackData("Server", PresenceClackData.EVENT_SNAPSHOT, 4, Arrays.asList("alice", "bob")));
+        view.apply(event(PresenceClackData.EVENT_LEAVE, 4, "bob"));
+        view.apply(event(PresenceClackData.EVENT_JOIN, 5, "carol"));
+        view.apply(event(PresenceClackData.EVENT_LEAVE, 6, "alice"));
+        System.out.println("deltas applied in order: " + view.getUsers().equals(Arrays.asList("bob", "carol"))
+                + " at version " + view.getVersion()); // 6
+        System.out.println("gap asks for resync: " + !view.apply(event(PresenceClackData.EVENT_JOIN, 8, "erin")));
+        view.apply(event(PresenceClackData.EVENT_JOIN, 9, "frank"));
+        System.out.println("deltas ignored while resyncing: " + view.getUsers().equals(Arrays.asList("bob", "carol")));
+        view.apply(new PresenceClackData("Server", PresenceClackData.EVENT_SNAPSHOT, 9,
+                Arrays.asList("bob", "carol", "erin", "frank")));
+        System.out.println("snapshot resyncs: " + (!view.isResyncing() && view.getUsers().size() == 4));
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7450;
+        ClackServer server = new ClackServer(port);
+        server.setMode(ServerMode.NIO);
+        server.startInBackground();
+
+        try (Socket watcher = new Socket("localhost", port)) {
+            DataInputStream watcherIn = FrameCodec.connect(watcher, FrameCodec.CODEC_BINARY);
+            DataOutputStream watcherOut = new DataOutputStream(watcher.getOutputStream());
+            FrameCodec.write(watcherOut, new PresenceClackData("watcher"), FrameCodec.CODEC_BINARY);
+            PresenceClackData first = (PresenceClackData) FrameCodec.read(watcherIn, FrameCodec.CODEC_BINARY);
+            PresenceView watched = new PresenceView();
+            watched.apply(first);
+            System.out.println("subscriber gets a snapshot: " + (first.getEvent() == PresenceClackData.EVENT_SNAPSHOT)
+                    + " " + first.getData()); // watcher
+
+            try (Socket other = new Socket("localhost", port)) {
+                FrameCodec.connect(other, FrameCodec.CODEC_BINARY);
+                DataOutputStream otherOut = new DataOutputStream(other.getOutputStream());
+                FrameCodec.write(otherOut, new MessageClackData("other", "hi", ClackData.CONSTANT_SENDMESSAGE),
+                        FrameCodec.CODEC_BINARY);
+                PresenceClackData joined = (PresenceClackData) FrameCodec.read(watcherIn, FrameCodec.CODEC_BINARY);
+                System.out.println("join event before the message: " + watched.apply(joined) + " "
+                        + (joined.getEvent() == PresenceClackData.EVENT_JOIN) + " " + joined.getData()); // other
+                System.out.println("then the message: " + FrameCodec.read(watcherIn, FrameCodec.CODEC_BINARY).getData());
+                ByteArrayOutputStream logout = new ByteArrayOutputStream();
+                DataOutputStream logoutOut = new DataOutputStream(logout);
+                FrameCodec.write(logoutOut, new MessageClackData("other", "", ClackData.CONSTANT_LOGOUT),
+                        FrameCodec.CODEC_BINARY);
+                FrameCodec.write(logoutOut, new MessageClackData("other", "after logout", ClackData.CONSTANT_SENDMESSAGE),
+                        FrameCodec.CODEC_BINARY);
+                otherOut.write(logout.toByteArray());
+                otherOut.flush();
+                ClackData left = FrameCodec.read(watcherIn, FrameCodec.CODEC_BINARY);
+                boolean leave = left instanceof PresenceClackData
+                        && ((PresenceClackData) left).getEvent() == PresenceClackData.EVENT_LEAVE;
+                System.out.println("leave event on logout: " + (leave && watched.apply((PresenceClackData) left))
+                        + " " + left.getData()); // other
+            }
+            FrameCodec.write(watcherOut, new MessageClackData("watcher", "still here", ClackData.CONSTANT_SENDMESSAGE),
+                    FrameCodec.CODEC_BINARY);
+            System.out.println("nothing dispatched after logout: "
+                    + "still here".equals(FrameCodec.read(watcherIn, FrameCodec.CODEC_BINARY).getData()));
+            System.out.println("view matches the server: "
+                    + watched.getUsers().equals(server.getPresence().snapshot().getUsers())
+                    + ", versions " + watched.getVersion() + " == " + server.getPresence().getVersion());
+        }
+    }
+
+    private static PresenceClackData event(int event, long version, String user) {
+        return new PresenceClackData("Server", event, version, Collections.singletonList(user));
+    }
+}
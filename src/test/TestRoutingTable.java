@@ -0,0 +1,89 @@
+package test;
+
+import data.ChannelClackData;
+import data.ClackData;
+import data.MessageClackData;
+import main.ClackServer;
+import main.FrameCodec;
+import main.RoutingTable;
+import main.ServerMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Connects three clients to an NIO server, puts two of them in a channel, and checks that a
+ * channel message reaches only its members, a direct message only its recipient and sender,
+ * and a message without either every client. Each client's next frame is checked, so a frame
+ * that was routed to a client it should not have reached shows up in place of the expected one.
+ */
+public class TestRoutingTable {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7470;
+        ClackServer server = new ClackServer(port);
+        server.setMode(ServerMode.NIO);
+        server.startInBackground();
+
+        try (Socket alice = new Socket("localhost", port);
+             Socket bob = new Socket("localhost", port);
+             Socket carol = new Socket("localhost", port)) {
+            DataInputStream aliceIn = FrameCodec.connect(alice, FrameCodec.CODEC_BINARY);
+            DataInputStream bobIn = FrameCodec.connect(bob, FrameCodec.CODEC_BINARY);
+            DataInputStream carolIn = FrameCodec.connect(carol, FrameCodec.CODEC_BINARY);
+            DataOutputStream aliceOut = new DataOutputStream(alice.getOutputStream());
+            DataOutputStream bobOut = new DataOutputStream(bob.getOutputStream());
+            DataOutputStream carolOut = new DataOutputStream(carol.getOutputStream());
+
+            FrameCodec.write(aliceOut, new ChannelClackData("alice", ChannelClackData.EVENT_JOIN, "dev"), FrameCodec.CODEC_BINARY);
+            FrameCodec.write(bobOut, new ChannelClackData("bob", ChannelClackData.EVENT_JOIN, "dev"), FrameCodec.CODEC_BINARY);
+            ClackData aliceJoined = read(aliceIn);
+            read(bobIn);
+            System.out.println("join echoed: " + (aliceJoined instanceof ChannelClackData) + " " + aliceJoined.getChannel()); // dev
+            FrameCodec.write(carolOut, new MessageClackData("carol", "hello", ClackData.CONSTANT_SENDMESSAGE),
+                    FrameCodec.CODEC_BINARY);
+            read(aliceIn);
+            read(bobIn);
+            read(carolIn);
+            RoutingTable routes = server.getRoutingTable();
+            System.out.println("one channel with two members: " + (routes.getChannelCount() == 1)
+                    + " " + (routes.getMemberCount("dev") == 2));
+
+            MessageClackData toChannel = new MessageClackData("alice", "to dev", ClackData.CONSTANT_SENDMESSAGE);
+            toChannel.setChannel("dev");
+            FrameCodec.write(aliceOut, toChannel, FrameCodec.CODEC_BINARY);
+            MessageClackData direct = new MessageClackData("carol", "to bob", ClackData.CONSTANT_SENDMESSAGE);
+            direct.setRecipient("bob");
+            FrameCodec.write(carolOut, direct, FrameCodec.CODEC_BINARY);
+            MessageClackData toAll = new MessageClackData("bob", "to all", ClackData.CONSTANT_SENDMESSAGE);
+
+            System.out.println("alice gets the channel message: " + read(aliceIn).getData()); // to dev
+            System.out.println("sender gets the direct message back: " + read(carolIn).getData()); // to bob
+            Set<String> bobGot = new HashSet<String>(Arrays.asList(read(bobIn).getData(), read(bobIn).getData()));
+            System.out.println("bob gets both: " + bobGot.equals(new HashSet<String>(Arrays.asList("to dev", "to bob"))));
+            FrameCodec.write(bobOut, toAll, FrameCodec.CODEC_BINARY);
+            System.out.println("alice gets nothing in between: " + read(aliceIn).getData()); // to all
+            System.out.println("carol gets nothing in between: " + read(carolIn).getData()); // to all
+            read(bobIn);
+
+            MessageClackData offline = new MessageClackData("alice", "anyone there?", ClackData.CONSTANT_SENDMESSAGE);
+            offline.setRecipient("dave");
+            FrameCodec.write(aliceOut, offline, FrameCodec.CODEC_BINARY);
+            System.out.println("offline recipient: " + read(aliceIn).getData()); // dave is not online
+
+            FrameCodec.write(aliceOut, new ChannelClackData("alice", ChannelClackData.EVENT_LEAVE, "dev"), FrameCodec.CODEC_BINARY);
+            read(aliceIn);
+            System.out.println("leave drops the member: " + (routes.getMemberCount("dev") == 1));
+        }
+        Thread.sleep(200);
+        System.out.println("disconnect empties the channel: " + (server.getRoutingTable().getChannelCount() == 0));
+    }
+
+    private static ClackData read(DataInputStream in) throws IOException {
+        return FrameCodec.read(in, FrameCodec.CODEC_BINARY);
+    }
+}
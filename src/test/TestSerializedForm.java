@@ -0,0 +1,87 @@
+package test;
+
+import data.ClackData;
+import data.FileClackData;
+import data.ListUsersClackData;
+import data.MessageClackData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Base64;
+
+/**
+ * Checks that ClackData serialized by the first version of the classes, as a client on an
+ * object stream sends it, is still read with every field, its Date becoming the timestamp,
+ * and that data serialized now keeps the fields added since.
+ */
+public class TestSerializedForm {
+    private static final long DATE_MILLIS = 1700000000123L; // The Date every object below was sent with
+
+    // MessageClackData("alice", "hello", CONSTANT_SENDMESSAGE)
+    private static final String MESSAGE = "rO0ABXNyABVkYXRhLk1lc3NhZ2VDbGFja0RhdGGwLPVOTC5/cgIAAUwAB21lc3NhZ2V0ABJMamF2YS9s"
+            + "YW5nL1N0cmluZzt4cgAOZGF0YS5DbGFja0RhdGEyBUJPaCaaFwIAA0kABHR5cGVMAARkYXRldAAQTGphdmEvdXRpbC9EYXRlO0wA"
+            + "CHVzZXJOYW1lcQB+AAF4cAAAAAJzcgAOamF2YS51dGlsLkRhdGVoaoEBS1l0GQMAAHhwdwgAAAGLz+Voe3h0AAVhbGljZXQABWhl"
+            + "bGxv";
+
+    // FileClackData("bob", "notes.txt", CONSTANT_SENDFILE) with two lines read into it
+    private static final String FILE = "rO0ABXNyABJkYXRhLkZpbGVDbGFja0RhdGFV9Vo5I3XIzwIAAkwADGZpbGVDb250ZW50c3QAEkxqYXZhL2xh"
+            + "bmcvU3RyaW5nO0wACGZpbGVOYW1lcQB+AAF4cgAOZGF0YS5DbGFja0RhdGEyBUJPaCaaFwIAA0kABHR5cGVMAARkYXRldAAQTGph"
+            + "dmEvdXRpbC9EYXRlO0wACHVzZXJOYW1lcQB+AAF4cAAAAANzcgAOamF2YS51dGlsLkRhdGVoaoEBS1l0GQMAAHhwdwgAAAGLz+Vo"
+            + "e3h0AANib2J0ABJsaW5lIG9uZQpsaW5lIHR3bwp0AAlub3Rlcy50eHQ=";
+
+    // ListUsersClackData("Server", CONSTANT_LISTUSERS) listing alice and bob
+    private static final String LIST_USERS = "rO0ABXNyABdkYXRhLkxpc3RVc2Vyc0NsYWNrRGF0YVCNP6PRC/tsAgABTAAIdXNlckxpc3R0ABVMamF2"
+            + "YS91dGlsL0FycmF5TGlzdDt4cgAOZGF0YS5DbGFja0RhdGEyBUJPaCaaFwIAA0kABHR5cGVMAARkYXRldAAQTGphdmEvdXRpbC9E"
+            + "YXRlO0wACHVzZXJOYW1ldAASTGphdmEvbGFuZy9TdHJpbmc7eHAAAAAAc3IADmphdmEudXRpbC5EYXRlaGqBAUtZdBkDAAB4cHcI"
+            + "AAABi8/laHt4dAAGU2VydmVyc3IAE2phdmEudXRpbC5BcnJheUxpc3R4gdIdmcdhnQMAAUkABHNpemV4cAAAAAJ3BAAAAAJ0AAVh"
+            + "bGljZXQAA2JvYng=";
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        ClackData message = read(Base64.getDecoder().decode(MESSAGE));
+        System.out.println("first version message read: " + (message instanceof MessageClackData)
+                + " " + "alice".equals(message.getUserName()) + " " + "hello".equals(message.getData())
+                + " " + (message.getType() == ClackData.CONSTANT_SENDMESSAGE));
+        System.out.println("date becomes the timestamp: " + (message.getTimestamp() == DATE_MILLIS * 1000)
+                + " " + (message.getDate().getTime() == DATE_MILLIS));
+        System.out.println("added fields defaulted: " + (message.getSequence() == ClackData.NO_SEQUENCE)
+                + " " + (message.getUserId() == ClackData.NO_USER_ID) + " " + (message.getChannel() == null)
+                + " " + (message.getRecipient() == null));
+
+        ClackData file = read(Base64.getDecoder().decode(FILE));
+        System.out.println("first version file read: " + (file instanceof FileClackData)
+                + " " + "notes.txt".equals(((FileClackData) file).getFileName())
+                + " " + "line one\nline two\n".equals(file.getData()));
+
+        ClackData listUsers = read(Base64.getDecoder().decode(LIST_USERS));
+        System.out.println("first version user list read: " + (listUsers instanceof ListUsersClackData)
+                + " " + "alice, bob".equals(listUsers.getData()));
+
+        MessageClackData sent = new MessageClackData("carol", "hi", ClackData.CONSTANT_SENDMESSAGE);
+        sent.setSequence(42);
+        sent.setChannel("ops");
+        sent.setRecipient("dave");
+        sent.setUserId(7);
+        ClackData received = read(write(sent));
+        System.out.println("added fields kept: " + (received.getSequence() == 42) + " " + "ops".equals(received.getChannel())
+                + " " + "dave".equals(received.getRecipient()) + " " + (received.getUserId() == 7));
+        System.out.println("timestamp kept to the microsecond: " + (received.getTimestamp() == sent.getTimestamp())
+                + " " + "hi".equals(received.getData()));
+    }
+
+    private static byte[] write(ClackData data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ClackData read(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (ClackData) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package test;
+
+import data.ClackData;
+import data.MessageClackData;
+import main.ClackServer;
+import main.FrameCodec;
+import main.ServerMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Starts an NIO server with a metrics port, exchanges one message with a framed client and
+ * reads the metrics back through JMX and the plain-text endpoint.
+ */
+public class TestServerMetrics {
+    public static void main(String[] args) throws IOException, InterruptedException, JMException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7440;
+        ClackServer server = new ClackServer(port);
+        server.setMode(ServerMode.NIO);
+        server.setMetricsPort(port + 1);
+        server.startInBackground();
+
+        try (Socket socket = new Socket("localhost", port)) {
+            DataInputStream in = FrameCodec.connect(socket, FrameCodec.CODEC_BINARY);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            FrameCodec.write(out, new MessageClackData("testUser1", "testMessage", ClackData.CONSTANT_SENDMESSAGE),
+                    FrameCodec.CODEC_BINARY);
+            System.out.println("echo received: " + FrameCodec.read(in, FrameCodec.CODEC_BINARY).getData());
+
+            MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("main:type=ClackServer,port=" + port);
+            System.out.println("jmx accepts == 1: " + beans.getAttribute(name, "Accepts").equals(1L));
+            System.out.println("jmx connections == 1: " + beans.getAttribute(name, "Connections").equals(1));
+            System.out.println("jmx frames in == 1: " + beans.getAttribute(name, "FramesIn").equals(1L));
+            System.out.println("jmx frames out == 1: " + beans.getAttribute(name, "FramesOut").equals(1L));
+            System.out.println("jmx bytes in > 0: " + ((Long) beans.getAttribute(name, "BytesIn") > 0));
+            CompositeData fanout = (CompositeData) beans.getAttribute(name, "BroadcastFanoutNanos");
+            System.out.println("jmx broadcast count == 1: " + fanout.get("count").equals(1L));
+            CompositeData decode = (CompositeData) beans.getAttribute(name, "DecodeNanos");
+            System.out.println("jmx decode p99 > 0: " + ((Long) decode.get("p99") > 0));
+            CompositeData delivery = (CompositeData) beans.getAttribute(name, "DeliveryNanos");
+            System.out.println("jmx delivery count == 1: " + delivery.get("count").equals(1L));
+
+            String text;
+            try (InputStream scrape = new URL("http://localhost:" + (port + 1) + "/metrics").openStream()) {
+                text = new String(scrape.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            System.out.println("scrape has accepts: " + text.contains("\nclack_accepts_total 1\n"));
+            System.out.println("scrape has fan-out count: " + text.contains("\nclack_broadcast_fanout_seconds_count 1\n"));
+            System.out.println("scrape has encode quantile: " + text.contains("clack_encode_seconds{quantile=\"0.99\"}"));
+        }
+    }
+}
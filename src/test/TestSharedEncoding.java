@@ -0,0 +1,70 @@
+package test;
+
+import data.ClackData;
+import data.MessageClackData;
+import main.ClackServer;
+import main.FrameCodec;
+import main.ServerMetrics;
+import main.ServerMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Runs a server in each mode with clients split between the binary and serialized codecs,
+ * served from several reactors or writer threads at once, and broadcasts a run of messages.
+ * Checks that every client gets every message intact and that each message was encoded
+ * once per codec in use, however many recipients raced to encode it first.
+ */
+public class TestSharedEncoding {
+    private static final int CLIENTS_PER_CODEC = 3;
+    private static final int MESSAGES = 200;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7550;
+        run(ServerMode.NIO, port);
+        run(ServerMode.BLOCKING, port + 1);
+    }
+
+    private static void run(ServerMode mode, int port) throws IOException, InterruptedException {
+        ClackServer server = new ClackServer(port);
+        server.setMode(mode);
+        server.setReactorCount(CLIENTS_PER_CODEC);
+        server.startInBackground();
+        ServerMetrics metrics = server.getMetrics();
+        String label = mode + ": ";
+
+        Socket[] sockets = new Socket[2 * CLIENTS_PER_CODEC];
+        DataInputStream[] ins = new DataInputStream[sockets.length];
+        byte[] codecs = new byte[sockets.length];
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                codecs[i] = i % 2 == 0 ? FrameCodec.CODEC_BINARY : FrameCodec.CODEC_SERIALIZED;
+                sockets[i] = new Socket("localhost", port);
+                ins[i] = FrameCodec.connect(sockets[i], codecs[i]);
+            }
+            DataOutputStream senderOut = new DataOutputStream(sockets[0].getOutputStream());
+            long encodesBefore = metrics.getEncodeNanos().getCount();
+            boolean intact = true;
+            for (int m = 0; m < MESSAGES; m++) {
+                FrameCodec.write(senderOut, new MessageClackData("sender", "shared " + m, ClackData.CONSTANT_SENDMESSAGE),
+                        FrameCodec.CODEC_BINARY);
+                for (int i = 0; i < sockets.length; i++) {
+                    intact &= ("shared " + m).equals(FrameCodec.read(ins[i], codecs[i]).getData());
+                }
+            }
+            long encodes = metrics.getEncodeNanos().getCount() - encodesBefore;
+            System.out.println(label + "every client got every message: " + intact);
+            System.out.println(label + "encoded once per codec: " + (encodes == 2 * MESSAGES)
+                    + " (" + encodes + " encodings for " + MESSAGES + " messages)");
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package test;
+
+import data.ClackData;
+import data.MessageClackData;
+import main.ClackServer;
+import main.FrameCodec;
+import main.ServerMode;
+import main.SlowConsumerPolicy;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Runs a server with a small outbound limit under each slow-consumer policy. A sender sends
+ * large messages one at a time, waiting for each to come back, while one client reads along
+ * and another never reads until the sender is done. Checks that the reading client misses
+ * nothing, that the policy fired and is counted, and what the stalled client finds when it
+ * finally reads.
+ */
+public class TestSlowConsumer {
+    private static final int MESSAGES = 2000;
+    private static final String PADDING = new String(new char[8192]).replace('\0', 'x');
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7480;
+        run(ServerMode.NIO, SlowConsumerPolicy.DROP_NEWEST, port);
+        run(ServerMode.NIO, SlowConsumerPolicy.DROP_OLDEST, port + 1);
+        run(ServerMode.NIO, SlowConsumerPolicy.COALESCE, port + 2);
+        run(ServerMode.NIO, SlowConsumerPolicy.DISCONNECT, port + 3);
+        run(ServerMode.BLOCKING, SlowConsumerPolicy.DISCONNECT, port + 4);
+    }
+
+    private static void run(ServerMode mode, SlowConsumerPolicy policy, int port)
+            throws IOException, InterruptedException {
+        ClackServer server = new ClackServer(port);
+        server.setMode(mode);
+        server.setOutboundLimit(64);
+        server.setSlowConsumerPolicy(policy);
+        server.startInBackground();
+
+        try (Socket sender = new Socket("localhost", port);
+             Socket reader = new Socket("localhost", port);
+             Socket stalled = new Socket()) {
+            stalled.setReceiveBufferSize(4096);
+            stalled.connect(sender.getRemoteSocketAddress());
+            DataInputStream senderIn = FrameCodec.connect(sender, FrameCodec.CODEC_BINARY);
+            DataInputStream readerIn = FrameCodec.connect(reader, FrameCodec.CODEC_BINARY);
+            DataInputStream stalledIn = FrameCodec.connect(stalled, FrameCodec.CODEC_BINARY);
+            DataOutputStream senderOut = new DataOutputStream(sender.getOutputStream());
+
+            int[] readerGot = new int[1];
+            Thread readerThread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < MESSAGES; i++) {
+                        if (FrameCodec.read(readerIn, FrameCodec.CODEC_BINARY).getData().startsWith("message " + i + " ")) {
+                            readerGot[0]++;
+                        }
+                    }
+                } catch (IOException ioe) {
+                    System.out.println("reader failed: " + ioe.getMessage());
+                }
+            });
+            readerThread.start();
+            for (int i = 0; i < MESSAGES; i++) {
+                FrameCodec.write(senderOut, new MessageClackData("sender", "message " + i + " " + PADDING,
+                        ClackData.CONSTANT_SENDMESSAGE), FrameCodec.CODEC_BINARY);
+                FrameCodec.read(senderIn, FrameCodec.CODEC_BINARY);
+            }
+            readerThread.join();
+
+            String label = mode + " " + policy + ": ";
+            System.out.println(label + "reading client got every message: " + (readerGot[0] == MESSAGES));
+            System.out.println(label + "overflows counted: "
+                    + (server.getMetrics().getQueueOverflows(policy) > 0 && server.getMetrics().getQueueOverflows() > 0));
+
+            int received = 0;
+            boolean gotLast = false;
+            boolean gotNotice = false;
+            boolean disconnected = false;
+            try {
+                while (!gotLast && policy != SlowConsumerPolicy.DROP_NEWEST) {
+                    String data = FrameCodec.read(stalledIn, FrameCodec.CODEC_BINARY).getData();
+                    gotNotice |= data.startsWith("Skipped ");
+                    gotLast = data.startsWith("message " + (MESSAGES - 1) + " ");
+                    received++;
+                }
+            } catch (EOFException | java.net.SocketException closed) {
+                disconnected = true;
+            }
+            if (policy == SlowConsumerPolicy.DROP_OLDEST) {
+                System.out.println(label + "stalled client still gets the newest: " + gotLast
+                        + ", after missing some: " + (received < MESSAGES));
+            } else if (policy == SlowConsumerPolicy.COALESCE) {
+                System.out.println(label + "stalled client gets a notice then the newest: " + (gotNotice && gotLast));
+            } else if (policy == SlowConsumerPolicy.DISCONNECT) {
+                System.out.println(label + "stalled client disconnected: " + (disconnected && !gotLast)
+                        + ", counted: " + (server.getMetrics().getSlowConsumerDisconnects() > 0));
+                Thread.sleep(200);
+                System.out.println(label + "server dropped it: " + (server.getMetrics().getConnections() == 2));
+            }
+            System.out.println(label + "metrics list the policy: " + Arrays.stream(server.getMetrics().scrape().split("\n"))
+                    .anyMatch(line -> line.startsWith("clack_queue_overflows_total{policy=\""
+                            + policy.name().toLowerCase() + "\"} ") && !line.endsWith(" 0")));
+        }
+    }
+}
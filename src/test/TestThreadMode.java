@@ -0,0 +1,77 @@
+package test;
+
+import data.ClackData;
+import data.MessageClackData;
+import main.ClackServer;
+import main.FrameCodec;
+import main.ServerMode;
+import main.ThreadMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Runs a blocking server on platform threads and then on virtual threads, and checks that
+ * two clients can talk through it either way. On platform threads each client is served on
+ * a named thread of its own. Virtual threads are not listed among the live threads, so with
+ * them no named client thread shows up, unless the JVM has no virtual threads and the server
+ * fell back to platform threads.
+ */
+public class TestThreadMode {
+    private static final boolean VIRTUAL_THREADS = hasVirtualThreads();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7560;
+        run(ThreadMode.PLATFORM, port);
+        run(ThreadMode.VIRTUAL, port + 1);
+    }
+
+    private static void run(ThreadMode threadMode, int port) throws IOException, InterruptedException {
+        ClackServer server = new ClackServer(port);
+        server.setMode(ServerMode.BLOCKING);
+        server.setThreadMode(threadMode);
+        server.startInBackground();
+        String label = threadMode + ": ";
+        int idle = clientThreads(); // Left idle by the servers run before
+
+        try (Socket alice = new Socket("localhost", port);
+             Socket bob = new Socket("localhost", port)) {
+            DataInputStream aliceIn = FrameCodec.connect(alice, FrameCodec.CODEC_BINARY);
+            DataInputStream bobIn = FrameCodec.connect(bob, FrameCodec.CODEC_BINARY);
+            FrameCodec.write(new DataOutputStream(alice.getOutputStream()),
+                    new MessageClackData("alice", "hello bob", ClackData.CONSTANT_SENDMESSAGE), FrameCodec.CODEC_BINARY);
+            System.out.println(label + "message relayed: "
+                    + "hello bob".equals(FrameCodec.read(bobIn, FrameCodec.CODEC_BINARY).getData())
+                    + " " + "hello bob".equals(FrameCodec.read(aliceIn, FrameCodec.CODEC_BINARY).getData()));
+
+            int named = clientThreads() - idle;
+            boolean platform = threadMode == ThreadMode.PLATFORM || !VIRTUAL_THREADS;
+            System.out.println(label + "served on " + (platform ? "platform" : "virtual") + " threads: "
+                    + (platform ? named >= 2 : named == 0) + " (" + named + " named client threads)");
+        }
+    }
+
+    /**
+     * Counts the live threads named for serving a client, see ConnectionExecutors.
+     */
+    private static int clientThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("clack-client-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("isVirtual");
+            return true;
+        } catch (NoSuchMethodException nsme) {
+            return false;
+        }
+    }
+}
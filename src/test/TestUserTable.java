@@ -0,0 +1,96 @@
+package test;
+
+import data.ClackData;
+import data.IdentityClackData;
+import data.MessageClackData;
+import main.ClackServer;
+import main.FrameCodec;
+import main.ServerMode;
+import main.UserTable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Checks that a UserTable gives each name one id and each id one String. Then runs a server
+ * in each mode with a client that asks for its user id and one that does not. Checks that
+ * only the first is told its id, that data it then sends under the id reaches both clients
+ * by name, and that data under an id the client was not given is dropped.
+ */
+public class TestUserTable {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7510;
+        testTable();
+        run(ServerMode.NIO, port);
+        run(ServerMode.BLOCKING, port + 1);
+    }
+
+    private static void testTable() {
+        UserTable table = new UserTable();
+        int alice = table.intern("alice");
+        int bob = table.intern(new String("bob"));
+        System.out.println("ids given: " + (alice != ClackData.NO_USER_ID) + " " + (bob != alice));
+        System.out.println("same id again: " + (table.intern(new String("alice")) == alice)
+                + " " + (table.idOf("bob") == bob) + " " + (table.idOf("carol") == ClackData.NO_USER_ID));
+        System.out.println("same String back: " + (table.nameOf(alice) == table.nameOf(alice))
+                + " " + "alice".equals(table.nameOf(alice)) + " " + (table.nameOf(12345) == null));
+        for (int i = 0; i < 1000; i++) {
+            table.intern("user" + i);
+        }
+        System.out.println("grows: " + (table.size() == 1002)
+                + " " + "user999".equals(table.nameOf(table.idOf("user999"))) + " " + "bob".equals(table.nameOf(bob)));
+    }
+
+    private static void run(ServerMode mode, int port) throws IOException, InterruptedException {
+        ClackServer server = new ClackServer(port);
+        server.setMode(mode);
+        server.startInBackground();
+
+        try (Socket identified = new Socket("localhost", port);
+             Socket named = new Socket("localhost", port)) {
+            DataInputStream identifiedIn = FrameCodec.connect(identified,
+                    (byte) (FrameCodec.CODEC_BINARY | FrameCodec.HELLO_IDENTIFY));
+            DataInputStream namedIn = FrameCodec.connect(named, FrameCodec.CODEC_BINARY);
+            DataOutputStream identifiedOut = new DataOutputStream(identified.getOutputStream());
+            DataOutputStream namedOut = new DataOutputStream(named.getOutputStream());
+
+            FrameCodec.write(namedOut, message("bob", "hello"), FrameCodec.CODEC_BINARY);
+            FrameCodec.read(namedIn, FrameCodec.CODEC_BINARY);
+            FrameCodec.read(identifiedIn, FrameCodec.CODEC_BINARY);
+            FrameCodec.write(identifiedOut, message("alice", "by name"), FrameCodec.CODEC_BINARY);
+            ClackData identity = FrameCodec.read(identifiedIn, FrameCodec.CODEC_BINARY);
+            FrameCodec.read(identifiedIn, FrameCodec.CODEC_BINARY);
+            FrameCodec.read(namedIn, FrameCodec.CODEC_BINARY);
+
+            String label = mode + ": ";
+            int aliceId = identity instanceof IdentityClackData ? ((IdentityClackData) identity).getAssignedId() : 0;
+            System.out.println(label + "told its id: " + (identity instanceof IdentityClackData)
+                    + " " + "alice".equals(identity.getUserName())
+                    + " " + (aliceId == server.getUserTable().idOf("alice")));
+
+            MessageClackData byId = message("alice", "by id");
+            byId.setUserId(aliceId);
+            FrameCodec.write(identifiedOut, byId, FrameCodec.CODEC_BINARY);
+            ClackData echoed = FrameCodec.read(identifiedIn, FrameCodec.CODEC_BINARY);
+            ClackData seen = FrameCodec.read(namedIn, FrameCodec.CODEC_BINARY);
+            System.out.println(label + "sent by id, received by name: " + "alice".equals(echoed.getUserName())
+                    + " " + "alice".equals(seen.getUserName()) + " " + "by id".equals(seen.getData())
+                    + " " + (seen.getUserId() == ClackData.NO_USER_ID));
+
+            MessageClackData spoofed = message("bob", "spoofed");
+            spoofed.setUserId(server.getUserTable().idOf("bob"));
+            FrameCodec.write(identifiedOut, spoofed, FrameCodec.CODEC_BINARY);
+            FrameCodec.write(namedOut, message("bob", "after"), FrameCodec.CODEC_BINARY);
+            ClackData next = FrameCodec.read(namedIn, FrameCodec.CODEC_BINARY);
+            System.out.println(label + "someone else's id dropped: " + "after".equals(next.getData()));
+            System.out.println(label + "both online: " + (server.getPresence().isOnline("alice")
+                    && server.getPresence().isOnline("bob")));
+        }
+    }
+
+    private static MessageClackData message(String userName, String text) {
+        return new MessageClackData(userName, text, ClackData.CONSTANT_SENDMESSAGE);
+    }
+}
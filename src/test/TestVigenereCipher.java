@@ -0,0 +1,200 @@
+package test;
+
+import data.VigenereCipher;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Differential test of VigenereCipher against the String-based cipher ClackData used before,
+ * which is kept here verbatim as LegacyCipher. Every output line should end in "true".
+ */
+public class TestVigenereCipher {
+    private static final String[] KEYS = {"RAMP", "DOG", "a", "z", "Zebra", null, "", "k3y", "STRASSE", "\u00c9t\u00e9",
+            "\u212a"};
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "0123456789 .,;:!?'\"-\n\t\u00e9\u00df\u00c4\u03a9\u4e2d\u212a\ud83d\ude00\ud800";
+
+    public static void main(String[] args) {
+        Random random = new Random(8);
+        String[] texts = new String[200];
+        texts[0] = null;
+        texts[1] = "";
+        texts[2] = "testing this message";
+        texts[3] = "The Quick Brown Fox Jumps Over The Lazy Dog, 1234!";
+        for (int i = 4; i < texts.length; i++) {
+            texts[i] = randomText(random, random.nextInt(i < 150 ? 40 : 2000));
+        }
+
+        int encryptCases = 0;
+        int encryptMatches = 0;
+        int decryptCases = 0;
+        int decryptMatches = 0;
+        for (String key : KEYS) {
+            for (String text : texts) {
+                encryptCases++;
+                if (outcome(() -> LegacyCipher.encrypt(text, key)).equals(outcome(() -> VigenereCipher.encrypt(text, key)))) {
+                    encryptMatches++;
+                }
+                decryptCases++;
+                if (outcome(() -> LegacyCipher.decrypt(text, key)).equals(outcome(() -> VigenereCipher.decrypt(text, key)))) {
+                    decryptMatches++;
+                }
+            }
+        }
+        System.out.println("encrypt matches legacy in " + encryptMatches + " of " + encryptCases + " cases: "
+                + (encryptMatches == encryptCases));
+        System.out.println("decrypt matches legacy in " + decryptMatches + " of " + decryptCases + " cases: "
+                + (decryptMatches == decryptCases));
+
+        // In place and in chunks, on UTF-8 bytes and on chars, the way a streamed file is processed
+        int chunkedCases = 0;
+        int chunkedMatches = 0;
+        String[] letterKeys = {"RAMP", "DOG", "Zebra", "\u212a"};
+        for (String key : letterKeys) {
+            for (int i = 1; i < texts.length; i++) {
+                String text = texts[i];
+                byte[] expectedEncrypted = LegacyCipher.encrypt(text, key).getBytes(StandardCharsets.UTF_8);
+                byte[] expectedDecrypted = LegacyCipher.decrypt(text, key).getBytes(StandardCharsets.UTF_8);
+
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                VigenereCipher encryptCipher = new VigenereCipher(key);
+                for (int offset = 0, length; offset < bytes.length; offset += length) {
+                    length = Math.min(bytes.length - offset, 1 + random.nextInt(64));
+                    encryptCipher.encrypt(bytes, offset, length);
+                }
+                byte[] decryptedBytes = text.getBytes(StandardCharsets.UTF_8);
+                VigenereCipher decryptCipher = new VigenereCipher(key);
+                for (int offset = 0, length; offset < decryptedBytes.length; offset += length) {
+                    length = Math.min(decryptedBytes.length - offset, 1 + random.nextInt(64));
+                    decryptCipher.decrypt(decryptedBytes, offset, length);
+                }
+                char[] chars = text.toCharArray();
+                VigenereCipher charCipher = new VigenereCipher(key);
+                for (int offset = 0, length; offset < chars.length; offset += length) {
+                    length = Math.min(chars.length - offset, 1 + random.nextInt(64));
+                    charCipher.encrypt(chars, offset, length);
+                }
+
+                chunkedCases++;
+                if (Arrays.equals(bytes, expectedEncrypted) && Arrays.equals(decryptedBytes, expectedDecrypted)
+                        && new String(chars).equals(LegacyCipher.encrypt(text, key))) {
+                    chunkedMatches++;
+                }
+            }
+        }
+        System.out.println("chunked in-place matches legacy in " + chunkedMatches + " of " + chunkedCases + " cases: "
+                + (chunkedMatches == chunkedCases));
+
+        // reset() starts the key over
+        VigenereCipher cipher = new VigenereCipher("RAMP");
+        char[] first = "hello".toCharArray();
+        char[] second = "hello".toCharArray();
+        cipher.encrypt(first, 0, first.length);
+        cipher.reset();
+        cipher.encrypt(second, 0, second.length);
+        System.out.println("reset() starts over: " + Arrays.equals(first, second));
+
+        // Round trip on lower-case text, which encrypt() leaves lower-case
+        String message = "meet me at the usual place, at 10 o'clock";
+        System.out.println("round trip: " + VigenereCipher.decrypt(VigenereCipher.encrypt(message, "RAMP"), "RAMP").equals(message));
+
+        // The legacy cipher is quadratic; the kernel is linear
+        String longText = randomText(random, 5000);
+        long legacyStart = System.nanoTime();
+        LegacyCipher.encrypt(longText, "RAMP");
+        long legacyNanos = System.nanoTime() - legacyStart;
+        long kernelStart = System.nanoTime();
+        VigenereCipher.encrypt(longText, "RAMP");
+        long kernelNanos = System.nanoTime() - kernelStart;
+        System.out.println("5000 chars: legacy " + legacyNanos / 1000 + " us, kernel " + kernelNanos / 1000 + " us");
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the result, or the exception class for a call that throws, so that failures are
+     * compared too.
+     */
+    private static String outcome(java.util.function.Supplier<String> call) {
+        try {
+            return "result " + call.get();
+        } catch (RuntimeException re) {
+            return "threw " + (re instanceof IndexOutOfBoundsException ? "IndexOutOfBoundsException" : re.getClass().getName());
+        }
+    }
+
+    /**
+     * The encrypt() and decrypt() of ClackData before VigenereCipher.
+     */
+    private static class LegacyCipher {
+        static String encrypt( String inputStringtoEncrypt, String key ){
+            String resultString = "";
+            String alphabet = "abcdefghijklmnopqrstuvwxyz";
+            int ind = 0;
+
+            if(key == null){ key = "a"; }
+
+            if(inputStringtoEncrypt == null){ return ""; }
+
+            for(int i = 0; i < inputStringtoEncrypt.length(); i++){
+                String s = inputStringtoEncrypt.split("")[i];
+                int k = alphabet.indexOf(key.toLowerCase().split("")[ind % key.length()]);
+
+                if(alphabet.contains(s)){
+                    resultString += alphabet.split("")[(alphabet.indexOf(s) + k) % 26];
+                    ++ind;
+                } else if (alphabet.toUpperCase().contains(s)) {
+                    resultString += alphabet.split("")[(alphabet.toUpperCase().indexOf(s) + k) % 26];
+                    ++ind;
+                } else {
+                    resultString += s;
+                }
+            }
+
+            return resultString;
+        }
+
+        static String decrypt( String inputStringtoDecrypt, String key ){
+            String resultString = "";
+            String alphabet = "abcdefghijklmnopqrstuvwxyz";
+            int ind = 0;
+
+            if(key == null){ key = "a"; }
+
+            if(inputStringtoDecrypt == null){ return ""; }
+
+            for(int i = 0; i < inputStringtoDecrypt.length(); i++){
+                String s = inputStringtoDecrypt.split("")[i];
+                int k = alphabet.indexOf(key.toLowerCase().split("")[ind % key.length()]);
+
+                if(alphabet.contains(s)){
+                    if(alphabet.indexOf(s) - k < 0){
+                        resultString += alphabet.split("")[26 + (alphabet.indexOf(s) - k)];
+                    } else {
+                        resultString += alphabet.split("")[(alphabet.indexOf(s) - k) % 26];
+                    }
+                    ++ind;
+                } else if (alphabet.toUpperCase().contains(s)) {
+                    if(alphabet.toUpperCase().indexOf(s) - k < 0){
+                        resultString += alphabet.toUpperCase().split("")[26 + (alphabet.toUpperCase().indexOf(s) - k)];
+                    } else {
+                        resultString += alphabet.toUpperCase().split("")[(alphabet.toUpperCase().indexOf(s) - k) % 26];
+                    }
+                    ++ind;
+                } else {
+                    resultString += s;
+                }
+            }
+
+            return resultString;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package test;
+
+import data.ClackData;
+import data.MessageClackData;
+import main.ClackServer;
+import main.FrameCodec;
+import main.ServerMetrics;
+import main.ServerMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a server in each mode with a small write buffer. A sender sends a burst of small
+ * messages in one write, then a message larger than the write buffer, then a lone message.
+ * Checks that a reading client gets all of them intact and in order, that the burst went out
+ * in far fewer socket writes than frames, and that the lone message is not held back waiting
+ * for more.
+ */
+public class TestWriteCoalescing {
+    private static final int BURST = 500; // Under the outbound limit, so nothing is dropped
+    private static final int WRITE_BUFFER_SIZE = 4096;
+    private static final String LARGE = new String(new char[10 * WRITE_BUFFER_SIZE]).replace('\0', 'x');
+    private static final long LONE_MESSAGE_MILLIS = 50; // Far above the flush delay, far below a Nagle stall
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7540;
+        run(ServerMode.NIO, port);
+        run(ServerMode.BLOCKING, port + 1);
+    }
+
+    private static void run(ServerMode mode, int port) throws IOException, InterruptedException {
+        ClackServer server = new ClackServer(port);
+        server.setMode(mode);
+        server.setWriteBufferSize(WRITE_BUFFER_SIZE);
+        server.startInBackground();
+        ServerMetrics metrics = server.getMetrics();
+        String label = mode + ": ";
+
+        try (Socket sender = new Socket("localhost", port);
+             Socket receiver = new Socket("localhost", port)) {
+            DataInputStream senderIn = FrameCodec.connect(sender, FrameCodec.CODEC_BINARY);
+            DataInputStream receiverIn = FrameCodec.connect(receiver, FrameCodec.CODEC_BINARY);
+            DataOutputStream senderOut = new DataOutputStream(sender.getOutputStream());
+            Thread echoes = new Thread(() -> {
+                try {
+                    while (true) {
+                        FrameCodec.read(senderIn, FrameCodec.CODEC_BINARY);
+                    }
+                } catch (IOException ioe) {
+                    // The sender has disconnected.
+                }
+            });
+            echoes.setDaemon(true);
+            echoes.start();
+
+            send(senderOut, message("warm up"));
+            read(receiverIn);
+            long framesBefore = metrics.getFramesOut();
+            long writesBefore = metrics.getSocketWrites();
+            ByteArrayOutputStream burst = new ByteArrayOutputStream();
+            DataOutputStream burstOut = new DataOutputStream(burst);
+            for (int i = 0; i < BURST; i++) {
+                FrameCodec.write(burstOut, message("burst " + i), FrameCodec.CODEC_BINARY);
+            }
+            senderOut.write(burst.toByteArray());
+            senderOut.flush();
+            boolean inOrder = true;
+            for (int i = 0; i < BURST; i++) {
+                inOrder &= ("burst " + i).equals(read(receiverIn).getData());
+            }
+            while (metrics.getFramesOut() - framesBefore < 2 * BURST) {
+                Thread.sleep(10);
+            }
+            long frames = metrics.getFramesOut() - framesBefore;
+            long writes = metrics.getSocketWrites() - writesBefore;
+            System.out.println(label + "burst received in order: " + inOrder);
+            System.out.println(label + "burst coalesced: " + (writes * 4 < frames)
+                    + " (" + frames + " frames in " + writes + " writes)");
+
+            send(senderOut, message(LARGE));
+            System.out.println(label + "larger than the write buffer arrives whole: "
+                    + LARGE.equals(read(receiverIn).getData()));
+
+            long start = System.nanoTime();
+            send(senderOut, message("lone"));
+            boolean lone = "lone".equals(read(receiverIn).getData());
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.println(label + "lone message not held back: " + (lone && millis < LONE_MESSAGE_MILLIS)
+                    + " (" + millis + " ms)");
+        }
+    }
+
+    private static MessageClackData message(String text) {
+        return new MessageClackData("sender", text, ClackData.CONSTANT_SENDMESSAGE);
+    }
+
+    private static void send(DataOutputStream out, ClackData data) throws IOException {
+        FrameCodec.write(out, data, FrameCodec.CODEC_BINARY);
+    }
+
+    private static ClackData read(DataInputStream in) throws IOException {
+        return FrameCodec.read(in, FrameCodec.CODEC_BINARY);
+    }
+}